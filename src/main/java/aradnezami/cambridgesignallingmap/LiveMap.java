@@ -1,26 +1,57 @@
 package aradnezami.cambridgesignallingmap;
 
-import aradnezami.cambridgesignallingmap.NRFeed.Client.DataServerNRClient;
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.FeedMetrics;
+import aradnezami.cambridgesignallingmap.Metrics.JFR.BatchAppliedEvent;
+import aradnezami.cambridgesignallingmap.Metrics.JmxMetrics;
+import aradnezami.cambridgesignallingmap.Metrics.MetricsEndpoint;
+import aradnezami.cambridgesignallingmap.Metrics.MetricsRegistry;
+import aradnezami.cambridgesignallingmap.NRFeed.CClassEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.BinaryFrameCodec;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NioDataServerNRClient;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
-import aradnezami.cambridgesignallingmap.NRFeed.Client.PythonNRClient;
-import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.ReconnectPolicy;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.RedundantNRClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.ReplayNRClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.ResumingNRClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.StompNRClient;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedOptions;
+import aradnezami.cambridgesignallingmap.NRFeed.Journal.JournalWriter;
 import aradnezami.cambridgesignallingmap.NRFeed.NRFeed;
+import aradnezami.cambridgesignallingmap.NRFeed.Pipeline.EventBatch;
+import aradnezami.cambridgesignallingmap.NRFeed.Pipeline.FeedPipeline;
+import aradnezami.cambridgesignallingmap.NRFeed.Pipeline.OverflowPolicy;
+import aradnezami.cambridgesignallingmap.NRFeed.ResetEvent;
 import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassEvent;
 import aradnezami.cambridgesignallingmap.UI.ConnectionDialogue;
+import aradnezami.cambridgesignallingmap.UI.LatencyDialogue;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.*;
 import aradnezami.cambridgesignallingmap.UI.DiagramPanel;
 import aradnezami.cambridgesignallingmap.UI.LiveDiagramMenuBar;
 import aradnezami.cambridgesignallingmap.UI.LiveDiagramPanel;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import jdk.jfr.EventType;
+import javax.management.JMException;
 import javax.swing.*;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.Socket;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
 
 /**
  * The "main" class of this repository. The creation of an instance of this class is sufficient to run
@@ -28,14 +59,40 @@ import java.util.concurrent.TimeoutException;
  */
 public class LiveMap {
     private static final String DIAGRAM_PATH = "diagram.json";
-    private static final String PYTHON_CLIENT_PATH = "src/main/java/aradnezami/cambridgesignallingmap/NRFeed/Client/PythonCommunications/main.py";
+    // Shared with the python client, which the direct connection used before StompNRClient
+    private static final String STOMP_SECRETS_PATH = "src/main/java/aradnezami/cambridgesignallingmap/NRFeed/Client/PythonCommunications/secrets.json";
     private static final String DATA_SERVER_SECRETS_PATH = "DataServerSecrets.txt";
+    private static final String DATA_SERVER_BINARY_OPTION = "binary";
+    private static final String DATA_SERVER_DEFLATE_OPTION = "deflate";
     private static final String DECODER_MAP_PATH = "SignallingEquipmentMap.csv";
+    // Messages the pipeline holds between reading and decoding. Enough to ride out a long paint or GC pause, so
+    // the reader blocks rather than drop messages, which would leave the diagram wrong until the next refresh
+    private static final int PIPELINE_CAPACITY = 16384;
+    private static final OverflowPolicy PIPELINE_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+    // Dropped connections are replaced without asking the user, who is only told once reconnecting gives up
+    private static final ReconnectPolicy RECONNECT_POLICY = ReconnectPolicy.DEFAULT;
+    // If this system property names a directory, every message received is journaled there, so the raw feed is
+    // kept for looking into incidents afterwards. Unset by default, so nothing is written to disk unless asked for
+    private static final String JOURNAL_DIRECTORY_PROPERTY = "cambridgesignallingmap.journal";
+    private static final String[] REPLAY_SPEED_NAMES = {"Real time", "10x", "60x", "As fast as possible"};
+    private static final double[] REPLAY_SPEEDS = {ReplayNRClient.REAL_TIME, 10, 60, ReplayNRClient.AS_FAST_AS_POSSIBLE};
+    // Metrics are served on localhost:METRICS_PORT/metrics for Prometheus, as well as over JMX
+    private static final int METRICS_PORT = 9464;
+    private static final EventType BATCH_APPLIED = EventType.getEventType(BatchAppliedEvent.class);
+    // Under the user's home rather than the shared temporary directory, where other users could replace the image
+    private static final Path DECODER_MAP_IMAGE_DIRECTORY = Path.of(System.getProperty("user.home"), ".cache", "CambridgeSignallingMap");
 
     @NotNull
     private Thread nrFeedThread;
 
-    private NRFeed feed;
+    private volatile FeedPipeline feed; // Volatile as the metrics gauges read it
+    private DecodeTable decodeTable; // Loaded with the first feed and shared by every feed after
+    private JournalWriter journal; // Opened with the first feed and shared by every feed after. Null if not asked for or failed
+    private boolean isJournalOpened = false;
+    private final FeedLatency latency = new FeedLatency(); // Shared by every feed, so it covers the whole session
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final FeedMetrics feedMetrics = new FeedMetrics(metrics); // Shared by every feed, as latency is
+    private MetricsEndpoint metricsEndpoint; // Null if it could not be started
 
     private DiagramPanel diagram;
     private LiveDiagramPanel diagramPanel;
@@ -57,7 +114,10 @@ public class LiveMap {
 
         try {
             diagram = loadDiagramPanel();
+            diagram.setLatency(latency);
+            diagram.setRepaintCounter(feedMetrics.repaints());
             diagramPanel = new LiveDiagramPanel(diagram);
+            diagramPanel.setFeedLag(feedMetrics.lag());
         } catch (IOException e) {
             JOptionPane.showMessageDialog(null,
                     "The diagram couldn't be loaded, please ensure\n"+ DIAGRAM_PATH + " is present in the resources folder",
@@ -70,7 +130,9 @@ public class LiveMap {
         menuBar.addDisconnectAndCloseListener(e -> disconnectAndClose());
         menuBar.addChangeSourceListener(e -> changeSource());
         menuBar.addResetStateListener(e -> resetState());
+        menuBar.addLatencyListener(e -> LatencyDialogue.display(diagramPanel, latency));
 
+        publishMetrics();
         window = setupWindow(diagramPanel, menuBar);
         window.setVisible(true);
 
@@ -94,17 +156,24 @@ public class LiveMap {
 
 
     /**
-     * A task runnable task that repeatedly polls on the feed and updates the diagram appropriately. To
-     * interrupt this task, interrupt the thread running the task and then call on {@link NRFeed#disconnect()}
+     * A task runnable task that is the publish stage of the feed's pipeline: it repeatedly takes batches of
+     * decoded events and applies them to the diagram on the event dispatch thread. To interrupt this task,
+     * interrupt the thread running the task and then call on {@link FeedPipeline#disconnect()}
      */
     Runnable nrFeedTask = new Runnable() {
         public void run() {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    Event event = feed.nextEvent();
-                    displayEvent(event);
-                    diagramPanel.updateLastMsgClock();
+                    FeedPipeline pipeline = feed;
+                    EventBatch batch = pipeline.takeBatch();
+                    SwingUtilities.invokeAndWait(() -> displayBatch(pipeline, batch));
+                    pipeline.releaseBatch(batch); // Only once displayed or skipped, never while queued
 
+                } catch (InterruptedException e) {
+                    break;
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof RuntimeException cause) {throw cause;}
+                    throw new RuntimeException(e.getCause());
 
                 } catch (NRFeedException e) {
                     menuBar.setConnectionMenuEnabled(false);
@@ -218,11 +287,19 @@ public class LiveMap {
 
 
     /**
-     * Disconnects the feed and disposes of the UI elements. If this thread is interrupted or the feed thread takes too long to exit then
+     * Disconnects the feed, closes the journal and disposes of the UI elements. If this thread is interrupted or the feed thread takes too long to exit then
      * this method will not return.
      */
     private void dispose() {
         interruptFeed();
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {} // Closing anyway, and what was written is kept
+        }
 
         window.setVisible(false);
         window.dispose();
@@ -271,8 +348,17 @@ public class LiveMap {
                 throw new RuntimeException("Will not happen");
             }
 
-            case ConnectionDialogue.DIRECT_CHOSEN ->
-                    new PythonNRClient(PythonNRClient.createPythonProcess(PYTHON_CLIENT_PATH));
+            case ConnectionDialogue.DIRECT_CHOSEN -> {
+                try {
+                    yield setupDirectNRClient();
+                } catch (IOException e) {
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                } catch (NRFeedException e) {
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                }
+            }
 
             case ConnectionDialogue.DATA_SERVER_CHOSEN -> {
                 try {
@@ -286,35 +372,157 @@ public class LiveMap {
                 }
             }
 
+            case ConnectionDialogue.REDUNDANT_CHOSEN -> {
+                NRFeedClient direct = null;
+                try {
+                    direct = setupDirectNRClient();
+                    yield new RedundantNRClient(List.of(direct, setupDataServerNRClient()));
+                } catch (IOException e) {
+                    if (direct != null) {direct.disconnect();}
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                } catch (NRFeedException e) {
+                    if (direct != null) {direct.disconnect();}
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                }
+            }
+
+            case ConnectionDialogue.REPLAY_CHOSEN -> {
+                try {
+                    NRFeedClient replay = setupReplayNRClient();
+                    if (replay == null) { // Cancelled choosing the capture
+                        yield getClient(ConnectionDialogue.displayChangeSource(window));
+                    }
+                    yield replay;
+                } catch (IOException e) {
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                } catch (NRFeedException e) {
+                    source = ConnectionDialogue.displayErrorReconnect(window, e);
+                    yield getClient(source);
+                }
+            }
+
             default -> throw new IllegalArgumentException("Should not happen: Unknown input received from dialogue");
         };
     }
 
 
     /**
-     * Returns the relevant {@link NRFeed} for the given source argument using the {@link ConnectionDialogue}
+     * Returns a started {@link FeedPipeline} for the given source argument using the {@link ConnectionDialogue}
      * constants (eg: {@link ConnectionDialogue#DIRECT_CHOSEN}. If an error occurs the method will prompt the
      * user again itself. Note that if the source is {@link ConnectionDialogue#QUIT_CHOSEN} or
      * {@link ConnectionDialogue#DIALOGUE_CLOSED}, this method will call {@link System#exit(int)} and will fail
      * to return
-     * @return A connected NRFeed chosen by the user
+     * @return A connected and started FeedPipeline chosen by the user
      * @throws FileNotFoundException If the file of the feed's {@link SClassDecoder} could not be loaded
      */
-    private NRFeed getFeed(int source) throws FileNotFoundException {
+    private FeedPipeline getFeed(int source) throws FileNotFoundException {
         NRFeedClient client = getClient(source);
+        // A replay shows the time of the capture, so the clock and lag agree with the messages displayed
+        LongSupplier timeSource = client instanceof ReplayNRClient replay ?
+                replay::currentTimeMillis :
+                System::currentTimeMillis;
+        diagramPanel.setTimeSource(timeSource);
+        feedMetrics.lag().reset(); // The last feed has stopped, so is not recording
+        feedMetrics.lag().setTimeSource(timeSource);
+
+        if (decodeTable == null) {
+            decodeTable = DecodeTable.load(DECODER_MAP_PATH, DECODER_MAP_IMAGE_DIRECTORY);
+        }
+        boolean isReplay = client instanceof ReplayNRClient; // Replays are already recorded, and out of time order
+        if (!isReplay && !isJournalOpened) {
+            isJournalOpened = true;
+            journal = openJournal();
+        }
+        FeedPipeline pipeline = new FeedPipeline(client, new SClassDecoder(decodeTable),
+                PIPELINE_CAPACITY, PIPELINE_OVERFLOW_POLICY,
+                FeedOptions.NONE.withJournal(isReplay ? null : journal).withLatency(latency).withMetrics(feedMetrics));
+        pipeline.start();
+        return pipeline;
+    }
+
+
+    /**
+     * Opens a new {@link JournalWriter} in the directory named by {@link #JOURNAL_DIRECTORY_PROPERTY}. The feed
+     * works without a journal, so if it cannot be opened the user is warned and the feed continues without one
+     * @return The journal, or null if none was asked for or it could not be opened
+     */
+    private @Nullable JournalWriter openJournal() {
+        String property = System.getProperty(JOURNAL_DIRECTORY_PROPERTY);
+        if (property == null || property.isBlank()) {
+            return null;
+        }
+        Path directory = Path.of(property);
+        try {
+            return new JournalWriter(directory, JournalWriter.DEFAULT_SEGMENT_SIZE, JournalWriter.DEFAULT_CAPACITY,
+                    JournalWriter.DEFAULT_MAX_SEGMENTS);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(window,
+                    "The journal couldn't be opened in " + directory.toAbsolutePath() + ":\n" + e.getMessage() +
+                            "\nThe feed will be displayed but not recorded",
+                    "Warning",
+                    JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+    }
+
+
+    /**
+     * Registers the gauges of the current feed's pipeline and publishes {@link #metrics} over JMX and on
+     * {@link #METRICS_PORT}. The map works without them, so if either cannot be published it is skipped
+     */
+    private void publishMetrics() {
+        metrics.gauge("pipeline_message_queue_depth", "Messages read but not yet decoded",
+                () -> feed == null ? 0 : feed.messageQueueDepth());
+        metrics.gauge("pipeline_batch_queue_depth", "Batches decoded but not yet displayed",
+                () -> feed == null ? 0 : feed.batchQueueDepth());
+        metrics.gauge("pipeline_dropped_messages", "Messages dropped by the current feed as decoding fell behind",
+                () -> feed == null ? 0 : feed.droppedMessages());
+
+        try {
+            JmxMetrics.register(metrics);
+        } catch (JMException ignored) {} // Still served on the endpoint
+        try {
+            metricsEndpoint = new MetricsEndpoint(METRICS_PORT, metrics);
+        } catch (IOException ignored) {} // Eg: another instance is running, and still published over JMX
+    }
 
-        SClassDecoder decoder;
-        decoder = new SClassDecoder(DECODER_MAP_PATH);
-        return new NRFeed(client, decoder);
+
+    /**
+     * Returns a {@link StompNRClient} connected directly to the NR servers with the account found in the file at
+     * {@link #STOMP_SECRETS_PATH}, which is reconnected by a {@link ResumingNRClient} whenever the connection is
+     * lost. The subscription is durable, so the NR servers keep the messages sent while reconnecting.
+     * The file holds the JSON array {@code ["USERNAME", "PASSWORD", "HOSTNAME"]}, where HOSTNAME names this
+     * machine's durable subscription
+     * @return A connected client
+     * @throws IOException If the secrets file could not be accessed or was incorrectly formatted
+     */
+    private NRFeedClient setupDirectNRClient() throws IOException {
+        String[] secrets = new ObjectMapper().readValue(Path.of(STOMP_SECRETS_PATH).toFile(), String[].class);
+        if (secrets.length < 3) {
+            throw new IOException("STOMP secrets had fewer than 3 entries");
+        }
+
+        String subscriptionName = secrets[2] + StompNRClient.TOPIC;
+        return new ResumingNRClient(resumeFrom -> new StompNRClient(
+                StompNRClient.getSocket(StompNRClient.HOST, StompNRClient.PORT),
+                secrets[0], secrets[1], subscriptionName, Set.of(NRFeed.AREA)),
+                RECONNECT_POLICY, feedMetrics.reconnects());
     }
 
 
     /**
-     * Returns a {@link DataServerNRClient} connected to the address found in the file at {@link #DATA_SERVER_SECRETS_PATH}
-     * @return A connected DataServerNRClient
+     * Returns a {@link NioDataServerNRClient} connected to the address found in the file at {@link #DATA_SERVER_SECRETS_PATH},
+     * which is reconnected by a {@link ResumingNRClient} whenever the connection is lost, asking the data server to
+     * resume from the last message received.
+     * The file holds {@code HOST,PORT}, optionally followed by the options {@code ,binary} to use the binary
+     * protocol of the data server and {@code ,deflate} to compress the connection
+     * @return A connected client
      * @throws IOException If the data server secrets file could not be accessed or was incorrectly formatted
      */
-    private DataServerNRClient setupDataServerNRClient() throws IOException {
+    private NRFeedClient setupDataServerNRClient() throws IOException {
         String[] secrets;
 
         ClassLoader classLoader = LiveMap.class.getClassLoader();
@@ -325,8 +533,8 @@ public class LiveMap {
             Scanner scanner = new Scanner(inputStream);
 
             secrets = scanner.nextLine().split(",");
-            if (secrets.length != 2) {
-                throw new IOException("Data server secrets had more than 2 comma delimited sections");
+            if (secrets.length < 2) {
+                throw new IOException("Data server secrets had fewer than 2 comma delimited sections");
             }
         }
 
@@ -338,8 +546,54 @@ public class LiveMap {
             throw new IOException("Could not data server secrets parse port number");
         }
 
-        Socket socket = DataServerNRClient.getSocket(host, port);
-        return new DataServerNRClient(socket);
+        int connectionType = BinaryFrameCodec.TEXT_CONNECTION;
+        for (int i = 2; i < secrets.length; i++) {
+            connectionType = switch (secrets[i]) {
+                case DATA_SERVER_BINARY_OPTION -> (connectionType & BinaryFrameCodec.DEFLATE) | BinaryFrameCodec.BINARY_CONNECTION;
+                case DATA_SERVER_DEFLATE_OPTION -> connectionType | BinaryFrameCodec.DEFLATE;
+                default -> throw new IOException("Unknown data server option: " + secrets[i]);
+            };
+        }
+
+        int chosenConnectionType = connectionType;
+        return new ResumingNRClient(resumeFrom -> {
+            SocketChannel channel = NioDataServerNRClient.getChannel(host, port);
+            return new NioDataServerNRClient(channel, null,
+                    NioDataServerNRClient.NO_TIMEOUT, // The feed can be quiet overnight
+                    chosenConnectionType,
+                    resumeFrom == ResumingNRClient.NO_TIMESTAMP ? NioDataServerNRClient.NO_RESUME : resumeFrom);
+        }, RECONNECT_POLICY, feedMetrics.reconnects());
+    }
+
+
+    /**
+     * Prompts the user to choose a capture of the feed and the speed to replay it at, and returns a
+     * {@link ReplayNRClient} replaying it. Captures ending with {@link ReplayNRClient#BINARY_EXTENSION} are
+     * read as binary frames, and any other capture as one message per line
+     * @return A client replaying the capture, or null if the user cancelled either prompt
+     * @throws IOException If the capture could not be mapped
+     */
+    private @Nullable NRFeedClient setupReplayNRClient() throws IOException {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Chose a capture to replay");
+        if (chooser.showOpenDialog(window) != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+
+        Object speedName = JOptionPane.showInputDialog(
+                window,
+                "Chose a replay speed",
+                "Replay",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                REPLAY_SPEED_NAMES,
+                REPLAY_SPEED_NAMES[0]);
+        int speed = List.of(REPLAY_SPEED_NAMES).indexOf(speedName);
+        if (speed == -1) {
+            return null;
+        }
+
+        return new ReplayNRClient(chooser.getSelectedFile().toPath(), REPLAY_SPEEDS[speed]);
     }
 
 
@@ -377,43 +631,96 @@ public class LiveMap {
 
 
     /**
-     * Enacts the provided S-Class event event on the {@link #diagram}
+     * Enacts the events of the batch on the {@link #diagram}, repainting it once the pipeline has no more
+     * batches waiting, and records the latency of publishing the batch. Must be called on the event dispatch
+     * thread. A batch of a pipeline that is no longer the {@link #feed} is skipped, as it may have been queued
+     * before the source changed and the diagram was replaced
+     * @param pipeline The pipeline the batch was taken from
+     * @param batch The batch to display
+     */
+    private void displayBatch(FeedPipeline pipeline, EventBatch batch) {
+        if (feed != pipeline) {
+            return;
+        }
+        BatchAppliedEvent applied = BATCH_APPLIED.isEnabled() ? new BatchAppliedEvent() : null;
+        if (applied != null) { applied.begin(); }
+
+        for (int i = 0; i < batch.size; i++) {
+            displayEvent(batch.events[i]);
+        }
+
+        if (applied != null && applied.shouldCommit()) {
+            applied.events = batch.size;
+            applied.commit();
+        }
+        latency.publish().record(System.nanoTime() - batch.decodedNanos);
+        diagram.markMutated(batch.receivedNanos);
+
+        if (pipeline.batchQueueDepth() == 0) { // Repaint once per burst of messages
+            diagram.repaint();
+            diagramPanel.updateLastMsgClock();
+        }
+    }
+
+    /**
+     * Enacts the provided event on the {@link #diagram}. The diagram is not repainted, so that all events of
+     * a single message or refresh can be repainted together
      * @param event The event to display
-     * @throws IllegalArgumentException If the event had an invalid {@link Event#S_State}, {@link Event#S_Type}
-     * or {@link Event#C_Describer}
+     * @throws IllegalArgumentException If the event had an invalid {@link SClassEvent#state()},
+     * {@link SClassEvent#type()} or {@link CClassEvent#describer()}
      */
-    private void displayEvent(Event event) {
-        if (event.type == 'C') {
-            if (event.C_FromBerth != null) {diagram.setBerth(event.C_FromBerth, "");}
-            if (event.C_ToBerth != null) {diagram.setBerth(event.C_ToBerth, event.C_Describer);}
-        } else if (event.type == 'S') {
-            displaySClassEvent(event);
+    private void displayEvent(FeedEvent event) {
+        if (event instanceof CClassEvent cClass) {
+            diagram.setBerth(FeedMessage.unpackCode(cClass.fromBerth()), "");
+            diagram.setBerth(FeedMessage.unpackCode(cClass.toBerth()), FeedMessage.unpackCode(cClass.describer()));
+        } else if (event instanceof SClassEvent sClass) {
+            displaySClassEvent(sClass);
+        } else if (event instanceof ResetEvent) {
+            displayReset();
         }
+    }
 
-        diagram.repaint();
+    /**
+     * Replaces the diagram with a blank diagram, as the feed lost messages and its state is no longer known.
+     * Later events build the diagram back up
+     */
+    private void displayReset() {
+        try {
+            diagram.setElements(MapLoader.loadMap(LiveMap.DIAGRAM_PATH));
+
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(window,
+                    "The diagram couldn't be loaded, please ensure\n" + DIAGRAM_PATH + " is present in the resources folder",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            disconnectAndClose();
+        }
     }
 
 
     /**
-     * Enacts the provided S-Class event event on the {@link #diagram}
+     * Enacts the provided S-Class event event on the {@link #diagram}, resolving the name of its equipment in
+     * {@link #decodeTable}, which every feed is decoded with
      * @param event The event to display
-     * @throws IllegalArgumentException If the event had an invalid {@link Event#S_State} or {@link Event#S_Type}
+     * @throws IllegalArgumentException If the event had an invalid {@link SClassEvent#state()} or
+     * {@link SClassEvent#type()}
      */
-    @SuppressWarnings("DataFlowIssue")
-    private void displaySClassEvent(Event event) {
-        switch (event.S_Type) {
-            case Signal.ASPECT_TYPE: diagram.setSignalAspect(event.S_Id, event.S_State); break;
-            case Signal.ROUTED_TYPE: diagram.setSignalRouting(event.S_Id, event.S_State); break;
-            case Point.TYPE: diagram.setPointState(event.S_Id, event.S_State); break;
-            case TrackCircuit.TYPE: diagram.setTrackCircuitState(event.S_Id, event.S_State); break;
+    private void displaySClassEvent(SClassEvent event) {
+        String id = decodeTable.equipmentName(event.equipment());
+        int state = event.state();
+        switch (event.type()) {
+            case Signal.ASPECT_TYPE: diagram.setSignalAspect(id, state); break;
+            case Signal.ROUTED_TYPE: diagram.setSignalRouting(id, state); break;
+            case Point.TYPE: diagram.setPointState(id, state); break;
+            case TrackCircuit.TYPE: diagram.setTrackCircuitState(id, state); break;
 
             case Route.MAIN_TYPE,
                  Route.SHUNT_TYPE,
                  Route.CALL_ON_TYPE:
-                 diagram.setRouteState(event.S_Id, event.S_State); break;
+                 diagram.setRouteState(id, state); break;
 
             default:
-                throw new IllegalArgumentException(event.S_Type + " is not a valid S-Class event to display");
+                throw new IllegalArgumentException(event.type() + " is not a valid S-Class event to display");
         }
     }
 
@@ -0,0 +1,38 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Counter only ever goes up. It is striped across cells (see {@link LongAdder}), so any number of threads
+ * can count at once without contending with each other, at the cost of reads summing every cell.
+ * Counters are created by a {@link MetricsRegistry}.
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+
+    Counter() {}
+
+
+    /**
+     * Adds one to the count
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Adds to the count
+     * @param amount The amount to add. Must not be negative
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * @return The count so far. Not an atomic snapshot if other threads are counting at the same time
+     */
+    public long get() {
+        return count.sum();
+    }
+}
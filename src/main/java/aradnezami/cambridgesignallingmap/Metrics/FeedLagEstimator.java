@@ -0,0 +1,142 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The FeedLagEstimator estimates how far behind the feed is running upstream of this application, by comparing
+ * the timestamp Network Rail gives each message with the local time it was received at. The difference between
+ * them, the offset, is the sum of:
+ * <ul>
+ * <li>The skew of the local clock from Network Rail's clock</li>
+ * <li>The time the message took to arrive when the feed is running at its best</li>
+ * <li>The lag: how much longer than that the message took, as the feed was running behind</li>
+ * </ul>
+ * <p>
+ * One-way timestamps cannot tell the first two apart, so they are estimated together as the skew: the smallest
+ * offset over the last {@link #SKEW_WINDOW_MILLIS}, as the messages which arrive the fastest were delayed the
+ * least. The lag is then the offset of recent messages beyond the skew. Heartbeats of the train describers keep
+ * the estimate up to date when no other messages are sent.
+ * <p>
+ * The time spent inside this application before being recorded is taken off, so the lag is only that of the
+ * feed and its connection (see {@link FeedLatency} for the latency of this application). Messages are recorded
+ * by one thread, and the estimates may be read from any thread.
+ */
+public final class FeedLagEstimator {
+    /** How far back the smallest offset is taken from as the skew */
+    public static final long SKEW_WINDOW_MILLIS = 10 * 60_000L;
+    private static final int WINDOW_BUCKETS = 10;
+    private static final long BUCKET_MILLIS = SKEW_WINDOW_MILLIS / WINDOW_BUCKETS;
+    /** The weight of each message in the offset of recent messages */
+    private static final double SMOOTHING = 0.1;
+    /** The estimates are unknown once no message has been recorded for this long */
+    private static final long STALE_NANOS = 5 * 60_000_000_000L;
+
+    /** The value of the estimates when unknown. The same as {@link MetricsRegistry#ABSENT} */
+    public static final long UNKNOWN = MetricsRegistry.ABSENT;
+
+    // The smallest offset of each bucket of the skew window, and the index of the bucket it is of
+    private final long[] bucketMinimums = new long[WINDOW_BUCKETS];
+    private final long[] bucketIndexes = new long[WINDOW_BUCKETS];
+
+    private volatile LongSupplier timeSource = System::currentTimeMillis;
+    private double smoothedOffset;
+    private volatile long offsetMillis = UNKNOWN;
+    private volatile long skewMillis = UNKNOWN;
+    private volatile long lastRecordedNanos;
+
+
+    public FeedLagEstimator() {
+        reset();
+    }
+
+
+    /**
+     * Records the receipt of a message
+     * @param timestamp The timestamp of the message given by Network Rail, in milliseconds since the epoch.
+     *                  Messages without one (-1) are skipped
+     * @param receivedNanos The {@link System#nanoTime()} at which the message was received, or 0 if it was not
+     *                      timed, in which case it is taken to have been received now
+     */
+    public void record(long timestamp, long receivedNanos) {
+        if (timestamp < 0) {
+            return;
+        }
+        long nowNanos = System.nanoTime();
+        long receivedMillis = timeSource.getAsLong();
+        if (receivedNanos != 0) {
+            receivedMillis -= (nowNanos - receivedNanos) / 1_000_000L;
+        }
+        long offset = receivedMillis - timestamp;
+
+        long bucketIndex = Math.floorDiv(receivedMillis, BUCKET_MILLIS);
+        int bucket = (int) Math.floorMod(bucketIndex, (long) WINDOW_BUCKETS);
+        if (bucketIndexes[bucket] != bucketIndex) {
+            bucketIndexes[bucket] = bucketIndex;
+            bucketMinimums[bucket] = offset;
+        } else {
+            bucketMinimums[bucket] = Math.min(bucketMinimums[bucket], offset);
+        }
+        long skew = Long.MAX_VALUE;
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            long age = bucketIndex - bucketIndexes[i];
+            if (age >= 0 && age < WINDOW_BUCKETS) {
+                skew = Math.min(skew, bucketMinimums[i]);
+            }
+        }
+
+        smoothedOffset = offsetMillis == UNKNOWN ? offset : smoothedOffset + SMOOTHING * (offset - smoothedOffset);
+        skewMillis = skew;
+        offsetMillis = Math.round(smoothedOffset);
+        lastRecordedNanos = nowNanos;
+    }
+
+    /**
+     * Forgets every message recorded, such as when the source of the feed changes. Must not be called while a
+     * message is being recorded
+     */
+    public void reset() {
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            bucketIndexes[i] = Long.MIN_VALUE / 2; // Out of the window of any bucket
+        }
+        offsetMillis = UNKNOWN;
+        skewMillis = UNKNOWN;
+    }
+
+    /**
+     * Sets where the local time of receipt is read from, such as the virtual clock of a replayed feed
+     * @param timeSource Returns the current time in milliseconds since the epoch, such as
+     *                   {@link System#currentTimeMillis()}
+     */
+    public void setTimeSource(@NotNull LongSupplier timeSource) {
+        this.timeSource = timeSource;
+    }
+
+
+    /**
+     * @return How long the feed is currently running behind its best in milliseconds, or {@link #UNKNOWN} if no
+     * message has been recorded recently
+     */
+    public long lagMillis() {
+        long offset = offsetMillis;
+        long skew = skewMillis;
+        if (offset == UNKNOWN || skew == UNKNOWN || isStale()) {
+            return UNKNOWN;
+        }
+        return Math.max(0, offset - skew);
+    }
+
+    /**
+     * @return The skew of the local clock ahead of Network Rail's, plus the time the fastest messages took to
+     * arrive, in milliseconds, or {@link #UNKNOWN} if no message has been recorded recently
+     */
+    public long skewMillis() {
+        return isStale() ? UNKNOWN : skewMillis;
+    }
+
+
+    private boolean isStale() {
+        return System.nanoTime() - lastRecordedNanos > STALE_NANOS;
+    }
+}
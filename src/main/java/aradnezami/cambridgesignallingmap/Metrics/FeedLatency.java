@@ -0,0 +1,65 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The latencies of each stage a message of the feed passes through, from being read from the client to being
+ * painted on the diagram. Every time is a {@link System#nanoTime()}, starting from the time the message was
+ * received (see {@link aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage#receivedNanos}):
+ * <ul>
+ * <li>{@link #decode()}: From being received to its events being decoded, including waiting for the decoder</li>
+ * <li>{@link #publish()}: From being decoded to its events being applied to the elements of the diagram,
+ * including waiting for the event dispatch thread</li>
+ * <li>{@link #paint()}: From being applied to the diagram being painted with them, including waiting for the
+ * repaint</li>
+ * <li>{@link #total()}: From being received to being painted, which is how stale the diagram on screen is</li>
+ * </ul>
+ * <p>
+ * A burst of messages decoded together is timed by its oldest message, so the latencies are those of the
+ * stalest message on screen.
+ */
+public final class FeedLatency {
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram publish = new LatencyHistogram();
+    private final LatencyHistogram paint = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+
+    /**
+     * @return The latencies from being received to being decoded
+     */
+    public @NotNull LatencyHistogram decode() {
+        return decode;
+    }
+
+    /**
+     * @return The latencies from being decoded to being applied to the diagram
+     */
+    public @NotNull LatencyHistogram publish() {
+        return publish;
+    }
+
+    /**
+     * @return The latencies from being applied to the diagram to being painted
+     */
+    public @NotNull LatencyHistogram paint() {
+        return paint;
+    }
+
+    /**
+     * @return The latencies from being received to being painted
+     */
+    public @NotNull LatencyHistogram total() {
+        return total;
+    }
+
+    /**
+     * Forgets the latencies of every stage
+     */
+    public void reset() {
+        decode.reset();
+        publish.reset();
+        paint.reset();
+        total.reset();
+    }
+}
@@ -0,0 +1,143 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.CClassEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.ResetEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassEvent;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Route;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Signal;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The counters of the feed, registered in a {@link MetricsRegistry}:
+ * <ul>
+ * <li>{@code feed_messages_total{class}}: Messages received of each class (see {@link FeedMessage#type})</li>
+ * <li>{@code feed_events_total{type}}: Events decoded of each S-Class type (Eg: {@link Point#TYPE}), and
+ * berth and reset events</li>
+ * <li>{@code feed_unmapped_bits_total}: Changed S-Class bits with no equipment mapped to them</li>
+ * <li>{@code feed_reconnects_total}: Dead connections replaced</li>
+ * <li>{@code diagram_repaints_total}: Repaints of the diagram</li>
+ * <li>{@code feed_lag_millis} and {@code feed_clock_skew_millis}: The estimates of the {@link #lag()} of the
+ * feed, while known</li>
+ * </ul>
+ * <p>
+ * Rates, such as messages per second, are left to whatever reads the counters.
+ */
+public final class FeedMetrics {
+    private static final String MESSAGES = "feed_messages_total";
+    private static final String MESSAGES_HELP = "Messages received from the feed, by class";
+    private static final String EVENTS = "feed_events_total";
+    private static final String EVENTS_HELP = "Events decoded from the feed, by type";
+
+    private final Counter sClassMessages;
+    private final Counter cClassMessages;
+    private final Counter refreshMessages;
+    private final Counter heartbeatMessages;
+
+    /** Indexed by S-Class type */
+    private final Counter[] sClassEvents = new Counter[Signal.ROUTED_TYPE + 1];
+    private final Counter berthEvents;
+    private final Counter resetEvents;
+
+    private final Counter unmappedBits;
+    private final Counter reconnects;
+    private final Counter repaints;
+
+    private final FeedLagEstimator lag = new FeedLagEstimator();
+
+
+    /**
+     * Registers the counters of the feed in the given registry. Any number of instances may share a registry,
+     * in which case they share their counters, but the gauges are those of the last instance created
+     * @param registry The registry to register in
+     */
+    public FeedMetrics(@NotNull MetricsRegistry registry) {
+        sClassMessages = registry.counter(MESSAGES, MESSAGES_HELP, "class", "S");
+        cClassMessages = registry.counter(MESSAGES, MESSAGES_HELP, "class", "C");
+        refreshMessages = registry.counter(MESSAGES, MESSAGES_HELP, "class", "R");
+        heartbeatMessages = registry.counter(MESSAGES, MESSAGES_HELP, "class", "H");
+
+        sClassEvents[Signal.ASPECT_TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "signal_aspect");
+        sClassEvents[Signal.ROUTED_TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "signal_routed");
+        sClassEvents[Point.TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "point");
+        sClassEvents[TrackCircuit.TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "track_circuit");
+        sClassEvents[Route.MAIN_TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "main_route");
+        sClassEvents[Route.SHUNT_TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "shunt_route");
+        sClassEvents[Route.CALL_ON_TYPE] = registry.counter(EVENTS, EVENTS_HELP, "type", "call_on_route");
+        berthEvents = registry.counter(EVENTS, EVENTS_HELP, "type", "berth");
+        resetEvents = registry.counter(EVENTS, EVENTS_HELP, "type", "reset");
+
+        unmappedBits = registry.counter("feed_unmapped_bits_total",
+                "Changed S-Class bits with no equipment mapped to them");
+        reconnects = registry.counter("feed_reconnects_total", "Dead connections to the feed replaced");
+        repaints = registry.counter("diagram_repaints_total", "Repaints of the diagram");
+
+        registry.gauge("feed_lag_millis", "How far behind its best the feed is running upstream", lag::lagMillis);
+        registry.gauge("feed_clock_skew_millis", "Skew of the local clock ahead of the feed's, plus its fastest transit",
+                lag::skewMillis);
+    }
+
+
+    /**
+     * @param type The class of the message, Eg: {@link FeedMessage#S_CLASS}
+     * @return The counter of messages received of the class
+     * @throws IllegalArgumentException If the class is unknown
+     */
+    public @NotNull Counter messages(char type) {
+        return switch (type) {
+            case FeedMessage.S_CLASS -> sClassMessages;
+            case FeedMessage.C_CLASS -> cClassMessages;
+            case FeedMessage.REFRESH -> refreshMessages;
+            case FeedMessage.HEARTBEAT -> heartbeatMessages;
+            default -> throw new IllegalArgumentException("Unknown message class: " + type);
+        };
+    }
+
+    /**
+     * Counts a decoded event by its type
+     * @param event The event
+     */
+    public void countEvent(@NotNull FeedEvent event) {
+        if (event instanceof CClassEvent) {
+            berthEvents.increment();
+        } else if (event instanceof ResetEvent) {
+            resetEvents.increment();
+        } else if (event instanceof SClassEvent sClass) {
+            int type = sClass.type();
+            if (type >= 0 && type < sClassEvents.length && sClassEvents[type] != null) {
+                sClassEvents[type].increment();
+            }
+        }
+    }
+
+    /**
+     * @return The estimate of the lag of the feed, to which every message received is recorded
+     */
+    public @NotNull FeedLagEstimator lag() {
+        return lag;
+    }
+
+    /**
+     * @return The counter of changed S-Class bits with no equipment mapped to them
+     */
+    public @NotNull Counter unmappedBits() {
+        return unmappedBits;
+    }
+
+    /**
+     * @return The counter of dead connections replaced
+     */
+    public @NotNull Counter reconnects() {
+        return reconnects;
+    }
+
+    /**
+     * @return The counter of repaints of the diagram
+     */
+    public @NotNull Counter repaints() {
+        return repaints;
+    }
+}
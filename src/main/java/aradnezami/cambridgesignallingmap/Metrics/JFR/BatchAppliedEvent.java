@@ -0,0 +1,17 @@
+package aradnezami.cambridgesignallingmap.Metrics.JFR;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded by Java Flight Recorder each time a batch of events is applied to the elements of the diagram on the
+ * event dispatch thread. Its duration is the time taken to apply them.
+ */
+@Name("aradnezami.cambridgesignallingmap.BatchApplied")
+@Label("Batch Applied")
+@Description("A batch of decoded events applied to the diagram")
+@Category({"Cambridge Signalling Map", "Render"})
+@StackTrace(false)
+public final class BatchAppliedEvent extends Event {
+    @Label("Events")
+    public int events;
+}
@@ -0,0 +1,23 @@
+package aradnezami.cambridgesignallingmap.Metrics.JFR;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded by Java Flight Recorder each time an {@link aradnezami.cambridgesignallingmap.NRFeed.NRFeed} decodes
+ * a C-Class message: a berth step, cancel or interpose.
+ */
+@Name("aradnezami.cambridgesignallingmap.BerthStep")
+@Label("Berth Step")
+@Description("A C-Class message decoded into an event")
+@Category({"Cambridge Signalling Map", "Decode"})
+@StackTrace(false)
+public final class BerthStepEvent extends Event {
+    @Label("From Berth")
+    public String fromBerth;
+
+    @Label("To Berth")
+    public String toBerth;
+
+    @Label("Describer")
+    public String describer;
+}
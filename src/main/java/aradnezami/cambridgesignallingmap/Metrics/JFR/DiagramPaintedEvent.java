@@ -0,0 +1,17 @@
+package aradnezami.cambridgesignallingmap.Metrics.JFR;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded by Java Flight Recorder each time the diagram is painted. Its duration is the time taken to paint it.
+ */
+@Name("aradnezami.cambridgesignallingmap.DiagramPainted")
+@Label("Diagram Painted")
+@Description("The diagram painted")
+@Category({"Cambridge Signalling Map", "Render"})
+@StackTrace(false)
+public final class DiagramPaintedEvent extends Event {
+    @Label("Elements")
+    @Description("Elements drawn, of every kind")
+    public int elements;
+}
@@ -0,0 +1,40 @@
+package aradnezami.cambridgesignallingmap.Metrics.JFR;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.jetbrains.annotations.NotNull;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded by Java Flight Recorder each time the reader of a
+ * {@link aradnezami.cambridgesignallingmap.NRFeed.Pipeline.FeedPipeline} receives a message from its client.
+ * Its duration is the time spent waiting for the message.
+ */
+@Name("aradnezami.cambridgesignallingmap.MessageReceived")
+@Label("Message Received")
+@Description("A message of the feed received from the client")
+@Category({"Cambridge Signalling Map", "Feed"})
+@StackTrace(false)
+public final class MessageReceivedEvent extends Event {
+    @Label("Type")
+    @Description("S, C, R (refresh marker) or H (heartbeat)")
+    public char type;
+
+    @Label("Area")
+    public String area;
+
+    @Label("Feed Timestamp")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    public long timestamp;
+
+
+    /**
+     * Sets the fields of the event from the message
+     * @param message The message received
+     */
+    public void set(@NotNull FeedMessage message) {
+        type = message.type;
+        area = message.area == FeedMessage.NO_AREA ? null : FeedMessage.unpackCode(message.area);
+        timestamp = message.timestamp;
+    }
+}
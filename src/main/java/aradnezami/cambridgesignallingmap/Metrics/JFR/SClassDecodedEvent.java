@@ -0,0 +1,27 @@
+package aradnezami.cambridgesignallingmap.Metrics.JFR;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded by Java Flight Recorder each time an {@link aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder}
+ * decodes an S-Class message outside of a refresh. Its duration is the time taken to decode it.
+ */
+@Name("aradnezami.cambridgesignallingmap.SClassDecoded")
+@Label("S-Class Decoded")
+@Description("An S-Class message decoded into events")
+@Category({"Cambridge Signalling Map", "Decode"})
+@StackTrace(false)
+public final class SClassDecodedEvent extends Event {
+    @Label("Address")
+    public int address;
+
+    @Label("Data")
+    public int data;
+
+    @Label("Changed Bits")
+    @Description("Bits of the byte which changed. Every bit changes the first time a byte is updated")
+    public int changedBits;
+
+    @Label("Events Emitted")
+    public int eventsEmitted;
+}
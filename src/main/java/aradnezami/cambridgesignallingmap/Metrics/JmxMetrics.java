@@ -0,0 +1,106 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * JmxMetrics publishes a {@link MetricsRegistry} as a single MBean, with one read-only {@code long} attribute
+ * per metric (named as {@link MetricsRegistry#values()} names them), so that the metrics can be watched with
+ * JConsole or any other JMX client. The attributes are read from the registry on every request, so metrics
+ * registered after the MBean are published too.
+ */
+public final class JmxMetrics implements DynamicMBean {
+    /** The name the MBean is registered under by {@link #register(MetricsRegistry)} */
+    public static final String OBJECT_NAME = "aradnezami.cambridgesignallingmap:type=Metrics";
+
+    private final MetricsRegistry registry;
+
+
+    /**
+     * @param registry The metrics to publish
+     */
+    public JmxMetrics(@NotNull MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+
+    /**
+     * Registers an MBean of the given metrics with the platform MBean server under {@link #OBJECT_NAME},
+     * replacing any registered before
+     * @param registry The metrics to publish
+     * @throws JMException If the MBean could not be registered
+     */
+    public static void register(@NotNull MetricsRegistry registry) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(new JmxMetrics(registry), name);
+    }
+
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = registry.values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No metric named " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> values = registry.values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Metrics are read-only
+     * @throws AttributeNotFoundException Always
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    /**
+     * Metrics are read-only
+     * @return An empty list, as no attribute is set
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * There are no operations
+     * @throws ReflectionException Always
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Long> values = registry.values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+        }
+        return new MBeanInfo(JmxMetrics.class.getName(), "Metrics of the Cambridge Signalling Map",
+                attributes, null, null, null);
+    }
+}
@@ -0,0 +1,132 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts latencies in a fixed number of buckets, so that recording a latency never allocates
+ * and the memory used does not grow however many are recorded. Percentiles can be read at any time.
+ * <p>
+ * The buckets are log-linear: every power of two is split into {@link #SUB_BUCKETS} buckets of equal width, so
+ * a latency is known to within about 6% of its value, from a few nanoseconds up to centuries. Latencies below
+ * {@link #SUB_BUCKETS} nanoseconds are counted exactly.
+ * <p>
+ * Latencies may be recorded by any number of threads while others read percentiles or reset the histogram.
+ * Reads are not atomic snapshots, so a latency recorded during a read may or may not be counted by it.
+ */
+public final class LatencyHistogram {
+    /** Buckets per power of two */
+    static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    /** Enough buckets for latencies up to {@link Long#MAX_VALUE} */
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a latency
+     * @param nanos The latency in nanoseconds. Negative latencies, as the clocks of different threads can
+     *              give, are recorded as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        sum.addAndGet(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Forgets every latency recorded
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+
+    /**
+     * @return The number of latencies recorded
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency that the given percentage of latencies recorded are at or below. As latencies are
+     * counted in buckets, the highest latency of the bucket is returned
+     * @param percentile The percentage, from 0 to 100
+     * @return The latency in nanoseconds, or 0 if none have been recorded
+     * @throws IllegalArgumentException If the percentile is not between 0 and 100
+     */
+    public long percentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, not " + percentile);
+        }
+
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), max());
+            }
+        }
+        return max(); // Counted whilst reading
+    }
+
+    /**
+     * @return The highest latency recorded in nanoseconds, or 0 if none have been recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean latency recorded in nanoseconds, or 0 if none have been recorded
+     */
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+
+    /**
+     * @return The bucket counting the latency
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @return The highest latency counted by the bucket
+     */
+    static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
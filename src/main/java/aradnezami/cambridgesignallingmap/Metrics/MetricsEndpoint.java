@@ -0,0 +1,78 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The MetricsEndpoint serves a {@link MetricsRegistry} over HTTP on the loopback interface, in the Prometheus
+ * text format, so that it can be scraped by Prometheus or simply read with {@code curl localhost:PORT/metrics}.
+ * It is only reachable from this machine. Requests are served by a single thread of the endpoint's own, so
+ * scraping never runs on the feed's threads.
+ */
+public final class MetricsEndpoint implements Closeable {
+    /** The path the metrics are served at */
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final MetricsRegistry registry;
+
+
+    /**
+     * Listens on the loopback interface and starts serving the metrics
+     * @param port The port to listen on, or 0 for any free port. See {@link #port()}
+     * @param registry The metrics to serve
+     * @throws IOException If the port could not be listened on
+     */
+    public MetricsEndpoint(int port, @NotNull MetricsRegistry registry) throws IOException {
+        this.registry = registry;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::scrape);
+        server.start();
+    }
+
+
+    /**
+     * @return The port the endpoint is listening on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving the metrics. Calling this method when closed has no effect
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A MetricsRegistry holds the named {@link Counter}s and gauges of the application, so that they can be
+ * published together (see {@link JmxMetrics} and {@link MetricsEndpoint}). Metrics are named as Prometheus
+ * names them, Eg: {@code feed_messages_total}, and a metric may be split by the value of one label, Eg:
+ * {@code feed_messages_total{class="S"}}.
+ * <p>
+ * Registering a metric takes a lock, so metrics should be registered once and kept. Counting with a registered
+ * {@link Counter} never touches the registry. Gauges are read whenever the metrics are published, from the
+ * publishing thread, so they must be safe to read from any thread.
+ */
+public final class MetricsRegistry {
+    /** Returned by a gauge whose value is not known, which is then left out when the metrics are published */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+
+    /**
+     * A metric and every value of its label
+     */
+    private record Family(String name, String help, boolean isCounter, @Nullable String label,
+                          Map<String, Object> members) {}
+
+
+    /**
+     * Returns the counter of the given name, registering it if it has not been already
+     * @param name The name of the counter, which by convention ends with {@code _total}
+     * @param help A description of what is counted
+     * @return The counter
+     * @throws IllegalArgumentException If the name is not a valid metric name or is already a gauge or a
+     * labelled counter
+     */
+    public synchronized @NotNull Counter counter(@NotNull String name, @NotNull String help) {
+        return (Counter) register(name, help, true, null, "", Counter::new);
+    }
+
+    /**
+     * Returns the counter of the given name and label value, registering it if it has not been already
+     * @param name The name of the counter, which by convention ends with {@code _total}
+     * @param help A description of what is counted, common to every value of the label
+     * @param label The name of the label splitting the counter, Eg: {@code class}
+     * @param value The value of the label for this counter
+     * @return The counter
+     * @throws IllegalArgumentException If the name or label is not a valid metric name or the name is already a
+     * gauge or a counter with a different label
+     */
+    public synchronized @NotNull Counter counter(@NotNull String name, @NotNull String help,
+                                                 @NotNull String label, @NotNull String value) {
+        return (Counter) register(name, help, true, label, value, Counter::new);
+    }
+
+    /**
+     * Registers a gauge, which is read each time the metrics are published. Registering a gauge of the same
+     * name again replaces it
+     * @param name The name of the gauge
+     * @param help A description of what is measured
+     * @param gauge Reads the value of the gauge, or {@link #ABSENT}. Called from the thread publishing the metrics
+     * @throws IllegalArgumentException If the name is not a valid metric name or is already a counter
+     */
+    public synchronized void gauge(@NotNull String name, @NotNull String help, @NotNull LongSupplier gauge) {
+        register(name, help, false, null, "", () -> gauge);
+        families.get(name).members().put("", gauge);
+    }
+
+
+    /**
+     * Reads every metric, except gauges that are {@link #ABSENT}. A metric split by a label has an entry for each
+     * value of the label, named {@code NAME.VALUE}
+     * @return The value of each metric by name, in the order they were registered
+     */
+    public synchronized @NotNull Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Family family : families.values()) {
+            for (Map.Entry<String, Object> member : family.members().entrySet()) {
+                String name = family.label() == null ? family.name() : family.name() + "." + member.getKey();
+                long value = read(member.getValue());
+                if (value != ABSENT) {
+                    values.put(name, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4), except gauges that are
+     * {@link #ABSENT}
+     * @return The metrics, each line ending with a line feed
+     */
+    public synchronized @NotNull String scrape() {
+        StringBuilder text = new StringBuilder();
+        for (Family family : families.values()) {
+            text.append("# HELP ").append(family.name()).append(' ').append(escape(family.help(), false)).append('\n');
+            text.append("# TYPE ").append(family.name()).append(family.isCounter() ? " counter\n" : " gauge\n");
+            for (Map.Entry<String, Object> member : family.members().entrySet()) {
+                long value = read(member.getValue());
+                if (value == ABSENT) { continue; }
+
+                text.append(family.name());
+                if (family.label() != null) {
+                    text.append('{').append(family.label()).append("=\"")
+                            .append(escape(member.getKey(), true)).append("\"}");
+                }
+                text.append(' ').append(value).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+
+    private Object register(String name, String help, boolean isCounter, @Nullable String label, String value,
+                            Supplier<Object> create) {
+        if (!NAME.matcher(name).matches() || (label != null && !NAME.matcher(label).matches())) {
+            throw new IllegalArgumentException("Invalid metric name: " + name + (label == null ? "" : "{" + label + "}"));
+        }
+
+        Family family = families.computeIfAbsent(name,
+                n -> new Family(n, help, isCounter, label, new LinkedHashMap<>()));
+        if (family.isCounter() != isCounter || !Objects.equals(family.label(), label)) {
+            throw new IllegalArgumentException(name + " is already registered as a different metric");
+        }
+        return family.members().computeIfAbsent(value, v -> create.get());
+    }
+
+    private static long read(Object member) {
+        return member instanceof Counter counter ? counter.get() : ((LongSupplier) member).getAsLong();
+    }
+
+    private static String escape(String text, boolean isLabelValue) {
+        text = text.replace("\\", "\\\\").replace("\n", "\\n");
+        return isLabelValue ? text.replace("\"", "\\\"") : text;
+    }
+}
@@ -0,0 +1,26 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An AreaEventSink receives the decoded S-Class events of a {@link MultiAreaDecoder}, tagged with the
+ * train describer area they were decoded in. Events of one area are passed in the order their messages
+ * were received, always from one thread at a time. Events of different areas may be passed concurrently
+ * from different threads, so implementations must be thread safe.
+ *
+ * @see SClassEventSink
+ */
+@FunctionalInterface
+public interface AreaEventSink {
+    /**
+     * Accepts one decoded S-Class event
+     * @param area The train describer area of the event (Eg: {@code CA})
+     * @param timestamp The timestamp provided by the feed, or -1 for no timestamp
+     * @param type The type of signalling equipment affected (See {@link Event#S_Type})
+     * @param state The state of signalling equipment affected (See {@link Event#S_State})
+     * @param id The name of equipment affected
+     */
+    void accept(@NotNull String area, long timestamp, @MagicConstant int type, @MagicConstant int state,
+                @NotNull String id);
+}
@@ -0,0 +1,32 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The compact form of a C-Class {@link Event}. The berths and describer are packed as by
+ * {@link FeedMessage#packCode(String)}
+ *
+ * @param timestamp The timestamp provided by the feed, or -1 for no timestamp
+ * @param fromBerth The berth that the train describer is moving from. {@code NONE} if there is no from berth
+ * @param toBerth The berth that the train describer is moving to. {@code NONE} if there is no to berth
+ * @param describer The train describer
+ */
+public record CClassEvent(long timestamp, int fromBerth, int toBerth, int describer) implements FeedEvent {
+
+    public CClassEvent {
+        if (timestamp < -1) {throw new IllegalArgumentException("timestamp must not be below -1");}
+    }
+
+
+    /**
+     * @param table Unused, as C-Class events have no equipment
+     */
+    @Override
+    public @NotNull Event toEvent(@NotNull DecodeTable table) {
+        return new Event(timestamp,
+                FeedMessage.unpackCode(fromBerth),
+                FeedMessage.unpackCode(toBerth),
+                FeedMessage.unpackCode(describer));
+    }
+}
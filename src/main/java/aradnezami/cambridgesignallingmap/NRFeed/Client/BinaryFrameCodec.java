@@ -0,0 +1,285 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The BinaryFrameCodec encodes and decodes the binary protocol of the data server, in which each message is a
+ * frame of a few bytes rather than a line of text. A client asks for the binary protocol by sending
+ * {@link #BINARY_CONNECTION} as its connection type. The connection type may also have the {@link #DEFLATE} flag,
+ * for text or binary messages. The data server acknowledges any connection type other than a plain
+ * {@link #TEXT_CONNECTION} by replying with the {@link #VERSION} of the protocol it speaks.
+ * <p>
+ * A client reconnecting after losing its connection may add the {@link #RESUME} flag, and follow the connection
+ * type with the timestamp (8) of the last message it received. After the version, the data server then replies
+ * {@link #RESUMED} if it replays every message after that timestamp before forwarding the feed, or
+ * {@link #NOT_RESUMED} if it cannot, in which case it only forwards the feed from now on.
+ * <p>
+ * All numbers are big-endian. Codes (berths, describers and areas) are packed as by
+ * {@link FeedMessage#packCode(String)}. A frame starts with its type:
+ * <ul>
+ * <li>{@code S}: timestamp (8), address (1), byte (1). Always 11 bytes</li>
+ * <li>{@code C}: length of the rest of the frame (1), timestamp (8), from berth (4), to berth (4), describer (4).
+ * Bytes beyond these are skipped, so later versions can extend the frame</li>
+ * <li>{@code R}: timestamp (8), {@link FeedMessage#REFRESH_START}, {@link FeedMessage#REFRESH_END} or
+ * {@link FeedMessage#RESET} (1)</li>
+ * <li>{@code H}: timestamp (8). A heartbeat ({@link FeedMessage#HEARTBEAT})</li>
+ * <li>{@code B}: area (4), length of the enclosed frames (4). An envelope of S, C, R and H frames, all of which take
+ * the area of the envelope. Frames outside an envelope have {@link FeedMessage#NO_AREA}</li>
+ * </ul>
+ * <p>
+ * An instance decodes one stream of frames, as it tracks the envelope the stream is in.
+ */
+public final class BinaryFrameCodec {
+    /** The connection type asking the data server to forward text messages */
+    public static final int TEXT_CONNECTION = 1;
+    /** The connection type asking the data server to forward binary frames */
+    public static final int BINARY_CONNECTION = 2;
+    /**
+     * Flag of the connection type asking the data server to compress everything it sends after its acknowledgement
+     * as one DEFLATE stream, sync-flushed after every batch of messages
+     */
+    public static final int DEFLATE = 0x10;
+    /**
+     * Flag of the connection type asking the data server to replay the messages after a timestamp, which the
+     * client sends straight after the connection type
+     */
+    public static final int RESUME = 0x20;
+    /** Version of the binary protocol. Sent by the data server to acknowledge a connection type */
+    public static final int VERSION = 1;
+    /** Sent by the data server after the version if it replays the messages a resuming client asked for */
+    public static final int RESUMED = 1;
+    /** Sent by the data server after the version if it cannot replay the messages a resuming client asked for */
+    public static final int NOT_RESUMED = 0;
+
+    private static final int CONNECTION_TYPE_MASK = 0x0F;
+
+    public static final byte S_FRAME = 'S';
+    public static final byte C_FRAME = 'C';
+    public static final byte R_FRAME = 'R';
+    public static final byte H_FRAME = 'H';
+    public static final byte ENVELOPE = 'B';
+
+    public static final int S_FRAME_LENGTH = 1 + Long.BYTES + 2;
+    public static final int R_FRAME_LENGTH = 1 + Long.BYTES + 1;
+    public static final int H_FRAME_LENGTH = 1 + Long.BYTES;
+    private static final int C_BODY_LENGTH = Long.BYTES + 3 * Integer.BYTES;
+    public static final int C_FRAME_LENGTH = 2 + C_BODY_LENGTH;
+    public static final int ENVELOPE_HEADER_LENGTH = 1 + 2 * Integer.BYTES;
+
+    /** {@link #decode(ByteBuffer, FeedMessage)} decoded a message */
+    public static final int DECODED = 1;
+    /** {@link #decode(ByteBuffer, FeedMessage)} needs more bytes to decode the next message */
+    public static final int INCOMPLETE = 0;
+    /** {@link #decode(ByteBuffer, FeedMessage)} found a malformed frame */
+    public static final int MALFORMED = -1;
+
+
+    /** Bytes of the current envelope that have not been decoded, or 0 outside an envelope */
+    private long envelopeRemaining = 0;
+    private int envelopeArea = FeedMessage.NO_AREA;
+
+
+    /**
+     * Checks the connection type is one a client can ask for
+     * @param connectionType The connection type
+     * @param canResume True if the client writes the timestamp to resume from and reads the status of the resume,
+     *                  so may ask for {@link #RESUME}
+     * @throws IllegalArgumentException If the connection type is not {@link #TEXT_CONNECTION} or
+     * {@link #BINARY_CONNECTION}, optionally with the {@link #DEFLATE} flag, and the {@link #RESUME} flag if the
+     * client can resume
+     */
+    static void checkConnectionType(int connectionType, boolean canResume) {
+        int type = connectionType & CONNECTION_TYPE_MASK;
+        int flags = connectionType & ~CONNECTION_TYPE_MASK;
+        int allowedFlags = canResume ? DEFLATE | RESUME : DEFLATE;
+        if ((type != TEXT_CONNECTION && type != BINARY_CONNECTION) || (flags & ~allowedFlags) != 0) {
+            throw new IllegalArgumentException("Unknown connection type: " + connectionType);
+        }
+    }
+
+    /**
+     * @return True if the connection type receives binary frames rather than text messages
+     */
+    static boolean isBinary(int connectionType) {
+        return (connectionType & CONNECTION_TYPE_MASK) == BINARY_CONNECTION;
+    }
+
+    /**
+     * @return True if the data server acknowledges the connection type with {@link #VERSION}
+     */
+    static boolean isAcknowledged(int connectionType) {
+        return connectionType != TEXT_CONNECTION;
+    }
+
+    /**
+     * @return True if the connection type receives a compressed stream
+     */
+    static boolean isDeflated(int connectionType) {
+        return (connectionType & DEFLATE) != 0;
+    }
+
+    /**
+     * @return True if the connection type is followed by a timestamp to resume from
+     */
+    static boolean isResuming(int connectionType) {
+        return (connectionType & RESUME) != 0;
+    }
+
+
+    /**
+     * Decodes the next message from the bytes between the position and limit of the buffer. If a message is
+     * decoded, the position is moved past its frame and the header of any envelope before it. Otherwise, the
+     * position is left where it was
+     * @param buffer The buffer holding the frames
+     * @param message The instance the message is decoded into
+     * @return {@link #DECODED}, {@link #INCOMPLETE} or {@link #MALFORMED}
+     */
+    public int decode(@NotNull ByteBuffer buffer, @NotNull FeedMessage message) {
+        int position = buffer.position();
+        long remaining = envelopeRemaining;
+        int area = envelopeArea;
+
+        if (remaining == 0) {
+            area = FeedMessage.NO_AREA;
+            while (true) {
+                int length = frameLength(buffer, position);
+                if (length <= 0) { return length; }
+                if (buffer.get(position) != ENVELOPE) { break; }
+
+                area = buffer.getInt(position + 1);
+                remaining = buffer.getInt(position + 5) & 0xFFFFFFFFL;
+                position += ENVELOPE_HEADER_LENGTH;
+                if (remaining > 0) { break; } // Empty envelopes are skipped
+            }
+        }
+
+        int length = frameLength(buffer, position);
+        if (length <= 0) { return length; }
+        if (buffer.get(position) == ENVELOPE || (remaining > 0 && length > remaining)) { return MALFORMED; }
+
+        if (!decodeFrame(buffer, position, message)) { return MALFORMED; }
+        message.area = area;
+
+        envelopeRemaining = remaining == 0 ? 0 : remaining - length;
+        envelopeArea = area;
+        buffer.position(position + length);
+        return DECODED;
+    }
+
+    /**
+     * Checks if the buffer holds a whole frame of a message, skipping envelope headers
+     * @param buffer The buffer holding the frames. Its position is not changed
+     * @return True if {@link #decode(ByteBuffer, FeedMessage)} would not return {@link #INCOMPLETE}
+     */
+    public boolean hasFrame(@NotNull ByteBuffer buffer) {
+        int position = buffer.position();
+        while (true) {
+            int length = frameLength(buffer, position);
+            if (length == INCOMPLETE) { return false; }
+            if (length == MALFORMED || buffer.get(position) != ENVELOPE || envelopeRemaining > 0) { return true; }
+            position += length;
+        }
+    }
+
+
+    /**
+     * @return The length of the frame starting at the index, {@link #INCOMPLETE} if the buffer does not hold all
+     * of it, or {@link #MALFORMED} if its type is unknown. The length of an envelope is only of its header
+     */
+    private static int frameLength(ByteBuffer buffer, int index) {
+        if (index >= buffer.limit()) { return INCOMPLETE; }
+
+        int length = switch (buffer.get(index)) {
+            case S_FRAME -> S_FRAME_LENGTH;
+            case R_FRAME -> R_FRAME_LENGTH;
+            case H_FRAME -> H_FRAME_LENGTH;
+            case ENVELOPE -> ENVELOPE_HEADER_LENGTH;
+            case C_FRAME -> {
+                if (index + 1 >= buffer.limit()) { yield INCOMPLETE; }
+                int bodyLength = buffer.get(index + 1) & 0xFF;
+                yield bodyLength < C_BODY_LENGTH ? MALFORMED : 2 + bodyLength;
+            }
+            default -> MALFORMED;
+        };
+        return length > 0 && index + length > buffer.limit() ? INCOMPLETE : length;
+    }
+
+    private static boolean decodeFrame(ByteBuffer buffer, int index, FeedMessage message) {
+        switch (buffer.get(index)) {
+            case S_FRAME -> {
+                message.type = FeedMessage.S_CLASS;
+                message.timestamp = buffer.getLong(index + 1);
+                message.address = buffer.get(index + 9) & 0xFF;
+                message.data = buffer.get(index + 10) & 0xFF;
+            }
+            case C_FRAME -> {
+                message.type = FeedMessage.C_CLASS;
+                message.timestamp = buffer.getLong(index + 2);
+                message.fromBerth = buffer.getInt(index + 10);
+                message.toBerth = buffer.getInt(index + 14);
+                message.describer = buffer.getInt(index + 18);
+            }
+            case H_FRAME -> {
+                message.type = FeedMessage.HEARTBEAT;
+                message.timestamp = buffer.getLong(index + 1);
+            }
+            default -> {
+                message.type = FeedMessage.REFRESH;
+                message.timestamp = buffer.getLong(index + 1);
+                message.refreshMarker = buffer.get(index + 9);
+                return message.refreshMarker == FeedMessage.REFRESH_START
+                        || message.refreshMarker == FeedMessage.REFRESH_END
+                        || message.refreshMarker == FeedMessage.RESET;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Encodes the message as a frame, ignoring its area. Frames are given an area by enclosing them in an
+     * envelope, see {@link #beginEnvelope(ByteBuffer, int)}
+     * @param message The message to encode
+     * @param buffer The buffer the frame is put into
+     * @throws java.nio.BufferOverflowException If the buffer does not have room for the frame
+     */
+    public static void encode(@NotNull FeedMessage message, @NotNull ByteBuffer buffer) {
+        switch (message.type) {
+            case FeedMessage.C_CLASS -> buffer.put(C_FRAME).put((byte) C_BODY_LENGTH)
+                    .putLong(message.timestamp)
+                    .putInt(message.fromBerth).putInt(message.toBerth).putInt(message.describer);
+            case FeedMessage.REFRESH -> buffer.put(R_FRAME)
+                    .putLong(message.timestamp)
+                    .put((byte) message.refreshMarker);
+            case FeedMessage.HEARTBEAT -> buffer.put(H_FRAME)
+                    .putLong(message.timestamp);
+            default -> buffer.put(S_FRAME)
+                    .putLong(message.timestamp)
+                    .put((byte) message.address).put((byte) message.data);
+        }
+    }
+
+    /**
+     * Puts the header of an envelope. The frames encoded after it until {@link #endEnvelope(ByteBuffer, int)}
+     * are enclosed in the envelope
+     * @param buffer The buffer the header is put into
+     * @param area The packed area of the enclosed frames
+     * @return The index of the header, which must be given to {@link #endEnvelope(ByteBuffer, int)}
+     */
+    public static int beginEnvelope(@NotNull ByteBuffer buffer, int area) {
+        int header = buffer.position();
+        buffer.put(ENVELOPE).putInt(area).putInt(0);
+        return header;
+    }
+
+    /**
+     * Completes an envelope, setting its length to that of the frames encoded since its header
+     * @param buffer The buffer holding the envelope
+     * @param header The index of the envelope's header
+     */
+    public static void endEnvelope(@NotNull ByteBuffer buffer, int header) {
+        buffer.putInt(header + 5, buffer.position() - header - ENVELOPE_HEADER_LENGTH);
+    }
+}
@@ -1,11 +1,13 @@
 package aradnezami.cambridgesignallingmap.NRFeed.Client;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 // TODO: update docs to reference the data server repo
 /**
@@ -19,23 +21,71 @@ import java.net.Socket;
  * a call to {@link #disconnect()}. In any case of a death, all resources associated with the connection
  * are released, and any subsequent calls to {@link #pollNREvent()} will throw {@link NRFeedException}.<br>
  * <br>
+ *
+ * <h3>Reading messages</h3>
+ * Messages are read from the socket into one reused buffer. {@link #pollNREvent(FeedMessage)} parses
+ * each message straight out of that buffer, so receiving a message creates no objects.
+ * {@link #pollNREvent()} reads from the same buffer, so both methods can be used on one instance.
+ *
+ * <h3>Binary protocol</h3>
+ * The client can instead ask the data server for the binary protocol of {@link BinaryFrameCodec}, which sends
+ * each message as a frame of a few bytes. Frames are decoded straight from the buffer without any text parsing,
+ * and {@link #pollNREvent()} formats them back into text. Either protocol can also be received as a compressed
+ * stream with the {@link BinaryFrameCodec#DEFLATE} flag, which is inflated into the buffer as it is received.
  */
 public class DataServerNRClient implements NRFeedClient {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
     private final Socket socket;
-    private final BufferedReader in;
+    private final InputStream in;
+    private final @Nullable BinaryFrameCodec codec; // Null if the connection is text
+    private final @Nullable FeedInflater inflater; // Null if the connection is not compressed
+
+    /**
+     * Bytes read from the socket. Between reads, the bytes from the position to the limit have been
+     * received but not yet returned as messages
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).limit(0);
+    /** Bytes from the position to this index are the line found by the last call to {@link #nextLine()} */
+    private int lineEnd;
 
 
     /**
-     * Creates an instance of DataServerNRClient using the given socket
+     * Creates an instance of DataServerNRClient using the given socket, which receives text messages
      * @param socket Socket to be wrapped
      * @throws NRFeedException If the socket is closed or not connected, or if an IOException takes place.
      */
     public DataServerNRClient(Socket socket) throws NRFeedException {
+        this(socket, BinaryFrameCodec.TEXT_CONNECTION);
+    }
+
+    /**
+     * Creates an instance of DataServerNRClient using the given socket
+     * @param socket Socket to be wrapped
+     * @param connectionType {@link BinaryFrameCodec#TEXT_CONNECTION} or {@link BinaryFrameCodec#BINARY_CONNECTION},
+     *                       optionally with the {@link BinaryFrameCodec#DEFLATE} flag
+     * @throws NRFeedException If the socket is closed or not connected, if an IOException takes place or if the
+     * data server does not acknowledge the connection type
+     * @throws IllegalArgumentException If the connection type is unknown or has the {@link BinaryFrameCodec#RESUME}
+     * flag, which this client does not support (see {@link NioDataServerNRClient})
+     */
+    public DataServerNRClient(Socket socket, int connectionType) throws NRFeedException {
+        BinaryFrameCodec.checkConnectionType(connectionType, false); // Resuming is only supported by the NIO client
         this.socket = socket;
+        codec = BinaryFrameCodec.isBinary(connectionType) ? new BinaryFrameCodec() : null;
+        inflater = BinaryFrameCodec.isDeflated(connectionType) ? new FeedInflater(false) : null;
 
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            socket.getOutputStream().write(1); // Forwarding connection type is 1
+            in = socket.getInputStream();
+            socket.getOutputStream().write(connectionType);
+            if (BinaryFrameCodec.isAcknowledged(connectionType)) {
+                int version = in.read();
+                if (version != BinaryFrameCodec.VERSION) {
+                    disconnect();
+                    throw new NRFeedException("Data server replied to connection type " + connectionType + " with " + version,
+                            "The data server does not support the chosen protocol. \nEnsure that your data server is up to date.");
+                }
+            }
         } catch (IOException e) {
             throw new NRFeedException("Error whilst starting client.",
                     e,
@@ -55,20 +105,210 @@ public class DataServerNRClient implements NRFeedClient {
      * C-Class messages come in the format {@code C,TIMESTAMP,FROM_BERTH,TO_BERTH,DESCRIBER} for example:
      * {@code "C,12345678,0193,0195,1K76"}. A berth code is always a 4 character string. If either a to_berth
      * or from_berth is not provided, which will happen if the message is a berth cancel or interpose
-     * respectively, the missing berth will be replaced with {@code "NONE"}
+     * respectively, the missing berth will be replaced with {@code "NONE"}<br>
+     *
+     * The data server may bracket the S-Class messages of a signalling refresh with refresh markers, in the
+     * format {@code R,TIMESTAMP,START} and {@code R,TIMESTAMP,END}, for example: {@code "R,12345678,START"}
      *
      * @return The next message
      * @throws NRFeedException If a connection error occurs between the client and the data server
      */
     @Override
     public @NotNull String pollNREvent() throws NRFeedException {
+        if (codec != null) {
+            FeedMessage message = new FeedMessage();
+            nextFrame(message);
+            return message.toString();
+        }
+
+        nextLine();
+        String msg = new String(buffer.array(), buffer.position(), lineEnd - buffer.position(), StandardCharsets.US_ASCII);
+        consumeLine();
+        return msg;
+    }
+
+    /**
+     * Receives the next message, parsing it straight from the receive buffer. See {@link #pollNREvent()}
+     * @param message The instance the message is parsed into. Its previous contents are overwritten
+     * @throws NRFeedException If a connection error occurs between the client and the data server or if the
+     * message was malformed
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        if (codec != null) {
+            nextFrame(message);
+            return;
+        }
+
+        nextLine();
+        int limit = buffer.limit();
+        buffer.limit(lineEnd);
+        boolean isParsed = message.parse(buffer);
+        buffer.limit(limit);
+
+        if (!isParsed) {
+            String msg = new String(buffer.array(), buffer.position(), lineEnd - buffer.position(), StandardCharsets.US_ASCII);
+            consumeLine();
+            throw new NRFeedException("Malformed message received from the feed: " + msg,
+                    "A malformed message was recieved from the feed");
+        }
+        consumeLine();
+    }
+
+
+    /**
+     * Checks if a whole message has been received. Bytes the socket already holds are read into the buffer
+     * first, which never blocks
+     * @return True if the next poll returns without blocking
+     * @throws NRFeedException If a connection error occurs between the client and the data server
+     */
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        if (hasMessage()) { return true; }
+
+        fill(false);
+        return hasMessage();
+    }
+
+    private boolean hasMessage() {
+        return codec != null ? codec.hasFrame(buffer) : hasLine();
+    }
+
+    private boolean hasLine() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until a whole line is in the buffer, then sets {@link #lineEnd} to the end of the line,
+     * excluding its line terminator. Lines are terminated by {@code \n} or {@code \r\n}
+     * @throws NRFeedException If a connection error occurs or the data server closed the connection
+     */
+    private void nextLine() throws NRFeedException {
+        int searchFrom = buffer.position();
+        while (true) {
+            for (int i = searchFrom; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    lineEnd = (i > buffer.position() && buffer.get(i - 1) == '\r') ? i - 1 : i;
+                    return;
+                }
+            }
+            searchFrom = buffer.limit() - buffer.position();
+
+            fill();
+            searchFrom += buffer.position();
+        }
+    }
+
+    /**
+     * Blocks until a whole frame is in the buffer, then decodes it
+     * @param message The instance the frame is decoded into
+     * @throws NRFeedException If a connection error occurs, the data server closed the connection or the frame
+     * was malformed
+     */
+    private void nextFrame(FeedMessage message) throws NRFeedException {
+        int result;
+        while ((result = codec.decode(buffer, message)) == BinaryFrameCodec.INCOMPLETE) {
+            fill();
+        }
+
+        if (result == BinaryFrameCodec.MALFORMED) {
+            disconnect(); // The stream cannot be resynchronised
+            throw new NRFeedException("Malformed frame received from the feed",
+                    "A malformed message was recieved from the feed");
+        }
+    }
+
+    /**
+     * Moves the position past the line found by {@link #nextLine()} and its line terminator
+     */
+    private void consumeLine() {
+        int newline = lineEnd;
+        while (buffer.get(newline) != '\n') { newline++; }
+        buffer.position(newline + 1);
+    }
+
+    /**
+     * Blocks until more bytes have been read from the socket into the buffer. See {@link #fill(boolean)}
+     * @throws NRFeedException If a connection error occurs or the data server closed the connection
+     */
+    private void fill() throws NRFeedException {
+        fill(true);
+    }
+
+    /**
+     * Reads more bytes from the socket into the buffer, first moving any unreturned bytes to the start of
+     * the buffer, and growing it if it is full. Compressed bytes are inflated into the buffer
+     * @param isBlocking True to block until at least one byte is added to the buffer, false to only read the
+     *                   bytes the socket already holds
+     * @throws NRFeedException If a connection error occurs or the data server closed the connection
+     */
+    private void fill(boolean isBlocking) throws NRFeedException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+        }
+
+        int read;
         try {
-            return in.readLine();
+            if (inflater != null) {
+                read = readInflated(isBlocking);
+            } else if (isBlocking || in.available() > 0) {
+                read = readSocket(buffer);
+            } else {
+                read = 0;
+            }
         } catch (IOException e) {
+            buffer.flip();
             throw new NRFeedException("Error whilst polling for event",
                     e,
                     "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have a connection.");
         }
+        if (read < 0) {
+            buffer.flip();
+            throw new NRFeedException("The data server closed the connection",
+                    "The data server closed the connection. \nEnsure that your data server is online and that you have a connection.");
+        }
+
+        buffer.flip();
+    }
+
+    /**
+     * Reads bytes from the socket into the target, blocking until at least one byte is read
+     * @return The number of bytes read, or -1 if the data server closed the connection
+     */
+    private int readSocket(ByteBuffer target) throws IOException {
+        int read = in.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+        if (read == 0) {
+            throw new IOException("Underlying input stream returned zero bytes");
+        }
+        if (read > 0) { target.position(target.position() + read); }
+        return read;
+    }
+
+    /**
+     * Inflates received compressed bytes into the buffer, reading more from the socket until at least one byte
+     * is inflated
+     * @param isBlocking False to only read the compressed bytes the socket already holds
+     * @return The number of bytes inflated, or -1 if the compressed stream or connection ended
+     */
+    private int readInflated(boolean isBlocking) throws IOException {
+        while (true) {
+            int inflated = inflater.inflate(buffer);
+            if (inflated > 0) { return inflated; }
+            if (inflater.isFinished()) { return -1; }
+            if (!isBlocking && in.available() <= 0) { return 0; }
+
+            int read;
+            try {
+                read = readSocket(inflater.beginInput());
+            } finally {
+                inflater.endInput();
+            }
+            if (read < 0) { return -1; }
+        }
     }
 
     /**
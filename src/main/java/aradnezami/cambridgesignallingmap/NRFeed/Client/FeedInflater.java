@@ -0,0 +1,72 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A FeedInflater inflates the compressed stream of a connection with the {@link BinaryFrameCodec#DEFLATE} flag.
+ * The data server sync-flushes its deflater after every batch of messages, so every byte of a batch can be
+ * inflated as soon as the batch has been received, without waiting for the next one.
+ * <p>
+ * Compressed bytes are added to the {@link #input()}, and inflated straight into the receive buffer of the client.
+ */
+final class FeedInflater {
+    private static final int INPUT_SIZE = 8192;
+
+    private final Inflater inflater = new Inflater();
+    /** Compressed bytes from the position to the limit have not been inflated yet */
+    private final ByteBuffer input;
+
+
+    /**
+     * @param isDirect True if the input buffer is to be direct, for reading from a channel
+     */
+    FeedInflater(boolean isDirect) {
+        input = (isDirect ? ByteBuffer.allocateDirect(INPUT_SIZE) : ByteBuffer.allocate(INPUT_SIZE)).limit(0);
+    }
+
+
+    /**
+     * Prepares the input buffer for compressed bytes to be put into it. The caller puts bytes from the position
+     * of the returned buffer, then calls {@link #endInput()}
+     * @return The input buffer, which has room for at least one byte
+     */
+    @NotNull ByteBuffer beginInput() {
+        return input.compact();
+    }
+
+    /**
+     * Completes adding compressed bytes to the input buffer
+     */
+    void endInput() {
+        input.flip();
+    }
+
+    /**
+     * Inflates as many of the received compressed bytes as fit into the target
+     * @param target The buffer the inflated bytes are put into, from its position
+     * @return The number of bytes inflated, which is 0 if more input is needed or the target is full
+     * @throws ZipException If the compressed bytes are not a valid DEFLATE stream
+     */
+    int inflate(@NotNull ByteBuffer target) throws ZipException {
+        inflater.setInput(input);
+        int inflated;
+        try {
+            inflated = inflater.inflate(target);
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed stream: " + e.getMessage());
+        }
+        return inflated;
+    }
+
+    /**
+     * @return True if the compressed stream has ended
+     */
+    boolean isFinished() {
+        return inflater.finished();
+    }
+}
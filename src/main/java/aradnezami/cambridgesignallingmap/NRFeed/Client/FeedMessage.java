@@ -0,0 +1,313 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A FeedMessage holds one message of the format returned by {@link NRFeedClient#pollNREvent()}, parsed
+ * into primitive fields. It is mutable so that one instance can be reused for every message of a feed:
+ * parsing a message from bytes with {@link #parse(ByteBuffer)} creates no objects at all.
+ * <p>
+ * Short codes (berths, describers and areas) of at most 4 ASCII characters are packed into an int, one
+ * character per byte with the first character in the most significant used byte. They can be compared
+ * with {@link #packCode(String)} and turned back into a String with {@link #unpackCode(int)}.
+ * <p>
+ * Only the fields of the message's {@link #type} are set by parsing. Other fields keep their old values.
+ */
+public final class FeedMessage {
+    public static final char S_CLASS = 'S';
+    public static final char C_CLASS = 'C';
+    public static final char REFRESH = 'R';
+    /** A heartbeat of a train describer, which only carries the time it was sent (CT) */
+    public static final char HEARTBEAT = 'H';
+
+    public static final int REFRESH_START = 1;
+    public static final int REFRESH_END = 2;
+    /** Marks that messages were lost, so all S-Class state must be forgotten. Not sent by the feed itself */
+    public static final int RESET = 3;
+
+    /** The value of {@link #area} if the message has no area field */
+    public static final int NO_AREA = 0;
+
+
+    /** {@link #S_CLASS}, {@link #C_CLASS}, {@link #REFRESH} or {@link #HEARTBEAT} */
+    public char type;
+    /** The timestamp of the message, or -1 if it has none */
+    public long timestamp;
+    /** The train describer area of the message as a packed code, or {@link #NO_AREA} */
+    public int area;
+
+    /** S-Class only. The address of the byte being updated. Range 0-255 */
+    public int address;
+    /** S-Class only. The value of the updated byte. Range 0-255 */
+    public int data;
+
+    /** C-Class only. The packed from berth, which is {@code NONE} if there is no from berth */
+    public int fromBerth;
+    /** C-Class only. The packed to berth, which is {@code NONE} if there is no to berth */
+    public int toBerth;
+    /** C-Class only. The packed train describer */
+    public int describer;
+
+    /** Refresh markers only. {@link #REFRESH_START}, {@link #REFRESH_END} or {@link #RESET} */
+    public int refreshMarker;
+
+    /**
+     * The {@link System#nanoTime()} at which the message was received from the client, or 0 if it was not
+     * timed. Set by the reader of a {@link aradnezami.cambridgesignallingmap.NRFeed.Pipeline.FeedPipeline}, as
+     * parsing leaves it as it was
+     */
+    public long receivedNanos;
+
+
+    // Minimum number of fields of each type, and the position of the optional area field
+    private static final int S_FIELDS = 4;
+    private static final int C_FIELDS = 5;
+    private static final int R_FIELDS = 3;
+    private static final int H_FIELDS = 2;
+
+    private static final int MAX_FIELDS = 8;
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+
+    private static final byte[] START = "START".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "END".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESET_TEXT = "RESET".getBytes(StandardCharsets.US_ASCII);
+
+
+    /**
+     * Parses a message from the bytes between the position and limit of the buffer, which must hold
+     * exactly one message without its line terminator. The position and limit are not changed. Any type
+     * other than {@code C}, {@code R} or {@code H} is parsed as an S-Class message, and fields beyond those of the
+     * type are ignored, except for a single extra field which is the area of the message
+     * @param buffer The buffer holding the message as ASCII
+     * @return True if the message was parsed, false if it was malformed, in which case the fields of
+     * this instance are undefined
+     */
+    public boolean parse(@NotNull ByteBuffer buffer) {
+        int fields = splitFields(buffer);
+        if (fields < H_FIELDS) { return false; }
+
+        byte typeByte = buffer.get(fieldStarts[0]);
+        type = switch (typeByte) {
+            case 'C' -> C_CLASS;
+            case 'R' -> REFRESH;
+            case 'H' -> HEARTBEAT;
+            default -> S_CLASS;
+        };
+
+        long parsedTimestamp = parseDecimal(buffer, fieldStarts[1], fieldEnds[1]);
+        if (parsedTimestamp == Long.MIN_VALUE) { return false; }
+        timestamp = parsedTimestamp;
+
+        int requiredFields;
+        switch (type) {
+            case C_CLASS -> {
+                requiredFields = C_FIELDS;
+                if (fields < C_FIELDS) { return false; }
+
+                fromBerth = parseCode(buffer, fieldStarts[2], fieldEnds[2]);
+                toBerth = parseCode(buffer, fieldStarts[3], fieldEnds[3]);
+                describer = parseCode(buffer, fieldStarts[4], fieldEnds[4]);
+                if (fromBerth == -1 || toBerth == -1 || describer == -1) { return false; }
+            }
+            case REFRESH -> {
+                requiredFields = R_FIELDS;
+                if (fields < R_FIELDS) { return false; }
+
+                if (equals(buffer, fieldStarts[2], fieldEnds[2], START)) {
+                    refreshMarker = REFRESH_START;
+                } else if (equals(buffer, fieldStarts[2], fieldEnds[2], END)) {
+                    refreshMarker = REFRESH_END;
+                } else if (equals(buffer, fieldStarts[2], fieldEnds[2], RESET_TEXT)) {
+                    refreshMarker = RESET;
+                } else {
+                    return false;
+                }
+            }
+            case HEARTBEAT -> requiredFields = H_FIELDS;
+            default -> {
+                requiredFields = S_FIELDS;
+                if (fields < S_FIELDS) { return false; }
+
+                address = parseHex(buffer, fieldStarts[2], fieldEnds[2]);
+                data = parseHex(buffer, fieldStarts[3], fieldEnds[3]);
+                if (address < 0 || address > 0xFF || data < 0 || data > 0xFF) { return false; }
+            }
+        }
+
+        if (fields == requiredFields + 1) {
+            area = parseCode(buffer, fieldStarts[requiredFields], fieldEnds[requiredFields]);
+            if (area == -1) { return false; }
+        } else {
+            area = NO_AREA;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a message in the String format of {@link NRFeedClient#pollNREvent()}. See {@link #parse(ByteBuffer)}
+     * @param message The message
+     * @return True if the message was parsed, false if it was malformed
+     */
+    public boolean parse(@NotNull String message) {
+        return parse(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+
+    /**
+     * Sets every field of this instance to that of the given message
+     * @param other The message to copy
+     */
+    public void copyFrom(@NotNull FeedMessage other) {
+        type = other.type;
+        timestamp = other.timestamp;
+        area = other.area;
+        address = other.address;
+        data = other.data;
+        fromBerth = other.fromBerth;
+        toBerth = other.toBerth;
+        describer = other.describer;
+        refreshMarker = other.refreshMarker;
+        receivedNanos = other.receivedNanos;
+    }
+
+
+    /**
+     * Formats the message in the String format of {@link NRFeedClient#pollNREvent()}, so that parsing the
+     * returned String gives back this message
+     * @return The message as text
+     */
+    @Override
+    public @NotNull String toString() {
+        String text = switch (type) {
+            case C_CLASS -> "C," + timestamp + "," + unpackCode(fromBerth) + "," + unpackCode(toBerth) + ","
+                    + unpackCode(describer);
+            case REFRESH -> "R," + timestamp + "," + switch (refreshMarker) {
+                case REFRESH_START -> "START";
+                case REFRESH_END -> "END";
+                default -> "RESET";
+            };
+            case HEARTBEAT -> "H," + timestamp;
+            default -> String.format("S,%d,%02X,%02X", timestamp, address, data);
+        };
+        return area == NO_AREA ? text : text + "," + unpackCode(area);
+    }
+
+
+    /**
+     * Packs a code of at most 4 ASCII characters into an int
+     * @param code The code
+     * @return The packed code
+     * @throws IllegalArgumentException If the code is longer than 4 characters or not ASCII
+     */
+    public static int packCode(@NotNull String code) {
+        if (code.length() > 4) {
+            throw new IllegalArgumentException("Codes have at most 4 characters: " + code);
+        }
+
+        int packed = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == 0 || c > 0x7F) {
+                throw new IllegalArgumentException("Codes are ASCII: " + code);
+            }
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks a code packed by {@link #packCode(String)}
+     * @param packed The packed code
+     * @return The code
+     */
+    public static @NotNull String unpackCode(int packed) {
+        byte[] chars = new byte[4];
+        int length = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int c = (packed >>> shift) & 0xFF;
+            if (c != 0) { chars[length++] = (byte) c; }
+        }
+        return new String(chars, 0, length, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Records where each comma separated field starts and ends
+     * @return The number of fields, or -1 if there are more than {@link #MAX_FIELDS}
+     */
+    private int splitFields(ByteBuffer buffer) {
+        int fields = 0;
+        int start = buffer.position();
+        int limit = buffer.limit();
+        for (int i = start; i <= limit; i++) {
+            if (i == limit || buffer.get(i) == ',') {
+                if (fields == MAX_FIELDS) { return -1; }
+                fieldStarts[fields] = start;
+                fieldEnds[fields] = i;
+                fields++;
+                start = i + 1;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return The decimal number, which may be negative, or {@link Long#MIN_VALUE} if it is malformed
+     */
+    private static long parseDecimal(ByteBuffer buffer, int start, int end) {
+        boolean isNegative = start < end && buffer.get(start) == '-';
+        if (isNegative) { start++; }
+        if (start == end || end - start > 18) { return Long.MIN_VALUE; }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) { return Long.MIN_VALUE; }
+            value = value * 10 + digit;
+        }
+        return isNegative ? -value : value;
+    }
+
+    /**
+     * @return The hexadecimal number of at most 7 digits, in either case, or -1 if it is malformed
+     */
+    private static int parseHex(ByteBuffer buffer, int start, int end) {
+        if (start == end || end - start > 7) { return -1; }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit < 0) { return -1; }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return The packed code, or -1 if it is longer than 4 characters or not ASCII
+     */
+    private static int parseCode(ByteBuffer buffer, int start, int end) {
+        if (end - start > 4) { return -1; }
+
+        int packed = 0;
+        for (int i = start; i < end; i++) {
+            byte c = buffer.get(i);
+            if (c <= 0) { return -1; }
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    private static boolean equals(ByteBuffer buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) { return false; }
+
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) { return false; }
+        }
+        return true;
+    }
+}
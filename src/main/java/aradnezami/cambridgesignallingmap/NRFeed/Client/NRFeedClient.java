@@ -34,13 +34,63 @@ public interface NRFeedClient {
      * C-Class messages come in the format {@code C,TIMESTAMP,FROM_BERTH,TO_BERTH,DESCRIBER} for example:
      * {@code "C,12345678,0193,0195,1K76"}. A berth code is always a 4 character string. If either a to_berth
      * or from_berth is not provided, which will happen if the message is a berth cancel or interpose
-     * respectively, the missing berth will be replaced with {@code "NONE"}
+     * respectively, the missing berth will be replaced with {@code "NONE"}<br>
+     *
+     * The S-Class messages of a signalling refresh (the SG messages up to and including the SH message) may be
+     * bracketed by refresh markers, in the format {@code R,TIMESTAMP,START} and {@code R,TIMESTAMP,END}, for
+     * example: {@code "R,12345678,START"}. Clients which cannot detect refreshes need not send markers<br>
+     *
+     * Clients which reconnect by themselves may send a reset marker, in the format {@code R,TIMESTAMP,RESET},
+     * after reconnecting if messages may have been lost while disconnected. TIMESTAMP is that of the last
+     * message received before the connection was lost<br>
+     *
+     * Clients may pass on the heartbeats (CT) of the train describers, in the format {@code H,TIMESTAMP}, for
+     * example: {@code "H,12345678"}. Heartbeats change nothing, but show how far behind the feed is running<br>
+     *
+     * Clients which receive more than one train describer area may append the area to any message as an
+     * extra field, for example: {@code "S,12345678,1A,8F,CA"}. Messages without an area are of area {@code CA}
      *
      * @return The next message
      * @throws NRFeedException If a connection error occurs or if the client was already dead
      */
     @NotNull String pollNREvent() throws NRFeedException;
+
+    /**
+     * Receives the next message, as {@link #pollNREvent()} does, parsed into the given {@link FeedMessage}.
+     * Clients that receive bytes should override this method to parse straight from their buffer, without
+     * creating a String for the message. By default, the message returned by {@link #pollNREvent()} is parsed
+     * @param message The instance the message is parsed into. Its previous contents are overwritten
+     * @throws NRFeedException If a connection error occurs, if the client was already dead or if the message
+     * was malformed
+     */
+    default void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        String msg = pollNREvent();
+        if (!message.parse(msg)) {
+            throw new NRFeedException("Malformed message received from the feed: " + msg,
+                    "A malformed message was recieved from the feed");
+        }
+    }
     
+    /**
+     * Checks if a message has already been received, so that the next call to {@link #pollNREvent()} would
+     * return without blocking. This is used to decode a burst of messages together. By default, no message is
+     * ever reported as ready, which is always safe: callers then simply block for each message.
+     * @return True if the next poll returns without blocking, false if it may block
+     * @throws NRFeedException If the client was already dead
+     */
+    default boolean isMessageReady() throws NRFeedException {
+        return false;
+    }
+
+    /**
+     * Checks if the client was created to resume a lost connection, and the source of the feed agreed to first
+     * send every message after the last one received on that connection. By default, clients never resume.
+     * @return True if no messages were lost between the previous connection and this client
+     */
+    default boolean isResumed() {
+        return false;
+    }
+
     /**
      * Disconnects the NRFeedClient. The NRFeedClient is now dead and therefore,
      * subsequent calls to {@link #pollNREvent()} will throw {@link NRFeedException}.
@@ -0,0 +1,630 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link NioDataServerNRClient} wraps a non-blocking {@link SocketChannel} connection to a data server. It
+ * receives the same messages as {@link DataServerNRClient}, but unlike a blocking socket read, waiting for a
+ * message can always be cut short: {@link #disconnect()} and interrupting the polling thread both take effect
+ * immediately, and a read timeout can be given. This instance becomes responsible for the channel and
+ * cleaning it up. Users should not attempt to interact with the provided channel thereafter.
+ *
+ * <h3>Reading the connection</h3>
+ * The connection is read in one of two ways:
+ * <ul>
+ * <li>By the polling thread itself, which waits on a {@link Selector} of its own. See
+ * {@link #NioDataServerNRClient(SocketChannel, long)}</li>
+ * <li>By a shared {@link NioReactor}, so that one I/O thread serves many connections. See
+ * {@link #NioDataServerNRClient(SocketChannel, NioReactor, long)}</li>
+ * </ul>
+ * Either way, messages are read into one reused direct buffer and {@link #pollNREvent(FeedMessage)} parses
+ * each message straight out of that buffer. Like {@link DataServerNRClient}, the client can ask for the binary
+ * protocol of {@link BinaryFrameCodec} rather than text messages, and for either to be compressed.
+ * <p>
+ * When reconnecting, the client can ask the data server to first replay every message after the last one it
+ * received. See {@link #NioDataServerNRClient(SocketChannel, NioReactor, long, int, long)} and {@link #isResumed()}
+ *
+ * <h3>Death of NioDataServerNRClient</h3>
+ * An instance dying can be caused by: A connection error with the data server, the read timeout expiring,
+ * its reactor being closed or a call to {@link #disconnect()}. In any case of a death, all resources associated
+ * with the connection are released, and any subsequent calls to {@link #pollNREvent()} will throw
+ * {@link NRFeedException}.
+ */
+public class NioDataServerNRClient implements NRFeedClient {
+    /** The read timeout which waits for the next message forever */
+    public static final long NO_TIMEOUT = 0L;
+    /** The timestamp to resume from which does not ask the data server to replay any messages */
+    public static final long NO_RESUME = -1L;
+    /** Most milliseconds the data server is given to acknowledge the connection type, if there is no read timeout */
+    public static final long HANDSHAKE_TIMEOUT_MILLIS = 10_000L;
+
+    /** Most received bytes buffered before a {@link NioReactor} stops reading the connection */
+    static final int MAX_BUFFERED_BYTES = 1 << 20;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    final SocketChannel channel;
+    private final @Nullable Selector selector; // Null if the connection is read by a reactor
+    private final @Nullable NioReactor reactor;
+    private final @Nullable BinaryFrameCodec codec; // Null if the connection is text
+    private final @Nullable FeedInflater inflater; // Null if the connection is not compressed
+    private final long readTimeoutNanos;
+    private final boolean isResumed;
+
+    /**
+     * Bytes read from the connection. Between reads, the bytes from the position to the limit have been
+     * received but not yet returned as messages. Guarded by this instance
+     */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE).limit(0);
+    /** Bytes from the position to this index are the line found by the last call to {@link #nextLine()} */
+    private int lineEnd;
+
+    /** Number of reads by the reactor that received bytes. Guarded by this instance */
+    private long reactorReads = 0;
+    /** Why the reactor stopped reading the connection. Guarded by this instance */
+    private @Nullable NRFeedException reactorFailure = null;
+    /** The key of the connection if the reactor stopped reading it. Guarded by this instance */
+    private @Nullable SelectionKey pausedKey = null;
+
+    private volatile boolean isDisconnected = false;
+
+
+    /**
+     * Creates an instance that reads the channel on the polling thread
+     * @param channel A connected channel to the data server
+     * @param readTimeoutMillis Most milliseconds a poll waits for the data server to send anything before the
+     *                          client dies, or {@link #NO_TIMEOUT}
+     * @throws NRFeedException If the channel is closed or not connected, or if an IOException takes place
+     */
+    public NioDataServerNRClient(@NotNull SocketChannel channel, long readTimeoutMillis) throws NRFeedException {
+        this(channel, null, readTimeoutMillis);
+    }
+
+    /**
+     * Creates an instance whose channel is read by the given reactor, which receives text messages
+     * @param channel A connected channel to the data server
+     * @param reactor The reactor reading the channel
+     * @param readTimeoutMillis Most milliseconds a poll waits for the data server to send anything before the
+     *                          client dies, or {@link #NO_TIMEOUT}
+     * @throws NRFeedException If the channel is closed or not connected, or if an IOException takes place
+     */
+    public NioDataServerNRClient(@NotNull SocketChannel channel, @Nullable NioReactor reactor,
+                                 long readTimeoutMillis) throws NRFeedException {
+        this(channel, reactor, readTimeoutMillis, BinaryFrameCodec.TEXT_CONNECTION);
+    }
+
+    /**
+     * Creates an instance
+     * @param channel A connected channel to the data server
+     * @param reactor The reactor reading the channel, or null to read it on the polling thread
+     * @param readTimeoutMillis Most milliseconds a poll waits for the data server to send anything before the
+     *                          client dies, or {@link #NO_TIMEOUT}
+     * @param connectionType {@link BinaryFrameCodec#TEXT_CONNECTION} or {@link BinaryFrameCodec#BINARY_CONNECTION},
+     *                       optionally with the {@link BinaryFrameCodec#DEFLATE} flag
+     * @throws NRFeedException If the channel is closed or not connected, if an IOException takes place or if the
+     * data server does not acknowledge the connection type
+     * @throws IllegalArgumentException If the connection type is unknown or the read timeout is negative
+     */
+    public NioDataServerNRClient(@NotNull SocketChannel channel, @Nullable NioReactor reactor,
+                                 long readTimeoutMillis, int connectionType) throws NRFeedException {
+        this(channel, reactor, readTimeoutMillis, connectionType, NO_RESUME);
+    }
+
+    /**
+     * Creates an instance which asks the data server to replay every message after the given timestamp before
+     * forwarding the feed. Whether it does is given by {@link #isResumed()}
+     * @param channel A connected channel to the data server
+     * @param reactor The reactor reading the channel, or null to read it on the polling thread
+     * @param readTimeoutMillis Most milliseconds a poll waits for the data server to send anything before the
+     *                          client dies, or {@link #NO_TIMEOUT}
+     * @param connectionType {@link BinaryFrameCodec#TEXT_CONNECTION} or {@link BinaryFrameCodec#BINARY_CONNECTION},
+     *                       optionally with the {@link BinaryFrameCodec#DEFLATE} flag
+     * @param resumeFrom The timestamp of the last message received from the previous connection, or
+     *                   {@link #NO_RESUME}
+     * @throws NRFeedException If the channel is closed or not connected, if an IOException takes place, if the
+     * data server does not acknowledge the connection type within the read timeout (or
+     * {@link #HANDSHAKE_TIMEOUT_MILLIS} if there is none), or if the thread is interrupted meanwhile
+     * @throws IllegalArgumentException If the connection type is unknown or the read timeout is negative
+     */
+    public NioDataServerNRClient(@NotNull SocketChannel channel, @Nullable NioReactor reactor,
+                                 long readTimeoutMillis, int connectionType, long resumeFrom) throws NRFeedException {
+        if (resumeFrom != NO_RESUME) {
+            connectionType |= BinaryFrameCodec.RESUME;
+        }
+        if (readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Read timeout cannot be negative: " + readTimeoutMillis);
+        }
+        BinaryFrameCodec.checkConnectionType(connectionType, true);
+        this.channel = channel;
+        this.reactor = reactor;
+        codec = BinaryFrameCodec.isBinary(connectionType) ? new BinaryFrameCodec() : null;
+        inflater = BinaryFrameCodec.isDeflated(connectionType) ? new FeedInflater(true) : null;
+        readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+
+        boolean resumed = false;
+        try {
+            boolean isResuming = BinaryFrameCodec.isResuming(connectionType);
+            ByteBuffer request = ByteBuffer.allocate(1 + Long.BYTES).put((byte) connectionType);
+            if (isResuming) { request.putLong(resumeFrom); }
+            request.flip();
+            ByteBuffer reply = ByteBuffer.allocate(
+                    !BinaryFrameCodec.isAcknowledged(connectionType) ? 0 : isResuming ? 2 : 1);
+
+            channel.configureBlocking(false);
+            exchangeHandshake(request, reply, readTimeoutNanos != 0 ? readTimeoutNanos
+                    : TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_TIMEOUT_MILLIS));
+
+            if (BinaryFrameCodec.isAcknowledged(connectionType)) {
+                int version = reply.position() > 0 ? reply.get(0) : -1;
+                if (version != BinaryFrameCodec.VERSION || reply.hasRemaining()) {
+                    disconnect();
+                    throw new NRFeedException("Data server replied to connection type " + connectionType + " with " + version,
+                            "The data server does not support the chosen protocol. \nEnsure that your data server is up to date.");
+                }
+                resumed = isResuming && reply.get(1) == BinaryFrameCodec.RESUMED;
+            }
+
+            if (reactor == null) {
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } else {
+                selector = null;
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw new NRFeedException("Error whilst starting client.",
+                    e,
+                    "An internal error occurred while trying to connect. Ensure that your data server is online and that you have a connection");
+        }
+        isResumed = resumed;
+
+        if (reactor != null) {
+            reactor.register(this);
+        }
+    }
+
+
+    /**
+     * Returns the next message received from the data server, blocking until it is received. See
+     * {@link DataServerNRClient#pollNREvent()} for the format of messages
+     * @return The next message
+     * @throws NRFeedException If a connection error occurs between the client and the data server, the read
+     * timeout expires, the client is disconnected or the polling thread is interrupted
+     */
+    @Override
+    public synchronized @NotNull String pollNREvent() throws NRFeedException {
+        if (codec != null) {
+            FeedMessage message = new FeedMessage();
+            nextFrame(message);
+            return message.toString();
+        }
+
+        nextLine();
+        String msg = lineString();
+        consumeLine();
+        return msg;
+    }
+
+    /**
+     * Receives the next message, parsing it straight from the receive buffer. See {@link #pollNREvent()}
+     * @param message The instance the message is parsed into. Its previous contents are overwritten
+     * @throws NRFeedException If a connection error occurs between the client and the data server, the read
+     * timeout expires, the client is disconnected, the polling thread is interrupted or the message was malformed
+     */
+    @Override
+    public synchronized void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        if (codec != null) {
+            nextFrame(message);
+            return;
+        }
+
+        nextLine();
+        int limit = buffer.limit();
+        buffer.limit(lineEnd);
+        boolean isParsed = message.parse(buffer);
+        buffer.limit(limit);
+
+        if (!isParsed) {
+            String msg = lineString();
+            consumeLine();
+            throw new NRFeedException("Malformed message received from the feed: " + msg,
+                    "A malformed message was recieved from the feed");
+        }
+        consumeLine();
+    }
+
+
+    /**
+     * Checks if a whole message has been received. If the client reads its own channel, bytes the channel
+     * already holds are read into the buffer first, which never blocks
+     * @return True if the next poll returns without blocking
+     * @throws NRFeedException If a connection error occurs between the client and the data server
+     */
+    @Override
+    public synchronized boolean isMessageReady() throws NRFeedException {
+        if (hasMessage()) { return true; }
+
+        if (reactor != null) {
+            return reactorFailure != null || isDisconnected; // The next poll throws without blocking
+        }
+        checkDisconnected();
+        readChannel();
+        return hasMessage();
+    }
+
+
+    /**
+     * Disconnects the client, waking any thread waiting for a message. The client is now dead and therefore,
+     * subsequent calls to {@link #pollNREvent()} with throw {@link NRFeedException}. Calling this method when
+     * the instance is dead has no effect.
+     */
+    @Override
+    public void disconnect() {
+        isDisconnected = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+
+        if (selector != null) {
+            try {
+                selector.close(); // Wakes a poller waiting in select
+            } catch (IOException ignored) {}
+        } else {
+            synchronized (this) {
+                notifyAll(); // Wakes a poller waiting on the reactor
+            }
+        }
+    }
+
+    /**
+     * Checks if the client is dead or alive. If this returns false: all
+     * subsequent calls to {@link #pollNREvent()} will throw {@link NRFeedException}
+     *
+     * @return True if the instance is alive and false if dead
+     */
+    @Override
+    public boolean isAlive() {
+        return !isDisconnected && channel.isOpen();
+    }
+
+    /**
+     * @return True if the data server agreed to replay every message after the timestamp given to the constructor
+     */
+    @Override
+    public boolean isResumed() {
+        return isResumed;
+    }
+
+
+    /**
+     * Opens a blocking channel to the data server that can be submitted to the constructor
+     * @param host The hostname of the data server
+     * @param port The port that the data server is listening on
+     * @return A connected channel
+     * @throws NRFeedException If an IOException occurs while connecting
+     */
+    public static SocketChannel getChannel(String host, int port) throws NRFeedException {
+        try {
+            return SocketChannel.open(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            throw new NRFeedException("Error whilst starting client.",
+                    e,
+                    "An internal error occurred while trying to connect. Ensure that your data server is online and that you have a connection");
+        }
+    }
+
+
+    /**
+     * Writes the request of the handshake and reads its reply on the non-blocking channel, waiting on a selector
+     * of its own so that a data server which never replies cannot hang the caller. The reply is left short if the
+     * data server closes the connection first
+     * @param request The bytes to write
+     * @param reply Filled with the reply
+     * @param timeoutNanos Most nanoseconds to wait for the whole exchange
+     * @throws NRFeedException If the exchange times out or the thread is interrupted, in which case the client
+     * is disconnected
+     */
+    private void exchangeHandshake(ByteBuffer request, ByteBuffer reply, long timeoutNanos)
+            throws IOException, NRFeedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        try (Selector handshakeSelector = Selector.open()) {
+            SelectionKey key = channel.register(handshakeSelector, 0);
+            while (true) {
+                if (request.hasRemaining()) {
+                    channel.write(request);
+                }
+                if (!request.hasRemaining() && reply.hasRemaining() && channel.read(reply) < 0) {
+                    return;
+                }
+                if (!request.hasRemaining() && !reply.hasRemaining()) {
+                    return;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    disconnect();
+                    throw new NRFeedException("Timed out whilst waiting for the data server to acknowledge the connection",
+                            "The data server did not respond. \nEnsure that your data server is online and up to date.");
+                }
+                key.interestOps(request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                handshakeSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                handshakeSelector.selectedKeys().clear();
+                if (Thread.currentThread().isInterrupted()) {
+                    disconnect();
+                    throw new NRFeedException("Interrupted whilst waiting for the data server to acknowledge the connection",
+                            "The connection to the data server was interrupted.");
+                }
+            }
+        }
+    }
+
+
+    private boolean hasMessage() {
+        return codec != null ? codec.hasFrame(buffer) : hasLine();
+    }
+
+    private boolean hasLine() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until a whole line is in the buffer, then sets {@link #lineEnd} to the end of the line,
+     * excluding its line terminator. Lines are terminated by {@code \n} or {@code \r\n}
+     * @throws NRFeedException If the client dies while waiting
+     */
+    private void nextLine() throws NRFeedException {
+        int searchFrom = buffer.position();
+        while (true) {
+            for (int i = searchFrom; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    lineEnd = (i > buffer.position() && buffer.get(i - 1) == '\r') ? i - 1 : i;
+                    return;
+                }
+            }
+            searchFrom = buffer.limit() - buffer.position(); // Bytes may be moved by a fill
+
+            fill();
+            searchFrom += buffer.position();
+        }
+    }
+
+    /**
+     * Blocks until a whole frame is in the buffer, then decodes it
+     * @param message The instance the frame is decoded into
+     * @throws NRFeedException If the client dies while waiting or the frame was malformed
+     */
+    private void nextFrame(FeedMessage message) throws NRFeedException {
+        int result;
+        while ((result = codec.decode(buffer, message)) == BinaryFrameCodec.INCOMPLETE) {
+            fill();
+        }
+
+        if (result == BinaryFrameCodec.MALFORMED) {
+            disconnect(); // The stream cannot be resynchronised
+            throw new NRFeedException("Malformed frame received from the feed",
+                    "A malformed message was recieved from the feed");
+        }
+        resumeReactor();
+    }
+
+    /**
+     * Moves the position past the line found by {@link #nextLine()} and its line terminator
+     */
+    private void consumeLine() {
+        int newline = lineEnd;
+        while (buffer.get(newline) != '\n') { newline++; }
+        buffer.position(newline + 1);
+        resumeReactor();
+    }
+
+    /**
+     * Resumes the reactor if it stopped reading the connection and the buffer has drained
+     */
+    private void resumeReactor() {
+        if (pausedKey != null && buffer.remaining() < MAX_BUFFERED_BYTES / 2) {
+            reactor.resume(pausedKey);
+            pausedKey = null;
+        }
+    }
+
+    private String lineString() {
+        byte[] line = new byte[lineEnd - buffer.position()];
+        buffer.get(buffer.position(), line);
+        return new String(line, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Blocks until more bytes have been received into the buffer. Bytes that have not been returned are kept,
+     * but may be moved within the buffer
+     * @throws NRFeedException If the client dies while waiting
+     */
+    private void fill() throws NRFeedException {
+        long deadline = System.nanoTime() + readTimeoutNanos;
+        if (reactor == null) {
+            fillFromChannel(deadline);
+        } else {
+            fillFromReactor(deadline);
+        }
+    }
+
+    private void fillFromChannel(long deadline) throws NRFeedException {
+        while (true) {
+            checkDisconnected();
+            if (readChannel() > 0) { return; }
+
+            try {
+                selector.select(selectTimeout(deadline));
+                selector.selectedKeys().clear();
+            } catch (IOException | ClosedSelectorException e) {
+                checkDisconnected();
+                disconnect();
+                throw connectionError(e);
+            }
+            checkInterrupted();
+        }
+    }
+
+    private void fillFromReactor(long deadline) throws NRFeedException {
+        // Compressed bytes the reactor read but could not fit into the buffer are never announced by the selector
+        if (inflater != null && readChannel(false) > 0) { return; }
+
+        long reads = reactorReads;
+        while (reactorReads == reads) {
+            if (reactorFailure != null) { throw reactorFailure; }
+            checkDisconnected();
+
+            try {
+                wait(selectTimeout(deadline));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                checkInterrupted();
+            }
+        }
+    }
+
+    /**
+     * @return The milliseconds to wait for until the deadline, or 0 to wait forever if there is no read timeout
+     * @throws NRFeedException If the deadline has passed, in which case the client is disconnected
+     */
+    private long selectTimeout(long deadline) throws NRFeedException {
+        if (readTimeoutNanos == 0) { return 0; }
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            disconnect();
+            throw new NRFeedException("Timed out whilst waiting for event",
+                    "The data server stopped sending messages. \nEnsure that your data server is online and that you have a connection.");
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /**
+     * Reads whatever the channel holds into the buffer without blocking, first moving any unreturned bytes to
+     * the start of the buffer, and growing it if it is full. Compressed bytes are inflated into the buffer
+     * @return The number of bytes read
+     * @throws NRFeedException If a connection error occurs or the data server closed the connection
+     */
+    private int readChannel() throws NRFeedException {
+        return readChannel(true);
+    }
+
+    /**
+     * See {@link #readChannel()}
+     * @param isReading False to only inflate compressed bytes that have already been read from the channel
+     */
+    private int readChannel(boolean isReading) throws NRFeedException {
+        int read;
+        buffer.compact();
+        try {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).put(buffer.flip());
+            }
+            read = inflater == null ? channel.read(buffer) : readInflated(isReading);
+        } catch (IOException e) {
+            checkDisconnected();
+            disconnect();
+            throw connectionError(e);
+        } finally {
+            buffer.flip();
+        }
+
+        if (read < 0) {
+            disconnect();
+            throw new NRFeedException("The data server closed the connection",
+                    "The data server closed the connection. \nEnsure that your data server is online and that you have a connection.");
+        }
+        return read;
+    }
+
+    /**
+     * Inflates received compressed bytes into the buffer, reading more from the channel until at least one byte
+     * is inflated or the channel holds no more
+     * @param isReading False to only inflate compressed bytes that have already been read from the channel
+     * @return The number of bytes inflated, or -1 if the compressed stream or connection ended
+     */
+    private int readInflated(boolean isReading) throws IOException {
+        while (true) {
+            int inflated = inflater.inflate(buffer);
+            if (inflated > 0) { return inflated; }
+            if (inflater.isFinished()) { return -1; }
+            if (!isReading) { return 0; }
+
+            int read;
+            try {
+                read = channel.read(inflater.beginInput());
+            } finally {
+                inflater.endInput();
+            }
+            if (read <= 0) { return read; }
+        }
+    }
+
+
+    /**
+     * Reads the channel into the buffer on the reactor's thread, waking the polling thread
+     * @param key The key of the channel
+     */
+    synchronized void onReadable(@NotNull SelectionKey key) {
+        if (buffer.remaining() >= MAX_BUFFERED_BYTES) {
+            key.interestOps(0); // Resumed by consumeLine once the poller catches up
+            pausedKey = key;
+            return;
+        }
+
+        try {
+            if (readChannel() > 0) {
+                reactorReads++;
+                notifyAll();
+            }
+        } catch (NRFeedException e) {
+            key.cancel();
+            onFailure(e);
+        }
+    }
+
+    /**
+     * Records why the reactor can no longer read the channel, waking the polling thread
+     * @param failure The exception thrown to the polling thread
+     */
+    synchronized void onFailure(@NotNull NRFeedException failure) {
+        if (reactorFailure == null) {
+            reactorFailure = failure;
+        }
+        notifyAll();
+    }
+
+
+    private void checkDisconnected() throws NRFeedException {
+        if (isDisconnected) {
+            throw new NRFeedException("The client was disconnected",
+                    "The connection to the data server was closed.");
+        }
+    }
+
+    private void checkInterrupted() throws NRFeedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new NRFeedException("Interrupted whilst waiting for event",
+                    "The connection to the data server was interrupted.");
+        }
+    }
+
+    NRFeedException connectionError(Exception e) {
+        return new NRFeedException("Error whilst polling for event",
+                e,
+                "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have a connection.");
+    }
+}
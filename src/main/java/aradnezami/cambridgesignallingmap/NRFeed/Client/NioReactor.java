@@ -0,0 +1,145 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A NioReactor is one I/O thread that reads the connections of many {@link NioDataServerNRClient}s. The thread
+ * waits on a single {@link Selector} and reads whatever a connection has received into the buffer of its
+ * client, waking the thread polling that client. Polling a client never touches its connection, so the
+ * threads polling clients only ever wait on the buffers of their clients.
+ * <p>
+ * If a client's poller falls behind, the reactor stops reading its connection once the client has
+ * buffered {@link NioDataServerNRClient#MAX_BUFFERED_BYTES}, leaving the data server to be held back by
+ * TCP flow control rather than buffering without bound.
+ * <p>
+ * Closing the reactor fails every client still registered with it.
+ */
+public class NioReactor implements AutoCloseable {
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<NioDataServerNRClient> registrations = new ConcurrentLinkedQueue<>();
+    private volatile boolean isClosed = false;
+
+
+    /**
+     * Creates and starts a reactor
+     * @throws NRFeedException If the selector of the reactor could not be opened
+     */
+    public NioReactor() throws NRFeedException {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new NRFeedException("Error whilst opening selector",
+                    e,
+                    "An internal error occurred while trying to connect.");
+        }
+
+        thread = new Thread(this::run, "NRFeed I/O");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Starts reading the connection of the client on the reactor's thread
+     * @param client The client whose connection is to be read
+     */
+    void register(@NotNull NioDataServerNRClient client) {
+        if (isClosed) {
+            client.onFailure(closedFailure());
+            return;
+        }
+
+        registrations.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Resumes reading a connection whose client had buffered too many bytes
+     * @param key The key of the client's connection
+     */
+    void resume(@NotNull SelectionKey key) {
+        try {
+            key.interestOps(SelectionKey.OP_READ);
+            selector.wakeup();
+        } catch (CancelledKeyException ignored) {} // The client is dead
+    }
+
+
+    /**
+     * Checks if the reactor is still reading connections
+     * @return True if the reactor has not been closed
+     */
+    public boolean isAlive() {
+        return !isClosed && thread.isAlive();
+    }
+
+    /**
+     * Stops the reactor. Every client registered with the reactor dies. Calling this method when the reactor
+     * is closed has no effect
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        selector.wakeup();
+    }
+
+
+    private void run() {
+        try {
+            while (!isClosed) {
+                selector.select();
+                registerPending();
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (key.isValid()) {
+                        ((NioDataServerNRClient) key.attachment()).onReadable(key);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            isClosed = true;
+        } finally {
+            NRFeedException failure = closedFailure();
+            registerPending();
+            for (SelectionKey key : selector.keys()) {
+                ((NioDataServerNRClient) key.attachment()).onFailure(failure);
+            }
+            NioDataServerNRClient client;
+            while ((client = registrations.poll()) != null) {
+                client.onFailure(failure);
+            }
+
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void registerPending() {
+        NioDataServerNRClient client;
+        while (!isClosed && (client = registrations.poll()) != null) {
+            try {
+                client.channel.register(selector, SelectionKey.OP_READ, client);
+            } catch (ClosedChannelException e) {
+                client.onFailure(client.connectionError(e));
+            }
+        }
+    }
+
+    private static NRFeedException closedFailure() {
+        return new NRFeedException("The reactor reading the connection was closed",
+                "The connection to the data server was closed.");
+    }
+}
@@ -12,6 +12,7 @@ from stomp.exception import ConnectFailedException
 
 # Internal
 from StompListener import Listener
+import td
 
 
 def cleanup(connection):
@@ -25,9 +26,13 @@ if __name__ == "__main__":
     parser = argparse.ArgumentParser()
     parser.add_argument("-d", "--durable", action='store_true',
                         help="Request a durable subscription. Note README before trying this.")
+    parser.add_argument("-a", "--areas", default="CA",
+                        help="Comma separated train describer areas to forward, or ALL for every area. Defaults to CA")
     action = parser.add_mutually_exclusive_group(required=False)
     args = parser.parse_args()
 
+    td.areas = None if args.areas == "ALL" else set(args.areas.split(","))
+
     # https://stomp.github.io/stomp-specification-1.2.html#Heart-beating
     # We're committing to sending and accepting heartbeats every 5000ms
     connection = stomp.Connection([('publicdatafeeds.networkrail.co.uk', 61618)], keepalive=True, heartbeats=(5000, 5000))
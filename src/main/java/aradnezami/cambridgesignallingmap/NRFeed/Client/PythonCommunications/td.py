@@ -9,6 +9,15 @@ S_SIGNALLING_UPDATE = "SF"            # Signalling update
 S_SIGNALLING_REFRESH = "SG"           # Signalling refresh
 S_SIGNALLING_REFRESH_FINISHED = "SH"  # Signalling refresh finished
 
+# Info messages reporting a refresh. See MSGlist.txt
+MSG_REFRESH_STARTED = "MSG:1"
+MSG_REFRESH_FINISHED = "MSG:2"
+
+# Areas whose messages are forwarded, or None for every area. Set from the --areas argument of main.py
+areas = {"CA"}
+
+refreshing = set()  # Areas between the first SG message of a refresh and its SH message
+
 def getMessages(parsed_body):
     messages = []
 
@@ -19,8 +28,9 @@ def getMessages(parsed_body):
 
         message_type = message["msg_type"]
         timestamp = message["time"]
+        area = message["area_id"]
 
-        if message["area_id"] != "CA": continue
+        if areas is not None and area not in areas: continue
 
 
         if message_type in [C_BERTH_STEP, C_BERTH_INTERPOSE, C_BERTH_CANCEL]:
@@ -32,23 +42,34 @@ def getMessages(parsed_body):
 
             describer = message.get("descr")
 
-            messages.append(f"C,{timestamp},{fromBerth},{toBerth},{describer}")
+            messages.append(f"C,{timestamp},{fromBerth},{toBerth},{describer},{area}")
 
         elif message_type == S_SIGNALLING_UPDATE:
             address = message.get("address")
             byte = message.get("data")
 
-            messages.append(f"S,{timestamp},{address},{byte}")
+            messages.append(f"S,{timestamp},{address},{byte},{area}")
+
+        elif message_type == C_HEARTBEAT:
+            messages.append(f"H,{timestamp},{area}")
 
         elif message_type in [S_SIGNALLING_REFRESH, S_SIGNALLING_REFRESH_FINISHED]:
+            if area not in refreshing:
+                messages.append(f"{MSG_REFRESH_STARTED}:{timestamp}:{area}")
+                refreshing.add(area)
+
             address = int(message.get("address"))
             bytesRaw = message.get("data")
             bytesSplit = splitSigRefresh(bytesRaw, address)
 
             for separateMsg in bytesSplit:
-                messages.append(f"S,{timestamp},{separateMsg[0]},{separateMsg[1]}")
+                messages.append(f"S,{timestamp},{separateMsg[0]},{separateMsg[1]},{area}")
+
+            if message_type == S_SIGNALLING_REFRESH_FINISHED:
+                messages.append(f"{MSG_REFRESH_FINISHED}:{timestamp}:{area}")
+                refreshing.discard(area)
 
-        return messages
+    return messages
 
 
 
@@ -57,7 +78,7 @@ def splitSigRefresh(strBytes, minAddress):
     split = []
     for position in range(0, 7, 2): # Step 2 as 1 byte is represented by to hex digits
         address = int(minAddress + position/2)
-        if address > 200: break # Find the byte address we are parsing. If it is more than 200 (max address of Cambridge PSB), ignore it
+        if address > 255: break # Find the byte address we are parsing. If it is more than 255 (max address of an area), ignore it
 
         byte = strBytes[position : position+2]
         split.append((address, byte))
@@ -68,7 +68,15 @@ public class PythonNRClient implements NRFeedClient {
      * C-Class messages come in the format {@code C,TIMESTAMP,FROM_BERTH,TO_BERTH,DESCRIBER} for example:
      * {@code "C,12345678,0193,0195,1K76"}. A berth code is always a 4 character string. If either a to_berth
      * or from_berth is not provided, which will happen if the message is a berth cancel or interpose
-     * respectively, the missing berth will be replaced with {@code "NONE"}
+     * respectively, the missing berth will be replaced with {@code "NONE"}<br>
+     *
+     * The start and end of a signalling refresh, reported by the process as info messages 1 and 2 (see
+     * MSGlist.txt), are returned as refresh markers, in the format {@code R,TIMESTAMP,START} and
+     * {@code R,TIMESTAMP,END}, for example: {@code "R,12345678,START"}<br>
+     *
+     * Every message ends with an extra field holding its train describer area, for example:
+     * {@code "S,12345678,1A,8F,CA"}. Only the areas requested with the {@code --areas} argument of the
+     * process are forwarded, which by default is only {@code CA}
      *
      * @return The next message
      * @throws NRFeedException If a connection error occurs between the client and python script
@@ -88,7 +96,12 @@ public class PythonNRClient implements NRFeedClient {
                 throw new NRFeedException("Null returned whilst polling for event",
                     "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have an internet connection and -secondarily- that your authentication details are correct.");
             }
-            if (msg.split(":")[0].equals("MSG")) {
+            if (msg.startsWith("MSG:")) {
+                String refreshMarker = toRefreshMarker(msg);
+                if (refreshMarker != null) {
+                    return refreshMarker;
+                }
+
                 throwInfoMessage(msg);
                 return pollNREvent(); // If the info message throws no exception
             }
@@ -103,6 +116,29 @@ public class PythonNRClient implements NRFeedClient {
     }
 
     
+    /**
+     * Checks if the process has written output that has not been read yet. As the process writes and flushes
+     * whole lines, the next message can then be read without blocking
+     * @return True if the next poll returns without blocking
+     * @throws NRFeedException If the client is dead or an error occurs while checking the output
+     */
+    @Override
+    public boolean isMessageReady() {
+        if (!isAlive) {
+            throw new NRFeedException("The PythonNRClient is already dead. Method should not be called when client is dead",
+                    "An internal error occurred, while waiting for a message from the feed. This should not happen. \nPlease report this as a bug, along with the contents of \"More info\"");
+        }
+
+        try {
+            return stdIn.ready();
+        } catch (IOException e) {
+            disconnect();
+            throw new NRFeedException("Error whilst polling for event",
+                    e,
+                    "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have an internet connection and -secondarily- that your authentication details are correct.");
+        }
+    }
+
     /**
      * Disconnects the PythonNRClient. The PythonNRClient is now dead and therefore,
      * subsequent calls to {@link #pollNREvent()} with throw {@link NRFeedException}.
@@ -158,6 +194,26 @@ public class PythonNRClient implements NRFeedClient {
     }
 
 
+    /**
+     * Converts a refresh started (1) or refresh finished (2) info message into a refresh marker. The optional
+     * message of these info messages is the timestamp of the refresh, optionally followed by its area
+     * @param msg The info message from the feed
+     * @return The refresh marker or null if the info message is not about a refresh
+     */
+    private static String toRefreshMarker(String msg) {
+        String[] parsedMsg = msg.split(":");
+        if (parsedMsg.length < 2) {return null;}
+
+        String timestamp = (parsedMsg.length > 2) ? parsedMsg[2] : "-1";
+        String area = (parsedMsg.length > 3) ? "," + parsedMsg[3] : "";
+        return switch (parsedMsg[1]) {
+            case "1" -> "R," + timestamp + ",START" + area;
+            case "2" -> "R," + timestamp + ",END" + area;
+            default -> null;
+        };
+    }
+
+
     /**
      * Uses the given info message from the feed to throw a relevant descriptive {@link NRFeedException}.
      * If the info message is non-fatal, this method will return normally without throwing any exceptions.
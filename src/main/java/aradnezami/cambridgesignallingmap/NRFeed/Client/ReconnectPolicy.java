@@ -0,0 +1,58 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The ReconnectPolicy of a {@link ResumingNRClient} decides how long it waits before each attempt to reconnect,
+ * and how many attempts it makes before giving up. The delay doubles after each failed attempt, from the initial
+ * delay up to the maximum delay. Each delay is jittered down by up to half, so that many clients which lost
+ * their connection together do not all reconnect together.
+ */
+public final class ReconnectPolicy {
+    /** Waits from 1 second up to 30 seconds between attempts, giving up after 10 attempts */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(1000L, 30_000L, 10);
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+
+
+    /**
+     * @param initialDelayMillis Most milliseconds waited before the first attempt
+     * @param maxDelayMillis Most milliseconds waited before any attempt
+     * @param maxAttempts Attempts made before giving up, each after the last one failed
+     * @throws IllegalArgumentException If a delay or the number of attempts is negative, or the initial delay
+     * is above the maximum delay
+     */
+    public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= initial <= max: " + initialDelayMillis + ", " + maxDelayMillis);
+        }
+        if (maxAttempts < 0) {throw new IllegalArgumentException("maxAttempts must not be negative");}
+
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+
+    /**
+     * @param attempt The attempt about to be made, starting from 1
+     * @return Milliseconds to wait before the attempt
+     */
+    public long delayMillis(int attempt) {
+        long delay = initialDelayMillis;
+        for (int i = 1; i < attempt && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return Attempts made before giving up
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,368 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The RedundantNRClient reads the same feed from several sources at once, for example a data server and the
+ * NR servers directly, and returns each message once: from whichever source received it first. A slow source
+ * then never delays the feed, and a dead source is simply not heard from, without any delay to fail over.
+ *
+ * <h3>Deduplication</h3>
+ * Copies of a message are recognised by their type, timestamp, area and contents (the address and byte of an
+ * S-Class message, the berths and describer of a C-Class message or the refresh marker). A message is
+ * remembered until every source has received it, or until {@link #DEDUP_WINDOW} later messages have arrived,
+ * after which a late copy would be returned again. Late copies are harmless to the decoder, as they repeat
+ * a state it already has. Each source is read by its own thread, which drops copies before they are queued,
+ * so that {@link #isMessageReady()} is exact.
+ * <p>
+ * A reset marker ({@link FeedMessage#RESET}) of a source is dropped if another source, which has not reset itself,
+ * has received a message since the last message the resetting source received, as the messages it lost were then
+ * received by the other. The reset stays pending until a message is received by every live source, which shows
+ * the sources are in step again. Once every live source has a pending reset, such as when an outage of the local
+ * network cut off every source at once, a reset marker is returned, so that the decoder never keeps a state
+ * that no source has seen through.
+ *
+ * <h3>Statistics</h3>
+ * For each source, {@link #stats(int)} gives how often it received a message first and how far it lagged
+ * behind the first copy of each message.
+ *
+ * <h3>Death of RedundantNRClient</h3>
+ * The instance stays alive for as long as any of its sources does. Once the last source dies, the messages
+ * already received are returned, after which polls throw the exception that killed the last source. A call
+ * to {@link #disconnect()} disconnects every source.
+ */
+public class RedundantNRClient implements NRFeedClient {
+    /** Most messages remembered for deduplication */
+    public static final int DEDUP_WINDOW = 8192;
+    /** Most unique messages queued before the sources wait for the poller */
+    private static final int QUEUE_CAPACITY = 4096;
+    /** Queued once the last source dies, to wake the poller */
+    private static final FeedMessage SOURCES_DEAD = new FeedMessage();
+    private static final int DEFAULT_AREA = FeedMessage.packCode("CA");
+
+    private final List<NRFeedClient> sources;
+    private final Thread[] readers;
+    private final BlockingQueue<FeedMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** First arrival of each remembered message. Guarded by this map, as are the statistics */
+    private final LinkedHashMap<MessageKey, Arrival> window = new LinkedHashMap<>(2 * DEDUP_WINDOW, 0.75f) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MessageKey, Arrival> eldest) {
+            return size() > DEDUP_WINDOW;
+        }
+    };
+    private final long[] received;
+    private final long[] wins;
+    private final long[] totalLagNanos;
+    private final long[] maxLagNanos;
+
+    private int liveSources;
+    // Guarded by the window
+    private final boolean[] isReading;
+    private final boolean[] isResetPending;
+    /** The number of messages which have arrived from any source, and that number as of each source's last */
+    private long arrivals = 0;
+    private final long[] lastArrival;
+    /** The last reset marker dropped, returned if the source which covered it dies */
+    private final FeedMessage pendingReset = new FeedMessage();
+    private @Nullable NRFeedException lastFailure = null; // Guarded by the window
+    private volatile boolean isDisconnected = false;
+
+
+    /**
+     * Per-source statistics, see {@link #stats(int)}
+     * @param received Messages received by the source, including copies dropped
+     * @param wins Messages received by the source before any other source
+     * @param meanLagNanos Mean nanoseconds each message was received after its first copy, which is 0 for wins
+     * @param maxLagNanos Most nanoseconds a message was received after its first copy
+     * @param isAlive True if the source is still alive
+     */
+    public record SourceStats(long received, long wins, long meanLagNanos, long maxLagNanos, boolean isAlive) {
+        /**
+         * @return The fraction of received messages that the source received first, or 0 if none were received
+         */
+        public double winRate() {
+            return received == 0 ? 0 : (double) wins / received;
+        }
+    }
+
+    private record MessageKey(char type, long timestamp, int area, int first, int second, int third) {}
+
+    private static final class Arrival {
+        final long nanos;
+        int copies = 1;
+
+        Arrival(long nanos) {
+            this.nanos = nanos;
+        }
+    }
+
+
+    /**
+     * Creates an instance and starts reading every source
+     * @param sources Connected clients of the same feed. This instance becomes responsible for them
+     * @throws IllegalArgumentException If no sources are given
+     */
+    public RedundantNRClient(@NotNull List<? extends NRFeedClient> sources) {
+        if (sources.isEmpty()) {throw new IllegalArgumentException("At least one source is needed");}
+
+        this.sources = List.copyOf(sources);
+        liveSources = this.sources.size();
+        received = new long[liveSources];
+        wins = new long[liveSources];
+        totalLagNanos = new long[liveSources];
+        maxLagNanos = new long[liveSources];
+        isReading = new boolean[liveSources];
+        isResetPending = new boolean[liveSources];
+        lastArrival = new long[liveSources];
+        Arrays.fill(isReading, true);
+
+        readers = new Thread[liveSources];
+        for (int i = 0; i < readers.length; i++) {
+            int source = i;
+            readers[i] = new Thread(() -> read(source), "NRFeed source " + i);
+            readers[i].setDaemon(true);
+            readers[i].start();
+        }
+    }
+
+
+    @Override
+    public @NotNull String pollNREvent() throws NRFeedException {
+        FeedMessage message = new FeedMessage();
+        pollNREvent(message);
+        return message.toString();
+    }
+
+    /**
+     * Receives the next message received by any source, blocking until it is received
+     * @param message The instance the message is copied into. Its previous contents are overwritten
+     * @throws NRFeedException If every source died, the client was disconnected or the polling thread was
+     * interrupted
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        checkDisconnected();
+        FeedMessage next;
+        try {
+            next = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NRFeedException("Interrupted whilst waiting for a message",
+                    e,
+                    "The connection was interrupted");
+        }
+
+        if (next == SOURCES_DEAD) {
+            queue.offer(SOURCES_DEAD); // Every later poll fails too
+            checkDisconnected();
+            synchronized (window) {
+                throw new NRFeedException("Every source died",
+                        lastFailure,
+                        lastFailure == null ? "Every connection to the feed was lost" : lastFailure.displayMessage);
+            }
+        }
+        message.copyFrom(next);
+    }
+
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        checkDisconnected();
+        FeedMessage next = queue.peek();
+        return next != null && next != SOURCES_DEAD;
+    }
+
+    @Override
+    public void disconnect() {
+        isDisconnected = true;
+        for (NRFeedClient source : sources) {
+            source.disconnect();
+        }
+        for (Thread reader : readers) {
+            reader.interrupt();
+        }
+        queue.clear();
+        queue.offer(SOURCES_DEAD);
+    }
+
+    @Override
+    public boolean isAlive() {
+        if (isDisconnected) {
+            return false;
+        }
+        synchronized (window) {
+            return liveSources > 0 || isMessageReady();
+        }
+    }
+
+    /**
+     * @param source The index of the source, in the order given to the constructor
+     * @return The statistics of the source so far
+     */
+    public @NotNull SourceStats stats(int source) {
+        synchronized (window) {
+            long count = received[source];
+            return new SourceStats(count,
+                    wins[source],
+                    count == 0 ? 0 : totalLagNanos[source] / count,
+                    maxLagNanos[source],
+                    sources.get(source).isAlive());
+        }
+    }
+
+    /**
+     * @return The number of sources
+     */
+    public int sourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * @return The number of sources still being read
+     */
+    public int liveSources() {
+        synchronized (window) {
+            return liveSources;
+        }
+    }
+
+
+    /**
+     * Reads a source until it dies, queueing the messages it receives first
+     */
+    private void read(int source) {
+        NRFeedClient client = sources.get(source);
+        FeedMessage message = new FeedMessage();
+        try {
+            while (!isDisconnected) {
+                try {
+                    client.pollNREvent(message);
+                } catch (NRFeedException e) {
+                    if (client.isAlive() && !Thread.currentThread().isInterrupted()) {
+                        continue; // Malformed message, which the other sources may have received intact
+                    }
+                    synchronized (window) {
+                        lastFailure = e;
+                    }
+                    return;
+                }
+
+                if (isFirstArrival(source, message, System.nanoTime())) {
+                    FeedMessage copy = new FeedMessage();
+                    copy.copyFrom(message);
+                    queue.put(copy);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Disconnected
+        } finally {
+            client.disconnect();
+            synchronized (window) {
+                liveSources--;
+                isReading[source] = false;
+                if (liveSources == 0 && !isDisconnected) {
+                    queue.offer(SOURCES_DEAD); // Queue is no longer filled, so only fails if the poller stopped
+                } else if (isEveryLiveSourceResetPending() && !isDisconnected) {
+                    // The source was what covered the pending resets, which nothing covers now
+                    clearPendingResets();
+                    FeedMessage reset = new FeedMessage();
+                    reset.copyFrom(pendingReset);
+                    queue.offer(reset); // Only fails if the poller stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the arrival of a message from a source
+     * @return True if the message is the first copy and should be returned
+     */
+    private boolean isFirstArrival(int source, FeedMessage message, long nanos) {
+        synchronized (window) {
+            if (message.type == FeedMessage.REFRESH && message.refreshMarker == FeedMessage.RESET) {
+                return isResetReturned(source, message);
+            }
+            received[source]++;
+            lastArrival[source] = ++arrivals;
+
+            MessageKey key = keyOf(message);
+            Arrival first = window.get(key);
+            if (first == null) {
+                window.put(key, new Arrival(nanos));
+                wins[source]++;
+                return true;
+            }
+
+            long lag = nanos - first.nanos;
+            totalLagNanos[source] += lag;
+            maxLagNanos[source] = Math.max(maxLagNanos[source], lag);
+            if (++first.copies >= liveSources) {
+                clearPendingResets(); // Every live source is in step
+            }
+            if (first.copies == sources.size()) {
+                window.remove(key); // No more copies to come
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Decides whether a reset marker of a source is returned, or left pending as another source received the
+     * messages it lost. Must hold the window
+     * @return True if the reset marker should be returned
+     */
+    private boolean isResetReturned(int source, FeedMessage reset) {
+        isResetPending[source] = true;
+        for (int other = 0; other < sources.size(); other++) {
+            if (other != source && isReading[other] && !isResetPending[other]
+                    && lastArrival[other] > lastArrival[source]) {
+                pendingReset.copyFrom(reset);
+                return false; // The other source received messages during the gap
+            }
+        }
+        clearPendingResets();
+        return true;
+    }
+
+    /**
+     * @return True if there are live sources and every one has a pending reset. Must hold the window
+     */
+    private boolean isEveryLiveSourceResetPending() {
+        if (liveSources == 0) { return false; }
+        for (int source = 0; source < sources.size(); source++) {
+            if (isReading[source] && !isResetPending[source]) { return false; }
+        }
+        return true;
+    }
+
+    private void clearPendingResets() {
+        Arrays.fill(isResetPending, false);
+    }
+
+    private static MessageKey keyOf(FeedMessage message) {
+        int area = message.area == FeedMessage.NO_AREA ? DEFAULT_AREA : message.area;
+        return switch (message.type) {
+            case FeedMessage.S_CLASS -> new MessageKey(message.type, message.timestamp, area,
+                    message.address, message.data, 0);
+            case FeedMessage.C_CLASS -> new MessageKey(message.type, message.timestamp, area,
+                    message.fromBerth, message.toBerth, message.describer);
+            case FeedMessage.HEARTBEAT -> new MessageKey(message.type, message.timestamp, area, 0, 0, 0);
+            default -> new MessageKey(message.type, message.timestamp, area, message.refreshMarker, 0, 0);
+        };
+    }
+
+    private void checkDisconnected() throws NRFeedException {
+        if (isDisconnected) {
+            throw new NRFeedException("Client is disconnected",
+                    "The connection to the feed was closed");
+        }
+    }
+}
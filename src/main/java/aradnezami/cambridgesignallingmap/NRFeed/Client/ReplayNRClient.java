@@ -0,0 +1,242 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ReplayNRClient replays a capture of the feed recorded to a file, as if the messages were being received
+ * live. The file is memory-mapped and messages are parsed straight from the mapping, so even captures of a
+ * whole day are replayed without reading them into memory first.
+ * <p>
+ * A capture holds either one message per line, in the String format of {@link #pollNREvent()} as sent by a
+ * text data server, or the frames of {@link BinaryFrameCodec} as sent by a binary data server. Captures whose
+ * name ends with {@link #BINARY_EXTENSION} are read as binary.
+ *
+ * <h3>Virtual clock</h3>
+ * Messages are returned at the pace they were recorded at, multiplied by the speed given, or
+ * {@link #AS_FAST_AS_POSSIBLE}. The time of the capture being replayed is given by {@link #currentTimeMillis()},
+ * which starts at the timestamp of the first message and runs at the speed of the replay, so that it agrees
+ * with the timestamps of the messages returned. Displays of the time should use it in place of the system
+ * clock whilst replaying.
+ *
+ * <h3>Death of ReplayNRClient</h3>
+ * An instance dying can be caused by: Reaching the end of the capture, a malformed binary frame, from which
+ * the capture cannot be read any further, or a call to {@link #disconnect()}. A malformed line of a text
+ * capture is skipped, throwing NRFeedException without the client dying.
+ */
+public class ReplayNRClient implements NRFeedClient {
+    /** The speed at which messages are returned without waiting between them */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+    /** The speed at which messages are returned at the pace they were recorded at */
+    public static final double REAL_TIME = 1;
+    /** The file extension of captures holding binary frames */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    private final MappedByteBuffer capture;
+    private final @Nullable BinaryFrameCodec codec; // Null for text captures
+    private final double speed;
+
+    /** The next message of the capture, read ahead so that its time is known before it is due */
+    private final FeedMessage next = new FeedMessage();
+    private boolean hasNext;
+    /** Notified when disconnected, to cut short waiting for the next message to be due */
+    private final Object pacing = new Object();
+
+    // The virtual clock reads firstTimestamp at startNanos
+    private final long firstTimestamp;
+    private final long startNanos;
+    private volatile long lastTimestamp;
+
+    private volatile boolean isAlive = true;
+
+
+    /**
+     * Maps the capture and starts the virtual clock at the timestamp of its first message
+     * @param capture The file holding the capture
+     * @param speed How many times faster than real time to replay, or {@link #AS_FAST_AS_POSSIBLE}
+     * @throws IOException If the capture could not be mapped, or is over 2GB
+     * @throws NRFeedException If the first message of the capture was malformed
+     * @throws IllegalArgumentException If the speed is not positive
+     */
+    public ReplayNRClient(@NotNull Path capture, double speed) throws IOException, NRFeedException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive");
+        }
+
+        try (FileChannel channel = FileChannel.open(capture, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Captures over 2GB cannot be mapped");
+            }
+            this.capture = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid once closed
+        }
+        this.codec = capture.getFileName().toString().endsWith(BINARY_EXTENSION) ? new BinaryFrameCodec() : null;
+        this.speed = speed;
+
+        hasNext = readNext();
+        firstTimestamp = hasNext ? next.timestamp : 0;
+        lastTimestamp = firstTimestamp;
+        startNanos = System.nanoTime();
+    }
+
+
+    @Override
+    public @NotNull String pollNREvent() throws NRFeedException {
+        FeedMessage message = new FeedMessage();
+        pollNREvent(message);
+        return message.toString();
+    }
+
+    /**
+     * Returns the next message of the capture, waiting until it is due
+     * @param message The instance the message is parsed into. Its previous contents are overwritten
+     * @throws NRFeedException If the end of the capture was reached, if the client was disconnected, if the
+     * polling thread was interrupted or if the message was malformed
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        checkAlive();
+        if (!hasNext && !(hasNext = readNext())) {
+            disconnect();
+            throw new NRFeedException("End of capture reached",
+                    "The replay reached the end of the capture");
+        }
+
+        waitUntilDue(next.timestamp);
+        message.copyFrom(next);
+        hasNext = false;
+        lastTimestamp = message.timestamp;
+    }
+
+    /**
+     * @return True if the next message of the capture is due. False at the end of the capture or if the next
+     * message was malformed, as the next poll then throws
+     * @throws NRFeedException If the client was already dead
+     */
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        checkAlive();
+        if (!hasNext) {
+            try {
+                hasNext = readNext();
+            } catch (NRFeedException e) {
+                return false;
+            }
+            if (!hasNext) {
+                return false;
+            }
+        }
+        return System.nanoTime() - dueNanos(next.timestamp) >= 0;
+    }
+
+    @Override
+    public void disconnect() {
+        isAlive = false;
+        synchronized (pacing) {
+            pacing.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return isAlive;
+    }
+
+
+    /**
+     * Returns the time of the capture being replayed. This runs at the speed of the replay from the timestamp
+     * of the first message, so that a message is returned once this reaches its timestamp. When replaying
+     * {@link #AS_FAST_AS_POSSIBLE}, or once the client has died, this is the timestamp of the last message
+     * returned
+     * @return The virtual time, in milliseconds since the epoch
+     */
+    public long currentTimeMillis() {
+        if (speed == AS_FAST_AS_POSSIBLE || !isAlive) {
+            return lastTimestamp;
+        }
+        return firstTimestamp + (long) ((System.nanoTime() - startNanos) * speed / 1_000_000);
+    }
+
+
+    /**
+     * Reads the next message of the capture into {@link #next}
+     * @return False if the end of the capture was reached
+     * @throws NRFeedException If the message was malformed. A malformed line is skipped, whereas a malformed
+     * frame kills the client
+     */
+    private boolean readNext() throws NRFeedException {
+        if (codec != null) {
+            int result = codec.decode(capture, next);
+            if (result == BinaryFrameCodec.MALFORMED) {
+                disconnect();
+                throw new NRFeedException("Malformed frame in capture at byte " + capture.position(),
+                        "The capture is corrupt and cannot be replayed any further");
+            }
+            return result == BinaryFrameCodec.DECODED; // A frame cut short ends the capture
+        }
+
+        int limit = capture.limit();
+        while (capture.position() < limit) {
+            int start = capture.position();
+            int end = start;
+            while (end < limit && capture.get(end) != '\n') {
+                end++;
+            }
+            int lineEnd = end > start && capture.get(end - 1) == '\r' ? end - 1 : end;
+            capture.position(Math.min(end + 1, limit));
+            if (lineEnd == start) {
+                continue; // Blank lines are skipped
+            }
+
+            capture.position(start).limit(lineEnd);
+            boolean isParsed = next.parse(capture);
+            capture.limit(limit).position(Math.min(end + 1, limit));
+            if (!isParsed) {
+                throw new NRFeedException("Malformed line in capture at byte " + start,
+                        "A malformed message was recieved from the feed");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which a message of the given timestamp is due
+     */
+    private long dueNanos(long timestamp) {
+        if (speed == AS_FAST_AS_POSSIBLE) {
+            return Long.MIN_VALUE / 2; // Always in the past without overflowing
+        }
+        return startNanos + (long) ((timestamp - firstTimestamp) * 1_000_000 / speed);
+    }
+
+    private void waitUntilDue(long timestamp) throws NRFeedException {
+        long due = dueNanos(timestamp);
+        synchronized (pacing) {
+            long remaining;
+            while (isAlive && (remaining = due - System.nanoTime()) > 0) {
+                try {
+                    pacing.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NRFeedException("Interrupted whilst waiting for the next message of the capture",
+                            e,
+                            "The connection was interrupted");
+                }
+            }
+        }
+        checkAlive();
+    }
+
+    private void checkAlive() throws NRFeedException {
+        if (!isAlive) {
+            throw new NRFeedException("Replay is disconnected",
+                    "The connection to the feed was closed");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import aradnezami.cambridgesignallingmap.Metrics.Counter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The ResumingNRClient supervises the connection of another {@link NRFeedClient}, and replaces it with a new
+ * connection whenever it dies, so that a dropped connection does not interrupt the feed. Reconnecting is
+ * retried according to a {@link ReconnectPolicy}, and only if every attempt fails does the ResumingNRClient die.
+ *
+ * <h3>Resuming</h3>
+ * Each new connection is asked to resume from the latest timestamp received (see
+ * {@link Connector#connect(long)}). If it agrees (see {@link NRFeedClient#isResumed()}), no messages were lost
+ * and the feed simply continues. Otherwise, a reset marker ({@link FeedMessage#RESET}) is returned before the
+ * first message of the new connection, so that the state decoded from the old connection is forgotten rather
+ * than left stale.
+ *
+ * <h3>Death of ResumingNRClient</h3>
+ * An instance dying can be caused by: The reconnect policy giving up or a call to {@link #disconnect()}. A
+ * message being malformed, or the polling thread being interrupted, does not cause a reconnect, as the
+ * connection is still alive. Such exceptions are thrown as they are.
+ */
+public class ResumingNRClient implements NRFeedClient {
+    /** The timestamp to resume from when no message has been received yet */
+    public static final long NO_TIMESTAMP = -1L;
+
+    /**
+     * Opens a new connection to the source of the feed
+     */
+    @FunctionalInterface
+    public interface Connector {
+        /**
+         * @param resumeFrom The latest timestamp received, from which the connection should
+         *                   resume, or {@link #NO_TIMESTAMP}. Sources which cannot resume may ignore it
+         * @return The connected client
+         * @throws NRFeedException If connecting fails
+         */
+        @NotNull NRFeedClient connect(long resumeFrom) throws NRFeedException;
+    }
+
+    private final Connector connector;
+    private final ReconnectPolicy policy;
+    private final @Nullable Counter reconnectCounter;
+    /** Notified when disconnected, to cut short waiting between attempts */
+    private final Object backoff = new Object();
+
+    private volatile NRFeedClient client;
+    /** The latest timestamp received. Messages with no timestamp, or out of order, do not move it back */
+    private long lastTimestamp = NO_TIMESTAMP;
+    private boolean isReceived = false; // True once any message has been received, timestamped or not
+    /** True if a reset marker must be returned before the next message */
+    private boolean isResetPending = false;
+    private int reconnects = 0;
+
+    private volatile boolean isDisconnected = false;
+
+
+    /**
+     * Creates an instance, making the first connection without resuming
+     * @param connector Opens each connection
+     * @param policy How reconnecting is retried
+     * @throws NRFeedException If the first connection fails. It is not retried
+     */
+    public ResumingNRClient(@NotNull Connector connector, @NotNull ReconnectPolicy policy) throws NRFeedException {
+        this(connector, policy, null);
+    }
+
+    /**
+     * Creates an instance as {@link #ResumingNRClient(Connector, ReconnectPolicy)} does, which also counts each
+     * time a dead connection is replaced in the given counter, so that reconnects can be watched across
+     * instances
+     * @param connector Opens each connection
+     * @param policy How reconnecting is retried
+     * @param reconnectCounter Counts the reconnects, or null for none
+     * @throws NRFeedException If the first connection fails. It is not retried
+     */
+    public ResumingNRClient(@NotNull Connector connector, @NotNull ReconnectPolicy policy,
+                            @Nullable Counter reconnectCounter) throws NRFeedException {
+        this.connector = connector;
+        this.policy = policy;
+        this.reconnectCounter = reconnectCounter;
+        client = connector.connect(NO_TIMESTAMP);
+    }
+
+
+    @Override
+    public @NotNull String pollNREvent() throws NRFeedException {
+        FeedMessage message = new FeedMessage();
+        pollNREvent(message);
+        return message.toString();
+    }
+
+    /**
+     * Receives the next message from the current connection, reconnecting first if it died
+     * @param message The instance the message is parsed into. Its previous contents are overwritten
+     * @throws NRFeedException If reconnecting gave up, if the client was disconnected, if the polling thread
+     * was interrupted or if the message was malformed
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        while (true) {
+            checkDisconnected();
+            if (isResetPending) {
+                isResetPending = false;
+                message.type = FeedMessage.REFRESH;
+                message.timestamp = lastTimestamp;
+                message.refreshMarker = FeedMessage.RESET;
+                message.area = FeedMessage.NO_AREA;
+                return;
+            }
+
+            NRFeedClient current = client;
+            try {
+                current.pollNREvent(message);
+                isReceived = true;
+                if (message.timestamp > lastTimestamp) {
+                    lastTimestamp = message.timestamp;
+                }
+                return;
+            } catch (NRFeedException e) {
+                if (current.isAlive() || isDisconnected) {
+                    throw e;
+                }
+                reconnect(e);
+            }
+        }
+    }
+
+    /**
+     * @return True if a message has been received by the current connection. False if the current connection
+     * died, as the next poll then waits to reconnect
+     * @throws NRFeedException If the client was already dead
+     */
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        checkDisconnected();
+        if (isResetPending) {
+            return true;
+        }
+        try {
+            return client.isMessageReady();
+        } catch (NRFeedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        isDisconnected = true;
+        client.disconnect();
+        synchronized (backoff) {
+            backoff.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !isDisconnected;
+    }
+
+    /**
+     * @return The number of times a dead connection was replaced
+     */
+    public int reconnects() {
+        return reconnects;
+    }
+
+
+    /**
+     * Replaces the dead connection, retrying as the policy allows
+     * @param cause Why the connection died
+     * @throws NRFeedException If the policy gave up, the client was disconnected or the thread was interrupted
+     */
+    private void reconnect(NRFeedException cause) throws NRFeedException {
+        client.disconnect();
+
+        NRFeedException lastFailure = cause;
+        for (int attempt = 1; attempt <= policy.maxAttempts(); attempt++) {
+            waitBeforeAttempt(policy.delayMillis(attempt));
+
+            NRFeedClient next;
+            try {
+                next = connector.connect(lastTimestamp);
+            } catch (NRFeedException e) {
+                lastFailure = e;
+                continue;
+            }
+
+            client = next;
+            if (isDisconnected) { // Disconnected while connecting
+                next.disconnect();
+                checkDisconnected();
+            }
+            reconnects++;
+            if (reconnectCounter != null) {
+                reconnectCounter.increment();
+            }
+            isResetPending = isReceived && !next.isResumed();
+            return;
+        }
+
+        isDisconnected = true;
+        throw new NRFeedException("Gave up reconnecting after " + policy.maxAttempts() + " attempts",
+                lastFailure,
+                lastFailure.displayMessage);
+    }
+
+    private void waitBeforeAttempt(long delayMillis) throws NRFeedException {
+        long deadline = System.nanoTime() + delayMillis * 1_000_000L;
+        synchronized (backoff) {
+            long remaining;
+            while (!isDisconnected && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    backoff.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NRFeedException("Interrupted whilst waiting to reconnect",
+                            e,
+                            "The connection was interrupted");
+                }
+            }
+        }
+        checkDisconnected();
+    }
+
+    private void checkDisconnected() throws NRFeedException {
+        if (isDisconnected) {
+            throw new NRFeedException("Client is disconnected",
+                    "The connection to the feed was closed");
+        }
+    }
+}
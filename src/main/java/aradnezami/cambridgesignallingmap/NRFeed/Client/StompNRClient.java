@@ -0,0 +1,520 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The StompNRClient connects straight to the Network Rail
+ * <a href="https://wiki.openraildata.com/index.php?title=TD">TD feed</a> over
+ * <a href="https://stomp.github.io/stomp-specification-1.2.html">STOMP 1.2</a>, without a python process in
+ * between. The JSON body of each STOMP message is parsed by a {@link TdMessageParser} straight into the
+ * messages returned. This instance becomes responsible for the socket and cleaning it up. Users should not
+ * attempt to interact with the provided socket thereafter.
+ *
+ * <h3>Heartbeats</h3>
+ * The client offers to send and receive heartbeats every {@link #HEARTBEAT_MILLIS}. Once agreed with the
+ * server, a thread sends a heartbeat whenever nothing else was sent for that long, and the connection dies if
+ * nothing is received from the server for twice the agreed interval.
+ *
+ * <h3>Durable subscriptions</h3>
+ * With a subscription name, the subscription is durable: while the client is disconnected, the server keeps
+ * the messages it would have sent, and sends them once the client subscribes again. Messages are then
+ * acknowledged individually, each once every message parsed from it has been returned by a poll, so that a
+ * message lost with the connection is sent again. Without a subscription name, the server considers messages
+ * acknowledged as soon as it sends them.
+ *
+ * <h3>Death of StompNRClient</h3>
+ * An instance dying can be caused by: A connection error with the NR servers, an error frame sent by the
+ * server, missed heartbeats or a call to {@link #disconnect()}. In any case of a death, all resources
+ * associated with the connection are released, and any subsequent calls to {@link #pollNREvent()} will throw
+ * {@link NRFeedException}.
+ */
+public class StompNRClient implements NRFeedClient {
+    public static final String HOST = "publicdatafeeds.networkrail.co.uk";
+    public static final int PORT = 61618;
+    /** The topic of every TD area */
+    public static final String TOPIC = "/topic/TD_ALL_SIG_AREA";
+    /** Milliseconds between heartbeats that the client offers to send and asks to receive */
+    public static final int HEARTBEAT_MILLIS = 5000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    /** Most bytes of a frame. The feed sends frames of at most a few kilobytes */
+    private static final int MAX_FRAME_LENGTH = 16 << 20;
+    private static final String SUBSCRIPTION_ID = "1";
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out; // Guarded by itself
+    private final TdMessageParser parser;
+    private final boolean isDurable;
+    private final @Nullable Thread heartbeatThread;
+
+    /**
+     * Bytes read from the socket. Bytes from {@link #start} to {@link #end} have been received but not yet read
+     * as frames
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+
+    // The last frame read. Its body is in the buffer, and valid until the next frame is read
+    private String command;
+    private final Map<String, String> headers = new HashMap<>();
+    private int bodyStart;
+    private int bodyLength;
+
+    /** Index of the next message of the parser to return */
+    private int nextMessage = 0;
+    /** The ack header of the message being returned, which is acknowledged once it has been returned */
+    private @Nullable String unacknowledged = null;
+
+    private volatile long lastSendNanos = System.nanoTime();
+    private volatile boolean isAlive = true;
+
+
+    /**
+     * Connects and subscribes to the TD feed of every area
+     * @param socket A connected socket to the STOMP server
+     * @param login The username of the account
+     * @param passcode The password of the account
+     * @param subscriptionName The unique name of a durable subscription, or null for a subscription which is
+     *                         not durable
+     * @param areas The areas whose messages are returned, or null for every area
+     * @throws NRFeedException If an IOException takes place, or if the server refuses the connection
+     */
+    public StompNRClient(@NotNull Socket socket, @NotNull String login, @NotNull String passcode,
+                         @Nullable String subscriptionName, @Nullable Set<String> areas) throws NRFeedException {
+        this.socket = socket;
+        this.parser = new TdMessageParser(areas);
+        this.isDurable = subscriptionName != null;
+
+        long sendInterval;
+        try {
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS); // Until heartbeats are agreed
+
+            StringBuilder connect = new StringBuilder("CONNECT\n")
+                    .append("accept-version:1.2\n")
+                    .append("host:").append(socket.getInetAddress().getHostName()).append('\n')
+                    .append("login:").append(login).append('\n')
+                    .append("passcode:").append(passcode).append('\n')
+                    .append("heart-beat:").append(HEARTBEAT_MILLIS).append(',').append(HEARTBEAT_MILLIS).append('\n');
+            if (isDurable) {
+                connect.append("client-id:").append(login).append('\n'); // Identifies the durable subscription
+            }
+            send(connect.append('\n').toString()); // Headers of CONNECT are not escaped
+
+            readFrame();
+            if (!command.equals("CONNECTED")) {
+                throw errorFrameException();
+            }
+
+            // Each side sends at the slower of the rates the sender offers and the receiver asks for
+            long[] serverHeartbeat = parseHeartbeat(headers.get("heart-beat"));
+            sendInterval = serverHeartbeat[1] == 0 ? 0 : Math.max(HEARTBEAT_MILLIS, serverHeartbeat[1]);
+            long receiveInterval = serverHeartbeat[0] == 0 ? 0 : Math.max(HEARTBEAT_MILLIS, serverHeartbeat[0]);
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, 2 * receiveInterval));
+
+            StringBuilder subscribe = new StringBuilder("SUBSCRIBE\n")
+                    .append("id:").append(SUBSCRIPTION_ID).append('\n')
+                    .append("destination:").append(escape(TOPIC)).append('\n')
+                    .append("ack:").append(isDurable ? "client-individual" : "auto").append('\n');
+            if (isDurable) {
+                subscribe.append("activemq.subscriptionName:").append(escape(subscriptionName)).append('\n');
+            }
+            send(subscribe.append('\n').toString());
+
+        } catch (IOException e) {
+            disconnect();
+            throw new NRFeedException("Error whilst starting client.",
+                    e,
+                    "Could not to connect to the feed. Ensure that your authentication details are" +
+                            " correct and you have an internet connection");
+        } catch (NRFeedException e) {
+            disconnect();
+            throw e;
+        }
+
+        if (sendInterval > 0) {
+            heartbeatThread = new Thread(() -> sendHeartbeats(sendInterval), "STOMP heartbeat");
+            heartbeatThread.setDaemon(true);
+            heartbeatThread.start();
+        } else {
+            heartbeatThread = null;
+        }
+    }
+
+
+    /**
+     * Returns the next message received from the feed, blocking until it is received. See
+     * {@link NRFeedClient#pollNREvent()} for the format of messages. Every message has its area
+     * @return The next message
+     * @throws NRFeedException If a connection error occurs, the server sends an error frame, the server's
+     * heartbeats stop, the client was already dead or the message was malformed
+     */
+    @Override
+    public @NotNull String pollNREvent() throws NRFeedException {
+        FeedMessage message = new FeedMessage();
+        pollNREvent(message);
+        return message.toString();
+    }
+
+    /**
+     * Receives the next message, as {@link #pollNREvent()} does, parsed into the given {@link FeedMessage}
+     * @param message The instance the message is copied into. Its previous contents are overwritten
+     * @throws NRFeedException If a connection error occurs, the server sends an error frame, the server's
+     * heartbeats stop, the client was already dead or the message was malformed
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        checkAlive();
+        while (nextMessage == parser.size()) {
+            acknowledge();
+            receiveMessage();
+        }
+        message.copyFrom(parser.message(nextMessage++));
+    }
+
+    /**
+     * Checks if messages parsed from the last STOMP message have not been returned yet. Messages which have
+     * been received but not parsed are not reported, as they may hold no messages of the areas asked for
+     * @return True if the next poll returns without blocking
+     * @throws NRFeedException If the client is dead
+     */
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        checkAlive();
+        return nextMessage < parser.size();
+    }
+
+    /**
+     * @return True if the subscription is durable, so that the server kept the messages sent while the
+     * previous connection of the subscription was lost. This holds only as far as the server's limits on
+     * kept messages
+     */
+    @Override
+    public boolean isResumed() {
+        return isDurable;
+    }
+
+    /**
+     * Disconnects the StompNRClient. The StompNRClient is now dead and therefore,
+     * subsequent calls to {@link #pollNREvent()} will throw {@link NRFeedException}.
+     * Calling this method when the instance is dead has no effect.
+     */
+    @Override
+    public void disconnect() {
+        if (!isAlive) {return;}
+        isAlive = false;
+
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+        }
+        try {
+            if (out != null && !socket.isClosed()) {
+                send("DISCONNECT\n\n");
+            }
+        } catch (IOException e) {
+            // Closed regardless
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more can be done
+        }
+    }
+
+    /**
+     * Checks if the client is dead or alive. If this returns false: all
+     * subsequent calls to {@link #pollNREvent()} will throw {@link NRFeedException}
+     *
+     * @return True if the instance is alive and false if dead
+     */
+    @Override
+    public boolean isAlive() {
+        return isAlive;
+    }
+
+
+    /**
+     * Opens a socket to the STOMP server that can be submitted to the constructor
+     * @param host The hostname of the server, such as {@link #HOST}
+     * @param port The port of the server, such as {@link #PORT}
+     * @return A connected socket
+     * @throws NRFeedException If an IOException occurs while connecting
+     */
+    public static Socket getSocket(String host, int port) throws NRFeedException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            return socket;
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+            throw new NRFeedException("Could not connect to " + host + ":" + port,
+                    e,
+                    "Could not to connect to the feed. Ensure that you have an internet connection");
+        }
+    }
+
+
+    /**
+     * Reads frames until a MESSAGE frame, and parses its body
+     */
+    private void receiveMessage() throws NRFeedException {
+        try {
+            while (true) {
+                readFrame();
+                switch (command) {
+                    case "MESSAGE" -> {
+                        if (isDurable) {
+                            unacknowledged = headers.get("ack");
+                        }
+                        nextMessage = 0;
+                        parser.parse(buffer, bodyStart, bodyLength);
+                        return;
+                    }
+                    case "ERROR" -> {
+                        disconnect();
+                        throw errorFrameException();
+                    }
+                    default -> {} // Such as RECEIPT
+                }
+            }
+
+        } catch (SocketTimeoutException e) {
+            disconnect();
+            throw new NRFeedException("No heartbeat received from the server",
+                    e,
+                    "The feed stopped responding. \nEnsure that you have an internet connection");
+        } catch (IOException e) {
+            disconnect();
+            throw new NRFeedException("Error whilst polling for event",
+                    e,
+                    "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have an internet connection and -secondarily- that your authentication details are correct.");
+        }
+    }
+
+    /**
+     * Acknowledges the message whose parsed messages have all been returned, if the subscription is durable
+     */
+    private void acknowledge() throws NRFeedException {
+        if (unacknowledged == null) {return;}
+        try {
+            send("ACK\nid:" + escape(unacknowledged) + "\n\n");
+            unacknowledged = null;
+        } catch (IOException e) {
+            disconnect();
+            throw new NRFeedException("Error whilst acknowledging a message",
+                    e,
+                    "A connection error occurred whilst waiting for a message from the data feed. \nEnsure that you have an internet connection");
+        }
+    }
+
+    /**
+     * Reads the next frame into {@link #command}, {@link #headers}, {@link #bodyStart} and {@link #bodyLength},
+     * skipping heartbeats
+     */
+    private void readFrame() throws IOException, NRFeedException {
+        if (start > 0) { // Move what was received of the next frame to the front, as the last frame is done with
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+
+        // Heartbeats are end of lines between frames
+        while (true) {
+            if (start == end) { fill(); }
+            if (buffer[start] != '\n' && buffer[start] != '\r') { break; }
+            start++;
+        }
+
+        int lineStart = start;
+        int lineEnd = findLineEnd(lineStart);
+        command = decode(lineStart, lineEnd, false);
+
+        headers.clear();
+        boolean isEscaped = !command.equals("CONNECTED");
+        while (true) {
+            lineStart = lineEnd + 1;
+            lineEnd = findLineEnd(lineStart);
+            if (lineEnd == lineStart || (lineEnd == lineStart + 1 && buffer[lineStart] == '\r')) { break; }
+
+            int colon = lineStart;
+            while (colon < lineEnd && buffer[colon] != ':') { colon++; }
+            if (colon == lineEnd) {throw malformedFrameException();}
+            // Only the first of repeated headers counts
+            headers.putIfAbsent(decode(lineStart, colon, isEscaped), decode(colon + 1, lineEnd, isEscaped));
+        }
+
+        bodyStart = lineEnd + 1;
+        String contentLength = headers.get("content-length");
+        int bodyEnd;
+        if (contentLength != null) {
+            try {
+                bodyLength = Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                throw malformedFrameException();
+            }
+            if (bodyLength < 0 || bodyLength > MAX_FRAME_LENGTH) {throw malformedFrameException();}
+            while (end - bodyStart <= bodyLength) { fill(); }
+            bodyEnd = bodyStart + bodyLength;
+            if (buffer[bodyEnd] != 0) {throw malformedFrameException();}
+        } else {
+            bodyEnd = findByte(bodyStart, (byte) 0);
+            bodyLength = bodyEnd - bodyStart;
+        }
+        start = bodyEnd + 1;
+    }
+
+    /**
+     * @return The index of the next line feed from the index, reading more bytes until one is received
+     */
+    private int findLineEnd(int from) throws IOException, NRFeedException {
+        return findByte(from, (byte) '\n');
+    }
+
+    /**
+     * @return The index of the next occurrence of the byte from the index, reading more bytes until one is
+     * received
+     */
+    private int findByte(int from, byte target) throws IOException, NRFeedException {
+        int i = from;
+        while (true) {
+            for (; i < end; i++) {
+                if (buffer[i] == target) { return i; }
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Reads more bytes from the socket, growing the buffer if it is full. Bytes are never moved, so that
+     * indices into the frame being read stay valid
+     */
+    private void fill() throws IOException, NRFeedException {
+        if (end == buffer.length) {
+            if (buffer.length >= MAX_FRAME_LENGTH) {throw malformedFrameException();}
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read == -1) {
+            throw new IOException("The server closed the connection");
+        }
+        end += read;
+    }
+
+    private String decode(int from, int to, boolean isEscaped) throws NRFeedException {
+        if (to > from && buffer[to - 1] == '\r') { to--; }
+        String text = new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        if (!isEscaped || text.indexOf('\\') == -1) {
+            return text;
+        }
+
+        StringBuilder decoded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                decoded.append(c);
+                continue;
+            }
+            if (++i == text.length()) {throw malformedFrameException();}
+            decoded.append(switch (text.charAt(i)) {
+                case 'r' -> '\r';
+                case 'n' -> '\n';
+                case 'c' -> ':';
+                case '\\' -> '\\';
+                default -> throw malformedFrameException();
+            });
+        }
+        return decoded.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace(":", "\\c");
+    }
+
+    /**
+     * Sends a frame without a body
+     * @param frame The command and headers of the frame, ending with the blank line
+     */
+    private void send(String frame) throws IOException {
+        byte[] bytes = (frame + '\0').getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.write(bytes);
+            out.flush();
+        }
+        lastSendNanos = System.nanoTime();
+    }
+
+    /**
+     * Sends a heartbeat whenever nothing else was sent for the interval, until the client dies
+     */
+    private void sendHeartbeats(long intervalMillis) {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        byte[] heartbeat = {'\n'};
+        try {
+            while (isAlive) {
+                long idleNanos = System.nanoTime() - lastSendNanos;
+                if (idleNanos >= intervalNanos) {
+                    synchronized (out) {
+                        out.write(heartbeat);
+                        out.flush();
+                    }
+                    lastSendNanos = System.nanoTime();
+                    idleNanos = 0;
+                }
+                TimeUnit.NANOSECONDS.sleep(intervalNanos - idleNanos);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The poller finds out about a broken connection when it next reads
+        }
+    }
+
+
+    private static long[] parseHeartbeat(@Nullable String header) {
+        if (header == null) {return new long[]{0, 0};}
+        String[] parts = header.split(",");
+        try {
+            return new long[]{Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim())};
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return new long[]{0, 0};
+        }
+    }
+
+    private NRFeedException errorFrameException() {
+        String error = headers.getOrDefault("message", command);
+        return new NRFeedException("Recieved a stomp error frame from NR feed: " + error,
+                "An error was recieved from the feed. The error is as follows: " + error);
+    }
+
+    private NRFeedException malformedFrameException() {
+        disconnect();
+        return new NRFeedException("Malformed STOMP frame received",
+                "A malformed message was recieved from the feed");
+    }
+
+    private void checkAlive() throws NRFeedException {
+        if (!isAlive) {
+            throw new NRFeedException("The StompNRClient is already dead. Method should not be called when client is dead",
+                    "An internal error occurred, while waiting for a message from the feed. This should not happen. \nPlease report this as a bug, along with the contents of \"More info\"");
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The TdMessageParser parses the JSON body of a message from the
+ * <a href="https://wiki.openraildata.com/index.php?title=TD">TD feed</a> into {@link FeedMessage}s. The body is
+ * an array of TD messages, each wrapped in an object with a single field, such as {@code {"CA_MSG": {...}}}.
+ * The body is read with a streaming parser, and every field is parsed straight from the parser's characters
+ * into the reused messages of this instance, without building a tree or creating Strings.
+ * <p>
+ * Berth steps, cancels and interposes (CA, CB and CC) become C-Class messages, and signalling updates (SF)
+ * become S-Class messages. The 4 bytes of a signalling refresh message (SG, or SH for the last) become 4
+ * S-Class messages, and each refresh of an area is bracketed by refresh markers. Heartbeats (CT) become
+ * heartbeat messages. Messages of areas not asked for are skipped, as are single TD messages with missing or
+ * invalid fields, so that one bad message does not lose the rest of its body.
+ * <p>
+ * An instance tracks which areas are refreshing, so must parse every message of one feed in order.
+ */
+final class TdMessageParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int NONE = FeedMessage.packCode("NONE");
+    private static final int REFRESH_BYTES = 4;
+
+    /** Packed areas whose messages are parsed, or null for every area */
+    private final int @Nullable [] areas;
+    /** Packed areas between the first SG message of a refresh and its SH message */
+    private final Set<Integer> refreshing = new HashSet<>();
+
+    /** The messages parsed from the last body. Only the first {@link #size} are valid */
+    private FeedMessage[] messages = new FeedMessage[0];
+    private int size = 0;
+
+    // Fields of the TD message being parsed
+    private final char[] msgType = new char[2];
+    private long time;
+    private int area;
+    private int address;
+    private long data; // Up to 4 bytes, for refreshes
+    private int dataLength; // Number of bytes in data
+    private int from;
+    private int to;
+    private int descr;
+    private boolean isMalformed; // A field could not be parsed
+
+
+    /**
+     * @param areas Areas whose messages are parsed, such as {@code "CA"}, or null for every area
+     */
+    TdMessageParser(@Nullable Set<String> areas) {
+        this.areas = areas == null ? null : areas.stream().mapToInt(FeedMessage::packCode).toArray();
+    }
+
+
+    /**
+     * Parses the TD messages of a body, replacing the messages parsed from the last body. A TD message with
+     * missing or invalid fields is skipped, but if the JSON of the body is malformed, no messages are kept
+     * @param body The buffer holding the body
+     * @param offset The index of the first byte of the body
+     * @param length The length of the body
+     * @throws NRFeedException If the JSON of the body is malformed
+     */
+    void parse(byte @NotNull [] body, int offset, int length) throws NRFeedException {
+        size = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(body, offset, length)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                expect(parser.nextToken(), JsonToken.FIELD_NAME); // Such as "CA_MSG"
+                expect(parser.nextToken(), JsonToken.START_OBJECT);
+                parseFields(parser);
+                expect(parser.currentToken(), JsonToken.END_OBJECT);
+                expect(parser.nextToken(), JsonToken.END_OBJECT);
+                addMessages();
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+
+        } catch (IOException | IllegalArgumentException e) {
+            size = 0;
+            throw new NRFeedException("Malformed TD message: " + e.getMessage(),
+                    e,
+                    "A malformed message was recieved from the feed");
+        }
+    }
+
+    /**
+     * @return The number of messages parsed from the last body
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the message, below {@link #size()}
+     * @return The message, which is overwritten by the next call to {@link #parse(byte[], int, int)}
+     */
+    @NotNull FeedMessage message(int index) {
+        return messages[index];
+    }
+
+
+    /**
+     * Reads the fields of one TD message, up to the end of its object
+     */
+    private void parseFields(JsonParser parser) throws IOException {
+        msgType[0] = msgType[1] = 0;
+        time = -1;
+        area = FeedMessage.NO_AREA;
+        address = -1;
+        dataLength = 0;
+        from = to = descr = NONE;
+        isMalformed = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_STRING && value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            try {
+                parseField(name, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } catch (IllegalArgumentException e) {
+                isMalformed = true; // Skipped after its other fields are read, to keep the parser in step
+            }
+        }
+    }
+
+    private void parseField(String name, char[] chars, int start, int length) {
+        switch (name) {
+            case "msg_type" -> {
+                if (length != 2) {throw new IllegalArgumentException("Unknown msg_type");}
+                msgType[0] = chars[start];
+                msgType[1] = chars[start + 1];
+            }
+            case "time" -> time = parseDecimal(chars, start, length);
+            case "area_id" -> area = packCode(chars, start, length);
+            case "address" -> address = (int) parseHex(chars, start, length);
+            case "data" -> {
+                data = parseHex(chars, start, length);
+                dataLength = length / 2;
+            }
+            case "from" -> from = packCode(chars, start, length);
+            case "to" -> to = packCode(chars, start, length);
+            case "descr" -> descr = packCode(chars, start, length);
+            default -> {} // Such as "report_time"
+        }
+    }
+
+    /**
+     * Adds the messages of the TD message just read, unless it is of an area not asked for or is malformed
+     */
+    private void addMessages() {
+        if (areas != null && !isRequested(area)) {
+            return;
+        }
+        if (isMalformed || msgType[0] == 0 || time < 0 || area == FeedMessage.NO_AREA) {
+            return;
+        }
+
+        if (msgType[0] == 'C' && (msgType[1] == 'A' || msgType[1] == 'B' || msgType[1] == 'C')) {
+            FeedMessage message = add(FeedMessage.C_CLASS);
+            message.fromBerth = from;
+            message.toBerth = to;
+            message.describer = descr;
+
+        } else if (msgType[0] == 'S' && msgType[1] == 'F') {
+            if (!isValidSignalling(1)) {return;}
+            FeedMessage message = add(FeedMessage.S_CLASS);
+            message.address = address;
+            message.data = (int) data;
+
+        } else if (msgType[0] == 'S' && (msgType[1] == 'G' || msgType[1] == 'H')) {
+            if (!isValidSignalling(REFRESH_BYTES)) {return;}
+            if (refreshing.add(area)) {
+                add(FeedMessage.REFRESH).refreshMarker = FeedMessage.REFRESH_START;
+            }
+
+            for (int i = 0; i < REFRESH_BYTES && address + i <= 0xFF; i++) { // Addresses past 255 are padding
+                FeedMessage message = add(FeedMessage.S_CLASS);
+                message.address = address + i;
+                message.data = (int) (data >>> (8 * (REFRESH_BYTES - 1 - i))) & 0xFF;
+            }
+
+            if (msgType[1] == 'H') {
+                add(FeedMessage.REFRESH).refreshMarker = FeedMessage.REFRESH_END;
+                refreshing.remove(area);
+            }
+
+        } else if (msgType[0] == 'C' && msgType[1] == 'T') {
+            add(FeedMessage.HEARTBEAT);
+        }
+    }
+
+    private boolean isValidSignalling(int bytes) {
+        return address >= 0 && address <= 0xFF && dataLength == bytes;
+    }
+
+    private boolean isRequested(int area) {
+        for (int requested : areas) {
+            if (requested == area) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * @return The next message, of the given type and with the time and area of the TD message just read
+     */
+    private FeedMessage add(char type) {
+        if (size == messages.length) {
+            messages = Arrays.copyOf(messages, Math.max(16, 2 * size));
+            for (int i = size; i < messages.length; i++) {
+                messages[i] = new FeedMessage();
+            }
+        }
+        FeedMessage message = messages[size++];
+        message.type = type;
+        message.timestamp = time;
+        message.area = area;
+        return message;
+    }
+
+
+    private static void expect(JsonToken token, JsonToken expected) {
+        if (token != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " but found " + token);
+        }
+    }
+
+    private static long parseDecimal(char[] chars, int start, int length) {
+        if (length == 0 || length > 18) {throw new IllegalArgumentException("Invalid time");}
+        long value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {throw new IllegalArgumentException("Invalid time");}
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static long parseHex(char[] chars, int start, int length) {
+        if (length == 0 || length > 2 * REFRESH_BYTES) {throw new IllegalArgumentException("Invalid hex");}
+        long value = 0;
+        for (int i = start; i < start + length; i++) {
+            int digit = Character.digit(chars[i], 16);
+            if (digit < 0) {throw new IllegalArgumentException("Invalid hex");}
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Packs a code as {@link FeedMessage#packCode(String)} does, without creating a String
+     */
+    private static int packCode(char[] chars, int start, int length) {
+        if (length > 4) {throw new IllegalArgumentException("Codes have at most 4 characters");}
+        int packed = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = chars[i];
+            if (c == 0 || c > 0x7F) {throw new IllegalArgumentException("Codes are ASCII");}
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+}
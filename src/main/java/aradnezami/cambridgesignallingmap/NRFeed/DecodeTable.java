@@ -0,0 +1,460 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Route;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Signal;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A DecodeTable is the compiled form of a signalling equipment map (see Mapping_Syntax.md in the
+ * Resources directory). Every mapping row is parsed once, at load time, into flat primitive arrays
+ * indexed by {@code address*8 + bit}, so that the {@link SClassDecoder} can decode a changed bit
+ * without any hashing, string comparison or number parsing.
+ * <p>
+ * For each bit position the table holds:
+ * <ul>
+ * <li>An opcode, describing what equipment type the bit is and how it must be decoded
+ * (Eg: {@link #NK_BACKREFERENCED})</li>
+ * <li>The position of the bit it back-references, or {@link #NO_BACKREFERENCE}</li>
+ * <li>A dense integer id for the equipment, which indexes into the interned equipment names (see
+ * {@link #equipmentName(int)})</li>
+ * </ul>
+ * <p>
+ * The table also holds a reverse dependency index: for each position, the positions whose back-reference
+ * points at it, so that a change to a bit can re-decode every mapping that depends on it.
+ * <p>
+ * DecodeTables are immutable and may therefore be shared between any number of decoders. A table can be
+ * cached as a binary image (see {@link #load(String, Path)}), so that the map is only parsed once.
+ */
+public final class DecodeTable {
+    /** Number of byte addresses in a train describer's S-Class data */
+    public static final int ADDRESSES = 256;
+    /** Number of bit positions in the table */
+    static final int POSITIONS = ADDRESSES * 8;
+
+    /** The position does not back-reference any other position */
+    static final int NO_BACKREFERENCE = -1;
+    /**
+     * The position implicitly back-references a bit outside its own byte (Eg: an NK in bit 7). Such a bit
+     * always reads as 0, which is how these mappings have always been decoded
+     */
+    static final int CLEAR_BACKREFERENCE = -2;
+
+    // Opcodes
+    static final byte UNMAPPED = 0;
+    static final byte TRACK_CIRCUIT = 1;
+    static final byte ROUTE_INDICATOR = 2;
+    static final byte MAIN_ROUTE = 3;
+    static final byte SHUNT_ROUTE = 4;
+    static final byte CALL_ON_ROUTE = 5;
+    static final byte NK_BACKREFERENCED = 6;
+    static final byte RK_BACKREFERENCED = 7;
+    static final byte NK_UNMAPPED = 8;
+    static final byte RK_UNMAPPED = 9;
+    static final byte DGK = 10;
+    static final byte RGK = 11;
+    static final byte OFFK = 12;
+    static final byte SOFFK = 13;
+    static final byte DGK_SOFFK = 14;
+    static final byte SOFFK_DGK = 15;
+    static final byte OFFK_RM = 16;
+    /** Number of opcodes. Every opcode is below this */
+    static final int OPCODES = OFFK_RM + 1;
+
+    /** The equipment type ({@link Event#S_Type}) produced by each opcode, indexed by opcode */
+    private static final int[] EQUIPMENT_TYPES = {
+            -1,
+            TrackCircuit.TYPE,
+            Signal.ROUTED_TYPE,
+            Route.MAIN_TYPE,
+            Route.SHUNT_TYPE,
+            Route.CALL_ON_TYPE,
+            Point.TYPE, Point.TYPE, Point.TYPE, Point.TYPE,
+            Signal.ASPECT_TYPE, Signal.ASPECT_TYPE, Signal.ASPECT_TYPE, Signal.ASPECT_TYPE,
+            Signal.ASPECT_TYPE, Signal.ASPECT_TYPE, Signal.ASPECT_TYPE
+    };
+
+    // Map columns
+    private static final int ADDRESS = 0;
+    private static final int BIT = 1;
+    private static final int TYPE = 2;
+    private static final int ID = 3;
+    private static final int BACK_TYPE = 4;
+    private static final int BACK_ADDRESS = 5;
+    private static final int BACK_BIT = 6;
+
+    private static final int IMPLICITLY_BACKREFERENCED_LEN = 4;
+    private static final int UNMAPPED_LEN = 5;
+    private static final int EXPLICITLY_BACKREFERENCED_LEN = 7;
+
+
+    final byte[] opcodes;
+    final int[] backPositions;
+    final int[] equipmentIds;
+    final String[] equipmentNames;
+
+    /**
+     * The dependents of position {@code p} are {@code dependents[dependentsStart[p]]} up to, but excluding,
+     * {@code dependents[dependentsStart[p+1]]}. Mutual back-references are left out, as both mappings of
+     * the pair already decode to the same combined event
+     */
+    final int[] dependentsStart;
+    final int[] dependents;
+
+
+    DecodeTable(byte[] opcodes, int[] backPositions, int[] equipmentIds, String[] equipmentNames) {
+        this.opcodes = opcodes;
+        this.backPositions = backPositions;
+        this.equipmentIds = equipmentIds;
+        this.equipmentNames = equipmentNames;
+
+        dependentsStart = new int[POSITIONS + 1];
+        for (int position = 0; position < POSITIONS; position++) {
+            if (isDependent(position)) {
+                dependentsStart[backPositions[position] + 1]++;
+            }
+        }
+        for (int position = 0; position < POSITIONS; position++) { // Counts to offsets
+            dependentsStart[position + 1] += dependentsStart[position];
+        }
+
+        dependents = new int[dependentsStart[POSITIONS]];
+        int[] filled = new int[POSITIONS];
+        for (int position = 0; position < POSITIONS; position++) {
+            if (isDependent(position)) {
+                int backPosition = backPositions[position];
+                dependents[dependentsStart[backPosition] + filled[backPosition]++] = position;
+            }
+        }
+    }
+
+
+    private boolean isDependent(int position) {
+        return backPositions[position] >= 0 && !isReciprocal(position);
+    }
+
+
+    /**
+     * The equipment type ({@link Event#S_Type}) decoded from the given position
+     * @param position The bit position, {@code address*8 + bit}
+     * @return The equipment type, or -1 if the position is unmapped
+     */
+    int equipmentType(int position) {
+        return EQUIPMENT_TYPES[opcodes[position]];
+    }
+
+    /**
+     * The id of the equipment decoded from the given position
+     * @param position The bit position, {@code address*8 + bit}
+     * @return The equipment id (see {@link #equipmentName(int)}), or -1 if the position is unmapped
+     */
+    int equipmentId(int position) {
+        return equipmentIds[position];
+    }
+
+    /**
+     * The name of the equipment decoded from the given position
+     * @param position The bit position, {@code address*8 + bit}
+     * @return The equipment name, or null if the position is unmapped
+     */
+    String positionName(int position) {
+        int id = equipmentIds[position];
+        return (id < 0) ? null : equipmentNames[id];
+    }
+
+
+    /**
+     * @return The number of distinct equipment names in the map. Equipment ids range from 0 up to, but
+     * excluding, this
+     */
+    public int equipmentCount() {
+        return equipmentNames.length;
+    }
+
+    /**
+     * The name of the equipment with the given id. Every mapping of one piece of equipment shares its id,
+     * so ids can be compared in place of names
+     * @param equipment The equipment id, as passed to an {@link SClassEventSink}
+     * @return The interned equipment name
+     * @throws ArrayIndexOutOfBoundsException If there is no equipment with the id
+     */
+    public @NotNull String equipmentName(int equipment) {
+        return equipmentNames[equipment];
+    }
+
+    /**
+     * Finds the id of the equipment with the given name. This scans every name, so is meant for building
+     * lookups once rather than for decoding
+     * @param name The ID of the equipment, as in the ID column of the map
+     * @return The equipment id, or -1 if no equipment has the name
+     */
+    public int equipmentIdOf(@NotNull String name) {
+        for (int i = 0; i < equipmentNames.length; i++) {
+            if (equipmentNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Finds the bit of the map mapped to the given equipment as the given type. This scans the whole table, so
+     * is meant for building lookups once rather than for decoding
+     * @param type The type of the mapping, as in the Type column of the map (Eg: {@code "NK"})
+     * @param id The ID of the equipment, as in the ID column of the map
+     * @return The bit position, {@code address*8 + bit}, or -1 if there is no such mapping
+     */
+    public int positionOf(String type, String id) {
+        for (int position = 0; position < POSITIONS; position++) {
+            if (isOfType(opcodes[position], type) && id.equals(positionName(position))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isOfType(byte opcode, String type) {
+        return switch (type) {
+            case "T" -> opcode == TRACK_CIRCUIT;
+            case "B" -> opcode == ROUTE_INDICATOR;
+            case "RM" -> opcode == MAIN_ROUTE;
+            case "RS" -> opcode == SHUNT_ROUTE;
+            case "RC" -> opcode == CALL_ON_ROUTE;
+            case "NK" -> opcode == NK_BACKREFERENCED || opcode == NK_UNMAPPED;
+            case "RK" -> opcode == RK_BACKREFERENCED || opcode == RK_UNMAPPED;
+            case "DGK" -> opcode == DGK || opcode == DGK_SOFFK;
+            case "RGK" -> opcode == RGK;
+            case "OFFK" -> opcode == OFFK || opcode == OFFK_RM;
+            case "SOFFK" -> opcode == SOFFK || opcode == SOFFK_DGK;
+            default -> false;
+        };
+    }
+
+
+    /**
+     * Checks if the position and the position it back-references reference each other, as the NK and RK of
+     * a point or the DGK and SOFFK of a compound signal do. Both then decode to the same combined event
+     * @param position The bit position, {@code address*8 + bit}
+     * @return True if the back-reference is mutual
+     */
+    boolean isReciprocal(int position) {
+        int backPosition = backPositions[position];
+        return backPosition >= 0 && backPositions[backPosition] == position;
+    }
+
+
+    /**
+     * Compiles the map found at the given resource path into a DecodeTable
+     * @param path Map file path
+     * @return The compiled table
+     * @throws FileNotFoundException If the file cannot be accessed
+     * @throws IllegalMapFormatException If any row of the map is incorrectly formatted
+     * @see ClassLoader#getResourceAsStream(String path)
+     */
+    public static DecodeTable load(String path) throws FileNotFoundException {
+        return compile(readMap(path));
+    }
+
+    /**
+     * Loads the map found at the given resource path from its binary image in the given directory,
+     * compiling the map and writing its image if the image is missing, of an older version or does not
+     * match the map. As the map itself is only checksummed rather than parsed, loading from an image is
+     * much faster than compiling the map. Failing to write the image is not an error, the compiled table
+     * is still returned.
+     * @param path Map file path
+     * @param imageDirectory The directory holding the images of maps
+     * @return The table of the map
+     * @throws FileNotFoundException If the map file cannot be accessed
+     * @throws IllegalMapFormatException If any row of the map is incorrectly formatted
+     * @see ClassLoader#getResourceAsStream(String path)
+     */
+    public static DecodeTable load(String path, Path imageDirectory) throws FileNotFoundException {
+        byte[] map = readMap(path);
+        int mapCrc = DecodeTableImage.crc(ByteBuffer.wrap(map));
+        Path image = imageDirectory.resolve(path.replace('/', '_') + ".bin");
+
+        try {
+            DecodeTable table = DecodeTableImage.read(image, mapCrc);
+            if (table != null) { return table; }
+        } catch (IOException ignored) {} // Unreadable, so treat it as missing and replace it
+
+        DecodeTable table = compile(map);
+        try {
+            DecodeTableImage.write(table, mapCrc, image);
+        } catch (IOException ignored) {} // The map is compiled again next time
+        return table;
+    }
+
+    private static byte[] readMap(String path) throws FileNotFoundException {
+        InputStream mapStream = DecodeTable.class.getClassLoader().getResourceAsStream(path);
+        if (mapStream == null) {
+            throw new FileNotFoundException("Could not find signalling equipment map. Path: " + path);
+        }
+
+        try (mapStream) {
+            return mapStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read signalling equipment map. Path: " + path, e);
+        }
+    }
+
+
+    /**
+     * Compiles the given map file contents into a DecodeTable
+     * @param map The contents of a map file, including the header
+     * @return The compiled table
+     * @throws IllegalMapFormatException If any row of the map is incorrectly formatted
+     */
+    static DecodeTable compile(byte[] map) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        new String(map, StandardCharsets.UTF_8).lines()
+                .skip(1) // Skip headers
+                .forEach(line -> rows.add(line.split(",")));
+
+        return compile(rows);
+    }
+
+
+    /**
+     * Compiles the given map rows into a DecodeTable. Each row is one line of the map, split on its commas
+     * @param rows The rows of the map, excluding the header
+     * @return The compiled table
+     * @throws IllegalMapFormatException If any row is incorrectly formatted
+     */
+    static DecodeTable compile(Iterable<String[]> rows) {
+        byte[] opcodes = new byte[POSITIONS];
+        int[] backPositions = new int[POSITIONS];
+        int[] equipmentIds = new int[POSITIONS];
+        Arrays.fill(backPositions, NO_BACKREFERENCE);
+        Arrays.fill(equipmentIds, -1);
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+
+        for (String[] row : rows) {
+            if (row.length < 2) {
+                throw new IllegalMapFormatException("A map row is missing its address or bit: " + Arrays.toString(row));
+            }
+            int position = parsePosition(row[ADDRESS], row[BIT]);
+
+            opcodes[position] = UNMAPPED;
+            backPositions[position] = NO_BACKREFERENCE;
+            equipmentIds[position] = -1;
+
+            if (row.length <= 2 || row[TYPE].equals("PLACEHOLD")) { continue; } // unmapped
+            if (row.length == 3) {
+                throw new IllegalMapFormatException("A mapping has no ID: " + Arrays.toString(row));
+            }
+
+            compileRow(row, position, opcodes, backPositions);
+
+            String name = row[ID];
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            equipmentIds[position] = id;
+        }
+
+        return new DecodeTable(opcodes, backPositions, equipmentIds, names.toArray(new String[0]));
+    }
+
+
+    private static void compileRow(String[] row, int position, byte[] opcodes, int[] backPositions) {
+        switch (row[TYPE]) {
+            case "T" -> opcodes[position] = TRACK_CIRCUIT;
+            case "B" -> opcodes[position] = ROUTE_INDICATOR;
+            case "RM" -> opcodes[position] = MAIN_ROUTE;
+            case "RS" -> opcodes[position] = SHUNT_ROUTE;
+            case "RC" -> opcodes[position] = CALL_ON_ROUTE;
+            case "RGK" -> opcodes[position] = RGK;
+
+            case "NK", "RK" -> {
+                boolean isNK = row[TYPE].equals("NK");
+
+                if (row.length == IMPLICITLY_BACKREFERENCED_LEN) {
+                    // We imply that the RK is in the next bit and the NK is in the previous bit
+                    int backBit = (position & 7) + (isNK ? 1 : -1);
+                    backPositions[position] = (backBit < 0 || backBit > 7) ?
+                            CLEAR_BACKREFERENCE :
+                            (position & ~7) | backBit;
+                    opcodes[position] = isNK ? NK_BACKREFERENCED : RK_BACKREFERENCED;
+
+                } else if (row.length == UNMAPPED_LEN && row[BACK_TYPE].equals("UNMAPPED")) {
+                    opcodes[position] = isNK ? NK_UNMAPPED : RK_UNMAPPED;
+
+                } else if (row.length == EXPLICITLY_BACKREFERENCED_LEN) {
+                    backPositions[position] = parsePosition(row[BACK_ADDRESS], row[BACK_BIT]);
+                    opcodes[position] = isNK ? NK_BACKREFERENCED : RK_BACKREFERENCED;
+
+                } else {
+                    throw new IllegalMapFormatException("Not a valid map: " + Arrays.toString(row));
+                }
+            }
+
+            case "DGK" -> {
+                if (row.length == EXPLICITLY_BACKREFERENCED_LEN) { // Compound signal back-referencing soffk
+                    backPositions[position] = parsePosition(row[BACK_ADDRESS], row[BACK_BIT]);
+                    opcodes[position] = DGK_SOFFK;
+                } else {
+                    opcodes[position] = DGK;
+                }
+            }
+
+            case "SOFFK" -> {
+                if (row.length == EXPLICITLY_BACKREFERENCED_LEN) { // Compound signal back-referencing dgk
+                    backPositions[position] = parsePosition(row[BACK_ADDRESS], row[BACK_BIT]);
+                    opcodes[position] = SOFFK_DGK;
+                } else {
+                    opcodes[position] = SOFFK;
+                }
+            }
+
+            case "OFFK" -> {
+                if (row.length == EXPLICITLY_BACKREFERENCED_LEN && row[BACK_TYPE].equals("RM")) { // Compound signal back-referencing main route
+                    backPositions[position] = parsePosition(row[BACK_ADDRESS], row[BACK_BIT]);
+                    opcodes[position] = OFFK_RM;
+                } else {
+                    opcodes[position] = OFFK;
+                }
+            }
+
+            default -> throw new IllegalMapFormatException(row[TYPE] + " is not a valid type");
+        }
+    }
+
+
+    /**
+     * Parses the address and bit of a mapping into its position in the table
+     * @throws IllegalMapFormatException If either is not a number or is out of range
+     */
+    private static int parsePosition(String addressStr, String bitStr) {
+        int address, bit;
+        try {
+            address = Integer.parseInt(addressStr);
+            bit = Integer.parseInt(bitStr);
+        } catch (NumberFormatException e) {
+            throw new IllegalMapFormatException("A map address or bit is not a parsable number");
+        }
+
+        if (address < 0 || address >= ADDRESSES || bit < 0 || bit > 7) {
+            throw new IllegalMapFormatException("A map address or bit is out of range. Address: " + address + " Bit: " + bit);
+        }
+        return address * 8 + bit;
+    }
+}
@@ -0,0 +1,172 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary image of a {@link DecodeTable}, so that a map only has to be parsed once.
+ * An image is laid out as:
+ * <ul>
+ * <li>A header: the magic number {@code SMAP}, the {@link #VERSION} of the layout, the CRC-32 of the map
+ * file the table was compiled from, and the length and CRC-32 of the payload</li>
+ * <li>The payload: the opcodes, back-references and equipment ids of every position, followed by the
+ * number of equipment names and each name as a length prefixed UTF-8 string</li>
+ * </ul>
+ * <p>
+ * Images are memory-mapped when read and their arrays bulk copied straight into the table. An image is
+ * only used if all of its header matches and every opcode, back-reference and equipment id is in range, so an
+ * image of an older layout, of a different map or that has been corrupted is never used.
+ */
+final class DecodeTableImage {
+    static final int MAGIC = 0x534D4150; // "SMAP"
+    /** Version of the image layout. Increase whenever the layout or the meaning of an opcode changes */
+    static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 5 * Integer.BYTES;
+
+
+    private DecodeTableImage() {}
+
+
+    /**
+     * Reads the image at the given path
+     * @param image The path of the image
+     * @param sourceCrc The CRC-32 of the map file the image must have been compiled from
+     * @return The table of the image, or null if the image does not exist, is of another version or map, or
+     * is corrupt or out of range
+     * @throws IOException If the image exists but could not be read
+     */
+    static DecodeTable read(Path image, int sourceCrc) throws IOException {
+        if (!Files.isRegularFile(image)) { return null; }
+
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) { return null; }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != sourceCrc) {
+                return null;
+            }
+
+            int payloadLength = buffer.getInt();
+            int payloadCrc = buffer.getInt();
+            if (payloadLength != size - HEADER_LENGTH || crc(buffer.slice()) != payloadCrc) {
+                return null;
+            }
+
+            return readPayload(buffer);
+        }
+    }
+
+    /**
+     * @return The table of the payload, or null if any of it is out of range
+     */
+    private static DecodeTable readPayload(ByteBuffer buffer) {
+        if (buffer.remaining() < DecodeTable.POSITIONS * (1 + 2 * Integer.BYTES) + Integer.BYTES) { return null; }
+        byte[] opcodes = new byte[DecodeTable.POSITIONS];
+        int[] backPositions = new int[DecodeTable.POSITIONS];
+        int[] equipmentIds = new int[DecodeTable.POSITIONS];
+
+        buffer.get(opcodes);
+        buffer.asIntBuffer().get(backPositions);
+        buffer.position(buffer.position() + DecodeTable.POSITIONS * Integer.BYTES);
+        buffer.asIntBuffer().get(equipmentIds);
+        buffer.position(buffer.position() + DecodeTable.POSITIONS * Integer.BYTES);
+
+        int names = buffer.getInt();
+        if (names < 0 || names > buffer.remaining() / Short.BYTES) { return null; }
+        String[] equipmentNames = new String[names];
+        for (int i = 0; i < equipmentNames.length; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining()) { return null; }
+            byte[] name = new byte[length];
+            buffer.get(name);
+            equipmentNames[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        for (int position = 0; position < DecodeTable.POSITIONS; position++) {
+            if (opcodes[position] < 0 || opcodes[position] >= DecodeTable.OPCODES
+                    || backPositions[position] < DecodeTable.CLEAR_BACKREFERENCE
+                    || backPositions[position] >= DecodeTable.POSITIONS
+                    || equipmentIds[position] < -1 || equipmentIds[position] >= names) {
+                return null;
+            }
+        }
+
+        return new DecodeTable(opcodes, backPositions, equipmentIds, equipmentNames);
+    }
+
+
+    /**
+     * Writes the image of the table to the given path, replacing any existing image. The image is written
+     * to a temporary file first, so a reader never sees a partially written image
+     * @param table The table to write
+     * @param sourceCrc The CRC-32 of the map file the table was compiled from
+     * @param image The path of the image
+     * @throws IOException If the image could not be written
+     */
+    static void write(DecodeTable table, int sourceCrc, Path image) throws IOException {
+        ByteBuffer payload = writePayload(table);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sourceCrc)
+                .putInt(payload.remaining()).putInt(crc(payload.duplicate()))
+                .flip();
+
+        Path parent = image.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, image.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) { channel.write(header); }
+                while (payload.hasRemaining()) { channel.write(payload); }
+            }
+            Files.move(temporary, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static ByteBuffer writePayload(DecodeTable table) {
+        byte[][] names = new byte[table.equipmentNames.length][];
+        int namesLength = Integer.BYTES;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = table.equipmentNames[i].getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > 0xFFFF) {
+                throw new IllegalMapFormatException("An equipment name is too long: " + table.equipmentNames[i]);
+            }
+            namesLength += Short.BYTES + names[i].length;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(DecodeTable.POSITIONS * (1 + 2 * Integer.BYTES) + namesLength);
+        payload.put(table.opcodes);
+        payload.asIntBuffer().put(table.backPositions);
+        payload.position(payload.position() + DecodeTable.POSITIONS * Integer.BYTES);
+        payload.asIntBuffer().put(table.equipmentIds);
+        payload.position(payload.position() + DecodeTable.POSITIONS * Integer.BYTES);
+
+        payload.putInt(names.length);
+        for (byte[] name : names) {
+            payload.putShort((short) name.length).put(name);
+        }
+        return payload.flip();
+    }
+
+
+    /**
+     * @return The CRC-32 of the remaining bytes of the buffer, consuming them
+     */
+    static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+}
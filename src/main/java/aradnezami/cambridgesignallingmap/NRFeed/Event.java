@@ -20,11 +20,16 @@ import java.util.Objects;
  * are not common to both, will be null when the event is not of the attribute's corresponding type.
  * This is a compromise made to allow for methods to return any type of event through one return value. </br>
  * If {@link #type} is 'C', {@link #S_Type}, {@link #S_State} and {@link #S_Id} will be null. If the
- * type is 'S', {@link #C_FromBerth}, {@link #C_ToBerth} and {@link #C_Describer} will be null.
+ * type is 'S', {@link #C_FromBerth}, {@link #C_ToBerth} and {@link #C_Describer} will be null.</br>
+ * A reset event, of type 'R', marks that messages were lost and the S-Class state decoded so far has been
+ * forgotten. All of its type specific attributes are null. See {@link #reset(long)}</br>
+ * {@link NRFeed} and its pipeline decode and pass on events as {@link FeedEvent}s, which hold only primitive
+ * fields. An Event is the view of a FeedEvent with its names resolved, see {@link FeedEvent#toEvent(DecodeTable)},
+ * as returned by {@link NRFeed#nextEvent()}
  */
 public class Event {
     /**
-     * The type of event represented. Value is 'C' or 'S'
+     * The type of event represented. Value is 'C', 'S' or 'R'
      * */
     public final char type;
     /**
@@ -122,6 +127,32 @@ public class Event {
     }
 
 
+    private Event(long timestamp) {
+        this.type = 'R';
+
+        if (timestamp < -1) {throw new IllegalArgumentException("timestamp must not be below -1");}
+        this.timestamp = timestamp;
+
+        S_Type = null;
+        S_State = null;
+        S_Id = null;
+        C_FromBerth = null;
+        C_ToBerth = null;
+        C_Describer = null;
+    }
+
+    /**
+     * Creates a reset event. Everything displayed from earlier events should be discarded, as the state of
+     * the feed is unknown until it is rebuilt by later events
+     *
+     * @param timestamp The timestamp of the last message received before messages were lost, or -1 for no timestamp
+     * @return The reset event
+     */
+    public static Event reset(long timestamp) {
+        return new Event(timestamp);
+    }
+
+
     @Override
     public String toString() {
         Date date = new java.util.Date(timestamp);
@@ -129,7 +160,9 @@ public class Event {
         sdf.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
         String formattedTimestamp = sdf.format(date);
 
-        if (type == 'C') {
+        if (type == 'R') {
+            return formattedTimestamp + " Event Reset";
+        } else if (type == 'C') {
             return formattedTimestamp + " Event C-Class   From:" + C_FromBerth + " To:" + C_ToBerth + " Descr:" + C_Describer;
         } else {
             //noinspection DataFlowIssue
@@ -156,6 +189,13 @@ public class Event {
 
     @Override
     public int hashCode() {
-        return Objects.hash(type, timestamp, S_Type, S_State, S_Id, C_FromBerth, C_ToBerth, C_Describer);
+        // Not Objects.hash, which boxes every field into a new array
+        int result = 31 * type + Long.hashCode(timestamp);
+        result = 31 * result + Objects.hashCode(S_Type);
+        result = 31 * result + Objects.hashCode(S_State);
+        result = 31 * result + Objects.hashCode(S_Id);
+        result = 31 * result + Objects.hashCode(C_FromBerth);
+        result = 31 * result + Objects.hashCode(C_ToBerth);
+        return 31 * result + Objects.hashCode(C_Describer);
     }
 }
@@ -0,0 +1,57 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A FeedEvent is the compact form of an {@link Event}, holding only primitive fields. S-Class equipment is
+ * identified by its dense id in the {@link DecodeTable} it was decoded with (see
+ * {@link DecodeTable#equipmentName(int)}), and berths and describers by their packed codes (see
+ * {@link FeedMessage#packCode(String)}), so reading an event never follows a reference.
+ * <p>
+ * The hierarchy is sealed, so each kind of event is handled by checking which of {@link SClassEvent},
+ * {@link CClassEvent} or {@link ResetEvent} it is. {@link Event} remains as the view of an event with its
+ * names resolved, see {@link #toEvent(DecodeTable)} and {@link #of(Event, DecodeTable)}.
+ */
+public sealed interface FeedEvent permits SClassEvent, CClassEvent, ResetEvent {
+    /**
+     * @return The timestamp provided by the feed, or -1 for no timestamp
+     */
+    long timestamp();
+
+    /**
+     * Resolves the names of the event
+     * @param table The table the event was decoded with
+     * @return The event as an {@link Event}
+     */
+    @NotNull Event toEvent(@NotNull DecodeTable table);
+
+
+    /**
+     * Finds the compact form of the given event. The inverse of {@link #toEvent(DecodeTable)}
+     * @param event The event
+     * @param table The table to find the ids of S-Class equipment in. The names of the table are scanned, so
+     *              this is meant for occasional use rather than for decoding
+     * @return The compact form of the event
+     * @throws IllegalArgumentException If the equipment of an S-Class event is not in the table, or a berth
+     * or describer of a C-Class event cannot be packed
+     */
+    @SuppressWarnings("DataFlowIssue")
+    static @NotNull FeedEvent of(@NotNull Event event, @NotNull DecodeTable table) {
+        if (event.type == 'R') {
+            return new ResetEvent(event.timestamp);
+        }
+        if (event.type == 'C') {
+            return new CClassEvent(event.timestamp,
+                    FeedMessage.packCode(event.C_FromBerth),
+                    FeedMessage.packCode(event.C_ToBerth),
+                    FeedMessage.packCode(event.C_Describer));
+        }
+
+        int equipment = table.equipmentIdOf(event.S_Id);
+        if (equipment < 0) {
+            throw new IllegalArgumentException("No equipment named " + event.S_Id + " in the table");
+        }
+        return new SClassEvent(event.timestamp, event.S_Type, event.S_State, equipment);
+    }
+}
@@ -0,0 +1,71 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.FeedMetrics;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Journal.JournalWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The optional collaborators of an {@link NRFeed} or {@link aradnezami.cambridgesignallingmap.NRFeed.Pipeline.FeedPipeline},
+ * each of which may be absent. Instances are immutable, so are built up from {@link #NONE}:
+ * <pre>{@code FeedOptions.NONE.withJournal(journal).withMetrics(metrics)}</pre>
+ */
+public final class FeedOptions {
+    /** No journal, latencies or metrics */
+    public static final FeedOptions NONE = new FeedOptions(null, null, null);
+
+    private final @Nullable JournalWriter journal;
+    private final @Nullable FeedLatency latency;
+    private final @Nullable FeedMetrics metrics;
+
+
+    private FeedOptions(@Nullable JournalWriter journal, @Nullable FeedLatency latency,
+                        @Nullable FeedMetrics metrics) {
+        this.journal = journal;
+        this.latency = latency;
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * @param journal The journal every message received, of any area, is appended to, or null for none. The
+     *                journal is not closed by the feed
+     * @return These options with the given journal
+     */
+    public @NotNull FeedOptions withJournal(@Nullable JournalWriter journal) {
+        return new FeedOptions(journal, latency, metrics);
+    }
+
+    /**
+     * @param latency The latencies the {@link FeedLatency#decode()} latency of every message that was timed when
+     *                received is recorded to (see {@link FeedMessage#receivedNanos}), or null for none
+     * @return These options with the given latencies
+     */
+    public @NotNull FeedOptions withLatency(@Nullable FeedLatency latency) {
+        return new FeedOptions(journal, latency, metrics);
+    }
+
+    /**
+     * @param metrics The metrics every message received, event decoded and unmapped bit changed is counted in,
+     *                and the lag of the feed is estimated in (see {@link FeedMetrics#lag()}), or null for none
+     * @return These options with the given metrics
+     */
+    public @NotNull FeedOptions withMetrics(@Nullable FeedMetrics metrics) {
+        return new FeedOptions(journal, latency, metrics);
+    }
+
+
+    public @Nullable JournalWriter journal() {
+        return journal;
+    }
+
+    public @Nullable FeedLatency latency() {
+        return latency;
+    }
+
+    public @Nullable FeedMetrics metrics() {
+        return metrics;
+    }
+}
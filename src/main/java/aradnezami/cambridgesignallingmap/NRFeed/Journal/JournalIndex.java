@@ -0,0 +1,221 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The JournalIndex reads the indexes written beside the segments of a journal (see {@link JournalIndexer}), so
+ * that the journal can be read from any time without reading it from the start. The entries of every index are
+ * read when the JournalIndex is created and sorted by their key, so each lookup is a binary search.
+ * <p>
+ * {@link #readerAt(long)} returns a reader starting shortly before a time. {@link #stateAt(long, DecodeTable)}
+ * restores the latest snapshot before a time and replays the records after it up to that time, which is at
+ * most {@link JournalIndexer#SNAPSHOT_INTERVAL_MILLIS} of the feed.
+ * <p>
+ * An entry whose CRC does not match, such as one torn by a crash, ends the reading of its index, so seeking
+ * falls back on the entries before it.
+ */
+public final class JournalIndex {
+    /**
+     * An entry of an index
+     * @param key The latest timestamp of any record before the entry
+     * @param segmentNumber The position of the entry's segment in {@link #segments}
+     * @param offset The offset of the next record in the segment
+     * @param snapshot The snapshot of the entry, or null if it has none
+     */
+    private record Entry(long key, int segmentNumber, int offset, byte @Nullable [] snapshot) {}
+
+    private final List<Path> segments;
+    private final List<Entry> entries = new ArrayList<>();   // Sorted by key
+    private final List<Entry> snapshots = new ArrayList<>(); // Sorted by key
+    private long corruptEntries = 0;
+
+
+    /**
+     * Reads the index of every segment in the directory, as they are now
+     * @param directory The directory of the journal's segments
+     * @throws IOException If the directory could not be listed or an index could not be read
+     */
+    public JournalIndex(@NotNull Path directory) throws IOException {
+        segments = JournalReader.segments(directory);
+        for (int segmentNumber = 0; segmentNumber < segments.size(); segmentNumber++) {
+            readIndex(segmentNumber);
+        }
+
+        // Stable, so that entries with equal keys keep the order they were written in
+        entries.sort(Comparator.comparingLong(Entry::key));
+        for (Entry entry : entries) {
+            if (entry.snapshot() != null) { snapshots.add(entry); }
+        }
+    }
+
+
+    /**
+     * Returns the state of the feed at the given time: the events that {@link SClassDecoder#allEvents()} would
+     * return had every message up to that time been decoded, followed by an interpose of the describer in every
+     * occupied berth. Only messages of {@link aradnezami.cambridgesignallingmap.NRFeed.NRFeed#AREA} are decoded,
+     * as an NRFeed would. Messages are replayed in the order they were received, up to the first later than
+     * the given time
+     * @param timestamp The time, in the milliseconds of the feed's timestamps
+     * @param table The table to decode the S-Class state with
+     * @return The events of the state, without timestamps. Empty if the journal starts after the time
+     * @throws IOException If a segment could not be read
+     */
+    public @NotNull Event[] stateAt(long timestamp, @NotNull DecodeTable table) throws IOException {
+        Entry snapshot = floor(snapshots, timestamp);
+        if (snapshot == null) {
+            return new Event[0];
+        }
+
+        JournalState state = new JournalState();
+        state.readSnapshot(ByteBuffer.wrap(snapshot.snapshot()));
+
+        JournalReader reader = new JournalReader(segments);
+        reader.seek(snapshot.segmentNumber(), snapshot.offset());
+        FeedMessage message = new FeedMessage();
+        while (reader.next(message) && message.timestamp <= timestamp) {
+            state.apply(message);
+        }
+        return state.toEvents(table);
+    }
+
+    /**
+     * Returns a reader of the journal, starting at a point where no message before it is later than the given
+     * time, and at most about {@link JournalIndexer#INDEX_INTERVAL_MILLIS} of the feed before it. Messages
+     * earlier than the time may still follow, so readers should skip them if they are not wanted
+     * @param timestamp The time, in the milliseconds of the feed's timestamps
+     * @return The reader. If the journal starts after the time, it reads the journal from its start
+     * @throws IOException If the segment could not be read
+     */
+    public @NotNull JournalReader readerAt(long timestamp) throws IOException {
+        JournalReader reader = new JournalReader(segments);
+        Entry entry = floor(entries, timestamp);
+        if (entry != null) {
+            reader.seek(entry.segmentNumber(), entry.offset());
+        }
+        return reader;
+    }
+
+
+    /**
+     * @return The number of entries read from every index, including snapshots
+     */
+    public int entries() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of snapshots read from every index
+     */
+    public int snapshots() {
+        return snapshots.size();
+    }
+
+    /**
+     * @return The number of entries found corrupt, each of which ended the reading of its index
+     */
+    public long corruptEntries() {
+        return corruptEntries;
+    }
+
+
+    /**
+     * @return The last entry whose key is not after the timestamp, or null if there is none
+     */
+    private static @Nullable Entry floor(List<Entry> sorted, long timestamp) {
+        int low = 0;
+        int high = sorted.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (sorted.get(middle).key() <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high < 0 ? null : sorted.get(high);
+    }
+
+    private void readIndex(int segmentNumber) throws IOException {
+        Path path = JournalReader.indexOf(segments.get(segmentNumber));
+        ByteBuffer index;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is over 2GB, so is not an index");
+            }
+            index = ByteBuffer.allocate((int) channel.size());
+            while (index.hasRemaining() && channel.read(index) >= 0) {}
+            index.flip();
+        } catch (NoSuchFileException e) {
+            return; // A segment without an index is still read, but cannot be sought into
+        }
+
+        if (index.remaining() < JournalIndexer.HEADER_LENGTH) {
+            return; // Cut short by a crash as it was created
+        }
+        if (index.getInt() != JournalIndexer.MAGIC) {
+            throw new IOException(path + " is not an index of a journal");
+        }
+        int version = index.getInt();
+        if (version != JournalWriter.VERSION) {
+            throw new IOException(path + " is of version " + version + ", which cannot be read");
+        }
+
+        CRC32C crc = new CRC32C();
+        while (index.remaining() >= JournalIndexer.ENTRY_HEADER_LENGTH) {
+            int length = index.getInt();
+            int expectedCrc = index.getInt();
+            if (length < JournalIndexer.INDEX_LENGTH || length > index.remaining()) {
+                corruptEntries++;
+                return;
+            }
+
+            crc.reset();
+            crc.update(index.array(), index.position(), length);
+            if ((int) crc.getValue() != expectedCrc) {
+                corruptEntries++;
+                return;
+            }
+
+            ByteBuffer payload = index.slice(index.position(), length);
+            index.position(index.position() + length);
+            try {
+                entries.add(readEntry(payload, segmentNumber));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                corruptEntries++;
+                return;
+            }
+        }
+    }
+
+    private static Entry readEntry(ByteBuffer payload, int segmentNumber) {
+        byte type = payload.get();
+        long key = payload.getLong();
+        int offset = payload.getInt();
+        return switch (type) {
+            case JournalIndexer.INDEX -> new Entry(key, segmentNumber, offset, null);
+            case JournalIndexer.SNAPSHOT -> {
+                byte[] snapshot = new byte[payload.remaining()];
+                payload.get(snapshot);
+                yield new Entry(key, segmentNumber, offset, snapshot);
+            }
+            default -> throw new IllegalArgumentException("Unknown type of index entry: " + type);
+        };
+    }
+}
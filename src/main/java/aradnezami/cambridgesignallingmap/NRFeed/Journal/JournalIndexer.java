@@ -0,0 +1,129 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * The JournalIndexer writes the index of each segment of a {@link JournalWriter}, on the writer's thread. The
+ * index of a segment is a file beside it, which maps timestamps to offsets of records in the segment, sparsely
+ * enough to be read whole when opened by a {@link JournalIndex}.
+ *
+ * <h3>Format</h3>
+ * An index starts with {@link #MAGIC} and {@link JournalWriter#VERSION}. Entries follow, each made of the
+ * length of its payload (int), the CRC-32C of its payload (int) and the payload:
+ * <ul>
+ * <li>Its type, {@link #INDEX} or {@link #SNAPSHOT} (1)</li>
+ * <li>Its key, the latest timestamp of any record before it in the journal (8)</li>
+ * <li>The offset in the segment of the next record (4)</li>
+ * <li>For a snapshot, the {@link JournalState} built up by every record before it</li>
+ * </ul>
+ * <p>
+ * As the key is the latest timestamp so far, keys never decrease within one writer, and no record before an
+ * entry is later than its key. A snapshot is written at the start of every segment, so that a segment can be
+ * read without the segments before it.
+ */
+final class JournalIndexer {
+    /** The first int of every index */
+    static final int MAGIC = 0x4E524931; // "NRI1"
+    static final int HEADER_LENGTH = 2 * Integer.BYTES;
+    static final int ENTRY_HEADER_LENGTH = 2 * Integer.BYTES;
+    static final byte INDEX = 'I';
+    static final byte SNAPSHOT = 'N';
+    static final int INDEX_LENGTH = 1 + Long.BYTES + Integer.BYTES;
+
+    /** Feed time between entries, so seeking reads at most this much of the feed before the time sought */
+    static final long INDEX_INTERVAL_MILLIS = 1000L;
+    /** Feed time between snapshots, so finding the state at a time replays at most this much of the feed */
+    static final long SNAPSHOT_INTERVAL_MILLIS = 60_000L;
+
+    private final JournalState state = new JournalState();
+    private long latestTimestamp = Long.MIN_VALUE; // Of any record so far
+    private long lastIndexKey = Long.MIN_VALUE;
+    private long lastSnapshotKey = Long.MIN_VALUE;
+    private boolean isSnapshotDue = true;
+
+    private FileChannel index;
+    private ByteBuffer entry = ByteBuffer.allocate(1024);
+    private final CRC32C crc = new CRC32C();
+
+
+    /**
+     * Flushes the index of the last segment to disk, if any, and starts the index of the next segment
+     * @param path The path of the next segment's index
+     * @throws IOException If the index could not be created or flushed
+     */
+    void beginSegment(@NotNull Path path) throws IOException {
+        close();
+        index = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeFully(ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(JournalWriter.VERSION).flip());
+        isSnapshotDue = true;
+    }
+
+    /**
+     * Indexes a record about to be written to the current segment, and applies its message to the state
+     * @param message The message of the record
+     * @param offset The offset in the segment the record is written at
+     * @throws IOException If an entry could not be written
+     */
+    void record(@NotNull FeedMessage message, int offset) throws IOException {
+        // Before the first record the key is its timestamp, as no record before the entry can be later
+        long key = latestTimestamp == Long.MIN_VALUE ? message.timestamp : latestTimestamp;
+
+        if (isSnapshotDue || key - lastSnapshotKey >= SNAPSHOT_INTERVAL_MILLIS) {
+            writeEntry(SNAPSHOT, key, offset);
+            isSnapshotDue = false;
+            lastSnapshotKey = lastIndexKey = key;
+        } else if (key - lastIndexKey >= INDEX_INTERVAL_MILLIS) {
+            writeEntry(INDEX, key, offset);
+            lastIndexKey = key;
+        }
+
+        latestTimestamp = Math.max(latestTimestamp, message.timestamp);
+        state.apply(message);
+    }
+
+    /**
+     * Flushes the current index to disk and closes it. Calling this method when closed has no effect
+     * @throws IOException If the index could not be flushed
+     */
+    void close() throws IOException {
+        if (index != null) {
+            try (FileChannel closing = index) {
+                index = null;
+                closing.force(false);
+            }
+        }
+    }
+
+
+    private void writeEntry(byte type, long key, int offset) throws IOException {
+        int payloadLength = INDEX_LENGTH + (type == SNAPSHOT ? state.snapshotLength() : 0);
+        if (entry.capacity() < ENTRY_HEADER_LENGTH + payloadLength) {
+            entry = ByteBuffer.allocate(2 * (ENTRY_HEADER_LENGTH + payloadLength));
+        }
+
+        entry.clear().position(ENTRY_HEADER_LENGTH);
+        entry.put(type).putLong(key).putInt(offset);
+        if (type == SNAPSHOT) {
+            state.writeSnapshot(entry);
+        }
+
+        crc.reset();
+        crc.update(entry.array(), ENTRY_HEADER_LENGTH, payloadLength);
+        entry.putInt(0, payloadLength).putInt(Integer.BYTES, (int) crc.getValue());
+        writeFully(entry.flip());
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            index.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.BinaryFrameCodec;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * The JournalReader reads back the messages of a journal written by a {@link JournalWriter}, in the order they
+ * were appended. Each segment is memory-mapped in turn and messages are decoded straight from the mapping.
+ * <p>
+ * A record whose CRC does not match, such as one torn by a crash whilst it was being written, cannot be
+ * trusted to give the length of the record after it, so the rest of its segment is skipped and counted by
+ * {@link #corruptRecords()}. Reading continues from the next segment.
+ */
+public final class JournalReader {
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String INDEX_SUFFIX = ".index";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{10}\\" + SEGMENT_SUFFIX);
+
+    private final List<Path> segments;
+    private int nextSegment = 0;
+    private MappedByteBuffer segment; // Null before the first segment and once every segment is read
+
+    private final BinaryFrameCodec codec = new BinaryFrameCodec();
+    private final CRC32C crc = new CRC32C();
+    private final byte[] checked = new byte[Long.BYTES + JournalWriter.MAX_PAYLOAD_LENGTH];
+
+    private long receivedMillis;
+    private long corruptRecords = 0;
+
+
+    /**
+     * Creates a reader of every segment in the directory, as they are now. Segments written hereafter are not
+     * read
+     * @param directory The directory of the journal's segments
+     * @throws IOException If the directory could not be listed
+     */
+    public JournalReader(@NotNull Path directory) throws IOException {
+        this(segments(directory));
+    }
+
+    /**
+     * Creates a reader of the given segments, in the order given
+     */
+    JournalReader(@NotNull List<Path> segments) {
+        this.segments = segments;
+    }
+
+
+    /**
+     * Reads the next message of the journal
+     * @param message The instance the message is decoded into. Its previous contents are overwritten
+     * @return False if every message of the journal has been read
+     * @throws IOException If a segment could not be mapped or was not a segment of a journal
+     */
+    public boolean next(@NotNull FeedMessage message) throws IOException {
+        while (true) {
+            if (segment == null || !readRecord(message)) {
+                if (nextSegment == segments.size()) {
+                    segment = null;
+                    return false;
+                }
+                segment = openSegment(segments.get(nextSegment++));
+                continue;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Moves the reader to a record, so that it is the next read. See {@link JournalIndex#readerAt(long)}
+     * @param segmentNumber The position of the record's segment in the segments read by this reader
+     * @param offset The offset of the record in its segment
+     * @throws IOException If the segment could not be mapped or was not a segment of a journal
+     */
+    void seek(int segmentNumber, int offset) throws IOException {
+        segment = openSegment(segments.get(segmentNumber));
+        segment.position(Math.min(Math.max(offset, segment.position()), segment.limit())); // Within the records
+        nextSegment = segmentNumber + 1;
+    }
+
+    /**
+     * @return The time the message last read was received, in milliseconds since the epoch
+     */
+    public long receivedMillis() {
+        return receivedMillis;
+    }
+
+    /**
+     * @return The number of records found corrupt, each of which caused the rest of its segment to be skipped
+     */
+    public long corruptRecords() {
+        return corruptRecords;
+    }
+
+
+    /**
+     * Reads the next record of the current segment
+     * @return False if the end of the segment was reached, or the record was corrupt
+     */
+    private boolean readRecord(FeedMessage message) {
+        int position = segment.position();
+        if (segment.remaining() < JournalWriter.RECORD_HEADER_LENGTH) {
+            return false;
+        }
+
+        int length = segment.getInt(position);
+        if (length == 0) {
+            return false;
+        }
+        if (length < 0 || length > JournalWriter.MAX_PAYLOAD_LENGTH
+                || segment.remaining() < JournalWriter.RECORD_HEADER_LENGTH + length) {
+            corruptRecords++;
+            return false;
+        }
+
+        int checkedStart = position + 2 * Integer.BYTES;
+        segment.get(checkedStart, checked, 0, Long.BYTES + length);
+        crc.reset();
+        crc.update(checked, 0, Long.BYTES + length);
+        if ((int) crc.getValue() != segment.getInt(position + Integer.BYTES)) {
+            corruptRecords++;
+            return false;
+        }
+
+        int payloadStart = position + JournalWriter.RECORD_HEADER_LENGTH;
+        segment.limit(payloadStart + length).position(payloadStart);
+        int result = codec.decode(segment, message);
+        boolean isWhole = result == BinaryFrameCodec.DECODED && !segment.hasRemaining();
+        segment.limit(segment.capacity()).position(payloadStart + length);
+        if (!isWhole) { // A matching CRC over a payload that is not one message was not written by a JournalWriter
+            corruptRecords++;
+            return false;
+        }
+
+        receivedMillis = segment.getLong(checkedStart);
+        return true;
+    }
+
+    private static MappedByteBuffer openSegment(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is over 2GB, so is not a segment");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapped.remaining() < JournalWriter.SEGMENT_HEADER_LENGTH || mapped.getInt() != JournalWriter.MAGIC) {
+            throw new IOException(path + " is not a segment of a journal");
+        }
+        int version = mapped.getInt();
+        if (version != JournalWriter.VERSION) {
+            throw new IOException(path + " is of version " + version + ", which cannot be read");
+        }
+        mapped.getLong(); // Time created
+        return mapped;
+    }
+
+
+    /**
+     * @param directory The directory of a journal
+     * @return The segments of the journal, in the order they were written
+     * @throws IOException If the directory could not be listed
+     */
+    public static @NotNull List<Path> segments(@NotNull Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted() // Names are zero-padded, so sort in the order written
+                    .toList();
+        }
+    }
+
+    static String segmentName(int index) {
+        return String.format("%010d", index) + SEGMENT_SUFFIX;
+    }
+
+    static String indexName(int index) {
+        return String.format("%010d", index) + INDEX_SUFFIX;
+    }
+
+    /**
+     * @return The path of the index beside the segment
+     */
+    static Path indexOf(Path segment) {
+        return segment.resolveSibling(indexName(segmentIndex(segment)));
+    }
+
+    static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
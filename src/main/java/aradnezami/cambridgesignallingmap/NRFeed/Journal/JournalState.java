@@ -0,0 +1,142 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.NRFeed;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The state of {@link NRFeed#AREA} built up by the messages of a journal: the value of every S-Class byte, as
+ * an {@link SClassDecoder} holds it, and the describer in every berth. Only raw bytes are kept, so applying a
+ * message decodes nothing. A state can be written to and read from a snapshot.
+ * <p>
+ * Snapshots are written as the value of each address (1 byte each), a bitmap of the addresses updated, the
+ * number of occupied berths (int) and then each berth and its describer (packed codes, int each).
+ */
+final class JournalState {
+    private static final int PACKED_AREA = FeedMessage.packCode(NRFeed.AREA);
+    private static final int NONE = FeedMessage.packCode("NONE");
+    private static final int BITMAP_LENGTH = DecodeTable.ADDRESSES / 8;
+
+    private final int[] bytes = new int[DecodeTable.ADDRESSES];
+    private final boolean[] updated = new boolean[DecodeTable.ADDRESSES];
+    private final Map<Integer, Integer> berths = new TreeMap<>(); // Packed berth to packed describer, in a fixed order
+
+
+    /**
+     * Applies the message as {@link NRFeed} would. Messages of other areas are skipped, and a reset marker
+     * forgets everything
+     * @param message The message
+     */
+    void apply(@NotNull FeedMessage message) {
+        if (message.area != FeedMessage.NO_AREA && message.area != PACKED_AREA) {
+            return;
+        }
+
+        switch (message.type) {
+            case FeedMessage.S_CLASS -> {
+                bytes[message.address] = message.data;
+                updated[message.address] = true;
+            }
+            case FeedMessage.C_CLASS -> {
+                if (message.fromBerth != NONE) { berths.remove(message.fromBerth); }
+                if (message.toBerth != NONE) { berths.put(message.toBerth, message.describer); }
+            }
+            case FeedMessage.REFRESH -> {
+                if (message.refreshMarker == FeedMessage.RESET) { clear(); }
+            } // A refresh only emits events once ended, its bytes are applied as they arrive
+            default -> {} // Heartbeats change nothing
+        }
+    }
+
+    /**
+     * Forgets every byte and berth
+     */
+    void clear() {
+        Arrays.fill(bytes, 0);
+        Arrays.fill(updated, false);
+        berths.clear();
+    }
+
+
+    /**
+     * @return The length of the snapshot of this state
+     */
+    int snapshotLength() {
+        return DecodeTable.ADDRESSES + BITMAP_LENGTH + Integer.BYTES + 2 * Integer.BYTES * berths.size();
+    }
+
+    /**
+     * Puts a snapshot of this state
+     * @param buffer The buffer the snapshot is put into, with at least {@link #snapshotLength()} remaining
+     */
+    void writeSnapshot(@NotNull ByteBuffer buffer) {
+        for (int address = 0; address < DecodeTable.ADDRESSES; address++) {
+            buffer.put((byte) bytes[address]);
+        }
+        for (int i = 0; i < BITMAP_LENGTH; i++) {
+            int bits = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if (updated[8 * i + bit]) { bits |= 1 << bit; }
+            }
+            buffer.put((byte) bits);
+        }
+
+        buffer.putInt(berths.size());
+        for (Map.Entry<Integer, Integer> berth : berths.entrySet()) {
+            buffer.putInt(berth.getKey()).putInt(berth.getValue());
+        }
+    }
+
+    /**
+     * Replaces this state with that of a snapshot
+     * @param buffer The buffer holding the snapshot from its position
+     * @throws java.nio.BufferUnderflowException If the snapshot was cut short
+     */
+    void readSnapshot(@NotNull ByteBuffer buffer) {
+        clear();
+        for (int address = 0; address < DecodeTable.ADDRESSES; address++) {
+            bytes[address] = buffer.get() & 0xFF;
+        }
+        for (int i = 0; i < BITMAP_LENGTH; i++) {
+            int bits = buffer.get();
+            for (int bit = 0; bit < 8; bit++) {
+                updated[8 * i + bit] = (bits & (1 << bit)) != 0;
+            }
+        }
+
+        int berthCount = buffer.getInt();
+        for (int i = 0; i < berthCount; i++) {
+            berths.put(buffer.getInt(), buffer.getInt());
+        }
+    }
+
+
+    /**
+     * Returns the events that display this state: those of {@link SClassDecoder#allEvents()} for the S-Class
+     * bytes, followed by an interpose of the describer in every occupied berth
+     * @param table The table to decode the S-Class bytes with
+     * @return The events, without timestamps
+     */
+    @NotNull Event[] toEvents(@NotNull DecodeTable table) {
+        SClassDecoder decoder = new SClassDecoder(table);
+        decoder.restore(bytes, updated);
+
+        List<Event> events = new ArrayList<>(List.of(decoder.allEvents()));
+        for (Map.Entry<Integer, Integer> berth : berths.entrySet()) {
+            events.add(new Event(-1L, "NONE",
+                    FeedMessage.unpackCode(berth.getKey()),
+                    FeedMessage.unpackCode(berth.getValue())));
+        }
+        return events.toArray(new Event[0]);
+    }
+}
@@ -0,0 +1,312 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.BinaryFrameCodec;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Pipeline.OverflowPolicy;
+import aradnezami.cambridgesignallingmap.NRFeed.Pipeline.SpscRing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32C;
+
+/**
+ * The JournalWriter appends every message handed to it to an append-only journal on disk, so that the raw
+ * feed can be read back after the fact with a {@link JournalReader}.
+ * <p>
+ * The journal is a directory of segments, each a file of a fixed size which is memory-mapped while being
+ * written. Once a segment has no room for another record, it is flushed to disk and the next segment is
+ * started. Each writer starts a new segment, so segments written before a crash are never appended to.
+ * Only the newest segments are kept: whenever a segment is started, the oldest are deleted with their indexes
+ * until at most the maximum number of segments remain.
+ * Beside each segment, an index of timestamps and periodic snapshots of the state of the feed is written by a
+ * {@link JournalIndexer}, which a {@link JournalIndex} reads to seek by time.
+ *
+ * <h3>Format</h3>
+ * A segment starts with a header of {@link #MAGIC}, {@link #VERSION} and the time it was created. Records
+ * follow, each made of:
+ * <ul>
+ * <li>The length of the payload, as an int. A length of 0 marks the end of the segment</li>
+ * <li>The CRC-32C of the time received and the payload, as an int</li>
+ * <li>The time the message was received, in milliseconds since the epoch, as a long</li>
+ * <li>The payload, which is the message encoded as a frame of the {@link BinaryFrameCodec}, enclosed in an
+ * envelope if the message had an area</li>
+ * </ul>
+ *
+ * <h3>Threads</h3>
+ * {@link #append(FeedMessage)} only copies the message into a ring, so it never waits on the disk. A writer
+ * thread takes the messages from the ring and copies them into the mapped segment. If the writer thread falls
+ * so far behind that the ring is full, messages are dropped and counted rather than delaying the caller.
+ * {@link #append(FeedMessage)} must only be called from one thread at a time.
+ */
+public final class JournalWriter implements Closeable {
+    /** The first int of every segment */
+    public static final int MAGIC = 0x4E524A31; // "NRJ1"
+    /** The version of the format of the segments */
+    public static final int VERSION = 1;
+    /** The size of the header at the start of each segment */
+    public static final int SEGMENT_HEADER_LENGTH = 2 * Integer.BYTES + Long.BYTES;
+    /** The size of the fields of a record before its payload */
+    public static final int RECORD_HEADER_LENGTH = 2 * Integer.BYTES + Long.BYTES;
+    /** The size of the largest payload of a record */
+    public static final int MAX_PAYLOAD_LENGTH = BinaryFrameCodec.ENVELOPE_HEADER_LENGTH + BinaryFrameCodec.C_FRAME_LENGTH;
+
+    /** Holds roughly an hour of the whole feed */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    /** Messages held between {@link #append(FeedMessage)} and the writer thread */
+    public static final int DEFAULT_CAPACITY = 16384;
+    /** Keeps roughly the last day of the whole feed, at {@link #DEFAULT_SEGMENT_SIZE} */
+    public static final int DEFAULT_MAX_SEGMENTS = 24;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private int segmentIndex;
+    private MappedByteBuffer segment; // Null once the next segment failed to open
+
+    /**
+     * A message waiting to be written, with the time it was received
+     */
+    private static final class Entry {
+        final FeedMessage message = new FeedMessage();
+        long receivedMillis;
+    }
+
+    private final SpscRing<Entry> entries;     // Appender to writer thread
+    private final SpscRing<Entry> freeEntries; // Writer thread to appender
+
+    private final JournalIndexer indexer = new JournalIndexer();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + MAX_PAYLOAD_LENGTH);
+    private final CRC32C crc = new CRC32C();
+
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+    private final BooleanSupplier isClosedSupplier = () -> isClosed;
+    private volatile @Nullable IOException failure;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong(); // Besides those dropped by the ring
+
+
+    /**
+     * Creates a writer as {@link #JournalWriter(Path, long, int, int)} does, keeping
+     * {@link #DEFAULT_MAX_SEGMENTS} segments
+     */
+    public JournalWriter(@NotNull Path directory, long segmentSize, int capacity) throws IOException {
+        this(directory, segmentSize, capacity, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Opens the first segment of this writer in the directory, creating the directory if needed, deletes the
+     * oldest segments past the maximum and starts the writer thread
+     * @param directory The directory of the journal's segments
+     * @param segmentSize The size of each segment file, in bytes
+     * @param capacity The number of messages held while waiting for the writer thread
+     * @param maxSegments The number of segments kept, including the one being written
+     * @throws IOException If the directory or first segment could not be created
+     * @throws IllegalArgumentException If the segment size could not hold a record or is over 2GB, or fewer than
+     * 1 segment is kept
+     */
+    public JournalWriter(@NotNull Path directory, long segmentSize, int capacity, int maxSegments) throws IOException {
+        if (segmentSize < SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH + MAX_PAYLOAD_LENGTH || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must hold a record and be at most 2GB, not " + segmentSize);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("At least 1 segment must be kept, not " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        List<Path> segments = JournalReader.segments(directory);
+        segmentIndex = segments.isEmpty() ? 0 : JournalReader.segmentIndex(segments.get(segments.size() - 1)) + 1;
+        segment = openSegment(segmentIndex);
+        indexer.beginSegment(directory.resolve(JournalReader.indexName(segmentIndex)));
+        deleteOldSegments();
+
+        entries = new SpscRing<>(capacity, OverflowPolicy.DROP_NEWEST);
+        freeEntries = new SpscRing<>(entries.capacity(), OverflowPolicy.DROP_NEWEST);
+
+        writerThread = new Thread(this::write, "NRFeed journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+
+    /**
+     * Appends a copy of the message to the journal, without waiting for it to be written
+     * @param message The message received
+     * @return True if the message will be written, false if it was dropped as the writer had fallen behind,
+     * failed or was closed
+     */
+    public boolean append(@NotNull FeedMessage message) {
+        if (isClosed || failure != null) {
+            drops.incrementAndGet();
+            return false;
+        }
+
+        Entry entry = freeEntries.poll();
+        if (entry == null) { entry = new Entry(); }
+        entry.message.copyFrom(message);
+        entry.receivedMillis = System.currentTimeMillis();
+
+        try {
+            return entries.put(entry); // Never waits, as the ring drops when full
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes every message already appended, flushes the current segment to disk and stops the writer thread.
+     * Messages appended hereafter are dropped. Calling this method when closed has no effect
+     * @throws IOException If the journal failed before or whilst closing. See {@link #failure()}
+     */
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * @return The number of messages written to the journal
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * @return The number of messages dropped as the writer thread had fallen behind, failed or was closed
+     */
+    public long drops() {
+        return drops.get() + entries.drops();
+    }
+
+    /**
+     * @return The failure that stopped the writer thread, or null if it has not failed. Once failed, every
+     * message appended is dropped
+     */
+    public @Nullable IOException failure() {
+        return failure;
+    }
+
+    /**
+     * @return The directory of the journal's segments
+     */
+    public @NotNull Path directory() {
+        return directory;
+    }
+
+
+
+    /**
+     * The writer thread. Writes messages until closed and every message appended has been written
+     */
+    private void write() {
+        try {
+            Entry entry;
+            while ((entry = entries.take(isClosedSupplier)) != null) {
+                writeRecord(entry);
+                freeEntries.offer(entry);
+                written.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Journal writer thread was interrupted", e);
+        } finally {
+            if (segment != null) { segment.force(); } // Null if the next segment failed to open
+            try {
+                indexer.close();
+            } catch (IOException e) {
+                if (failure == null) { failure = e; }
+            }
+        }
+    }
+
+    private void writeRecord(Entry entry) throws IOException {
+        record.clear();
+        record.position(RECORD_HEADER_LENGTH);
+        FeedMessage message = entry.message;
+        if (message.area != FeedMessage.NO_AREA) {
+            int header = BinaryFrameCodec.beginEnvelope(record, message.area);
+            BinaryFrameCodec.encode(message, record);
+            BinaryFrameCodec.endEnvelope(record, header);
+        } else {
+            BinaryFrameCodec.encode(message, record);
+        }
+
+        int payloadLength = record.position() - RECORD_HEADER_LENGTH;
+        record.putLong(2 * Integer.BYTES, entry.receivedMillis);
+        crc.reset();
+        crc.update(record.array(), 2 * Integer.BYTES, Long.BYTES + payloadLength);
+        record.putInt(0, payloadLength);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+
+        if (segment.remaining() < record.remaining() + Integer.BYTES) { // Room for the record and an end marker
+            rotate();
+        }
+        indexer.record(message, segment.position());
+        segment.put(record);
+    }
+
+    /**
+     * Flushes the current segment and its index to disk, starts the next one and deletes the oldest segments
+     * past the maximum
+     */
+    private void rotate() throws IOException {
+        segment.force();
+        segment = null; // Dropped before the next is mapped, so only the current segment stays mapped
+        segment = openSegment(++segmentIndex); // If this fails, the writer fails with no segment to flush
+        indexer.beginSegment(directory.resolve(JournalReader.indexName(segmentIndex)));
+        deleteOldSegments();
+    }
+
+    /**
+     * Deletes the oldest segments, with their indexes, until at most {@link #maxSegments} remain. A segment that
+     * cannot be deleted, such as one open elsewhere, is left for the next rotation rather than failing the journal
+     */
+    private void deleteOldSegments() {
+        try {
+            List<Path> segments = JournalReader.segments(directory);
+            for (int i = 0; i < segments.size() - maxSegments; i++) {
+                Files.deleteIfExists(JournalReader.indexOf(segments.get(i)));
+                Files.deleteIfExists(segments.get(i));
+            }
+        } catch (IOException ignored) {}
+    }
+
+    private MappedByteBuffer openSegment(int index) throws IOException {
+        Path path = directory.resolve(JournalReader.segmentName(index));
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // Stays valid once closed
+        }
+        mapped.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        return mapped;
+    }
+}
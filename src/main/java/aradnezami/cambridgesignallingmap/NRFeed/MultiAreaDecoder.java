@@ -0,0 +1,261 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The MultiAreaDecoder decodes the S-Class messages of many train describer areas at the same time, as
+ * received from {@code TD_ALL_SIG_AREA}. Every area has its own {@link SClassDecoder}, and so its own
+ * compiled map and byte state.
+ * <p>
+ * Each area owns a queue of messages that is drained by at most one thread of a fixed pool at a time, so
+ * the messages of an area are decoded in order without any locking, while different areas are decoded in
+ * parallel. An area only holds a pool thread for a limited batch of messages before yielding it, so a busy
+ * area never holds up a quiet one. Decoded events are passed to an {@link AreaEventSink}.
+ * <p>
+ * If decoding a message fails, such as when a map is found to be invalid, the rest of the area's batch is
+ * skipped and the failure is thrown by the next {@link #awaitIdle()}. The area carries on with its later
+ * messages.
+ * <p>
+ * The submitting methods may be called from one thread only (the thread reading the feed).
+ * <p>
+ * This class is for consumers of the whole feed. The map displays only {@link NRFeed#AREA}, which
+ * {@link NRFeed} decodes with a single {@link SClassDecoder}, so it does not use this class.
+ */
+public class MultiAreaDecoder implements AutoCloseable {
+    /**
+     * The maximum number of messages an area decodes before giving its pool thread to another area
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static final int S_CLASS = 0;
+    private static final int REFRESH_START = 1;
+    private static final int REFRESH_END = 2;
+
+    private final Map<String, Area> areas = new HashMap<>();
+    private final ExecutorService executor;
+    private final AreaEventSink sink;
+
+    private final AtomicLong outstandingMessages = new AtomicLong();
+    private final Object idleLock = new Object();
+    private long unknownAreaMessages = 0;
+    // The first failure of an area since the last awaitIdle, which throws it
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+
+    /**
+     * Creates an instance which decodes each area with its own decoder. The instance becomes responsible
+     * for the decoders, so they should not be used elsewhere hereafter
+     * @param decoders The decoder of each area, keyed by area (Eg: {@code CA})
+     * @param threads The number of threads to decode with
+     * @param sink The sink receiving the decoded events of all areas
+     * @throws IllegalArgumentException If threads is less than 1
+     */
+    public MultiAreaDecoder(@NotNull Map<String, SClassDecoder> decoders, int threads, @NotNull AreaEventSink sink) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required, not " + threads);
+        }
+
+        this.sink = sink;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Area decoder " + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (Map.Entry<String, SClassDecoder> entry : decoders.entrySet()) {
+            areas.put(entry.getKey(), new Area(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Creates an instance from the map file of each area
+     * @param mapPaths The map file path of each area, keyed by area (Eg: {@code CA})
+     * @param threads The number of threads to decode with
+     * @param sink The sink receiving the decoded events of all areas
+     * @return The created instance
+     * @throws FileNotFoundException If a map file cannot be accessed
+     * @throws IllegalMapFormatException If a map is incorrectly formatted
+     * @see SClassDecoder#SClassDecoder(String)
+     */
+    public static MultiAreaDecoder load(@NotNull Map<String, String> mapPaths, int threads,
+                                        @NotNull AreaEventSink sink) throws FileNotFoundException {
+        HashMap<String, SClassDecoder> decoders = new HashMap<>();
+        for (Map.Entry<String, String> entry : mapPaths.entrySet()) {
+            decoders.put(entry.getKey(), new SClassDecoder(entry.getValue()));
+        }
+
+        return new MultiAreaDecoder(decoders, threads, sink);
+    }
+
+
+    /**
+     * Queues an S-Class message to be decoded by its area. See {@link SClassDecoder#SClassChange(long, int, int)}
+     * @param area The train describer area of the message
+     * @param timestamp The timestamp of the message provided by the feed or -1L if none is to be given
+     * @param address The address of the byte being updated. Range 0-255
+     * @param newByte The value of the updated byte. Range 0-255
+     * @return True if the message was queued, false if the area has no decoder and the message was dropped
+     */
+    public boolean SClassChange(@NotNull String area, long timestamp, int address, int newByte) {
+        return submit(area, S_CLASS, timestamp, address, newByte);
+    }
+
+    /**
+     * Queues the start of a signalling refresh in an area. See {@link SClassDecoder#beginRefresh()}
+     * @param area The train describer area of the refresh
+     * @return True if the marker was queued, false if the area has no decoder
+     */
+    public boolean beginRefresh(@NotNull String area) {
+        return submit(area, REFRESH_START, -1L, 0, 0);
+    }
+
+    /**
+     * Queues the end of a signalling refresh in an area. See {@link SClassDecoder#endRefresh(long)}
+     * @param area The train describer area of the refresh
+     * @param timestamp The timestamp given to the events, or -1L if none is to be given
+     * @return True if the marker was queued, false if the area has no decoder
+     */
+    public boolean endRefresh(@NotNull String area, long timestamp) {
+        return submit(area, REFRESH_END, timestamp, 0, 0);
+    }
+
+
+    /**
+     * Blocks until every message queued before the call has been decoded and its events passed to the sink
+     * @throws InterruptedException If interrupted while waiting
+     * @throws RuntimeException The first failure of an area while decoding since the last call, such as an
+     * {@link IllegalMapFormatException} or an exception thrown by the sink
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            while (outstandingMessages.get() > 0) {
+                idleLock.wait();
+            }
+        }
+
+        RuntimeException failure = this.failure.getAndSet(null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return The areas which have a decoder
+     */
+    public Set<String> areas() {
+        return areas.keySet();
+    }
+
+    /**
+     * @return The number of messages dropped as their area has no decoder
+     */
+    public long unknownAreaMessages() {
+        return unknownAreaMessages;
+    }
+
+
+    /**
+     * Stops the decoding threads. Messages that have not been decoded yet are discarded
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private boolean submit(String areaName, int kind, long timestamp, int address, int newByte) {
+        Area area = areas.get(areaName);
+        if (area == null) {
+            unknownAreaMessages++;
+            return false;
+        }
+
+        outstandingMessages.incrementAndGet();
+        area.queue.offer(new Message(kind, timestamp, address, newByte));
+        area.schedule();
+        return true;
+    }
+
+    private void decoded(int messages) {
+        if (outstandingMessages.addAndGet(-messages) == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+
+
+    /**
+     * A message waiting in the queue of an area
+     */
+    private record Message(int kind, long timestamp, int address, int newByte) {}
+
+
+    /**
+     * The decoder and queue of one area. Runs on a pool thread while it has queued messages, and is
+     * scheduled at most once at a time, which serialises the decoding of the area
+     */
+    private final class Area implements Runnable {
+        private final SClassDecoder decoder;
+        private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+        private final SClassEventSink areaSink;
+
+        Area(String name, SClassDecoder decoder) {
+            this.decoder = decoder;
+            DecodeTable table = decoder.table();
+            areaSink = (timestamp, type, state, equipment) ->
+                    sink.accept(name, timestamp, type, state, table.equipmentName(equipment));
+        }
+
+        void schedule() {
+            if (isScheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int decodedMessages = 0;
+            try {
+                Message message;
+                while (decodedMessages < BATCH_SIZE && (message = queue.poll()) != null) {
+                    decodedMessages++; // Counted before decoding, so a failure cannot leave awaitIdle waiting
+                    switch (message.kind()) {
+                        case S_CLASS -> decoder.SClassChange(message.timestamp(), message.address(), message.newByte(), areaSink);
+                        case REFRESH_START -> decoder.beginRefresh();
+                        case REFRESH_END -> decoder.endRefresh(message.timestamp(), areaSink);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                isScheduled.set(false);
+                if (!queue.isEmpty()) {
+                    schedule(); // Requeue behind the other areas rather than keep the thread
+                }
+                decoded(decodedMessages);
+            }
+        }
+    }
+}
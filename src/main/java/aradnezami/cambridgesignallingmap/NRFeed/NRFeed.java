@@ -1,32 +1,63 @@
 package aradnezami.cambridgesignallingmap.NRFeed;
 
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.FeedMetrics;
+import aradnezami.cambridgesignallingmap.Metrics.JFR.BerthStepEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import aradnezami.cambridgesignallingmap.NRFeed.Journal.JournalWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import jdk.jfr.EventType;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
 
 
 /**
  * The NRFeedClient is used by users of the package to access the Network Rail data feeds and returns
  * {@link Event}s in a decoded form.
+ * <p>
+ * Events are decoded and buffered as compact {@link FeedEvent}s, which {@link #drainTo(FeedEvent[])} returns
+ * as they are. {@link #nextEvent()} and the other drainTo methods resolve their names into {@link Event}s.
  */
 public class NRFeed {
     private final SClassDecoder decoder;
+    private final DecodeTable table; // Of the decoder, names the equipment of buffered S-Class events
     private final NRFeedClient client;
+    private final @Nullable JournalWriter journal;
+    private final @Nullable FeedLatency latency;
+    private final @Nullable FeedMetrics metrics;
+    private long countedUnmappedChanges = 0; // Of the decoder, already added to the metrics
 
-    private final ArrayList<Event> bufferedEvents = new ArrayList<>();
+    private final ArrayDeque<FeedEvent> bufferedEvents = new ArrayDeque<>();
+    private NRFeedException pendingException; // Thrown by the next drainTo, see awaitEvents
+    private final FeedMessage message = new FeedMessage(); // Reused for every message
+    // Buffers the events of the decoder, so that decoding a message allocates nothing but its events
+    private final SClassEventSink bufferingSink = this::bufferSClassEvent;
 
+    // When the oldest message with buffered events, and the oldest whose events were last drained, were
+    // received. 0 if not timed
+    private long bufferedReceivedNanos = 0;
+    private long drainedReceivedNanos = 0;
 
-    public final int TYPE = 0;
-    public final int TIMESTAMP = 1;
 
-    public final int S_ADDRESS = 2;
-    public final int S_BYTE = 3;
+    /**
+     * The train describer area decoded by an NRFeed. Messages tagged with any other area are skipped
+     */
+    public static final String AREA = "CA";
+    private static final int PACKED_AREA = FeedMessage.packCode(AREA);
+
+    private static final EventType BERTH_STEP = EventType.getEventType(BerthStepEvent.class);
 
-    public final int C_FROMBERTH = 2;
-    public final int C_TOBERTH = 3;
-    public final int C_DESCRIBER = 4;
+    /**
+     * If a refresh has not ended this long (in feed time) after it started, it is ended anyway, so that a
+     * lost SH message cannot leave the feed silent
+     */
+    private static final long REFRESH_TIMEOUT_MILLIS = 60_000L;
+    private long refreshStartTimestamp = -1L;
 
 
     /**
@@ -37,8 +68,26 @@ public class NRFeed {
      * @param decoder SClassDecoder to be used
      */
     public NRFeed(NRFeedClient client, SClassDecoder decoder) {
+        this(client, decoder, FeedOptions.NONE);
+    }
+
+    /**
+     * Creates an instance of NRFeed as {@link #NRFeed(NRFeedClient, SClassDecoder)} does, with the given
+     * journal, latencies and metrics (see {@link FeedOptions})
+     * @param client NRFeedClient to be used
+     * @param decoder SClassDecoder to be used
+     * @param options The journal, latencies and metrics of the feed
+     */
+    public NRFeed(NRFeedClient client, SClassDecoder decoder, @NotNull FeedOptions options) {
         this.decoder = decoder;
+        this.table = decoder.table();
         this.client = client;
+        journal = options.journal();
+        latency = options.latency();
+        metrics = options.metrics();
+        if (metrics != null) {
+            countedUnmappedChanges = decoder.unmappedChanges();
+        }
     }
 
 
@@ -46,43 +95,274 @@ public class NRFeed {
      * Polls for the next {@link Event} from the feed. If no event is available, the method
      * blocks until one is received. If an S-Class event constitutes several changes, the
      * method will return the events sequentially in the order of the bit number in the mappings.
+     * <p>
+     * The S-Class messages of a signalling refresh are applied as one batch: no events are returned
+     * until the refresh ends, after which the net change of the whole refresh is returned sequentially.
+     * {@link #hasBufferedEvents()} can be used to tell when the last event of such a batch was returned.
+     * <p>
+     * If the client reports that messages were lost (see {@link FeedMessage#RESET}), all S-Class state is
+     * forgotten and a reset event is returned (see {@link Event#reset(long)}), in order with the other events.
      * @return The most recently received event from the feed
      * @throws NRFeedException If a connection error occurs
+     * @see #drainTo(FeedEvent[])
      */
     public Event nextEvent() throws NRFeedException {
-        if (!bufferedEvents.isEmpty()) {
-            Event event = bufferedEvents.get(0);
-            bufferedEvents.remove(0);
-            return event;
+        awaitEvents(true);
+        return bufferedEvents.pollFirst().toEvent(table);
+    }
+
+    /**
+     * Fills the given array with every event available right now, in their compact form and in the order
+     * {@link #nextEvent()} would return them. If no event is available, the method blocks until one is
+     * received. After that, the feed is only polled while its client has a message ready (see
+     * {@link NRFeedClient#isMessageReady()}), so the method returns as soon as the burst of messages received so
+     * far has been decoded.
+     * <p>
+     * Events that do not fit in the array are kept for the next call, in which case
+     * {@link #hasBufferedEvents()} returns true.
+     * @param events The array to fill, from index 0
+     * @return The number of events put in the array. At least 1, unless the array is empty
+     * @throws NRFeedException If a connection error occurs. If events have already been put in the array
+     * when the error occurs, they are returned and the exception is thrown by the next call instead
+     */
+    public int drainTo(@NotNull FeedEvent[] events) throws NRFeedException {
+        throwPendingException();
+
+        int count = 0;
+        while (count < events.length && awaitEvents(count == 0)) {
+            events[count++] = bufferedEvents.pollFirst();
+        }
+        drained();
+        return count;
+    }
+
+    /**
+     * Fills the given array with every event available right now, with their names resolved. Behaves as
+     * {@link #drainTo(FeedEvent[])} does
+     * @param events The array to fill, from index 0
+     * @return The number of events put in the array. At least 1, unless the array is empty
+     * @throws NRFeedException If a connection error occurs. If events have already been put in the array
+     * when the error occurs, they are returned and the exception is thrown by the next call instead
+     */
+    public int drainTo(@NotNull Event[] events) throws NRFeedException {
+        throwPendingException();
+
+        int count = 0;
+        while (count < events.length && awaitEvents(count == 0)) {
+            events[count++] = bufferedEvents.pollFirst().toEvent(table);
         }
+        drained();
+        return count;
+    }
+
+    /**
+     * Adds every event available right now to the given collection, with their names resolved, up to the given
+     * maximum. Behaves as {@link #drainTo(FeedEvent[])} does
+     * @param events The collection to add to
+     * @param maxEvents The maximum number of events to add
+     * @return The number of events added. At least 1, unless maxEvents is less than 1
+     * @throws NRFeedException If a connection error occurs. If events have already been added when the
+     * error occurs, they are returned and the exception is thrown by the next call instead
+     */
+    public int drainTo(@NotNull Collection<? super Event> events, int maxEvents) throws NRFeedException {
+        throwPendingException();
+
+        int count = 0;
+        while (count < maxEvents && awaitEvents(count == 0)) {
+            events.add(bufferedEvents.pollFirst().toEvent(table));
+            count++;
+        }
+        drained();
+        return count;
+    }
+
+    /**
+     * Checks if events decoded from an earlier message are waiting to be returned by {@link #nextEvent()}
+     * or {@link #drainTo(FeedEvent[])}. If this returns false, the next call will poll the feed.
+     * @return True if the next call to {@link #nextEvent()} returns without polling the feed
+     */
+    public boolean hasBufferedEvents() {
+        return !bufferedEvents.isEmpty();
+    }
+
+    /**
+     * Returns when the oldest message whose events were returned by the last call to
+     * {@link #drainTo(FeedEvent[])} was received, as given by {@link FeedMessage#receivedNanos}. Events kept for
+     * a later call are counted as received as early as those returned with them, so this is never later than the
+     * receipt of any event returned
+     * @return The {@link System#nanoTime()} of the receipt, or 0 if the messages were not timed
+     */
+    public long receivedNanos() {
+        return drainedReceivedNanos;
+    }
 
-        String[] eventStr = client.pollNREvent().split(",");
-        long timestamp = Long.parseLong(eventStr[TIMESTAMP]);
 
-        if (eventStr[TYPE].equals("C")) {
-            return new Event(timestamp, eventStr[C_FROMBERTH], eventStr[C_TOBERTH], eventStr[C_DESCRIBER]);
+    /**
+     * Polls the feed until at least one event is buffered
+     * @param isBlocking If false, the feed is only polled while its client has a message ready
+     * @return True if an event is buffered. Always true if blocking
+     * @throws NRFeedException If a connection error occurs while blocking. When not blocking, the
+     * exception is kept for {@link #throwPendingException()}
+     */
+    private boolean awaitEvents(boolean isBlocking) throws NRFeedException {
+        while (bufferedEvents.isEmpty()) {
+            if (isBlocking) {
+                pollMessage();
+                continue;
+            }
+
+            try {
+                if (!client.isMessageReady()) { return false; }
+                pollMessage();
+            } catch (NRFeedException e) {
+                pendingException = e;
+                return false;
+            }
         }
+        return true;
+    }
 
-        int address = Integer.parseInt(eventStr[S_ADDRESS], 16);
-        int data = Integer.parseInt(eventStr[S_BYTE], 16);
-        Event[] events = decoder.SClassChange(timestamp, address, data);
+    private void drained() {
+        drainedReceivedNanos = bufferedReceivedNanos;
+        if (bufferedEvents.isEmpty()) {
+            bufferedReceivedNanos = 0;
+        }
+    }
 
-        if (events.length == 0) {
-            return nextEvent();
-        } else if (events.length == 1) {
-            return events[0];
+    private void throwPendingException() throws NRFeedException {
+        if (pendingException != null) {
+            NRFeedException e = pendingException;
+            pendingException = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Polls one message from the feed and buffers the events it decodes to, if any
+     * @throws NRFeedException If a connection error occurs
+     */
+    private void pollMessage() throws NRFeedException {
+        client.pollNREvent(message);
+        if (journal != null) {
+            journal.append(message); // Only copies the message, the journal's own thread writes it
+        }
+        int buffered = bufferedEvents.size();
+        decodeMessage();
+        if (metrics != null) {
+            countMessage(buffered);
+        }
+
+        if (message.receivedNanos != 0) {
+            if (latency != null) {
+                latency.decode().record(System.nanoTime() - message.receivedNanos);
+            }
+            if (bufferedReceivedNanos == 0 && !bufferedEvents.isEmpty()) {
+                bufferedReceivedNanos = message.receivedNanos;
+            }
+        }
+    }
+
+    /**
+     * Counts the last message polled, the events it was decoded to and the unmapped bits it changed, and records
+     * its timestamp in the estimate of the feed's lag
+     * @param buffered The number of events buffered before it was decoded
+     */
+    @SuppressWarnings("DataFlowIssue")
+    private void countMessage(int buffered) {
+        metrics.messages(message.type).increment();
+        if (message.type != FeedMessage.REFRESH) { // Markers are timestamped by the client, not Network Rail
+            metrics.lag().record(message.timestamp, message.receivedNanos);
+        }
+
+        Iterator<FeedEvent> events = bufferedEvents.descendingIterator(); // The message's events are the last buffered
+        for (int i = bufferedEvents.size(); i > buffered; i--) {
+            metrics.countEvent(events.next());
+        }
+
+        long unmappedChanges = decoder.unmappedChanges();
+        if (unmappedChanges != countedUnmappedChanges) {
+            metrics.unmappedBits().add(unmappedChanges - countedUnmappedChanges);
+            countedUnmappedChanges = unmappedChanges;
+        }
+    }
+
+    /**
+     * Decodes the last message polled and buffers the events it decodes to, if any
+     */
+    private void decodeMessage() {
+        if (message.area != FeedMessage.NO_AREA && message.area != PACKED_AREA) {
+            return;
+        }
+        long timestamp = message.timestamp;
+
+        if (message.type == FeedMessage.HEARTBEAT) {
+            return;
+        }
+        if (message.type == FeedMessage.C_CLASS) {
+            bufferedEvents.addLast(new CClassEvent(timestamp, message.fromBerth, message.toBerth, message.describer));
+
+            if (BERTH_STEP.isEnabled()) { // Codes are only unpacked when recorded
+                BerthStepEvent berthStep = new BerthStepEvent();
+                berthStep.fromBerth = FeedMessage.unpackCode(message.fromBerth);
+                berthStep.toBerth = FeedMessage.unpackCode(message.toBerth);
+                berthStep.describer = FeedMessage.unpackCode(message.describer);
+                berthStep.commit();
+            }
+            return;
+        }
+
+        if (message.type == FeedMessage.REFRESH) {
+            refreshMarker(timestamp, message.refreshMarker);
         } else {
-            bufferedEvents.addAll(Arrays.asList(events).subList(1, events.length)); // buffer all *except 1st event*
-            return events[0];
+            decoder.SClassChange(timestamp, message.address, message.data, bufferingSink);
+
+            if (isRefreshTimedOut(timestamp)) {
+                decoder.endRefresh(timestamp, bufferingSink);
+            }
         }
     }
 
+    private void bufferSClassEvent(long timestamp, int type, int state, int equipment) {
+        bufferedEvents.addLast(new SClassEvent(timestamp, type, state, equipment));
+    }
+
+
+    /**
+     * Starts or ends a refresh in the decoder, or resets it. The events of the refresh, if it ended, or the
+     * reset event are buffered
+     * @param timestamp The timestamp of the marker
+     * @param marker {@link FeedMessage#REFRESH_START}, {@link FeedMessage#REFRESH_END} or {@link FeedMessage#RESET}
+     */
+    private void refreshMarker(long timestamp, int marker) {
+        if (marker == FeedMessage.RESET) {
+            reset();
+            bufferedEvents.addLast(new ResetEvent(timestamp));
+            return;
+        }
+        if (marker == FeedMessage.REFRESH_START) {
+            decoder.beginRefresh();
+            refreshStartTimestamp = timestamp;
+            return;
+        }
+
+        refreshStartTimestamp = -1L;
+        decoder.endRefresh(timestamp, bufferingSink);
+    }
+
+    private boolean isRefreshTimedOut(long timestamp) {
+        return refreshStartTimestamp >= 0 && timestamp >= 0
+                && timestamp - refreshStartTimestamp > REFRESH_TIMEOUT_MILLIS
+                && decoder.isRefreshing();
+    }
+
+
     /**
      *  Resets all SClass state in the instance. The instance will behave as though
      *  it has just been constructed with no knowledge of any S-Class state.
      */
     public void reset() {
         decoder.reset();
+        refreshStartTimestamp = -1L;
     }
 
 
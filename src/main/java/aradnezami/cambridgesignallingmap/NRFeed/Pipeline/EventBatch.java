@@ -0,0 +1,33 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedEvent;
+
+/**
+ * A batch of decoded events, passed from the decoder stage of a {@link FeedPipeline} to its consumer. The events
+ * are in their compact form, with S-Class equipment identified by its id in the {@link DecodeTable} of the
+ * pipeline's decoder.
+ * Batches are reused: once a batch has been consumed it must be handed back with
+ * {@link FeedPipeline#releaseBatch(EventBatch)} and not used again.
+ */
+public final class EventBatch {
+    /**
+     * The events of the batch are {@code events[0]} up to, but excluding, {@code events[size]}. Elements
+     * beyond size are stale
+     */
+    public final FeedEvent[] events;
+    public int size;
+
+    /**
+     * The {@link System#nanoTime()} at which the oldest message of the batch was received (see
+     * {@link aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage#receivedNanos}), or 0 if not timed
+     */
+    public long receivedNanos;
+    /** The {@link System#nanoTime()} at which the batch was decoded */
+    public long decodedNanos;
+
+
+    EventBatch(int capacity) {
+        events = new FeedEvent[capacity];
+    }
+}
@@ -0,0 +1,310 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.JFR.MessageReceivedEvent;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedOptions;
+import aradnezami.cambridgesignallingmap.NRFeed.NRFeed;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import org.jetbrains.annotations.NotNull;
+
+import jdk.jfr.EventType;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A FeedPipeline reads, decodes and publishes a feed on separate threads, so that a slow consumer of
+ * the events (Eg: painting the diagram) never delays reading messages from the client, as Network Rail
+ * advise in {@link NRFeedClient}. The pipeline has three stages, linked by {@link SpscRing}s:
+ * <ul>
+ * <li>The reader thread, which only polls messages from the client into reused {@link FeedMessage}s</li>
+ * <li>The decoder thread, which decodes the messages with an {@link NRFeed} into {@link EventBatch}es,
+ * one batch per burst of messages</li>
+ * <li>The publish stage, which is the caller of {@link #takeBatch()}, typically a thread handing the
+ * events to the UI</li>
+ * </ul>
+ * <p>
+ * Messages and batches are returned to their producers through rings of free instances, so a pipeline
+ * in a steady state allocates only the decoded events themselves. The depth of each ring can be read at
+ * any time as a gauge of which stage is falling behind. Each message is timed as it is read (see
+ * {@link FeedMessage#receivedNanos}), and each batch carries the times its oldest message was received and
+ * it was decoded, so the latency of later stages can be measured (see {@link FeedLatency}).
+ * <p>
+ * If the client fails, every message read before the failure is still decoded and published, after which
+ * {@link #takeBatch()} throws the client's {@link NRFeedException}.
+ */
+public class FeedPipeline {
+    /** Most events in one batch. A burst with more events is published as several batches */
+    public static final int BATCH_SIZE = 1024;
+
+    private static final EventType MESSAGE_RECEIVED = EventType.getEventType(MessageReceivedEvent.class);
+
+    private final NRFeedClient client;
+    private final NRFeed feed;
+
+    private final SpscRing<FeedMessage> messages;     // Reader to decoder
+    private final SpscRing<FeedMessage> freeMessages; // Decoder to reader
+    private final SpscRing<EventBatch> batches;       // Decoder to publish stage
+    private final SpscRing<EventBatch> freeBatches;   // Publish stage to decoder
+
+    private final Thread readerThread;
+    private final Thread decoderThread;
+
+    // Written before the stage finishes, so read after checking the finished flag
+    private NRFeedException readerFailure;
+    private NRFeedException decoderFailure;
+    private volatile boolean readerFinished = false;
+    private volatile boolean decoderFinished = false;
+    private final BooleanSupplier isReaderFinished = () -> readerFinished;
+    private final BooleanSupplier isDecoderFinished = () -> decoderFinished;
+
+    private volatile boolean isResetRequested = false;
+
+
+    /**
+     * Creates a pipeline for the given client, which is not started until {@link #start()} is called. The
+     * pipeline becomes responsible for the client and decoder, which should not be used elsewhere hereafter
+     * @param client The client to read messages from
+     * @param decoder The decoder for the S-Class messages
+     * @param capacity The capacity of the ring of messages between the reader and the decoder. The ring of
+     *                 batches between the decoder and the publish stage holds one batch per 64 messages
+     * @param policy What the reader and decoder do when the next stage has fallen so far behind that its
+     *               ring is full
+     * @param options The journal, latencies and metrics of the decoder thread (see
+     *                {@link NRFeed#NRFeed(NRFeedClient, SClassDecoder, FeedOptions)}). Use {@link FeedOptions#NONE}
+     *                for none
+     */
+    public FeedPipeline(@NotNull NRFeedClient client, @NotNull SClassDecoder decoder, int capacity,
+                        @NotNull OverflowPolicy policy, @NotNull FeedOptions options) {
+        this.client = client;
+        feed = new NRFeed(new RingClient(), decoder, options);
+
+        messages = new SpscRing<>(capacity, policy);
+        freeMessages = new SpscRing<>(messages.capacity(), OverflowPolicy.DROP_NEWEST);
+        batches = new SpscRing<>(Math.max(1, capacity / 64), policy);
+        freeBatches = new SpscRing<>(batches.capacity(), OverflowPolicy.DROP_NEWEST);
+
+        readerThread = new Thread(this::read, "NRFeed reader");
+        readerThread.setDaemon(true);
+        decoderThread = new Thread(this::decode, "NRFeed decoder");
+        decoderThread.setDaemon(true);
+    }
+
+
+    /**
+     * Starts the reader and decoder threads
+     */
+    public void start() {
+        readerThread.start();
+        decoderThread.start();
+    }
+
+
+    /**
+     * Takes the next batch of events, waiting for one if none has been published. Once consumed, the batch
+     * must be handed back with {@link #releaseBatch(EventBatch)}. Must only be called from one thread
+     * @return The next batch
+     * @throws NRFeedException If the client failed and every batch decoded before the failure has been taken
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public @NotNull EventBatch takeBatch() throws NRFeedException, InterruptedException {
+        EventBatch batch = batches.take(isDecoderFinished);
+        if (batch == null) {
+            throw decoderFailure;
+        }
+        return batch;
+    }
+
+    /**
+     * Hands a consumed batch back to the decoder for reuse. Must only be called from the thread calling
+     * {@link #takeBatch()}
+     * @param batch The consumed batch
+     */
+    public void releaseBatch(@NotNull EventBatch batch) {
+        freeBatches.offer(batch);
+    }
+
+
+    /**
+     * Resets all S-Class state of the decoder, as {@link NRFeed#reset()} does. The reset is carried out by
+     * the decoder thread before it decodes its next message, so it is safe to call from any thread
+     */
+    public void reset() {
+        isResetRequested = true;
+    }
+
+    /**
+     * Disconnects the client and stops the reader and decoder threads. Batches that have not been taken are
+     * discarded
+     */
+    public void disconnect() {
+        client.disconnect();
+        readerThread.interrupt();
+        decoderThread.interrupt();
+    }
+
+    /**
+     * @return True if the client is alive
+     * @see NRFeedClient#isAlive()
+     */
+    public boolean isAlive() {
+        return client.isAlive();
+    }
+
+
+    /**
+     * @return The number of messages read but not yet decoded
+     */
+    public int messageQueueDepth() {
+        return messages.size();
+    }
+
+    /**
+     * @return The number of batches decoded but not yet taken
+     */
+    public int batchQueueDepth() {
+        return batches.size();
+    }
+
+    /**
+     * @return The number of messages dropped as the decoder had fallen behind
+     * @see OverflowPolicy#DROP_NEWEST
+     */
+    public long droppedMessages() {
+        return messages.drops();
+    }
+
+    /**
+     * @return The number of batches dropped as the publish stage had fallen behind
+     * @see OverflowPolicy#DROP_NEWEST
+     */
+    public long droppedBatches() {
+        return batches.drops();
+    }
+
+
+
+    /**
+     * The reader stage. Polls messages until the client fails or the thread is interrupted
+     */
+    private void read() {
+        FeedMessage message = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (message == null) {
+                    message = freeMessages.poll();
+                    if (message == null) { message = new FeedMessage(); }
+                }
+
+                // Only created while being recorded, so that reading allocates nothing otherwise
+                MessageReceivedEvent received = MESSAGE_RECEIVED.isEnabled() ? new MessageReceivedEvent() : null;
+                if (received != null) { received.begin(); }
+
+                client.pollNREvent(message);
+                message.receivedNanos = System.nanoTime();
+
+                if (received != null && received.shouldCommit()) {
+                    received.set(message);
+                    received.commit();
+                }
+                if (messages.put(message)) {
+                    message = null;
+                } // Otherwise the message was dropped, so its instance is reused
+            }
+            readerFailure = interruptedException("Reader");
+
+        } catch (NRFeedException e) {
+            readerFailure = e;
+        } catch (InterruptedException e) {
+            readerFailure = interruptedException("Reader");
+        } catch (RuntimeException e) {
+            readerFailure = new NRFeedException("Unexpected error in the reader", e,
+                    "An internal error occurred while reading the feed. Please report this as a bug, along with the contents of \"More info\"");
+        }
+        readerFinished = true;
+    }
+
+    /**
+     * The decoder stage. Decodes every burst of messages into a batch until the reader has finished and
+     * every message it read has been decoded, or the thread is interrupted
+     */
+    private void decode() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (isResetRequested) {
+                    isResetRequested = false;
+                    feed.reset();
+                }
+
+                EventBatch batch = freeBatches.poll();
+                if (batch == null) { batch = new EventBatch(BATCH_SIZE); }
+
+                batch.size = feed.drainTo(batch.events);
+                batch.receivedNanos = feed.receivedNanos();
+                batch.decodedNanos = System.nanoTime();
+                batches.put(batch); // If dropped, the batch is left to the garbage collector
+            }
+            decoderFailure = interruptedException("Decoder");
+
+        } catch (NRFeedException e) {
+            decoderFailure = e;
+        } catch (InterruptedException e) {
+            decoderFailure = interruptedException("Decoder");
+        } catch (RuntimeException e) {
+            decoderFailure = new NRFeedException("Unexpected error in the decoder", e,
+                    "An internal error occurred while decoding the feed. Please report this as a bug, along with the contents of \"More info\"");
+        }
+        decoderFinished = true;
+    }
+
+    private static NRFeedException interruptedException(String stage) {
+        return new NRFeedException(stage + " thread was interrupted",
+                "The connection to the feed was closed");
+    }
+
+
+    /**
+     * The client of the decoder stage's {@link NRFeed}, which receives the messages of the reader stage
+     */
+    private class RingClient implements NRFeedClient {
+        @Override
+        public void pollNREvent(@NotNull FeedMessage target) throws NRFeedException {
+            FeedMessage message;
+            try {
+                message = messages.take(isReaderFinished);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw interruptedException("Decoder");
+            }
+            if (message == null) {
+                throw readerFailure;
+            }
+
+            target.copyFrom(message);
+            freeMessages.offer(message);
+        }
+
+        /**
+         * Messages are only received as {@link FeedMessage}s
+         * @throws UnsupportedOperationException Always
+         */
+        @Override
+        public @NotNull String pollNREvent() {
+            throw new UnsupportedOperationException("Messages of a pipeline are only received as FeedMessages");
+        }
+
+        @Override
+        public boolean isMessageReady() {
+            return !messages.isEmpty();
+        }
+
+        @Override
+        public void disconnect() {} // The pipeline disconnects the real client
+
+        @Override
+        public boolean isAlive() {
+            return !readerFinished || !messages.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+/**
+ * What a {@link SpscRing} does when an element is put into it while it is full
+ */
+public enum OverflowPolicy {
+    /**
+     * The producer waits until the consumer has made room. Nothing is lost, but a slow consumer slows the
+     * producer down
+     */
+    BLOCK,
+    /**
+     * The new element is dropped and counted (see {@link SpscRing#drops()}). The producer never waits, but
+     * a slow consumer loses elements
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,236 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread. Elements are passed through a
+ * fixed array without locks and without allocating, so the ring adds almost nothing to the cost of handing
+ * an element between threads.
+ * <p>
+ * {@link #offer(Object)} and {@link #put(Object)} must only be called by the producer, {@link #poll()} and
+ * {@link #take()} only by the consumer. The remaining methods may be called from any thread. Waiting threads
+ * spin briefly, then yield, then park. A parked thread is unparked by the other side as soon as the ring
+ * changes, and otherwise wakes after an interval which backs off up to {@link #MAX_PARK_NANOS}, so that an
+ * idle ring costs next to no CPU.
+ *
+ * @param <E> The type of the elements
+ */
+public final class SpscRing<E> {
+    private static final int SPIN_ATTEMPTS = 100;
+    private static final int YIELD_ATTEMPTS = 200;
+    private static final long MIN_PARK_NANOS = 50_000L;
+    /**
+     * The longest a waiting thread parks before checking the ring again. It is only reached if a wakeup is
+     * missed, or while waiting on the producer to finish (see {@link #take(BooleanSupplier)})
+     */
+    public static final long MAX_PARK_NANOS = 4_000_000L;
+
+    private final E[] buffer;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong head = new AtomicLong(); // Index of the next element to poll
+    private final AtomicLong tail = new AtomicLong(); // Index of the next element to offer
+    private long cachedHead; // Producer's last read of head
+    private long cachedTail; // Consumer's last read of tail
+
+    private final AtomicLong drops = new AtomicLong();
+
+    // The thread parked waiting for an element or for room, if any, to be unparked by the other side
+    private volatile Thread parkedConsumer;
+    private volatile Thread parkedProducer;
+
+
+    /**
+     * Creates an empty ring
+     * @param capacity The minimum number of elements the ring holds. Rounded up to a power of 2
+     * @param policy What {@link #put(Object)} does when the ring is full
+     * @throws IllegalArgumentException If the capacity is less than 1 or more than 2^30
+     */
+    @SuppressWarnings("unchecked")
+    public SpscRing(int capacity, @NotNull OverflowPolicy policy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, not " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) { size <<= 1; }
+
+        buffer = (E[]) new Object[size];
+        mask = size - 1;
+        this.policy = policy;
+    }
+
+
+    /**
+     * Adds the element if the ring is not full
+     * @param element The element to add
+     * @return True if the element was added
+     */
+    public boolean offer(@NotNull E element) {
+        long currentTail = tail.get();
+        if (currentTail - cachedHead >= buffer.length) {
+            cachedHead = head.get();
+            if (currentTail - cachedHead >= buffer.length) { return false; }
+        }
+
+        buffer[(int) currentTail & mask] = element;
+        tail.lazySet(currentTail + 1); // Publishes the element
+        // Orders the publish before reading parkedConsumer, which park() writes before reading tail. Without
+        // it, both could miss the other and the consumer would sleep out its park with the element waiting
+        VarHandle.fullFence();
+        Thread consumer = parkedConsumer;
+        if (consumer != null) { LockSupport.unpark(consumer); }
+        return true;
+    }
+
+    /**
+     * Adds the element, applying the {@link OverflowPolicy} of the ring if it is full
+     * @param element The element to add
+     * @return True if the element was added, false if it was dropped
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public boolean put(@NotNull E element) throws InterruptedException {
+        if (offer(element)) { return true; }
+
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+            drops.incrementAndGet();
+            return false;
+        }
+
+        for (int attempt = 0; !offer(element); attempt++) {
+            idle(attempt, false);
+        }
+        return true;
+    }
+
+
+    /**
+     * Removes the oldest element
+     * @return The oldest element, or null if the ring is empty
+     */
+    public @Nullable E poll() {
+        long currentHead = head.get();
+        if (currentHead >= cachedTail) {
+            cachedTail = tail.get();
+            if (currentHead >= cachedTail) { return null; }
+        }
+
+        int index = (int) currentHead & mask;
+        E element = buffer[index];
+        buffer[index] = null;
+        head.lazySet(currentHead + 1); // Frees the slot
+        VarHandle.fullFence(); // Orders the free before reading parkedProducer, as in offer
+        Thread producer = parkedProducer;
+        if (producer != null) { LockSupport.unpark(producer); }
+        return element;
+    }
+
+    /**
+     * Removes the oldest element, waiting for one if the ring is empty
+     * @return The oldest element
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public @NotNull E take() throws InterruptedException {
+        E element;
+        for (int attempt = 0; (element = poll()) == null; attempt++) {
+            idle(attempt, true);
+        }
+        return element;
+    }
+
+
+    /**
+     * Removes the oldest element, waiting for one while the producer may still add one
+     * @param isProducerFinished Returns true once the producer will add no more elements
+     * @return The oldest element, or null if the ring is empty and the producer has finished
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public @Nullable E take(@NotNull BooleanSupplier isProducerFinished) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            E element = poll();
+            if (element != null) { return element; }
+
+            if (isProducerFinished.getAsBoolean()) {
+                return poll(); // An element added just before the producer finished
+            }
+            idle(attempt, true);
+        }
+    }
+
+
+    /**
+     * @return The number of elements in the ring. As the ring may be changing, this is only an estimate
+     */
+    public int size() {
+        long currentHead = head.get();
+        long size = tail.get() - currentHead;
+        return (int) Math.max(0, Math.min(size, buffer.length));
+    }
+
+    /**
+     * @return True if the ring holds no elements. As the ring may be changing, this is only an estimate
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return The number of elements the ring holds
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return The number of elements dropped by {@link #put(Object)} as the ring was full
+     */
+    public long drops() {
+        return drops.get();
+    }
+
+
+    /**
+     * Waits before the next attempt to poll or offer
+     * @param attempt The number of attempts made so far
+     * @param isConsumer True if the consumer is waiting for an element, false if the producer is waiting for room
+     */
+    private void idle(int attempt, boolean isConsumer) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        if (attempt < SPIN_ATTEMPTS) {
+            Thread.onSpinWait();
+        } else if (attempt < YIELD_ATTEMPTS) {
+            Thread.yield();
+        } else {
+            int backOff = Math.min(attempt - YIELD_ATTEMPTS, 16);
+            long parkNanos = Math.min(MIN_PARK_NANOS << backOff, MAX_PARK_NANOS);
+            park(parkNanos, isConsumer);
+        }
+    }
+
+    /**
+     * Parks until the other side changes the ring, or for at most the given time. The ring is checked again
+     * once the thread is registered as parked, so a change made just before is not waited through
+     */
+    private void park(long parkNanos, boolean isConsumer) {
+        Thread current = Thread.currentThread();
+        if (isConsumer) {
+            parkedConsumer = current;
+            if (head.get() >= tail.get()) { LockSupport.parkNanos(this, parkNanos); }
+            parkedConsumer = null;
+        } else {
+            parkedProducer = current;
+            if (tail.get() - head.get() >= buffer.length) { LockSupport.parkNanos(this, parkNanos); }
+            parkedProducer = null;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The compact form of a reset {@link Event}. See {@link Event#reset(long)}
+ *
+ * @param timestamp The timestamp of the last message received before messages were lost, or -1 for no timestamp
+ */
+public record ResetEvent(long timestamp) implements FeedEvent {
+
+    public ResetEvent {
+        if (timestamp < -1) {throw new IllegalArgumentException("timestamp must not be below -1");}
+    }
+
+
+    /**
+     * @param table Unused, as reset events have no equipment
+     */
+    @Override
+    public @NotNull Event toEvent(@NotNull DecodeTable table) {
+        return Event.reset(timestamp);
+    }
+}
@@ -1,16 +1,16 @@
 package aradnezami.cambridgesignallingmap.NRFeed;
 
+import aradnezami.cambridgesignallingmap.Metrics.JFR.SClassDecodedEvent;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Route;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Signal;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
 
+import jdk.jfr.EventType;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Scanner;
 
 /**
  * The SClassDecoder is used to convert S-Class messages from the NR feed (encoded in the byte and
@@ -18,21 +18,39 @@ import java.util.Scanner;
  * functions (signals, points, ect). The messages are mapped to their Event through a map file.
  * The map format is specified in Mapping_Syntax.md in the Resources directory. This class complies
  * with Mapping_Syntax.md
+ * <p>
+ * The map is compiled once into a {@link DecodeTable} when the decoder is created, so decoding a change
+ * performs no hashing, string comparison or parsing.
  */
 public class SClassDecoder {
-    private final HashMap<MappingReference, String[]> equipmentMap;
+    /**
+     * Returned by the decoding methods when a position has no equipment mapped to it
+     */
+    private static final int UNMAPPED = -1;
+    /**
+     * Returned by the decoding methods when a position cannot be decoded because the byte it back-references
+     * has not been updated yet
+     */
+    private static final int UNRESOLVED = -2;
+
+    private static final EventType S_CLASS_DECODED = EventType.getEventType(SClassDecodedEvent.class);
+
+    private final DecodeTable table;
 
     private final int[] equipmentBytes;
     private final boolean[] isByteUpdated;
-    
-    private final int ADDRESS = 0;
-    private final int BIT= 1;
-    private final int TYPE = 2;
-    @SuppressWarnings("FieldCanBeLocal")
-    private final int ID = 3;
-    private final int BACK_TYPE = 4;
-    private final int BACK_ADDRESS = 5;
-    private final int BACK_BIT = 6;
+
+    // A position is decoded at most once per pass. emittedPass holds the last pass each position was decoded in
+    private final int[] emittedPass;
+    private int pass;
+
+    private long unmappedChanges = 0;
+
+    // State of a signalling refresh. For every address touched by the refresh, the state it had beforehand
+    private boolean isRefreshing = false;
+    private final boolean[] isRefreshDirty;
+    private final int[] refreshOriginalBytes;
+    private final boolean[] refreshWasUpdated;
 
 
 
@@ -40,13 +58,30 @@ public class SClassDecoder {
      * Creates an instance of SClass handler from the provided file path
      * @param path Map file path
      * @throws FileNotFoundException If the file cannot be accessed
+     * @throws IllegalMapFormatException If the map is incorrectly formatted
      * @see ClassLoader#getResourceAsStream(String path) 
      */
     public SClassDecoder(String path) throws FileNotFoundException {
-        equipmentMap = loadEquipmentMap(path);
-        
-        equipmentBytes = new int[256];
-        isByteUpdated = new boolean[256];
+        this(DecodeTable.load(path));
+    }
+
+    /**
+     * Creates an instance of SClass handler which decodes using an already compiled table. As tables are
+     * immutable, any number of decoders can share one table
+     * @param table The compiled map
+     * @see DecodeTable#load(String, Path)
+     */
+    public SClassDecoder(DecodeTable table) {
+        this.table = table;
+
+        equipmentBytes = new int[DecodeTable.ADDRESSES];
+        isByteUpdated = new boolean[DecodeTable.ADDRESSES];
+
+        emittedPass = new int[DecodeTable.POSITIONS];
+
+        isRefreshDirty = new boolean[DecodeTable.ADDRESSES];
+        refreshOriginalBytes = new int[DecodeTable.ADDRESSES];
+        refreshWasUpdated = new boolean[DecodeTable.ADDRESSES];
     }
 
 
@@ -58,7 +93,32 @@ public class SClassDecoder {
         for (int i = 0; i < equipmentBytes.length; i++) {
             equipmentBytes[i] = 0;
             isByteUpdated[i] = false;
+            isRefreshDirty[i] = false;
         }
+        isRefreshing = false;
+    }
+
+    /**
+     * Copies the state of every byte into the given arrays, so that it can be restored later with
+     * {@link #restore(int[], boolean[])}, by this or any other instance
+     * @param bytes Receives the value of each address. Of length {@link DecodeTable#ADDRESSES}
+     * @param updated Receives whether each address has been updated. Of length {@link DecodeTable#ADDRESSES}
+     */
+    public void snapshot(int[] bytes, boolean[] updated) {
+        System.arraycopy(equipmentBytes, 0, bytes, 0, DecodeTable.ADDRESSES);
+        System.arraycopy(isByteUpdated, 0, updated, 0, DecodeTable.ADDRESSES);
+    }
+
+    /**
+     * Replaces the state of every byte, as taken by {@link #snapshot(int[], boolean[])}. Any refresh in progress
+     * is abandoned without emitting events, as {@link #reset()} does
+     * @param bytes The value of each address. Of length {@link DecodeTable#ADDRESSES}
+     * @param updated Whether each address has been updated. Of length {@link DecodeTable#ADDRESSES}
+     */
+    public void restore(int[] bytes, boolean[] updated) {
+        reset();
+        System.arraycopy(bytes, 0, equipmentBytes, 0, DecodeTable.ADDRESSES);
+        System.arraycopy(updated, 0, isByteUpdated, 0, DecodeTable.ADDRESSES);
     }
 
     /**
@@ -71,37 +131,139 @@ public class SClassDecoder {
      * @param address The address of the byte being updated. Range 0-255
      * @param newByte The value of the updated byte. Range 0-255
      * @return An array of any events caused by the change
+     * @see #SClassChange(long, int, int, SClassEventSink)
      */
     public Event[] SClassChange(long timestamp, int address, int newByte) {
-        int originalByte = equipmentBytes[address];
-        equipmentBytes[address] = newByte;
-        
-        int[] changes = getBitChanges(originalByte, newByte);
-        if (!isByteUpdated[address]) {
-            changes = new int[] {0,1,2,3,4,5,6,7};
-            isByteUpdated[address] = true;
-        }
-        
         ArrayList<Event> events = new ArrayList<>();
-        for (int changedBit : changes) {
-            MappingReference key = new MappingReference(address, changedBit);
-            String[] mapping = equipmentMap.get(key);
-            if (mapping == null) { continue; }
-            
-            boolean bitState = getBitFromByte(newByte, changedBit);
-            
-            if (mapping.length <= 2) { continue; } // unmapped
-
-            try {
-                Event event = decodeChange(mapping, bitState);
-                //noinspection DataFlowIssue
-                events.add(new Event(timestamp, event.S_Type, event.S_State, event.S_Id));
-            } catch (IllegalArgumentException ignored) {} // A backreference hasn't been updated yet
+        SClassChange(timestamp, address, newByte,
+                (eventTimestamp, type, state, equipment) ->
+                        events.add(new Event(eventTimestamp, type, state, table.equipmentName(equipment))));
+
+        return events.toArray(new Event[]{});
+    }
+
+    /**
+     * Applies the S-Class message to the instance, updating its state and passing any events created
+     * by the change to the given sink, in the same order as {@link #SClassChange(long, int, int)} would
+     * return them. The decoder itself allocates nothing, so with a reusable sink, steady-state decoding
+     * creates no garbage.
+     * <p>
+     * Every mapping that back-references a changed bit is decoded again straight after that bit, so
+     * combined states (Eg: an OFFK signal back-referencing its main route) are never left stale. Each
+     * mapping is decoded at most once per call. If a changed bit back-references a byte that has not been
+     * updated yet, it is decoded again when that byte is first updated, as every bit of the byte then changes.
+     * <p>
+     * During a refresh (see {@link #beginRefresh()}), the change is only recorded and no events are emitted.
+     *
+     * @param timestamp The timestamp of the message provided by the feed or -1L if none
+     *                 is to be given
+     * @param address The address of the byte being updated. Range 0-255
+     * @param newByte The value of the updated byte. Range 0-255
+     * @param sink The sink receiving the events caused by the change
+     * @return The number of events passed to the sink
+     */
+    public int SClassChange(long timestamp, int address, int newByte, SClassEventSink sink) {
+        if (isRefreshing) {
+            recordRefreshChange(address, newByte);
+            return 0;
+        }
+
+        // Only created while being recorded, so that decoding allocates nothing otherwise
+        SClassDecodedEvent event = S_CLASS_DECODED.isEnabled() ? new SClassDecodedEvent() : null;
+        if (event != null) { event.begin(); }
+
+        int changes = applyByte(address, newByte);
+
+        beginPass();
+        int eventCount = decodeChanges(timestamp, address, changes, sink);
+
+        if (event != null && event.shouldCommit()) {
+            event.address = address;
+            event.data = newByte;
+            event.changedBits = Integer.bitCount(changes);
+            event.eventsEmitted = eventCount;
+            event.commit();
         }
+        return eventCount;
+    }
+
+
+    /**
+     * Starts a signalling refresh: the run of SG messages ending with an SH message, which the feed sends
+     * to restate every byte of the area. Until {@link #endRefresh(long, SClassEventSink)} is called, changes
+     * applied by {@link #SClassChange(long, int, int, SClassEventSink)} update the state of the instance
+     * without emitting any events. Calling this method while a refresh is in progress has no effect.
+     */
+    public void beginRefresh() {
+        isRefreshing = true;
+    }
+
+    /**
+     * @return The compiled map the instance decodes with, which names the equipment ids passed to an
+     * {@link SClassEventSink}
+     */
+    public DecodeTable table() {
+        return table;
+    }
+
+    /**
+     * @return True if a refresh has been started and not yet ended
+     * @see #beginRefresh()
+     */
+    public boolean isRefreshing() {
+        return isRefreshing;
+    }
+
+    /**
+     * Counts the changed bits which had no equipment mapped to them, which hints at equipment missing from the
+     * map. Every bit of a byte counts as changed the first time the byte is updated. Not reset by {@link #reset()}
+     * @return The number of unmapped bits changed since this instance was created
+     */
+    public long unmappedChanges() {
+        return unmappedChanges;
+    }
+
+    /**
+     * Ends the refresh and returns the events of its net change. See {@link #endRefresh(long, SClassEventSink)}
+     * @param timestamp The timestamp given to the events, or -1L if none is to be given
+     * @return An array of any events caused by the refresh
+     */
+    public Event[] endRefresh(long timestamp) {
+        ArrayList<Event> events = new ArrayList<>();
+        endRefresh(timestamp,
+                (eventTimestamp, type, state, equipment) ->
+                        events.add(new Event(eventTimestamp, type, state, table.equipmentName(equipment))));
 
         return events.toArray(new Event[]{});
     }
 
+    /**
+     * Ends the refresh, passing to the sink the events of the net change across every address the refresh
+     * touched. Bits that end the refresh in the state they started it in emit nothing, and each mapping is
+     * emitted at most once, however many of the bits it depends on changed. If no refresh is in progress,
+     * nothing is emitted.
+     * @param timestamp The timestamp given to the events, or -1L if none is to be given
+     * @param sink The sink receiving the events caused by the refresh
+     * @return The number of events passed to the sink
+     */
+    public int endRefresh(long timestamp, SClassEventSink sink) {
+        if (!isRefreshing) { return 0; }
+        isRefreshing = false;
+
+        beginPass();
+        int eventCount = 0;
+        for (int address = 0; address < DecodeTable.ADDRESSES; address++) {
+            if (!isRefreshDirty[address]) { continue; }
+            isRefreshDirty[address] = false;
+
+            int changes = (refreshWasUpdated[address]) ?
+                    refreshOriginalBytes[address] ^ equipmentBytes[address] :
+                    0xFF;
+            eventCount += decodeChanges(timestamp, address, changes, sink);
+        }
+        return eventCount;
+    }
+
 
     /**
      * The events represented by applying an {@link #SClassChange(long, int, int)} sequentially
@@ -112,185 +274,165 @@ public class SClassDecoder {
      */
     public Event[] allEvents() {
         ArrayList<Event> events = new ArrayList<>();
-        for (int address=0; address<isByteUpdated.length; address++) {
-            for (int bit=0; bit<=7; bit++) {
-                MappingReference key = new MappingReference(address, bit);
-                String[] mapping = equipmentMap.get(key);
-                if (mapping == null) { continue; }
-                if (mapping.length <= 2) { continue; } // unmapped
-
-                boolean bitState = getBitFromByte(equipmentBytes[address], bit);
-                try { events.add(decodeChange(mapping, bitState));}
-                catch (IllegalArgumentException ignored) {} // A backreference hasn't been updated yet
-            }
+        for (int position = 0; position < DecodeTable.POSITIONS; position++) {
+            int state = decode(position);
+            if (state < 0) { continue; } // unmapped, or a backreference hasn't been updated yet
+
+            events.add(new Event(-1L, table.equipmentType(position), state, table.positionName(position)));
         }
 
         return events.toArray(new Event[]{});
     }
 
-    
-    private Event decodeChange(String[] mapping, boolean bitState) {
-        int equipmentType;
-        int state;
-        
-        switch (mapping[TYPE]) {
-            case "NK", "RK": {
-                state = pointChange(mapping, bitState);
-                equipmentType = Point.TYPE;
-                break;
-            }
-            case "DGK", "RGK", "OFFK", "SOFFK": {
-                state = signalChange(mapping, bitState);
-                equipmentType = Signal.ASPECT_TYPE;
-                break;
-            }
-            case "T": {
-                state = trackCircuitChange(bitState);
-                equipmentType = TrackCircuit.TYPE;
-                break;
-            }
-            case "B": {
-                state = routeIndicatorChange(bitState);
-                equipmentType = Signal.ROUTED_TYPE;
-                break;
-            }
-            case "RM": {
-                state = routeChange(bitState);
-                equipmentType = Route.MAIN_TYPE;
-                break;
-            }
-            case "RS": {
-                state = routeChange(bitState);
-                equipmentType = Route.SHUNT_TYPE;
-                break;
-            }
-            case "RC": {
-                state = routeChange(bitState);
-                equipmentType = Route.CALL_ON_TYPE;
-                break;
-            }
-            default: throw new IllegalMapFormatException(mapping[TYPE] + " is not a valid type");
+
+    /**
+     * Stores the new value of a byte
+     * @param address The address of the byte being updated
+     * @param newByte The value of the updated byte
+     * @return A mask of the bits that changed. All bits are changed when the byte is first updated
+     */
+    private int applyByte(int address, int newByte) {
+        int originalByte = equipmentBytes[address];
+        equipmentBytes[address] = newByte;
+
+        if (!isByteUpdated[address]) {
+            isByteUpdated[address] = true;
+            return 0xFF;
         }
-        
-        return new Event(-1L, equipmentType, state, mapping[ID]);
+        return originalByte ^ newByte; // XOR, changed bits will be 1
     }
-    
-    
-    
-    
-      
-    private int pointChange(String[] mapping, boolean bitState) {
-        final int IMPLICITLY_BACKREFERENCED_LEN = 4;
-        final int UNMAPPED_LEN = 5;
-        final int EXPLICITLY_BACKREFERENCED_LEN = 7;
-
-        // Implicitly back-referenced
-        if (mapping.length == IMPLICITLY_BACKREFERENCED_LEN && mapping[TYPE].equals("NK")) {
-            int backAddress = Integer.parseInt(mapping[ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BIT]) + 1; // We imply that the RK is in the next bit (+1)
-            
-            boolean backReference = backreference(backAddress, backBit);
-            
-            return decodePoint(bitState, backReference);
-            
-        } else if (mapping.length == IMPLICITLY_BACKREFERENCED_LEN && mapping[TYPE].equals("RK")) {
-            int backAddress = Integer.parseInt(mapping[ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BIT]) - 1; // We imply that the RK is in the next bit (-1)
-            
-            boolean backReference = backreference(backAddress, backBit);
-            
-            return decodePoint(backReference, bitState);
-            
-            
-        } else if (mapping.length == UNMAPPED_LEN && mapping[TYPE].equals("NK") && mapping[BACK_TYPE].equals("UNMAPPED")) { // Unmapped
-            return decodePoint(bitState, null);
-            
-        } else if (mapping.length == UNMAPPED_LEN && mapping[TYPE].equals("RK") && mapping[BACK_TYPE].equals("UNMAPPED")) {
-            return decodePoint(null, bitState);
-            
-            
-            // Explicitly Back-referenced
-        } else if (mapping.length == EXPLICITLY_BACKREFERENCED_LEN && mapping[TYPE].equals("NK")) {
-            int backAddress = Integer.parseInt(mapping[BACK_ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BACK_BIT]);
-            
-            boolean backReference = backreference(backAddress, backBit);
-            
-            return decodePoint(bitState, backReference);
-            
-        } else if (mapping.length == EXPLICITLY_BACKREFERENCED_LEN && mapping[TYPE].equals("RK")) {
-            int backAddress = Integer.parseInt(mapping[BACK_ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BACK_BIT]);
-            
-            boolean backReference = backreference(backAddress, backBit);
-            
-            return decodePoint(backReference, bitState);
-            
-        } else {
-            throw new IllegalMapFormatException("Not a valid map: " + Arrays.toString(mapping));
+
+
+    /**
+     * Stores the new value of a byte during a refresh, remembering the state of the byte before the refresh
+     * @param address The address of the byte being updated
+     * @param newByte The value of the updated byte
+     */
+    private void recordRefreshChange(int address, int newByte) {
+        if (!isRefreshDirty[address]) {
+            isRefreshDirty[address] = true;
+            refreshOriginalBytes[address] = equipmentBytes[address];
+            refreshWasUpdated[address] = isByteUpdated[address];
         }
-        
+
+        equipmentBytes[address] = newByte;
+        isByteUpdated[address] = true;
     }
-    
-    private int decodePoint(Boolean NK, Boolean RK) {
-        if (RK == null) {
-            return (NK) ? Point.NORMAL : Point.REVERSE;
-        } else if (NK == null) {
-            return (RK) ? Point.REVERSE : Point.NORMAL;
-        } else {
-            return (NK) ?
-                    ((RK) ? Point.BOTH : Point.NORMAL):
-                    ((RK) ? Point.REVERSE : Point.NEITHER);
+
+
+    /**
+     * Starts a new pass. Within a pass, every position is decoded at most once
+     */
+    private void beginPass() {
+        pass++;
+        if (pass == 0) { // Wrapped around, so stale values could collide with new passes
+            Arrays.fill(emittedPass, 0);
+            pass = 1;
         }
     }
 
 
-    
-    private int signalChange(String[] mapping, boolean bitState) {
-        final int BACKREFERENCED_LEN = 7;
-
-        if (mapping.length==BACKREFERENCED_LEN
-                && mapping[TYPE].equals("DGK")) { // Compound signal backreferencing soffk
+    /**
+     * Decodes each changed bit of the given address, followed by every mapping that back-references it
+     * @param changes A mask of the changed bits
+     * @return The number of events passed to the sink
+     */
+    private int decodeChanges(long timestamp, int address, int changes, SClassEventSink sink) {
+        int eventCount = 0;
+        while (changes != 0) {
+            int bit = Integer.numberOfTrailingZeros(changes);
+            changes &= changes - 1; // Clear lowest set bit
 
-            int backAddress = Integer.parseInt(mapping[BACK_ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BACK_BIT]);
-            boolean soffk = backreference(backAddress, backBit);
-            return decodeCompoundSignal(bitState, soffk);
+            int position = address * 8 + bit;
+            eventCount += emit(timestamp, position, sink);
 
+            int end = table.dependentsStart[position + 1];
+            for (int i = table.dependentsStart[position]; i < end; i++) {
+                int dependent = table.dependents[i];
+                if (!isByteUpdated[dependent >> 3]) { continue; } // Will be decoded when its own byte arrives
 
-        } else if (mapping.length==BACKREFERENCED_LEN
-                && mapping[TYPE].equals("SOFFK")) { // Compound signal backreferencing dgk
+                eventCount += emit(timestamp, dependent, sink);
+            }
+        }
+        return eventCount;
+    }
 
-            int backAddress = Integer.parseInt(mapping[BACK_ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BACK_BIT]);
-            boolean dgk = backreference(backAddress, backBit);
-            return decodeCompoundSignal(dgk, bitState);
 
+    /**
+     * Decodes the given position and passes its event to the sink, unless it has already been decoded in
+     * this pass, is unmapped or back-references a byte that has not been updated
+     * @return The number of events passed to the sink
+     */
+    private int emit(long timestamp, int position, SClassEventSink sink) {
+        if (emittedPass[position] == pass) { return 0; }
+        emittedPass[position] = pass;
+
+        int state = decode(position);
+        if (state == UNMAPPED) {
+            unmappedChanges++;
+            return 0;
+        }
+        if (state < 0) { return 0; } // a backreference hasn't been updated yet
 
-        } else if (mapping.length==BACKREFERENCED_LEN
-                && mapping[TYPE].equals("OFFK")
-                && mapping[BACK_TYPE].equals("RM")) { // Compound signal backreferencing main route
+        sink.accept(timestamp, table.equipmentType(position), state, table.equipmentId(position));
+        return 1;
+    }
 
-            int backAddress = Integer.parseInt(mapping[BACK_ADDRESS]);
-            int backBit = Integer.parseInt(mapping[BACK_BIT]);
-            boolean route = backreference(backAddress, backBit);
-            return decodeOffkCompoundSignal(bitState, route);
 
-        } else if (mapping[TYPE].equals("OFFK")) {
-            return (bitState) ? Signal.MAIN_OFF : Signal.ON;
+    /**
+     * Decodes the state of the equipment mapped at the given position, from the current bytes
+     * @param position The bit position, {@code address*8 + bit}
+     * @return The state of the equipment (Eg: {@link Point#NORMAL}), {@link #UNMAPPED} if the position
+     * is unmapped or {@link #UNRESOLVED} if it back-references a byte that has not been updated
+     */
+    private int decode(int position) {
+        boolean bitState = getBit(position);
+        int backPosition = table.backPositions[position];
+
+        switch (table.opcodes[position]) {
+            case DecodeTable.TRACK_CIRCUIT: return (bitState) ? TrackCircuit.OCCUPIED : TrackCircuit.UNOCCUPIED;
+            case DecodeTable.ROUTE_INDICATOR: return (bitState) ? Signal.ROUTE_SET : Signal.ROUTE_NOT_SET;
+            case DecodeTable.MAIN_ROUTE,
+                 DecodeTable.SHUNT_ROUTE,
+                 DecodeTable.CALL_ON_ROUTE: return (bitState) ? Route.SET : Route.NOTSET;
+
+            case DecodeTable.NK_UNMAPPED: return (bitState) ? Point.NORMAL : Point.REVERSE;
+            case DecodeTable.RK_UNMAPPED: return (bitState) ? Point.REVERSE : Point.NORMAL;
+            case DecodeTable.NK_BACKREFERENCED: {
+                if (!isResolved(position, backPosition)) { return UNRESOLVED; }
+                return decodePoint(bitState, backreference(backPosition));
+            }
+            case DecodeTable.RK_BACKREFERENCED: {
+                if (!isResolved(position, backPosition)) { return UNRESOLVED; }
+                return decodePoint(backreference(backPosition), bitState);
+            }
 
-        } else if (mapping[TYPE].equals("SOFFK")) {
-            return (bitState) ? Signal.SHUNT_OFF : Signal.ON;
+            case DecodeTable.OFFK,
+                 DecodeTable.DGK: return (bitState) ? Signal.MAIN_OFF : Signal.ON;
+            case DecodeTable.SOFFK: return (bitState) ? Signal.SHUNT_OFF : Signal.ON;
+            case DecodeTable.RGK: return (bitState) ? Signal.ON : Signal.MAIN_OFF;
+            case DecodeTable.DGK_SOFFK: {
+                if (!isResolved(position, backPosition)) { return UNRESOLVED; }
+                return decodeCompoundSignal(bitState, backreference(backPosition));
+            }
+            case DecodeTable.SOFFK_DGK: {
+                if (!isResolved(position, backPosition)) { return UNRESOLVED; }
+                return decodeCompoundSignal(backreference(backPosition), bitState);
+            }
+            case DecodeTable.OFFK_RM: {
+                if (!isResolved(position, backPosition)) { return UNRESOLVED; }
+                return decodeOffkCompoundSignal(bitState, backreference(backPosition));
+            }
 
-        } else if (mapping[TYPE].equals("RGK")) {
-            return (bitState) ? Signal.ON : Signal.MAIN_OFF;
+            default: return UNMAPPED;
+        }
+    }
 
-        } else if (mapping[TYPE].equals("DGK")) {
-            return (bitState) ? Signal.MAIN_OFF : Signal.ON;
 
-        } else {
-            throw new IllegalMapFormatException("Invalid map: " + Arrays.toString(mapping));
-        }
+    private int decodePoint(boolean NK, boolean RK) {
+        return (NK) ?
+                ((RK) ? Point.BOTH : Point.NORMAL):
+                ((RK) ? Point.REVERSE : Point.NEITHER);
     }
 
     private int decodeCompoundSignal(boolean dgk, boolean sOffk) {
@@ -303,112 +445,40 @@ public class SClassDecoder {
                 ((mainRoute) ? Signal.MAIN_OFF : Signal.SHUNT_OFF):
                 Signal.ON;
     }
-    
-    
-    private int trackCircuitChange(boolean bitState) {
-        return (bitState) ? TrackCircuit.OCCUPIED : TrackCircuit.UNOCCUPIED;
-    }
-    
-    private int routeIndicatorChange(boolean bitState) {
-        return (bitState) ? Signal.ROUTE_SET : Signal.ROUTE_NOT_SET;
-    }
-    
-    private int routeChange(boolean bitState) {
-        return (bitState) ? Route.SET : Route.NOTSET;
-    }
 
 
     
     
     /**
-     * Gets the bit value as a boolean, from the bit position of the specified
-     * byte address in {@link #equipmentBytes}. 0 = LSB, 7 = MSB
-     * @param address The byte address
-     * @param bit Bit index
-     * @return The state of the specified biy
-     * @throws IllegalArgumentException If the address has not been updated
+     * Checks if the given back-referenced position can be read, that is if its byte has been updated.
+     * A {@link DecodeTable#CLEAR_BACKREFERENCE} lies in the same byte as the position referencing it
+     * @param position The position holding the back-reference
+     * @param backPosition The back-referenced position, or {@link DecodeTable#CLEAR_BACKREFERENCE}
+     * @return True if {@link #backreference(int)} may be called with the position
      */
-    private boolean backreference(int address, int bit) {
-        if (!isByteUpdated[address]) {throw new IllegalArgumentException("Not updated byte");}
-        int Byte = equipmentBytes[address];
-        
-        return getBitFromByte(Byte, bit);
-    }
-
-
-    /**
-     * Gets the bit from a byte at a specified index. 0 = LSB, 7 = MSB
-     * @param Byte A value between 0-255 inclusive
-     * @param bitIndex The index of the bit to retrieve
-     * @return False if bit is 0, True otherwise
-     */
-    private boolean getBitFromByte(int Byte, int bitIndex) {
-        return ((Byte >> (bitIndex)) & 1) == 1;
-    }
-
-
-    /**
-     * Returns the index of bits that differ between the 2 provided bytes
-     * @param original A value between 0-255 inclusive
-     * @param updated A value between 0-255 inclusive
-     * @return The index of bits that are different. 0 = LSB, 7 = MSB
-     */
-    private static int[] getBitChanges(int original, int updated) {
-        int change = (original ^ updated); // XOR, changed bits will be 1
-
-        ArrayList<Integer> changedBitsList = new ArrayList<>();
-        for (int i = 0; i <= 7 ; i++) { // Get indexes of changed bits
-            if (((change >> (i)) & 1) == 1) {changedBitsList.add(i);}
-        }
-        
-        int[] changedBits = new int[changedBitsList.size()]; // To array
-        for (int i = 0; i < changedBitsList.size(); i++) {
-            changedBits[i] = changedBitsList.get(i);
+    private boolean isResolved(int position, int backPosition) {
+        if (backPosition == DecodeTable.CLEAR_BACKREFERENCE) {
+            return isByteUpdated[position >> 3];
         }
-        
-        return changedBits;
+        return isByteUpdated[backPosition >> 3];
     }
 
-
     /**
-     * Loads the map from the given file
-     * @return A HashMap where the value is a string array, each array element representing one
-     * column in the mapping
-     * @throws FileNotFoundException If the given file is not found
+     * Gets the value of a back-referenced bit. The caller must first check {@link #isResolved(int, int)}
+     * @param backPosition The back-referenced position, or {@link DecodeTable#CLEAR_BACKREFERENCE}
+     * @return The state of the specified bit
      */
-    private HashMap<MappingReference, String[]> loadEquipmentMap(String path) throws FileNotFoundException {
-        ClassLoader classLoader = getClass().getClassLoader();
-        InputStream mapStream = classLoader.getResourceAsStream(path);
-        if (mapStream == null) {
-            throw new FileNotFoundException("Could not find signalling equipment map. Path: " + path);
-        }
-        Scanner scanner = new Scanner(mapStream);
-        scanner.nextLine(); // Skip headers
-
-
-        HashMap<MappingReference, String[]> equipmentMap = new HashMap<>();
-        while (scanner.hasNextLine()) {
-            String[] line = scanner.nextLine().split(",");
-
-            int address, bit;
-            try {
-                address = Integer.parseInt(line[ADDRESS]);
-                bit = Integer.parseInt(line[BIT]);
-            } catch (NumberFormatException e) {
-                scanner.close();
-                throw new IllegalMapFormatException("A map address or bit is not a parsable number");
-            }
-
-            equipmentMap.put(new MappingReference(address, bit), line);
-        }
-
-        scanner.close();
-        return equipmentMap;
+    private boolean backreference(int backPosition) {
+        return backPosition != DecodeTable.CLEAR_BACKREFERENCE && getBit(backPosition);
     }
 
 
     /**
-     * Used to represent the position of a mapping in one variable, to use as a key in hashmaps
+     * Gets the bit at a position from {@link #equipmentBytes}
+     * @param position The bit position, {@code address*8 + bit}. Bit 0 = LSB, 7 = MSB
+     * @return False if bit is 0, True otherwise
      */
-    private record MappingReference(int address, int bit) {}
+    private boolean getBit(int position) {
+        return ((equipmentBytes[position >> 3] >> (position & 7)) & 1) == 1;
+    }
 }
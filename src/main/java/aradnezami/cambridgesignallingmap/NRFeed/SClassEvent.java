@@ -0,0 +1,28 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The compact form of an S-Class {@link Event}
+ *
+ * @param timestamp The timestamp provided by the feed, or -1 for no timestamp
+ * @param type The type of signalling equipment affected. Eg: {@link TrackCircuit#TYPE TrackCircuit.TYPE}
+ * @param state The new state of the signalling equipment. Eg: {@link TrackCircuit#OCCUPIED TrackCircuit.OCCUPIED}
+ * @param equipment The id of the equipment affected, in the {@link DecodeTable} it was decoded with
+ */
+public record SClassEvent(long timestamp, @MagicConstant int type, @MagicConstant int state, int equipment)
+        implements FeedEvent {
+
+    public SClassEvent {
+        if (timestamp < -1) {throw new IllegalArgumentException("timestamp must not be below -1");}
+        if (equipment < 0) {throw new IllegalArgumentException("equipment must not be negative");}
+    }
+
+
+    @Override
+    public @NotNull Event toEvent(@NotNull DecodeTable table) {
+        return new Event(timestamp, type, state, table.equipmentName(equipment));
+    }
+}
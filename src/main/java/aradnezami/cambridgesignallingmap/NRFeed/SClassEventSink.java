@@ -0,0 +1,25 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.intellij.lang.annotations.MagicConstant;
+
+/**
+ * An SClassEventSink receives the decoded S-Class events of an {@link SClassDecoder}, one call per event,
+ * in the same order as they would appear in the array returned by
+ * {@link SClassDecoder#SClassChange(long, int, int)}. The arguments correspond to the fields of an
+ * {@link SClassEvent}, which allows a reusable sink to consume events without any event being created. The
+ * name of the equipment is found with {@link DecodeTable#equipmentName(int)}, of the decoder's
+ * {@link SClassDecoder#table()}.
+ *
+ * @see SClassDecoder#SClassChange(long, int, int, SClassEventSink)
+ */
+@FunctionalInterface
+public interface SClassEventSink {
+    /**
+     * Accepts one decoded S-Class event
+     * @param timestamp The timestamp provided by the feed, or -1 for no timestamp
+     * @param type The type of signalling equipment affected (See {@link SClassEvent#type()})
+     * @param state The state of signalling equipment affected (See {@link SClassEvent#state()})
+     * @param equipment The id of the equipment affected
+     */
+    void accept(long timestamp, @MagicConstant int type, @MagicConstant int state, int equipment);
+}
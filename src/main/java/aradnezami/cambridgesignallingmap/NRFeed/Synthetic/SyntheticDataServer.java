@@ -0,0 +1,212 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Synthetic;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.BinaryFrameCodec;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The SyntheticDataServer is a fake data server on the loopback interface, which sends each client that
+ * connects the messages of its own {@link SyntheticFeed} at a target rate. It speaks the protocol the data
+ * server clients expect (see {@link BinaryFrameCodec}): text or binary, optionally compressed. Resuming clients
+ * are always told {@link BinaryFrameCodec#NOT_RESUMED}, as a synthetic feed has nothing to replay.
+ * <p>
+ * The whole application can be loaded by running {@link #main(String[])} and pointing the data server secrets
+ * at it, for example {@code localhost,6000,binary}.
+ */
+public final class SyntheticDataServer implements Closeable {
+    /** The most messages written to a client before flushing */
+    private static final int BATCH_SIZE = 1024;
+    private static final int CONNECTION_TYPE_MASK = 0x0F;
+
+    private static final int DEFAULT_PORT = 6000;
+    private static final double DEFAULT_RATE = 100;
+    private static final int DEFAULT_TRAINS = 20;
+
+    private final ServerSocket serverSocket;
+    private final SyntheticLayout layout;
+    private final int trains;
+    private final double rate;
+    private final long seed;
+
+    private final Thread acceptorThread;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean isClosed = false;
+
+
+    /**
+     * Listens on the loopback interface and starts accepting clients
+     * @param port The port to listen on, or 0 for any free port. See {@link #port()}
+     * @param layout The layout each client's trains run over
+     * @param trains The number of trains running at once for each client
+     * @param rate The number of messages sent per second to each client, or {@link SyntheticNRClient#UNLIMITED}
+     * @param seed The seed of the first client's feed. Each later client's feed is seeded with the next number
+     * @throws IOException If the port could not be listened on
+     * @throws IllegalArgumentException If the rate is not positive or there are no trains
+     */
+    public SyntheticDataServer(int port, @NotNull SyntheticLayout layout, int trains, double rate, long seed) throws IOException {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Message rate must be positive");
+        }
+        if (trains < 1) {
+            throw new IllegalArgumentException("There must be at least one train");
+        }
+        this.layout = layout;
+        this.trains = trains;
+        this.rate = rate;
+        this.seed = seed;
+
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        acceptorThread = new Thread(this::accept, "Synthetic data server");
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+    }
+
+
+    /**
+     * Runs a synthetic data server of the Cambridge area until the process is killed
+     * @param args Optionally the port, the number of messages sent per second and the number of trains, in that
+     *             order
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_RATE;
+        int trains = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TRAINS;
+
+        SyntheticLayout layout = SyntheticLayout.load("diagram.json", DecodeTable.load("SignallingEquipmentMap.csv"));
+        SyntheticDataServer server = new SyntheticDataServer(port, layout, trains, rate, System.nanoTime());
+        System.out.println("Synthetic data server listening on port " + server.port()
+                + " at " + rate + " messages per second with " + trains + " trains");
+        server.acceptorThread.join();
+    }
+
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting clients and disconnects every client. Calling this method when closed has no effect
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+
+    /**
+     * The acceptor thread. Starts a thread for each client until closed
+     */
+    private void accept() {
+        long clientSeed = seed;
+        while (!isClosed) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                return; // Closed
+            }
+            clients.add(client);
+
+            SyntheticFeed feed = new SyntheticFeed(layout, trains, clientSeed++);
+            Thread clientThread = new Thread(() -> serve(client, feed), "Synthetic data server client");
+            clientThread.setDaemon(true);
+            clientThread.start();
+        }
+    }
+
+    /**
+     * A client's thread. Sends the client messages until it disconnects or the server is closed
+     */
+    private void serve(Socket client, SyntheticFeed feed) {
+        try (client) {
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+
+            int connectionType = in.read();
+            int type = connectionType & CONNECTION_TYPE_MASK;
+            int flags = connectionType & ~CONNECTION_TYPE_MASK;
+            if (connectionType < 0 || (type != BinaryFrameCodec.TEXT_CONNECTION && type != BinaryFrameCodec.BINARY_CONNECTION)
+                    || (flags & ~(BinaryFrameCodec.DEFLATE | BinaryFrameCodec.RESUME)) != 0) {
+                return; // Unknown, so hang up
+            }
+            if ((flags & BinaryFrameCodec.RESUME) != 0) {
+                in.readLong(); // Nothing to resume from
+            }
+            if (connectionType != BinaryFrameCodec.TEXT_CONNECTION) {
+                out.write(BinaryFrameCodec.VERSION);
+                if ((flags & BinaryFrameCodec.RESUME) != 0) {
+                    out.write(BinaryFrameCodec.NOT_RESUMED);
+                }
+                out.flush();
+            }
+            if ((flags & BinaryFrameCodec.DEFLATE) != 0) {
+                out = new DeflaterOutputStream(out, true);
+            }
+
+            send(out, feed, type == BinaryFrameCodec.BINARY_CONNECTION);
+        } catch (IOException | InterruptedException ignored) {
+            // The client disconnected or the server was closed
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Sends messages in batches of those due since the last batch
+     */
+    private void send(OutputStream out, SyntheticFeed feed, boolean isBinary) throws IOException, InterruptedException {
+        ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE * BinaryFrameCodec.C_FRAME_LENGTH * 2);
+        FeedMessage message = new FeedMessage();
+        long startNanos = System.nanoTime();
+        long sent = 0;
+
+        while (!isClosed) {
+            long due = rate == SyntheticNRClient.UNLIMITED ?
+                    sent + BATCH_SIZE :
+                    (long) ((System.nanoTime() - startNanos) * rate / 1e9);
+            int count = (int) Math.min(due - sent, BATCH_SIZE);
+            if (count <= 0) {
+                Thread.sleep(1);
+                continue;
+            }
+
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                feed.next(message, System.currentTimeMillis());
+                if (isBinary) {
+                    BinaryFrameCodec.encode(message, batch);
+                } else {
+                    batch.put(message.toString().getBytes(StandardCharsets.US_ASCII)).put((byte) '\n');
+                }
+            }
+            out.write(batch.array(), 0, batch.position());
+            out.flush();
+            sent += count;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Synthetic;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * The SyntheticFeed generates an endless stream of TD messages for load and soak testing, by running trains
+ * over a {@link SyntheticLayout}. The messages are those a train describer would send for the movements:
+ * <ul>
+ * <li>A train entering a track occupies its track circuit, and the track circuit it left clears behind it</li>
+ * <li>Points ahead of a train swing first if needed, the NK or RK clearing before the other is set</li>
+ * <li>The signal beside a track clears as a train enters it, and returns to danger once the train leaves</li>
+ * <li>A train's describer steps into the berth of each track it enters, and is interposed and cancelled as
+ * the train enters and leaves the diagram</li>
+ * </ul>
+ * <p>
+ * A train that reaches the edge of the diagram leaves it and another enters elsewhere. The stream starts with a
+ * refresh of every address, so that the map is complete from the first messages. Generation is deterministic
+ * for a given layout and seed, and the messages carry whatever timestamps the caller gives, so the same feed
+ * can be generated at any rate.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class SyntheticFeed {
+    private static final int NONE = SyntheticLayout.NONE;
+    private static final int PACKED_NONE = FeedMessage.packCode("NONE");
+
+    private final SyntheticLayout layout;
+    private final Random random;
+    private final int[] bytes = new int[DecodeTable.ADDRESSES];
+    private final int[] occupants = new int[DecodeTable.ADDRESSES * 8]; // Trains in each track circuit
+    private final int[] startTracks; // Tracks with a track circuit, where trains enter the diagram
+
+    /**
+     * A train running over the layout
+     */
+    private static final class Train {
+        int track;
+        int end;       // The end of the track the train is heading for
+        int berth;     // The berth holding its describer, or NONE
+        int describer;
+    }
+
+    private final Train[] trains;
+
+    private final ArrayDeque<FeedMessage> pending = new ArrayDeque<>();
+    private final ArrayDeque<FeedMessage> free = new ArrayDeque<>();
+    private long generated = 0;
+
+
+    /**
+     * Places the trains on the layout and queues the refresh that starts the stream
+     * @param layout The layout the trains run over
+     * @param trains The number of trains running at once
+     * @param seed The seed of the movements of the trains
+     * @throws IllegalArgumentException If there are no trains
+     */
+    public SyntheticFeed(@NotNull SyntheticLayout layout, int trains, long seed) {
+        if (trains < 1) {
+            throw new IllegalArgumentException("There must be at least one train");
+        }
+        this.layout = layout;
+        this.random = new Random(seed);
+        startTracks = IntStream.range(0, layout.tracks)
+                .filter(track -> layout.trackCircuits[track] != NONE)
+                .toArray();
+
+        // Points lie normal and signals at danger
+        for (int point = 0; point < layout.pointNKs.length; point++) {
+            bytes[layout.pointNKs[point] >> 3] |= 1 << (layout.pointNKs[point] & 7);
+        }
+        for (int track = 0; track < layout.tracks; track++) {
+            if (layout.signals[track] != NONE && layout.isSignalInverted[track]) {
+                bytes[layout.signals[track] >> 3] |= 1 << (layout.signals[track] & 7);
+            }
+        }
+
+        emitRefresh(FeedMessage.REFRESH_START);
+        for (int address = 0; address < DecodeTable.ADDRESSES; address++) {
+            emitSClass(address);
+        }
+        emitRefresh(FeedMessage.REFRESH_END);
+
+        this.trains = new Train[trains];
+        for (int i = 0; i < trains; i++) {
+            this.trains[i] = new Train();
+            enter(this.trains[i]);
+        }
+    }
+
+
+    /**
+     * Generates the next message of the stream
+     * @param message The instance the message is put into. Its previous contents are overwritten
+     * @param timestamp The timestamp of the message
+     */
+    public void next(@NotNull FeedMessage message, long timestamp) {
+        while (pending.isEmpty()) {
+            move(trains[random.nextInt(trains.length)]);
+        }
+
+        FeedMessage next = pending.poll();
+        message.copyFrom(next);
+        message.timestamp = timestamp;
+        free.offer(next);
+        generated++;
+    }
+
+    /**
+     * @return The number of messages generated
+     */
+    public long generated() {
+        return generated;
+    }
+
+
+    /**
+     * Moves the train onto the next track, or off the diagram if there is no track ahead of it
+     */
+    private void move(Train train) {
+        int[] joined = layout.joins[train.track][train.end];
+        int choices = 0;
+        for (int trackEnd : joined) {
+            if (isPassable(train.track, trackEnd / 2)) { choices++; }
+        }
+        if (choices == 0) {
+            leave(train);
+            enter(train);
+            return;
+        }
+
+        int choice = random.nextInt(choices);
+        int trackEnd = NONE;
+        for (int candidate : joined) {
+            if (isPassable(train.track, candidate / 2) && choice-- == 0) {
+                trackEnd = candidate;
+                break;
+            }
+        }
+        int next = trackEnd / 2;
+        int last = train.track;
+
+        setPoint(next);
+        setSignal(next, true);
+        if (layout.trackCircuits[next] != layout.trackCircuits[last]) {
+            occupy(layout.trackCircuits[next]);
+            vacate(layout.trackCircuits[last]);
+        }
+        int berth = layout.berths[next];
+        if (berth != NONE && berth != train.berth) {
+            emitCClass(train.berth == NONE ? PACKED_NONE : train.berth, berth, train.describer);
+            train.berth = berth;
+        }
+        setSignal(last, false);
+
+        train.track = next;
+        train.end = 1 - trackEnd % 2; // Leaves by the end it did not enter by
+    }
+
+    /**
+     * @return False if moving between the tracks would cross from the normal to the reverse track of a point
+     */
+    private boolean isPassable(int from, int to) {
+        int point = layout.trackPoints[from];
+        return point == NONE || point != layout.trackPoints[to]
+                || layout.isReverseTrack[from] == layout.isReverseTrack[to];
+    }
+
+    /**
+     * Places the train on a track of the diagram, with a new describer
+     */
+    private void enter(Train train) {
+        train.track = startTracks[random.nextInt(startTracks.length)];
+        train.end = random.nextInt(2);
+        train.describer = FeedMessage.packCode(
+                "" + random.nextInt(10) + (char) ('A' + random.nextInt(26)) + random.nextInt(10) + random.nextInt(10));
+
+        setPoint(train.track);
+        occupy(layout.trackCircuits[train.track]);
+        train.berth = layout.berths[train.track];
+        if (train.berth != NONE) {
+            emitCClass(PACKED_NONE, train.berth, train.describer);
+        }
+    }
+
+    /**
+     * Takes the train off the diagram
+     */
+    private void leave(Train train) {
+        vacate(layout.trackCircuits[train.track]);
+        if (train.berth != NONE) {
+            emitCClass(train.berth, PACKED_NONE, train.describer);
+        }
+    }
+
+
+    /**
+     * Swings the point of the track, if it has one, so that the track can be entered
+     */
+    private void setPoint(int track) {
+        int point = layout.trackPoints[track];
+        if (point == NONE) { return; }
+
+        int detected = layout.isReverseTrack[track] ? layout.pointRKs[point] : layout.pointNKs[point];
+        int other = layout.isReverseTrack[track] ? layout.pointNKs[point] : layout.pointRKs[point];
+        if (isSet(detected) && !isSet(other)) { return; }
+
+        setBit(other, false); // Out of detection whilst swinging
+        setBit(detected, false);
+        setBit(detected, true);
+    }
+
+    /**
+     * Clears the signal of the track, if it has one, or returns it to danger
+     */
+    private void setSignal(int track, boolean isOff) {
+        if (layout.signals[track] != NONE) {
+            setBit(layout.signals[track], isOff != layout.isSignalInverted[track]);
+        }
+    }
+
+    private void occupy(int trackCircuit) {
+        if (trackCircuit != NONE && occupants[trackCircuit]++ == 0) {
+            setBit(trackCircuit, true);
+        }
+    }
+
+    private void vacate(int trackCircuit) {
+        if (trackCircuit != NONE && --occupants[trackCircuit] == 0) {
+            setBit(trackCircuit, false);
+        }
+    }
+
+
+    private boolean isSet(int position) {
+        return (bytes[position >> 3] & (1 << (position & 7))) != 0;
+    }
+
+    /**
+     * Sets the bit, sending the byte holding it if it changed
+     */
+    private void setBit(int position, boolean isSet) {
+        int address = position >> 3;
+        int data = isSet ? bytes[address] | (1 << (position & 7)) : bytes[address] & ~(1 << (position & 7));
+        if (data != bytes[address]) {
+            bytes[address] = data;
+            emitSClass(address);
+        }
+    }
+
+    private void emitSClass(int address) {
+        FeedMessage message = emit(FeedMessage.S_CLASS);
+        message.address = address;
+        message.data = bytes[address];
+    }
+
+    private void emitCClass(int fromBerth, int toBerth, int describer) {
+        FeedMessage message = emit(FeedMessage.C_CLASS);
+        message.fromBerth = fromBerth;
+        message.toBerth = toBerth;
+        message.describer = describer;
+    }
+
+    private void emitRefresh(int refreshMarker) {
+        emit(FeedMessage.REFRESH).refreshMarker = refreshMarker;
+    }
+
+    private FeedMessage emit(char type) {
+        FeedMessage message = free.poll();
+        if (message == null) { message = new FeedMessage(); }
+        message.type = type;
+        message.area = FeedMessage.NO_AREA;
+        pending.offer(message);
+        return message;
+    }
+}
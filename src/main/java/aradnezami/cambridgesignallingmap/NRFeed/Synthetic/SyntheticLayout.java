@@ -0,0 +1,256 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Synthetic;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SyntheticLayout is the railway a {@link SyntheticFeed} runs its trains over, built from a diagram file and
+ * the {@link DecodeTable} of a signalling equipment map. The tracks of the diagram are joined wherever their
+ * ends meet, and each track is given the bits of the map that its equipment is indicated by:
+ * <ul>
+ * <li>The bit of its track circuit</li>
+ * <li>The NK or RK of the point, if the track is the normal or reverse track of a point end</li>
+ * <li>The berth and the signal drawn nearest to it, if any</li>
+ * </ul>
+ * <p>
+ * Equipment that is on the diagram but not in the map, or the other way around, is left out. Layouts are
+ * immutable, so one layout may be shared by any number of feeds.
+ */
+public final class SyntheticLayout {
+    /** The track, berth or signal has no mapping */
+    static final int NONE = -1;
+    /** Berths and signals further than this from every track are left out */
+    private static final double MAX_DISTANCE = 25;
+
+    private static final String[] SIGNAL_TYPES = {"DGK", "OFFK", "SOFFK", "RGK"};
+
+    final int tracks;
+    /** Bit position of each track's track circuit, or {@link #NONE} */
+    final int[] trackCircuits;
+    /**
+     * The tracks joined to each end of each track. {@code joins[track][end]} holds {@code 2*next + nextEnd},
+     * where {@code nextEnd} is the end of {@code next} that is joined. Ends are 0 for A and 1 for B
+     */
+    final int[][][] joins;
+    /** Packed code of the berth drawn nearest each track, or {@link #NONE} */
+    final int[] berths;
+    /** Bit position of the signal drawn nearest each track, or {@link #NONE} */
+    final int[] signals;
+    /** True for each track whose signal is indicated by an RGK, which is set when the signal is not off */
+    final boolean[] isSignalInverted;
+
+    /** The point each track is the normal or reverse track of, as an index of the point arrays, or {@link #NONE} */
+    final int[] trackPoints;
+    /** True for each track that is the reverse track of its point */
+    final boolean[] isReverseTrack;
+    /** Bit positions of each point's NK and RK */
+    final int[] pointNKs;
+    final int[] pointRKs;
+
+
+    private SyntheticLayout(int tracks, int[] trackCircuits, int[][][] joins, int[] berths, int[] signals,
+                            boolean[] isSignalInverted, int[] trackPoints, boolean[] isReverseTrack,
+                            int[] pointNKs, int[] pointRKs) {
+        this.tracks = tracks;
+        this.trackCircuits = trackCircuits;
+        this.joins = joins;
+        this.berths = berths;
+        this.signals = signals;
+        this.isSignalInverted = isSignalInverted;
+        this.trackPoints = trackPoints;
+        this.isReverseTrack = isReverseTrack;
+        this.pointNKs = pointNKs;
+        this.pointRKs = pointRKs;
+    }
+
+
+    /**
+     * Builds the layout of the diagram found at the given resource path
+     * @param diagramPath The path of the JSON diagram file, which must be compliant with diagramSchema.json
+     * @param table The table of the signalling equipment map of the diagram's area
+     * @return The layout
+     * @throws IOException If the diagram could not be read
+     * @throws IllegalArgumentException If no track circuit of the diagram is in the map, so that no train could
+     * be shown running
+     * @see ClassLoader#getResourceAsStream(String path)
+     */
+    public static @NotNull SyntheticLayout load(@NotNull String diagramPath, @NotNull DecodeTable table) throws IOException {
+        JsonNode root;
+        try (InputStream in = SyntheticLayout.class.getClassLoader().getResourceAsStream(diagramPath)) {
+            if (in == null) {
+                throw new FileNotFoundException("Could not find diagram map. Path: " + diagramPath);
+            }
+            root = new ObjectMapper().readTree(in);
+        }
+
+        // Every datum's elements, offset by the coordinates of the datum
+        List<JsonNode> trackNodes = new ArrayList<>();
+        List<int[]> trackEnds = new ArrayList<>(); // Ax, Ay, Bx, By
+        List<JsonNode> berthNodes = new ArrayList<>();
+        List<int[]> berthCoordinates = new ArrayList<>();
+        List<JsonNode> signalNodes = new ArrayList<>();
+        List<int[]> signalCoordinates = new ArrayList<>();
+        List<JsonNode> pointEndNodes = new ArrayList<>();
+        for (JsonNode datum : root.path("datumPoints")) {
+            int x = datum.path("x").asInt();
+            int y = datum.path("y").asInt();
+            for (JsonNode track : datum.path("tracks")) {
+                trackNodes.add(track);
+                trackEnds.add(new int[] {
+                        track.path("Ax").asInt() + x, track.path("Ay").asInt() + y,
+                        track.path("Bx").asInt() + x, track.path("By").asInt() + y});
+            }
+            for (JsonNode berth : datum.path("berths")) {
+                berthNodes.add(berth);
+                berthCoordinates.add(new int[] {berth.path("x").asInt() + x, berth.path("y").asInt() + y});
+            }
+            for (JsonNode signal : datum.path("signals")) {
+                signalNodes.add(signal);
+                signalCoordinates.add(new int[] {signal.path("x").asInt() + x, signal.path("y").asInt() + y});
+            }
+            for (JsonNode pointEnd : datum.path("points")) {
+                pointEndNodes.add(pointEnd);
+            }
+        }
+
+        int tracks = trackNodes.size();
+        Map<String, Integer> trackIndexes = new HashMap<>();
+        int[] trackCircuits = new int[tracks];
+        boolean hasTrackCircuit = false;
+        for (int track = 0; track < tracks; track++) {
+            JsonNode node = trackNodes.get(track);
+            trackIndexes.put(node.path("name").asText(), track);
+            String trackCircuit = node.path("TC").asText("");
+            trackCircuits[track] = trackCircuit.isEmpty() ? NONE : table.positionOf("T", trackCircuit);
+            hasTrackCircuit |= trackCircuits[track] != NONE;
+        }
+        if (!hasTrackCircuit) {
+            throw new IllegalArgumentException("No track circuit of " + diagramPath + " is in the map");
+        }
+
+        int[][][] joins = joinTracks(trackEnds);
+
+        int[] berths = new int[tracks];
+        int[] signals = new int[tracks];
+        boolean[] isSignalInverted = new boolean[tracks];
+        Arrays.fill(berths, NONE);
+        Arrays.fill(signals, NONE);
+        for (int i = 0; i < berthNodes.size(); i++) {
+            int track = nearestTrack(trackEnds, berthCoordinates.get(i));
+            if (track != NONE) {
+                berths[track] = FeedMessage.packCode(berthNodes.get(i).path("name").asText());
+            }
+        }
+        for (int i = 0; i < signalNodes.size(); i++) {
+            int track = nearestTrack(trackEnds, signalCoordinates.get(i));
+            if (track == NONE) { continue; }
+
+            String name = signalNodes.get(i).path("name").asText();
+            for (String type : SIGNAL_TYPES) {
+                int position = table.positionOf(type, name);
+                if (position != NONE) {
+                    signals[track] = position;
+                    isSignalInverted[track] = type.equals("RGK");
+                    break;
+                }
+            }
+        }
+
+        int[] trackPoints = new int[tracks];
+        boolean[] isReverseTrack = new boolean[tracks];
+        Arrays.fill(trackPoints, NONE);
+        List<String> pointNames = new ArrayList<>();
+        List<int[]> pointBits = new ArrayList<>();
+        for (JsonNode pointEnd : pointEndNodes) {
+            String name = pointEnd.path("point").asText();
+            int point = pointNames.indexOf(name);
+            if (point == NONE) {
+                int nk = table.positionOf("NK", name);
+                int rk = table.positionOf("RK", name);
+                if (nk == NONE || rk == NONE) { continue; } // Not indicated, so can be in any position
+                point = pointNames.size();
+                pointNames.add(name);
+                pointBits.add(new int[] {nk, rk});
+            }
+
+            Integer normalTrack = trackIndexes.get(pointEnd.path("NTrack").asText());
+            Integer reverseTrack = trackIndexes.get(pointEnd.path("RTrack").asText());
+            if (normalTrack != null) { trackPoints[normalTrack] = point; }
+            if (reverseTrack != null) {
+                trackPoints[reverseTrack] = point;
+                isReverseTrack[reverseTrack] = true;
+            }
+        }
+
+        int[] pointNKs = pointBits.stream().mapToInt(bits -> bits[0]).toArray();
+        int[] pointRKs = pointBits.stream().mapToInt(bits -> bits[1]).toArray();
+        return new SyntheticLayout(tracks, trackCircuits, joins, berths, signals, isSignalInverted,
+                trackPoints, isReverseTrack, pointNKs, pointRKs);
+    }
+
+
+    /**
+     * Joins the ends of tracks that are at the same coordinates
+     */
+    private static int[][][] joinTracks(List<int[]> trackEnds) {
+        Map<Long, List<Integer>> ends = new HashMap<>(); // Coordinates to 2*track + end
+        for (int track = 0; track < trackEnds.size(); track++) {
+            int[] coordinates = trackEnds.get(track);
+            for (int end = 0; end < 2; end++) {
+                long key = ((long) coordinates[2 * end] << 32) | (coordinates[2 * end + 1] & 0xFFFFFFFFL);
+                ends.computeIfAbsent(key, k -> new ArrayList<>()).add(2 * track + end);
+            }
+        }
+
+        int[][][] joins = new int[trackEnds.size()][2][];
+        for (List<Integer> joined : ends.values()) {
+            for (int trackEnd : joined) {
+                joins[trackEnd / 2][trackEnd % 2] = joined.stream()
+                        .mapToInt(Integer::intValue)
+                        .filter(other -> other / 2 != trackEnd / 2)
+                        .toArray();
+            }
+        }
+        return joins;
+    }
+
+    /**
+     * @return The track nearest to the label, or {@link #NONE} if every track is further than {@link #MAX_DISTANCE}
+     */
+    private static int nearestTrack(List<int[]> trackEnds, int[] label) {
+        int nearest = NONE;
+        double nearestDistance = MAX_DISTANCE;
+        for (int track = 0; track < trackEnds.size(); track++) {
+            int[] ends = trackEnds.get(track);
+            double distance = distance(label[0], label[1], ends[0], ends[1], ends[2], ends[3]);
+            if (distance <= nearestDistance) {
+                nearest = track;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * @return The distance from the point (x, y) to the line segment from (ax, ay) to (bx, by)
+     */
+    private static double distance(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+        return Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+}
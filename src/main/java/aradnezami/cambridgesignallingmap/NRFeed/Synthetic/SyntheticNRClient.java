@@ -0,0 +1,121 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Synthetic;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The SyntheticNRClient returns the messages of a {@link SyntheticFeed} at a target rate, as if they were being
+ * received live, so that the rest of the application can be loaded without a connection to the feed. Messages
+ * are timestamped with the time they are returned at.
+ * <p>
+ * Messages are due at fixed intervals from when the client was created, so a poller that falls behind receives
+ * the messages it missed without waiting until it has caught up, and the average rate is kept.
+ *
+ * <h3>Death of SyntheticNRClient</h3>
+ * An instance only dies by a call to {@link #disconnect()}.
+ */
+public class SyntheticNRClient implements NRFeedClient {
+    /** The rate at which messages are returned without waiting between them */
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY;
+
+    private final SyntheticFeed feed;
+    private final double rate;
+    private final long startNanos;
+    private long polled = 0;
+
+    /** Notified when disconnected, to cut short waiting for the next message to be due */
+    private final Object pacing = new Object();
+    private volatile boolean isAlive = true;
+
+
+    /**
+     * @param feed The feed generating the messages. It must not be used by anything else
+     * @param rate The number of messages returned per second, or {@link #UNLIMITED}
+     * @throws IllegalArgumentException If the rate is not positive
+     */
+    public SyntheticNRClient(@NotNull SyntheticFeed feed, double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Message rate must be positive");
+        }
+        this.feed = feed;
+        this.rate = rate;
+        startNanos = System.nanoTime();
+    }
+
+
+    @Override
+    public @NotNull String pollNREvent() throws NRFeedException {
+        FeedMessage message = new FeedMessage();
+        pollNREvent(message);
+        return message.toString();
+    }
+
+    /**
+     * Generates the next message, waiting until it is due
+     * @param message The instance the message is put into. Its previous contents are overwritten
+     * @throws NRFeedException If the client was disconnected or if the polling thread was interrupted
+     */
+    @Override
+    public void pollNREvent(@NotNull FeedMessage message) throws NRFeedException {
+        checkAlive();
+        waitUntilDue(dueNanos(polled));
+        feed.next(message, System.currentTimeMillis());
+        polled++;
+    }
+
+    @Override
+    public boolean isMessageReady() throws NRFeedException {
+        checkAlive();
+        return System.nanoTime() - dueNanos(polled) >= 0;
+    }
+
+    @Override
+    public void disconnect() {
+        isAlive = false;
+        synchronized (pacing) {
+            pacing.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return isAlive;
+    }
+
+
+    /**
+     * @return The {@link System#nanoTime()} at which the message of the given index is due
+     */
+    private long dueNanos(long index) {
+        if (rate == UNLIMITED) {
+            return Long.MIN_VALUE / 2; // Always in the past without overflowing
+        }
+        return startNanos + (long) (index * 1e9 / rate);
+    }
+
+    private void waitUntilDue(long due) throws NRFeedException {
+        synchronized (pacing) {
+            long remaining;
+            while (isAlive && (remaining = due - System.nanoTime()) > 0) {
+                try {
+                    pacing.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NRFeedException("Interrupted whilst waiting for the next synthetic message",
+                            e,
+                            "The connection was interrupted");
+                }
+            }
+        }
+        checkAlive();
+    }
+
+    private void checkAlive() throws NRFeedException {
+        if (!isAlive) {
+            throw new NRFeedException("Synthetic client is disconnected",
+                    "The connection to the feed was closed");
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package aradnezami.cambridgesignallingmap.UI;
 
+import aradnezami.cambridgesignallingmap.Metrics.FeedLagEstimator;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.ElementCollection;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Text;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.function.LongSupplier;
 
 /**
  * A display clock showing the current time and the time of the last message received from
- * the feed. The time is set to GMT for both clocks.
+ * the feed. The time is set to GMT for both clocks. The time is read from the system clock, unless
+ * another time source is set, such as the virtual clock of a replay. If the lag of the feed is being
+ * estimated, the lag and clock skew are shown beneath, so a slow feed can be told apart from a slow map.
  */
 public class Clock extends JComponent {
     private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("HH:mm:ss");
@@ -27,16 +32,19 @@ public class Clock extends JComponent {
 
     private final Text mainClockText;
     private final Text lastMsgClockText;
+    private final Text feedLagText;
 
     private String currentTime;
     private String lastMsgTime = "Last Message: --:--:--";
+    private volatile LongSupplier timeSource = System::currentTimeMillis;
+    private volatile @Nullable FeedLagEstimator feedLag;
 
 
     /**
      * Creates an instance of the clock
      */
     public Clock() {
-        currentTime = TIME_FORMAT.format(new Date());
+        currentTime = TIME_FORMAT.format(new Date(timeSource.getAsLong()));
 
         mainClockText = new Text(
                 currentTime,
@@ -54,21 +62,47 @@ public class Clock extends JComponent {
                 Text.GENERAL_FONT
         );
 
-        // Update main clock every second
+        feedLagText = new Text(
+                "",
+                23, 53,
+                Color.GRAY,
+                LAST_MSG_FONT_SIZE,
+                Text.GENERAL_FONT
+        );
+
+        // Update main clock and feed lag every second
         Timer timer = new Timer(1000, e -> {
-            currentTime = TIME_FORMAT.format(new Date());
+            currentTime = TIME_FORMAT.format(new Date(timeSource.getAsLong()));
             mainClockText.text = currentTime;
+            feedLagText.text = formatFeedLag(feedLag);
             repaint();
         });
         timer.start();
     }
 
 
+    /**
+     * Sets where both clocks read the time from. The main clock shows the new time at its next tick
+     * @param timeSource Returns the current time in milliseconds since the epoch, such as
+     *                   {@link System#currentTimeMillis()}
+     */
+    public void setTimeSource(LongSupplier timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Sets the estimate of the feed's lag shown beneath the clocks, from the next tick
+     * @param feedLag The estimate, or null to show none
+     */
+    public void setFeedLag(@Nullable FeedLagEstimator feedLag) {
+        this.feedLag = feedLag;
+    }
+
     /**
      * Sets the time of the "Last Message" clock to the current time in GMT
      */
     public void updateLastMsgTime() {
-        lastMsgTime = TIME_FORMAT.format(new Date());
+        lastMsgTime = TIME_FORMAT.format(new Date(timeSource.getAsLong()));
         if (lastMsgClockText != null) {
             lastMsgClockText.text = "Last Message: " + lastMsgTime;
         }
@@ -77,6 +111,24 @@ public class Clock extends JComponent {
 
 
 
+    /**
+     * @return The lag and skew in seconds, Eg: {@code "Feed Lag: 0.4s  Skew: +1.2s"}, "--" while unknown, or an
+     * empty String if not estimated
+     */
+    private static String formatFeedLag(@Nullable FeedLagEstimator feedLag) {
+        if (feedLag == null) {
+            return "";
+        }
+        long lag = feedLag.lagMillis();
+        long skew = feedLag.skewMillis();
+        if (lag == FeedLagEstimator.UNKNOWN || skew == FeedLagEstimator.UNKNOWN) {
+            return "Feed Lag: --";
+        }
+        return String.format("Feed Lag: %.1fs  Skew: %+.1fs", lag / 1000.0, skew / 1000.0);
+    }
+
+
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -87,6 +139,7 @@ public class Clock extends JComponent {
 
         if (mainClockText != null) mainClockText.draw(g2);
         if (lastMsgClockText != null) lastMsgClockText.draw(g2);
+        if (feedLagText != null) feedLagText.draw(g2);
 
         g2.dispose();
     }
@@ -11,13 +11,14 @@ import java.io.StringWriter;
  * A utility class containing some static methods for displaying option dialogues using the
  * {@link JOptionPane} class, which prompts for which connection source is to be used. All
  * methods perform the exact same function but with slightly different prompts for different
- * contexts. The {@link #DIRECT_CHOSEN}, {@link #DATA_SERVER_CHOSEN} and {@link #QUIT_CHOSEN}
+ * contexts. The {@link #DIRECT_CHOSEN}, {@link #DATA_SERVER_CHOSEN}, {@link #REDUNDANT_CHOSEN}, {@link #REPLAY_CHOSEN}
+ * and {@link #QUIT_CHOSEN}
  * constants are the only values that can be returned from the methods and represent the
  * option chosen by the user
  */
 public class ConnectionDialogue {
 
-    private static final String[] options = {"Direct", "Data Server", "Quit"};
+    private static final String[] options = {"Direct", "Data Server", "Both", "Replay", "Quit"};
 
     /**
      * User closed the dialogue window without answering. Should be treated as a {@link #QUIT_CHOSEN}
@@ -31,10 +32,18 @@ public class ConnectionDialogue {
      * User has chosen to connect via the data server
      */
     public static final int DATA_SERVER_CHOSEN = 1;
+    /**
+     * User has chosen to connect both directly and via the data server, using whichever receives each message first
+     */
+    public static final int REDUNDANT_CHOSEN = 2;
+    /**
+     * User has chosen to replay a capture of the feed recorded to a file
+     */
+    public static final int REPLAY_CHOSEN = 3;
     /**
      * User has chosen to close the program
      */
-    public static final int QUIT_CHOSEN = 2;
+    public static final int QUIT_CHOSEN = 4;
 
 
 
@@ -148,6 +148,14 @@ public class ElementCollection {
     }
 
 
+    /**
+     * @return The number of elements drawn by {@link #draw(Graphics2D)}
+     */
+    public int drawnElementCount() {
+        return rectangles.size() + tracks.size() + texts.size() + berths.size() + signals.size();
+    }
+
+
     public Signal getSignal(String name) {
         return signals.get(name);
     }
@@ -1,17 +1,30 @@
 package aradnezami.cambridgesignallingmap.UI;
 
+import aradnezami.cambridgesignallingmap.Metrics.Counter;
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.JFR.DiagramPaintedEvent;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.*;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
 import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.Nullable;
 
+import jdk.jfr.EventType;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseWheelListener;
 
 public class DiagramPanel extends JScrollPane {
+    private static final EventType DIAGRAM_PAINTED = EventType.getEventType(DiagramPaintedEvent.class);
+
     private ElementCollection elementCollection;
     private final DrawingSurface drawingSurface;
 
+    private @Nullable FeedLatency latency;
+    private @Nullable Counter repaints;
+    // The first change and the receipt of the oldest message changing the elements since the last paint. 0 if none
+    private long unpaintedMutatedNanos = 0;
+    private long unpaintedReceivedNanos = 0;
+
     public DiagramPanel(ElementCollection elementCollection) {
         this.elementCollection = elementCollection;
 
@@ -174,6 +187,54 @@ public class DiagramPanel extends JScrollPane {
     }
 
 
+    /**
+     * Sets the latencies that painting changes made by the feed is recorded to
+     * @param latency The latencies to record the {@link FeedLatency#paint()} and {@link FeedLatency#total()}
+     *                latencies to, or null for none
+     */
+    public void setLatency(@Nullable FeedLatency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the counter of the repaints of the diagram
+     * @param repaints The counter incremented each time the diagram is painted, or null for none
+     */
+    public void setRepaintCounter(@Nullable Counter repaints) {
+        this.repaints = repaints;
+    }
+
+    /**
+     * Marks that elements were just changed by messages of the feed, so that the next paint records how long
+     * the changes took to be painted. Must be called on the event dispatch thread
+     * @param receivedNanos The {@link System#nanoTime()} at which the oldest of the messages was received, or 0
+     *                      if it was not timed
+     */
+    public void markMutated(long receivedNanos) {
+        if (unpaintedMutatedNanos == 0) {
+            unpaintedMutatedNanos = System.nanoTime();
+        }
+        if (receivedNanos != 0 && (unpaintedReceivedNanos == 0 || receivedNanos - unpaintedReceivedNanos < 0)) {
+            unpaintedReceivedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * Records the latencies of the changes painted since they were marked
+     */
+    private void markPainted() {
+        if (latency != null && unpaintedMutatedNanos != 0) {
+            long paintedNanos = System.nanoTime();
+            latency.paint().record(paintedNanos - unpaintedMutatedNanos);
+            if (unpaintedReceivedNanos != 0) {
+                latency.total().record(paintedNanos - unpaintedReceivedNanos);
+            }
+        }
+        unpaintedMutatedNanos = 0;
+        unpaintedReceivedNanos = 0;
+    }
+
+
 
     private class DrawingSurface extends JPanel {
         public DrawingSurface() {
@@ -182,12 +243,24 @@ public class DiagramPanel extends JScrollPane {
 
         @Override
         protected void paintComponent(Graphics g) {
+            DiagramPaintedEvent event = DIAGRAM_PAINTED.isEnabled() ? new DiagramPaintedEvent() : null;
+            if (event != null) { event.begin(); }
+
             super.paintComponent(g);
             if (elementCollection != null) {
                 Graphics2D g2d = (Graphics2D) g.create();
                 elementCollection.draw(g2d);
                 g2d.dispose();
             }
+
+            if (event != null && event.shouldCommit()) {
+                event.elements = elementCollection == null ? 0 : elementCollection.drawnElementCount();
+                event.commit();
+            }
+            markPainted();
+            if (repaints != null) {
+                repaints.increment();
+            }
         }
 
         @Override
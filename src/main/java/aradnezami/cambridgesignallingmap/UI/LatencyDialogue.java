@@ -0,0 +1,52 @@
+package aradnezami.cambridgesignallingmap.UI;
+
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.Metrics.LatencyHistogram;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Displays the percentiles of the latency of each stage of the feed, with the option to reset them
+ */
+public class LatencyDialogue {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] OPTIONS = {"Close", "Reset"};
+    private static final int RESET_CHOSEN = 1;
+
+    public static void display(JComponent parent, FeedLatency latency) {
+        StringBuilder message = new StringBuilder(String.format("%-8s %9s", "Stage", "Count"));
+        for (double percentile : PERCENTILES) {
+            message.append(String.format(" %9s", "p" + formatPercentile(percentile)));
+        }
+        message.append(String.format(" %9s%n", "Max"));
+
+        appendStage(message, "Decode", latency.decode());
+        appendStage(message, "Publish", latency.publish());
+        appendStage(message, "Paint", latency.paint());
+        appendStage(message, "Total", latency.total());
+        message.append("\nLatencies are in milliseconds, each from the end of the stage before.\nTotal is from a message being received to it being painted");
+
+        JTextArea text = new JTextArea(message.toString());
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        int choice = JOptionPane.showOptionDialog(parent, text, "Latency",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, OPTIONS, OPTIONS[0]);
+        if (choice == RESET_CHOSEN) {
+            latency.reset();
+        }
+    }
+
+    private static void appendStage(StringBuilder message, String stage, LatencyHistogram histogram) {
+        message.append(String.format("%-8s %9d", stage, histogram.count()));
+        for (double percentile : PERCENTILES) {
+            message.append(String.format(" %9.2f", histogram.percentile(percentile) / 1e6));
+        }
+        message.append(String.format(" %9.2f%n", histogram.max() / 1e6));
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? Integer.toString((int) percentile) : Double.toString(percentile);
+    }
+}
@@ -21,6 +21,7 @@ public class LiveDiagramMenuBar extends JMenuBar {
     private final JMenu viewMenu = new JMenu("View");
     private final JMenuItem about = new JMenuItem("About");
     private final JMenuItem attribution = new JMenuItem("Attribution");
+    private final JMenuItem latency = new JMenuItem("Latency");
 
     public LiveDiagramMenuBar() {
         super();
@@ -32,6 +33,7 @@ public class LiveDiagramMenuBar extends JMenuBar {
 
         viewMenu.add(about);
         viewMenu.add(attribution);
+        viewMenu.add(latency);
         add(viewMenu);
 
         about.addActionListener((ActionEvent e) -> {
@@ -67,6 +69,10 @@ public class LiveDiagramMenuBar extends JMenuBar {
         changeSource.addActionListener(actionListener);
     }
 
+    public void addLatencyListener(ActionListener actionListener) {
+        latency.addActionListener(actionListener);
+    }
+
     private void openAboutPage() throws IOException {
         if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
             Desktop.getDesktop().browse(README_MD_LINK);
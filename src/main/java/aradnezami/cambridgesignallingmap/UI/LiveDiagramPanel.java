@@ -1,7 +1,11 @@
 package aradnezami.cambridgesignallingmap.UI;
 
+import aradnezami.cambridgesignallingmap.Metrics.FeedLagEstimator;
+import org.jetbrains.annotations.Nullable;
+
 import javax.swing.*;
 import java.awt.*;
+import java.util.function.LongSupplier;
 
 /**
  * A panel displaying a {@link DiagramPanel}, {@link Clock} and some display text. This is meant
@@ -72,4 +76,20 @@ public class LiveDiagramPanel extends JPanel {
     public void updateLastMsgClock() {
         clock.updateLastMsgTime();
     }
+
+    /**
+     * Sets where the {@link Clock} reads the time from, such as the virtual clock of a replayed feed
+     * @param timeSource Returns the current time in milliseconds since the epoch
+     */
+    public void setTimeSource(LongSupplier timeSource) {
+        clock.setTimeSource(timeSource);
+    }
+
+    /**
+     * Sets the estimate of the feed's lag shown by the {@link Clock}
+     * @param feedLag The estimate, or null to show none
+     */
+    public void setFeedLag(@Nullable FeedLagEstimator feedLag) {
+        clock.setFeedLag(feedLag);
+    }
 }
@@ -0,0 +1,52 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedLagEstimatorTest {
+    private long now = 1_700_000_000_000L;
+
+
+    @Test
+    @DisplayName("record(): The fastest offset taken as skew, and the lag is recent offsets beyond it")
+    void record() {
+        FeedLagEstimator estimator = new FeedLagEstimator();
+        estimator.setTimeSource(() -> now);
+        assertEquals(FeedLagEstimator.UNKNOWN, estimator.lagMillis());
+        assertEquals(FeedLagEstimator.UNKNOWN, estimator.skewMillis());
+
+        for (int i = 0; i < 100; i++) { // Local clock 2s ahead, and the feed running at its best
+            now += 1000;
+            estimator.record(now - 2000, 0);
+        }
+        assertEquals(2000, estimator.skewMillis());
+        assertEquals(0, estimator.lagMillis());
+
+        for (int i = 0; i < 100; i++) { // Feed falls 5s behind
+            now += 1000;
+            estimator.record(now - 7000, 0);
+        }
+        assertEquals(2000, estimator.skewMillis());
+        assertEquals(5000, estimator.lagMillis(), 10);
+
+        now += FeedLagEstimator.SKEW_WINDOW_MILLIS; // Still behind long after the fastest message
+        estimator.record(now - 7000, 0);
+        assertEquals(7000, estimator.skewMillis());
+
+        estimator.record(-1L, 0); // Untimestamped messages skipped
+        assertEquals(7000, estimator.skewMillis());
+        estimator.reset();
+        assertEquals(FeedLagEstimator.UNKNOWN, estimator.lagMillis());
+    }
+
+    @Test
+    @DisplayName("record(): Time spent since receipt not counted as lag")
+    void record2() {
+        FeedLagEstimator estimator = new FeedLagEstimator();
+        estimator.setTimeSource(() -> now);
+        estimator.record(now, System.nanoTime() - 3_000_000_000L); // Received 3s ago, when it was sent
+        assertEquals(-3000, estimator.skewMillis(), 10);
+    }
+}
@@ -0,0 +1,66 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("bucket(): Every latency is within its bucket, and buckets are in order")
+    void bucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long nanos = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue(bucket >= 0 && bucket < LatencyHistogram.BUCKETS);
+            assertTrue(nanos <= LatencyHistogram.highestInBucket(bucket), "Latency " + nanos);
+            assertTrue(bucket == 0 || nanos > LatencyHistogram.highestInBucket(bucket - 1), "Latency " + nanos);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestInBucket(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    @DisplayName("percentile(): Within the precision of the buckets of the exact percentile")
+    void percentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(42);
+        long[] latencies = new long[10_000];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (long) Math.exp(random.nextGaussian() * 2 + 13); // Log-normal, around a millisecond
+            histogram.record(latencies[i]);
+        }
+        Arrays.sort(latencies);
+
+        assertEquals(latencies.length, histogram.count());
+        for (double percentile : new double[] {0, 50, 90, 99, 99.9, 100}) {
+            long expected = latencies[Math.max(0, (int) Math.ceil(percentile / 100 * latencies.length) - 1)];
+            long actual = histogram.percentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.07, percentile + ": " + actual + " for " + expected);
+        }
+        assertEquals(latencies[latencies.length - 1], histogram.max());
+        assertEquals(histogram.max(), histogram.percentile(100));
+    }
+
+    @Test
+    @DisplayName("reset(): Every latency forgotten")
+    void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(-3); // As 0
+        assertEquals(2, histogram.count());
+        assertEquals(2.5, histogram.mean());
+        assertEquals(0, histogram.percentile(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(99));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(101));
+    }
+}
@@ -0,0 +1,84 @@
+package aradnezami.cambridgesignallingmap.Metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    @DisplayName("scrape(): Every metric in the Prometheus text format, labels grouped under one name")
+    void scrape() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("messages_total", "Messages", "class", "S").add(3);
+        registry.gauge("depth", "Queue \\ depth", () -> 7);
+        registry.counter("messages_total", "Messages", "class", "C").increment();
+        registry.counter("messages_total", "Messages", "class", "S").increment(); // The same counter
+
+        assertEquals("""
+                # HELP messages_total Messages
+                # TYPE messages_total counter
+                messages_total{class="S"} 4
+                messages_total{class="C"} 1
+                # HELP depth Queue \\\\ depth
+                # TYPE depth gauge
+                depth 7
+                """, registry.scrape());
+        assertEquals(Map.of("messages_total.S", 4L, "messages_total.C", 1L, "depth", 7L), registry.values());
+    }
+
+    @Test
+    @DisplayName("counter(): Invalid names and metrics registered as something else rejected")
+    void counter() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("a_total", "A");
+        registry.gauge("b", "B", () -> 0);
+
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("a-total", "A"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("a_total", "A", "label", "1"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("b", "B"));
+    }
+
+    @Test
+    @DisplayName("Counter: Counts from many threads at once are all kept")
+    void counterThreads() throws InterruptedException {
+        Counter counter = new MetricsRegistry().counter("a_total", "A");
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    counter.increment();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000L, counter.get());
+    }
+
+    @Test
+    @DisplayName("MetricsEndpoint: Serves the scrape of the registry")
+    void endpoint() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("a_total", "A").add(42);
+        try (MetricsEndpoint endpoint = new MetricsEndpoint(0, registry)) {
+            URL url = URI.create("http://localhost:" + endpoint.port() + MetricsEndpoint.PATH).toURL();
+            try (InputStream in = url.openStream()) {
+                assertEquals(registry.scrape(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryFrameCodecTest {
+    private final BinaryFrameCodec codec = new BinaryFrameCodec();
+    private final FeedMessage message = new FeedMessage();
+
+
+    private static FeedMessage parsed(String text) {
+        FeedMessage message = new FeedMessage();
+        assertTrue(message.parse(text));
+        return message;
+    }
+
+    private static ByteBuffer encoded(String... messages) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (String text : messages) {
+            BinaryFrameCodec.encode(parsed(text), buffer);
+        }
+        return buffer.flip();
+    }
+
+
+    @Test
+    @DisplayName("decode(): Every message type round trips")
+    void decode1() {
+        ByteBuffer buffer = encoded("S,1234567890123,A4,5D", "C,12,NONE,0195,1K76", "R,13,START", "R,14,END", "H,15");
+        assertEquals(BinaryFrameCodec.S_FRAME_LENGTH + BinaryFrameCodec.C_FRAME_LENGTH
+                + 2 * BinaryFrameCodec.R_FRAME_LENGTH + BinaryFrameCodec.H_FRAME_LENGTH, buffer.remaining());
+
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("S,1234567890123,A4,5D", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("C,12,NONE,0195,1K76", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("R,13,START", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("R,14,END", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("H,15", message.toString());
+        assertEquals(BinaryFrameCodec.INCOMPLETE, codec.decode(buffer, message));
+    }
+
+    @Test
+    @DisplayName("decode(): Frames take the area of their envelope")
+    void decode2() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int header = BinaryFrameCodec.beginEnvelope(buffer, FeedMessage.packCode("EA"));
+        BinaryFrameCodec.encode(parsed("S,1,00,01"), buffer);
+        BinaryFrameCodec.encode(parsed("S,2,00,02"), buffer);
+        BinaryFrameCodec.endEnvelope(buffer, header);
+        BinaryFrameCodec.encode(parsed("S,3,00,03"), buffer);
+        buffer.flip();
+
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("S,1,00,01,EA", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("S,2,00,02,EA", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals(FeedMessage.NO_AREA, message.area);
+    }
+
+    @Test
+    @DisplayName("decode(): Nothing consumed until a whole frame is received")
+    void decode3() {
+        ByteBuffer frames = ByteBuffer.allocate(1024);
+        int header = BinaryFrameCodec.beginEnvelope(frames, FeedMessage.packCode("CA"));
+        BinaryFrameCodec.encode(parsed("C,12,0193,0195,1K76"), frames);
+        BinaryFrameCodec.endEnvelope(frames, header);
+        frames.flip();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024).flip();
+        while (frames.hasRemaining()) {
+            assertFalse(codec.hasFrame(buffer));
+            assertEquals(BinaryFrameCodec.INCOMPLETE, codec.decode(buffer, message));
+            assertEquals(0, buffer.position());
+            buffer.limit(buffer.limit() + 1).put(buffer.limit() - 1, frames.get());
+        }
+
+        assertTrue(codec.hasFrame(buffer));
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("C,12,0193,0195,1K76,CA", message.toString());
+    }
+
+    @Test
+    @DisplayName("decode(): Extended C frames skipped past")
+    void decode4() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(BinaryFrameCodec.C_FRAME).put((byte) 22)
+                .putLong(12).putInt(FeedMessage.packCode("0193")).putInt(FeedMessage.packCode("0195"))
+                .putInt(FeedMessage.packCode("1K76")).putShort((short) 0x7FFF);
+        BinaryFrameCodec.encode(parsed("S,1,00,01"), buffer);
+        buffer.flip();
+
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("C,12,0193,0195,1K76", message.toString());
+        assertEquals(BinaryFrameCodec.DECODED, codec.decode(buffer, message));
+        assertEquals("S,1,00,01", message.toString());
+    }
+
+    @Test
+    @DisplayName("decode(): Malformed frames")
+    void decode5() {
+        assertEquals(BinaryFrameCodec.MALFORMED, codec.decode(ByteBuffer.wrap(new byte[]{'X'}), message));
+        assertEquals(BinaryFrameCodec.MALFORMED, codec.decode(ByteBuffer.wrap(new byte[]{'C', 4, 0, 0, 0, 0}), message));
+
+        ByteBuffer refresh = ByteBuffer.allocate(BinaryFrameCodec.R_FRAME_LENGTH)
+                .put(BinaryFrameCodec.R_FRAME).putLong(1).put((byte) 4).flip();
+        assertEquals(BinaryFrameCodec.MALFORMED, codec.decode(refresh, message));
+
+        ByteBuffer nested = ByteBuffer.allocate(1024);
+        int header = BinaryFrameCodec.beginEnvelope(nested, 0);
+        BinaryFrameCodec.beginEnvelope(nested, 0);
+        BinaryFrameCodec.endEnvelope(nested, header);
+        assertEquals(BinaryFrameCodec.MALFORMED, codec.decode(nested.flip(), message));
+    }
+
+    @Test
+    @DisplayName("encode(): S frames several times smaller than text")
+    void encode() {
+        String text = "S,1700000000000,A4,5D,CA\n";
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        int header = BinaryFrameCodec.beginEnvelope(buffer, FeedMessage.packCode("CA"));
+        for (int i = 0; i < 100; i++) {
+            BinaryFrameCodec.encode(parsed(text.trim()), buffer);
+        }
+        BinaryFrameCodec.endEnvelope(buffer, header);
+
+        assertTrue(buffer.position() * 2 < 100 * text.getBytes(StandardCharsets.US_ASCII).length);
+    }
+}
@@ -0,0 +1,173 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Bytes on the wire and decode time of each connection type over a capture of the feed. The capture is read
+ * from the file given by {@code -Dcapture=PATH}, which holds one message per line as sent by a text data server.
+ * Without it, a synthetic capture of all areas is used. Consecutive messages with the same timestamp are sent
+ * as one batch, with a sync flush after each. Only run with the {@code benchmark} profile:
+ * {@code mvn test -Pbenchmark -Dtest=CompressionBenchmark [-Dcapture=PATH]}
+ */
+class CompressionBenchmark {
+    private static final int SYNTHETIC_MESSAGES = 500_000;
+    private static final int ROUNDS = 5;
+
+
+    @Test
+    @DisplayName("Wire bytes and decode time: Text vs binary, with and without compression")
+    void compression() throws IOException {
+        List<FeedMessage> capture = loadCapture();
+        double captureSeconds = Math.max(1, capture.get(capture.size() - 1).timestamp - capture.get(0).timestamp) / 1e3;
+
+        int[] connectionTypes = {
+                BinaryFrameCodec.TEXT_CONNECTION,
+                BinaryFrameCodec.TEXT_CONNECTION | BinaryFrameCodec.DEFLATE,
+                BinaryFrameCodec.BINARY_CONNECTION,
+                BinaryFrameCodec.BINARY_CONNECTION | BinaryFrameCodec.DEFLATE
+        };
+        for (int connectionType : connectionTypes) {
+            byte[] stream = encode(capture, connectionType);
+            ByteArrayOutputStream acknowledged = new ByteArrayOutputStream();
+            if (BinaryFrameCodec.isAcknowledged(connectionType)) { acknowledged.write(BinaryFrameCodec.VERSION); }
+            acknowledged.write(stream);
+            byte[] received = acknowledged.toByteArray();
+
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int messages = receive(received, connectionType);
+                best = Math.min(best, System.nanoTime() - start);
+                assertEquals(capture.size(), messages);
+            }
+
+            System.out.printf("%-6s %-7s: %,11d bytes, %5.1f bytes/msg, %,9.0f bytes/s, decoded in %5.0f ns/msg%n",
+                    BinaryFrameCodec.isBinary(connectionType) ? "binary" : "text",
+                    BinaryFrameCodec.isDeflated(connectionType) ? "deflate" : "",
+                    stream.length, (double) stream.length / capture.size(), stream.length / captureSeconds,
+                    (double) best / capture.size());
+        }
+    }
+
+
+    private static List<FeedMessage> loadCapture() throws IOException {
+        ArrayList<FeedMessage> capture = new ArrayList<>();
+        String path = System.getProperty("capture");
+        if (path != null) {
+            for (String line : Files.readAllLines(Path.of(path), StandardCharsets.US_ASCII)) {
+                FeedMessage message = new FeedMessage();
+                if (message.parse(line.trim())) { capture.add(message); }
+            }
+            return capture;
+        }
+
+        // Like the real feed, a few areas and addresses are far busier than the rest, most messages are S-Class
+        // and messages arrive in small bursts
+        Random random = new Random(42);
+        long timestamp = 1_700_000_000_000L;
+        while (capture.size() < SYNTHETIC_MESSAGES) {
+            timestamp += random.nextInt(200);
+            int burst = 1 + random.nextInt(8);
+            int area = FeedMessage.packCode("" + (char) ('A' + (int) (26 * Math.pow(random.nextDouble(), 3))) + 'A');
+            for (int i = 0; i < burst; i++) {
+                FeedMessage message = new FeedMessage();
+                message.timestamp = timestamp;
+                message.area = area;
+                if (random.nextInt(10) == 0) {
+                    message.type = FeedMessage.C_CLASS;
+                    message.fromBerth = FeedMessage.packCode(String.format("%04d", random.nextInt(400)));
+                    message.toBerth = FeedMessage.packCode(String.format("%04d", random.nextInt(400)));
+                    message.describer = FeedMessage.packCode("" + random.nextInt(10) + (char) ('A' + random.nextInt(26))
+                            + String.format("%02d", random.nextInt(100)));
+                } else {
+                    message.type = FeedMessage.S_CLASS;
+                    message.address = (int) (64 * Math.pow(random.nextDouble(), 2));
+                    message.data = random.nextInt(256);
+                }
+                capture.add(message);
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * @return Everything the data server sends to a client of the connection type, after its acknowledgement
+     */
+    private static byte[] encode(List<FeedMessage> capture, int connectionType) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = BinaryFrameCodec.isDeflated(connectionType)
+                ? new DeflaterOutputStream(stream, true)
+                : null;
+        ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+
+        int i = 0;
+        while (i < capture.size()) {
+            long timestamp = capture.get(i).timestamp;
+            int area = capture.get(i).area;
+            batch.clear();
+            int header = BinaryFrameCodec.beginEnvelope(batch, area);
+            for (; i < capture.size() && capture.get(i).timestamp == timestamp && capture.get(i).area == area; i++) {
+                if (BinaryFrameCodec.isBinary(connectionType)) {
+                    BinaryFrameCodec.encode(capture.get(i), batch);
+                } else {
+                    batch.put((capture.get(i) + "\n").getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+            if (BinaryFrameCodec.isBinary(connectionType)) {
+                BinaryFrameCodec.endEnvelope(batch, header);
+                batch.flip();
+            } else {
+                batch.flip().position(BinaryFrameCodec.ENVELOPE_HEADER_LENGTH);
+            }
+
+            if (deflater == null) {
+                stream.write(batch.array(), batch.position(), batch.remaining());
+            } else {
+                deflater.write(batch.array(), batch.position(), batch.remaining());
+                deflater.flush();
+            }
+        }
+
+        if (deflater != null) { deflater.finish(); }
+        return stream.toByteArray();
+    }
+
+    /**
+     * @return The number of messages a client of the connection type receives from the stream
+     */
+    private static int receive(byte[] stream, int connectionType) throws IOException {
+        Socket socket = mock(Socket.class);
+        when(socket.getInputStream()).thenReturn(new ByteArrayInputStream(stream));
+        when(socket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        DataServerNRClient client = new DataServerNRClient(socket, connectionType);
+
+        FeedMessage message = new FeedMessage();
+        int received = 0;
+        try {
+            while (true) {
+                client.pollNREvent(message);
+                received++;
+            }
+        } catch (NRFeedException endOfStream) {
+            return received;
+        }
+    }
+}
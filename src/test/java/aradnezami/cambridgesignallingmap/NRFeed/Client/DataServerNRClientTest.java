@@ -11,10 +11,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class DataServerNRClientTest {
@@ -50,6 +53,113 @@ class DataServerNRClientTest {
         assertEquals(expected, client.pollNREvent());
     }
 
+    @DisplayName("pollNREvent(FeedMessage): Messages parsed from the stream")
+    @Test
+    void pollNREvent3() throws IOException {
+        StringBuilder stream = new StringBuilder("C,1,0193,0195,1K76\r\n");
+        for (int i = 0; i < 2000; i++) { // More than fits in the buffer
+            stream.append("S,").append(i).append(",A4,5D\n");
+        }
+        inputStream = new ByteArrayInputStream(stream.toString().getBytes());
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(outputStream);
+        client = new DataServerNRClient(socket);
+
+        FeedMessage message = new FeedMessage();
+        client.pollNREvent(message);
+        assertEquals(FeedMessage.C_CLASS, message.type);
+        assertEquals("1K76", FeedMessage.unpackCode(message.describer));
+
+        for (int i = 0; i < 1999; i++) {
+            client.pollNREvent(message);
+            assertEquals(i, message.timestamp);
+            assertEquals(0xA4, message.address);
+        }
+        assertEquals("S,1999,A4,5D", client.pollNREvent()); // Both methods read the same stream
+        assertThrows(NRFeedException.class, () -> client.pollNREvent(message)); // End of stream
+    }
+
+    @DisplayName("pollNREvent(): Binary protocol")
+    @Test
+    void pollNREvent4() throws IOException {
+        ByteBuffer stream = ByteBuffer.allocate(1024).put((byte) BinaryFrameCodec.VERSION);
+        FeedMessage message = new FeedMessage();
+        message.parse("S,1234,A4,5D");
+        BinaryFrameCodec.encode(message, stream);
+        message.parse("C,1,0193,0195,1K76");
+        BinaryFrameCodec.encode(message, stream);
+        stream.flip();
+
+        inputStream = new ByteArrayInputStream(stream.array(), 0, stream.limit());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(written);
+        client = new DataServerNRClient(socket, BinaryFrameCodec.BINARY_CONNECTION);
+
+        assertArrayEquals(new byte[]{BinaryFrameCodec.BINARY_CONNECTION}, written.toByteArray());
+        assertTrue(client.isMessageReady());
+        client.pollNREvent(message);
+        assertEquals(0xA4, message.address);
+        assertEquals("C,1,0193,0195,1K76", client.pollNREvent());
+        assertThrows(NRFeedException.class, () -> client.pollNREvent(message)); // End of stream
+    }
+
+    @DisplayName("pollNREvent(): Compressed stream inflated per flushed batch")
+    @Test
+    void pollNREvent5() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(BinaryFrameCodec.VERSION);
+        DeflaterOutputStream deflater = new DeflaterOutputStream(stream, true);
+        deflater.write("S,1,A4,5D\nS,2,A4,5E\n".getBytes());
+        deflater.flush(); // Sync flush ends the first batch
+        int firstBatchEnd = stream.size();
+        deflater.write("S,3,A4,5F\n".getBytes());
+        deflater.finish();
+
+        inputStream = new ByteArrayInputStream(stream.toByteArray(), 0, firstBatchEnd);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(written);
+        client = new DataServerNRClient(socket, BinaryFrameCodec.TEXT_CONNECTION | BinaryFrameCodec.DEFLATE);
+
+        assertArrayEquals(new byte[]{BinaryFrameCodec.TEXT_CONNECTION | BinaryFrameCodec.DEFLATE}, written.toByteArray());
+        assertTrue(client.isMessageReady()); // The whole first batch inflates without the second
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        assertEquals("S,2,A4,5E", client.pollNREvent());
+        assertFalse(client.isMessageReady());
+    }
+
+    @DisplayName("DataServerNRClient(): Binary protocol not acknowledged")
+    @Test
+    void constructor() throws IOException {
+        inputStream = new ByteArrayInputStream("S,1,A4,5D\n".getBytes()); // An old data server sending text
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(outputStream);
+
+        assertThrows(NRFeedException.class, () -> new DataServerNRClient(socket, BinaryFrameCodec.BINARY_CONNECTION));
+    }
+
+    @DisplayName("DataServerNRClient(): Resuming rejected before anything is written")
+    @Test
+    void constructor2() {
+        assertThrows(IllegalArgumentException.class, () -> new DataServerNRClient(socket,
+                BinaryFrameCodec.BINARY_CONNECTION | BinaryFrameCodec.RESUME));
+        verifyNoInteractions(socket);
+    }
+
+    @DisplayName("isMessageReady(): Only whole received lines ready")
+    @Test
+    void isMessageReady() throws IOException {
+        inputStream = new ByteArrayInputStream("S,1,A4,5D\nS,2,A4".getBytes());
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(outputStream);
+        client = new DataServerNRClient(socket);
+
+        assertTrue(client.isMessageReady());
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        assertFalse(client.isMessageReady()); // Second line is incomplete
+    }
+
     @DisplayName("pollNREvent(): IOException")
     @Test
     void pollNREvent2() {
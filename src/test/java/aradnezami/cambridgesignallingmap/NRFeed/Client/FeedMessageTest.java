@@ -0,0 +1,123 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FeedMessageTest {
+    private final FeedMessage message = new FeedMessage();
+
+
+    @Test
+    @DisplayName("parse(): S-Class message")
+    void parse1() {
+        assertTrue(message.parse("S,1234567890123,A4,5d"));
+
+        assertEquals(FeedMessage.S_CLASS, message.type);
+        assertEquals(1234567890123L, message.timestamp);
+        assertEquals(0xA4, message.address);
+        assertEquals(0x5D, message.data);
+        assertEquals(FeedMessage.NO_AREA, message.area);
+    }
+
+    @Test
+    @DisplayName("parse(): C-Class message with area")
+    void parse2() {
+        assertTrue(message.parse("C,-1,NONE,0195,1K76,EA"));
+
+        assertEquals(FeedMessage.C_CLASS, message.type);
+        assertEquals(-1L, message.timestamp);
+        assertEquals("NONE", FeedMessage.unpackCode(message.fromBerth));
+        assertEquals("0195", FeedMessage.unpackCode(message.toBerth));
+        assertEquals("1K76", FeedMessage.unpackCode(message.describer));
+        assertEquals(FeedMessage.packCode("EA"), message.area);
+    }
+
+    @Test
+    @DisplayName("parse(): Refresh markers")
+    void parse3() {
+        assertTrue(message.parse("R,12,START"));
+        assertEquals(FeedMessage.REFRESH, message.type);
+        assertEquals(FeedMessage.REFRESH_START, message.refreshMarker);
+
+        assertTrue(message.parse("R,13,END,CA"));
+        assertEquals(FeedMessage.REFRESH_END, message.refreshMarker);
+        assertEquals(FeedMessage.packCode("CA"), message.area);
+    }
+
+    @Test
+    @DisplayName("parse(): Only the bytes between position and limit parsed")
+    void parse4() {
+        ByteBuffer buffer = ByteBuffer.wrap("xxS,1,0A,FF\nS,2,0B,00".getBytes(StandardCharsets.US_ASCII));
+        buffer.position(2).limit(11);
+
+        assertTrue(message.parse(buffer));
+        assertEquals(1L, message.timestamp);
+        assertEquals(0x0A, message.address);
+        assertEquals(0xFF, message.data);
+        assertEquals(2, buffer.position());
+        assertEquals(11, buffer.limit());
+    }
+
+    @Test
+    @DisplayName("toString(): Parses back into the same message")
+    void toString1() {
+        for (String text : new String[]{"S,1,0A,FF", "S,-1,00,01,EA", "C,2,NONE,0195,1K76", "R,3,START,CA", "R,4,END", "R,5,RESET", "H,6", "H,7,CA"}) {
+            assertTrue(message.parse(text));
+            assertEquals(text, message.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("parse(): Malformed messages")
+    void parse5() {
+        assertFalse(message.parse(""));
+        assertFalse(message.parse("S,1,0A"));
+        assertFalse(message.parse("S,x,0A,00"));
+        assertFalse(message.parse("S,1,0G,00"));
+        assertFalse(message.parse("S,1,100,00"));
+        assertFalse(message.parse("C,1,ABCDE,0195,1K76"));
+        assertFalse(message.parse("R,1,MIDDLE"));
+        assertFalse(message.parse("R,1"));
+        assertFalse(message.parse("H"));
+        assertFalse(message.parse("S,1,0A,00,AREAS"));
+    }
+
+    @Test
+    @DisplayName("parse(): Parsing from bytes allocates nothing")
+    void parseAllocation() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        ByteBuffer s = ByteBuffer.wrap("S,1700000000000,A4,5D,CA".getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer c = ByteBuffer.wrap("C,1700000000000,0193,0195,1K76".getBytes(StandardCharsets.US_ASCII));
+        final int messages = 1_000_000;
+        parseMessages(s, c, messages); // Warm up
+
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        parseMessages(s, c, messages);
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(0, allocated / messages, "Allocated " + allocated + " bytes over " + messages + " messages");
+    }
+
+    private void parseMessages(ByteBuffer s, ByteBuffer c, int messages) {
+        for (int i = 0; i < messages; i++) {
+            assertTrue(message.parse((i % 2 == 0) ? s : c));
+        }
+    }
+
+    @Test
+    @DisplayName("packCode(): Packed codes unpack to themselves")
+    void packCode() {
+        assertEquals("1K76", FeedMessage.unpackCode(FeedMessage.packCode("1K76")));
+        assertEquals("CA", FeedMessage.unpackCode(FeedMessage.packCode("CA")));
+        assertThrows(IllegalArgumentException.class, () -> FeedMessage.packCode("NONE1"));
+    }
+}
@@ -0,0 +1,333 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioDataServerNRClientTest {
+    private ServerSocketChannel server;
+
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Connects a channel to the stand-in data server and accepts it
+     * @return The connected pair: the client's channel and the server's channel
+     */
+    private SocketChannel[] connect() throws IOException {
+        SocketChannel clientChannel = SocketChannel.open(server.getLocalAddress());
+        return new SocketChannel[]{clientChannel, server.accept()};
+    }
+
+    private static void send(SocketChannel channel, String data) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) { channel.write(bytes); }
+    }
+
+
+    @DisplayName("pollNREvent(): Messages split across writes")
+    @Test
+    void pollNREvent1() throws IOException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], NioDataServerNRClient.NO_TIMEOUT);
+
+        ByteBuffer connectionType = ByteBuffer.allocate(1);
+        channels[1].read(connectionType);
+        assertEquals(1, connectionType.get(0));
+
+        send(channels[1], "S,1234,A4,");
+        send(channels[1], "5D\r\nC,1,0193,0195,1K76\n");
+        assertEquals("S,1234,A4,5D", client.pollNREvent());
+        assertEquals("C,1,0193,0195,1K76", client.pollNREvent());
+
+        client.disconnect();
+        channels[1].close();
+    }
+
+    @DisplayName("pollNREvent(FeedMessage): More messages than fit in the buffer")
+    @Test
+    void pollNREvent2() throws IOException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], NioDataServerNRClient.NO_TIMEOUT);
+
+        StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            stream.append("S,").append(i).append(",A4,5D\n");
+        }
+        send(channels[1], stream.toString());
+        channels[1].close();
+
+        FeedMessage message = new FeedMessage();
+        for (int i = 0; i < 2000; i++) {
+            client.pollNREvent(message);
+            assertEquals(i, message.timestamp);
+            assertEquals(0xA4, message.address);
+        }
+        assertThrows(NRFeedException.class, () -> client.pollNREvent(message)); // Server closed the connection
+        assertFalse(client.isAlive());
+    }
+
+    @DisplayName("pollNREvent(FeedMessage): Binary protocol")
+    @Test
+    void pollNREvent5() throws IOException {
+        SocketChannel clientChannel = SocketChannel.open(server.getLocalAddress());
+        SocketChannel serverChannel = server.accept();
+        send(serverChannel, String.valueOf((char) BinaryFrameCodec.VERSION)); // Acknowledged before it is asked
+        NioDataServerNRClient client = new NioDataServerNRClient(clientChannel, null,
+                NioDataServerNRClient.NO_TIMEOUT, BinaryFrameCodec.BINARY_CONNECTION);
+
+        ByteBuffer connectionType = ByteBuffer.allocate(1);
+        serverChannel.read(connectionType);
+        assertEquals(BinaryFrameCodec.BINARY_CONNECTION, connectionType.get(0));
+
+        ByteBuffer frames = ByteBuffer.allocate(64 * 1024);
+        int header = BinaryFrameCodec.beginEnvelope(frames, FeedMessage.packCode("CA"));
+        FeedMessage message = new FeedMessage();
+        for (int i = 0; i < 2000; i++) {
+            message.parse("S," + i + ",A4,5D");
+            BinaryFrameCodec.encode(message, frames);
+        }
+        BinaryFrameCodec.endEnvelope(frames, header);
+        frames.flip();
+        while (frames.hasRemaining()) { serverChannel.write(frames); }
+
+        for (int i = 0; i < 2000; i++) {
+            client.pollNREvent(message);
+            assertEquals(i, message.timestamp);
+            assertEquals(FeedMessage.packCode("CA"), message.area);
+        }
+
+        client.disconnect();
+        serverChannel.close();
+    }
+
+    @DisplayName("pollNREvent(FeedMessage): Compressed binary protocol read by a reactor")
+    @Test
+    void pollNREvent6() throws IOException {
+        try (NioReactor reactor = new NioReactor()) {
+            SocketChannel clientChannel = SocketChannel.open(server.getLocalAddress());
+            SocketChannel serverChannel = server.accept();
+            send(serverChannel, String.valueOf((char) BinaryFrameCodec.VERSION));
+            NioDataServerNRClient client = new NioDataServerNRClient(clientChannel, reactor, 5000L,
+                    BinaryFrameCodec.BINARY_CONNECTION | BinaryFrameCodec.DEFLATE);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            DeflaterOutputStream deflater = new DeflaterOutputStream(compressed, true);
+            ByteBuffer frames = ByteBuffer.allocate(BinaryFrameCodec.S_FRAME_LENGTH);
+            FeedMessage message = new FeedMessage();
+            for (int batch = 0; batch < 200; batch++) {
+                for (int i = 0; i < 100; i++) {
+                    message.parse("S," + (batch * 100 + i) + ",A4,5D");
+                    BinaryFrameCodec.encode(message, frames.clear());
+                    deflater.write(frames.array());
+                }
+                deflater.flush();
+                serverChannel.write(ByteBuffer.wrap(compressed.toByteArray()));
+                compressed.reset();
+
+                for (int i = 0; i < 100; i++) { // Every message of the batch is received before the next is sent
+                    client.pollNREvent(message);
+                    assertEquals(batch * 100 + i, message.timestamp);
+                }
+            }
+
+            client.disconnect();
+            serverChannel.close();
+        }
+    }
+
+    @DisplayName("isResumed(): Resume handshake")
+    @Test
+    void isResumed() throws IOException {
+        for (int status : new int[]{BinaryFrameCodec.RESUMED, BinaryFrameCodec.NOT_RESUMED}) {
+            SocketChannel clientChannel = SocketChannel.open(server.getLocalAddress());
+            SocketChannel serverChannel = server.accept();
+            send(serverChannel, "" + (char) BinaryFrameCodec.VERSION + (char) status);
+            NioDataServerNRClient client = new NioDataServerNRClient(clientChannel, null,
+                    NioDataServerNRClient.NO_TIMEOUT, BinaryFrameCodec.TEXT_CONNECTION, 1234L);
+
+            ByteBuffer handshake = ByteBuffer.allocate(1 + Long.BYTES);
+            while (handshake.hasRemaining()) { serverChannel.read(handshake); }
+            assertEquals(BinaryFrameCodec.TEXT_CONNECTION | BinaryFrameCodec.RESUME, handshake.get(0));
+            assertEquals(1234L, handshake.getLong(1));
+            assertEquals(status == BinaryFrameCodec.RESUMED, client.isResumed());
+
+            send(serverChannel, "S,1235,A4,5D\n");
+            assertEquals("S,1235,A4,5D", client.pollNREvent());
+
+            client.disconnect();
+            serverChannel.close();
+        }
+    }
+
+    @DisplayName("NioDataServerNRClient(): Unacknowledged handshake times out")
+    @Test
+    void handshakeTimeout() throws IOException {
+        SocketChannel[] channels = connect(); // The server accepts, but never acknowledges
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertThrows(NRFeedException.class,
+                () -> new NioDataServerNRClient(channels[0], null, 200, BinaryFrameCodec.BINARY_CONNECTION)));
+        assertFalse(channels[0].isOpen());
+        channels[1].close();
+    }
+
+    @DisplayName("pollNREvent(): Read timeout")
+    @Test
+    void pollNREvent3() throws IOException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], 50L);
+
+        assertThrows(NRFeedException.class, client::pollNREvent);
+        assertFalse(client.isAlive());
+        channels[1].close();
+    }
+
+    @DisplayName("isMessageReady(): Only whole received lines ready")
+    @Test
+    void isMessageReady() throws IOException, InterruptedException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], NioDataServerNRClient.NO_TIMEOUT);
+
+        assertFalse(client.isMessageReady());
+        send(channels[1], "S,1,A4,5D\nS,2,A4");
+        for (int i = 0; i < 100 && !client.isMessageReady(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(client.isMessageReady());
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        assertFalse(client.isMessageReady()); // Second line is incomplete
+
+        client.disconnect();
+        channels[1].close();
+    }
+
+    @DisplayName("disconnect(): Waiting poll woken immediately")
+    @Test
+    void disconnect() throws IOException, InterruptedException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], NioDataServerNRClient.NO_TIMEOUT);
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        client.disconnect();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        assertFalse(client.isAlive());
+        channels[1].close();
+    }
+
+    @DisplayName("pollNREvent(): Interrupting the poller")
+    @Test
+    void pollNREvent4() throws IOException, InterruptedException {
+        SocketChannel[] channels = connect();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], NioDataServerNRClient.NO_TIMEOUT);
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        poller.interrupt();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        client.disconnect();
+        channels[1].close();
+    }
+
+
+    @DisplayName("NioReactor: One thread serves several connections")
+    @Test
+    void reactor1() throws IOException {
+        try (NioReactor reactor = new NioReactor()) {
+            SocketChannel[] first = connect();
+            SocketChannel[] second = connect();
+            NioDataServerNRClient firstClient = new NioDataServerNRClient(first[0], reactor, 5000L);
+            NioDataServerNRClient secondClient = new NioDataServerNRClient(second[0], reactor, 5000L);
+
+            send(second[1], "S,2,A4,");
+            send(first[1], "S,1,A4,5D\n");
+            send(second[1], "5D\n");
+
+            assertEquals("S,1,A4,5D", firstClient.pollNREvent());
+            assertEquals("S,2,A4,5D", secondClient.pollNREvent());
+
+            second[1].close();
+            assertThrows(NRFeedException.class, secondClient::pollNREvent);
+
+            send(first[1], "S,3,A4,5D\n"); // Other connections unaffected
+            assertEquals("S,3,A4,5D", firstClient.pollNREvent());
+
+            firstClient.disconnect();
+            first[1].close();
+        }
+    }
+
+    @DisplayName("NioReactor: Closing the reactor fails its clients")
+    @Test
+    void reactor2() throws IOException, InterruptedException {
+        SocketChannel[] channels = connect();
+        NioReactor reactor = new NioReactor();
+        NioDataServerNRClient client = new NioDataServerNRClient(channels[0], reactor, NioDataServerNRClient.NO_TIMEOUT);
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        reactor.close();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        client.disconnect();
+        channels[1].close();
+    }
+}
@@ -0,0 +1,196 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedundantNRClientTest {
+    private static final String LOST = "LOST";
+
+
+    /**
+     * Stand-in source which returns the messages sent to it, and dies once sent {@link #LOST}
+     */
+    private static class StubSource implements NRFeedClient {
+        private final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        private volatile boolean isAlive = true;
+
+        void send(String... messages) {
+            this.messages.addAll(List.of(messages));
+        }
+
+        @Override
+        public @NotNull String pollNREvent() throws NRFeedException {
+            String message;
+            try {
+                message = isAlive ? messages.take() : LOST;
+            } catch (InterruptedException e) {
+                message = LOST;
+            }
+            if (message.equals(LOST)) {
+                isAlive = false;
+                throw new NRFeedException("Connection lost", "Connection lost");
+            }
+            return message;
+        }
+
+        @Override
+        public void disconnect() {
+            isAlive = false;
+            messages.add(LOST);
+        }
+
+        @Override
+        public boolean isAlive() {
+            return isAlive;
+        }
+    }
+
+
+    @Test
+    @DisplayName("pollNREvent(): Copies from the slower source dropped")
+    void pollNREvent1() {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        first.send("S,1,A4,5D");
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        second.send("S,1,A4,5D,CA", "C,2,0193,0195,1K76");
+        assertEquals("C,2,0193,0195,1K76", client.pollNREvent());
+        first.send("C,2,0193,0195,1K76", "S,3,A4,5D");
+        assertEquals("S,3,A4,5D", client.pollNREvent());
+
+        RedundantNRClient.SourceStats firstStats = client.stats(0);
+        RedundantNRClient.SourceStats secondStats = client.stats(1);
+        assertEquals(3, firstStats.received());
+        assertEquals(2, firstStats.wins());
+        assertEquals(2, secondStats.received());
+        assertEquals(1, secondStats.wins());
+        assertEquals(0.5, secondStats.winRate());
+        assertTrue(secondStats.maxLagNanos() > 0);
+
+        client.disconnect();
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Alive until the last source dies")
+    void pollNREvent2() throws InterruptedException {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        first.send(LOST);
+        second.send("S,1,A4,5D");
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        while (client.liveSources() > 1) {
+            Thread.sleep(1);
+        }
+        assertTrue(client.isAlive());
+        assertFalse(client.stats(0).isAlive());
+
+        second.send(LOST);
+        NRFeedException e = assertThrows(NRFeedException.class, client::pollNREvent);
+        assertEquals("Connection lost", e.displayMessage);
+        assertFalse(client.isAlive());
+        assertThrows(NRFeedException.class, client::pollNREvent);
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Reset markers dropped while another source received the messages lost")
+    void pollNREvent3() throws InterruptedException {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        second.send("S,1,A4,5D");
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        first.send("R,1,RESET", "S,2,A4,5D");
+        assertEquals("S,2,A4,5D", client.pollNREvent());
+        second.send("S,2,A4,5D"); // Received by both, so the sources are in step again
+        while (client.stats(1).received() < 2) {
+            Thread.sleep(1);
+        }
+
+        second.send(LOST);
+        while (client.liveSources() > 1) {
+            Thread.sleep(1);
+        }
+        first.send("R,3,RESET");
+        assertEquals("R,3,RESET", client.pollNREvent());
+
+        client.disconnect();
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Reset marker returned once every source has reset")
+    void pollNREvent4() {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        first.send("S,1,A4,5D");
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        second.send("S,1,A4,5D", "S,2,A4,5E"); // The second source is cut off just after the first
+        assertEquals("S,2,A4,5E", client.pollNREvent());
+
+        first.send("R,3,RESET", "S,4,A4,5F"); // Dropped, as the second source received messages after the gap
+        assertEquals("S,4,A4,5F", client.pollNREvent());
+        second.send("R,5,RESET");
+        assertEquals("R,5,RESET", client.pollNREvent());
+
+        client.disconnect();
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Pending reset marker returned when the source covering it dies")
+    void pollNREvent5() {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        second.send("S,1,A4,5D");
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        first.send("R,2,RESET", "S,3,A4,5E");
+        assertEquals("S,3,A4,5E", client.pollNREvent());
+
+        second.send(LOST);
+        assertEquals("R,2,RESET", client.pollNREvent());
+
+        client.disconnect();
+    }
+
+    @Test
+    @DisplayName("disconnect(): Waiting poll woken immediately")
+    void disconnect() throws InterruptedException {
+        StubSource first = new StubSource();
+        StubSource second = new StubSource();
+        RedundantNRClient client = new RedundantNRClient(List.of(first, second));
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        client.disconnect();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        assertFalse(client.isAlive());
+        assertFalse(first.isAlive());
+        assertFalse(second.isAlive());
+    }
+}
@@ -0,0 +1,123 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayNRClientTest {
+    @TempDir
+    Path directory;
+
+
+    private Path textCapture(String... lines) throws IOException {
+        return Files.writeString(directory.resolve("capture.txt"), String.join("\n", lines));
+    }
+
+
+    @Test
+    @DisplayName("pollNREvent(): Text capture replayed as fast as possible")
+    void pollNREvent1() throws IOException {
+        Path capture = textCapture("S,1000,A4,5D", "", "C,1500,0193,0195,1K76,EA\r", "R,2000,RESET");
+        ReplayNRClient client = new ReplayNRClient(capture, ReplayNRClient.AS_FAST_AS_POSSIBLE);
+
+        assertEquals(1000, client.currentTimeMillis());
+        assertTrue(client.isMessageReady());
+        assertEquals("S,1000,A4,5D", client.pollNREvent());
+        assertEquals("C,1500,0193,0195,1K76,EA", client.pollNREvent());
+        assertEquals(1500, client.currentTimeMillis());
+        assertEquals("R,2000,RESET", client.pollNREvent());
+        assertFalse(client.isMessageReady());
+
+        NRFeedException e = assertThrows(NRFeedException.class, client::pollNREvent);
+        assertEquals("The replay reached the end of the capture", e.displayMessage);
+        assertFalse(client.isAlive());
+        assertEquals(2000, client.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Malformed line skipped")
+    void pollNREvent2() throws IOException {
+        Path capture = textCapture("S,1000,A4,5D", "S,X,A4", "S,1001,A4,5E");
+        ReplayNRClient client = new ReplayNRClient(capture, ReplayNRClient.AS_FAST_AS_POSSIBLE);
+
+        assertEquals("S,1000,A4,5D", client.pollNREvent());
+        assertThrows(NRFeedException.class, client::pollNREvent);
+        assertTrue(client.isAlive());
+        assertEquals("S,1001,A4,5E", client.pollNREvent());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Binary capture replayed")
+    void pollNREvent3() throws IOException {
+        FeedMessage message = new FeedMessage();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        message.parse("S,1000,A4,5D");
+        BinaryFrameCodec.encode(message, buffer);
+        int header = BinaryFrameCodec.beginEnvelope(buffer, FeedMessage.packCode("EA"));
+        message.parse("C,1001,0193,0195,1K76");
+        BinaryFrameCodec.encode(message, buffer);
+        BinaryFrameCodec.endEnvelope(buffer, header);
+        buffer.put(BinaryFrameCodec.S_FRAME); // Cut short by the end of the recording
+
+        Path capture = Files.write(directory.resolve("capture" + ReplayNRClient.BINARY_EXTENSION),
+                Arrays.copyOf(buffer.array(), buffer.position()));
+        ReplayNRClient client = new ReplayNRClient(capture, ReplayNRClient.AS_FAST_AS_POSSIBLE);
+
+        assertEquals("S,1000,A4,5D", client.pollNREvent());
+        assertEquals("C,1001,0193,0195,1K76,EA", client.pollNREvent());
+        assertThrows(NRFeedException.class, client::pollNREvent);
+        assertFalse(client.isAlive());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Messages paced by the virtual clock")
+    void pollNREvent4() throws IOException {
+        Path capture = textCapture("S,1000,A4,5D", "S,1000,A4,5E", "S,2000,A4,5F");
+        ReplayNRClient client = new ReplayNRClient(capture, 10); // 1 second of capture every 100ms
+
+        long start = System.nanoTime();
+        client.pollNREvent();
+        client.pollNREvent();
+        assertFalse(client.isMessageReady());
+        assertTrue(client.currentTimeMillis() < 2000);
+
+        assertEquals("S,2000,A4,5F", client.pollNREvent());
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertTrue(client.currentTimeMillis() >= 2000);
+    }
+
+    @Test
+    @DisplayName("disconnect(): Waiting poll woken immediately")
+    void disconnect() throws IOException, InterruptedException {
+        Path capture = textCapture("S,1000,A4,5D", "S,100000,A4,5E");
+        ReplayNRClient client = new ReplayNRClient(capture, ReplayNRClient.REAL_TIME);
+        client.pollNREvent();
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        client.disconnect();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        assertFalse(client.isAlive());
+    }
+}
@@ -0,0 +1,199 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumingNRClientTest {
+    private static final ReconnectPolicy NO_DELAY = new ReconnectPolicy(0L, 0L, 3);
+
+
+    /**
+     * Stand-in connection which returns its messages and then dies as if the connection was lost
+     */
+    private static class StubClient implements NRFeedClient {
+        private final ArrayDeque<String> messages;
+        private final boolean isResumed;
+        private volatile boolean isAlive = true;
+
+        StubClient(boolean isResumed, String... messages) {
+            this.messages = new ArrayDeque<>(Arrays.asList(messages));
+            this.isResumed = isResumed;
+        }
+
+        @Override
+        public @NotNull String pollNREvent() throws NRFeedException {
+            if (!isAlive || messages.isEmpty()) {
+                isAlive = false;
+                throw new NRFeedException("Connection lost", "Connection lost");
+            }
+            return messages.poll();
+        }
+
+        @Override
+        public boolean isMessageReady() {
+            return isAlive && !messages.isEmpty();
+        }
+
+        @Override
+        public boolean isResumed() {
+            return isResumed;
+        }
+
+        @Override
+        public void disconnect() {
+            isAlive = false;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return isAlive;
+        }
+    }
+
+    /**
+     * Stand-in connector which returns each of the clients in turn, failing once they run out
+     */
+    private static class StubConnector implements ResumingNRClient.Connector {
+        private final ArrayDeque<NRFeedClient> clients;
+        final List<Long> resumedFrom = new ArrayList<>();
+
+        StubConnector(NRFeedClient... clients) {
+            this.clients = new ArrayDeque<>(Arrays.asList(clients));
+        }
+
+        @Override
+        public @NotNull NRFeedClient connect(long resumeFrom) throws NRFeedException {
+            resumedFrom.add(resumeFrom);
+            if (clients.isEmpty()) {
+                throw new NRFeedException("Connection refused", "Connection refused");
+            }
+            return clients.poll();
+        }
+    }
+
+
+    @Test
+    @DisplayName("pollNREvent(): Resumed connection continues the feed")
+    void pollNREvent1() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "S,1,A4,5D", "S,2,A4,5E"),
+                new StubClient(true, "S,3,A4,5F"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        assertEquals("S,2,A4,5E", client.pollNREvent());
+        assertEquals("S,3,A4,5F", client.pollNREvent());
+
+        assertEquals(List.of(ResumingNRClient.NO_TIMESTAMP, 2L), connector.resumedFrom);
+        assertEquals(1, client.reconnects());
+        assertTrue(client.isAlive());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Reset marker before a connection that could not resume")
+    void pollNREvent2() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "S,1,A4,5D", "S,2,A4,5E"),
+                new StubClient(false, "S,9,A4,5F"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        assertEquals("S,2,A4,5E", client.pollNREvent());
+        assertFalse(client.isMessageReady()); // Connection lost, so the next poll waits to reconnect
+        assertEquals("R,2,RESET", client.pollNREvent());
+        assertTrue(client.isMessageReady());
+        assertEquals("S,9,A4,5F", client.pollNREvent());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Reconnecting retried until the policy gives up")
+    void pollNREvent3() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "S,1,A4,5D"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertEquals("S,1,A4,5D", client.pollNREvent());
+        NRFeedException e = assertThrows(NRFeedException.class, client::pollNREvent);
+
+        assertEquals("Connection refused", e.displayMessage);
+        assertEquals(List.of(ResumingNRClient.NO_TIMESTAMP, 1L, 1L, 1L), connector.resumedFrom);
+        assertFalse(client.isAlive());
+        assertThrows(NRFeedException.class, client::pollNREvent);
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Malformed message thrown without reconnecting")
+    void pollNREvent4() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "S,1,XYZ,00", "S,2,A4,5D"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertThrows(NRFeedException.class, client::pollNREvent);
+        assertEquals("S,2,A4,5D", client.pollNREvent());
+        assertEquals(0, client.reconnects());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Messages with no timestamp or out of order don't move the resume point back")
+    void pollNREvent5() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "S,2,A4,5D", "R,-1,START", "S,1,A4,5E"),
+                new StubClient(false, "S,9,A4,5F"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertEquals("S,2,A4,5D", client.pollNREvent());
+        assertEquals("R,-1,START", client.pollNREvent());
+        assertEquals("S,1,A4,5E", client.pollNREvent());
+        assertEquals("R,2,RESET", client.pollNREvent());
+        assertEquals("S,9,A4,5F", client.pollNREvent());
+        assertEquals(List.of(ResumingNRClient.NO_TIMESTAMP, 2L), connector.resumedFrom);
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Reset marker after only messages with no timestamp")
+    void pollNREvent6() {
+        StubConnector connector = new StubConnector(
+                new StubClient(false, "R,-1,START"),
+                new StubClient(false, "S,9,A4,5F"));
+        ResumingNRClient client = new ResumingNRClient(connector, NO_DELAY);
+
+        assertEquals("R,-1,START", client.pollNREvent());
+        assertEquals("R,-1,RESET", client.pollNREvent());
+        assertEquals("S,9,A4,5F", client.pollNREvent());
+    }
+
+    @Test
+    @DisplayName("disconnect(): Waiting to reconnect cut short")
+    void disconnect() throws InterruptedException {
+        StubConnector connector = new StubConnector(new StubClient(false));
+        ResumingNRClient client = new ResumingNRClient(connector, new ReconnectPolicy(10_000L, 10_000L, 1));
+
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread poller = new Thread(() -> {
+            try {
+                client.pollNREvent();
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        poller.start();
+        Thread.sleep(50);
+
+        client.disconnect();
+        poller.join(1000L);
+
+        assertFalse(poller.isAlive());
+        assertInstanceOf(NRFeedException.class, thrown.get());
+        assertEquals(List.of(ResumingNRClient.NO_TIMESTAMP), connector.resumedFrom);
+        assertFalse(client.isAlive());
+    }
+}
@@ -0,0 +1,160 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StompNRClientTest {
+    private static final String SF_BODY = "[{\"SF_MSG\":{\"time\":\"1000\",\"area_id\":\"CA\",\"address\":\"0A\",\"msg_type\":\"SF\",\"data\":\"FF\"}}," +
+            "{\"SF_MSG\":{\"time\":\"1001\",\"area_id\":\"EA\",\"address\":\"0B\",\"msg_type\":\"SF\",\"data\":\"01\"}}," +
+            "{\"CA_MSG\":{\"to\":\"0195\",\"time\":\"1002\",\"area_id\":\"CA\",\"msg_type\":\"CA\",\"from\":\"0193\",\"descr\":\"1K76\"}}]";
+
+    private ServerSocket broker;
+    private Socket clientSocket;
+    private Socket brokerSocket;
+
+
+    @BeforeEach
+    void setUp() throws IOException {
+        broker = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        clientSocket = new Socket(InetAddress.getLoopbackAddress(), broker.getLocalPort());
+        brokerSocket = broker.accept();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        brokerSocket.close();
+        broker.close();
+    }
+
+    /**
+     * Sends a frame from the stand-in broker, in two writes to split it
+     */
+    private void send(String frame) throws IOException {
+        byte[] bytes = (frame + '\0').getBytes(StandardCharsets.UTF_8);
+        OutputStream out = brokerSocket.getOutputStream();
+        out.write(bytes, 0, bytes.length / 2);
+        out.flush();
+        out.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+        out.flush();
+    }
+
+    /**
+     * @return The next frame received by the stand-in broker, without heartbeats or its terminating null
+     */
+    private String receive() throws IOException {
+        InputStream in = brokerSocket.getInputStream();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != 0) {
+            if (b == -1) {throw new IOException("Closed");}
+            if (b == '\n' && frame.size() == 0) {continue;}
+            frame.write(b);
+        }
+        return frame.toString(StandardCharsets.UTF_8);
+    }
+
+
+    @Test
+    @DisplayName("pollNREvent(): Handshake and messages of the areas asked for")
+    void pollNREvent1() throws IOException {
+        send("CONNECTED\nversion:1.2\nheart-beat:0,0\n\n");
+        StompNRClient client = new StompNRClient(clientSocket, "user", "pass", null, Set.of("CA"));
+
+        String connect = receive();
+        assertTrue(connect.startsWith("CONNECT\n"));
+        assertTrue(connect.contains("\naccept-version:1.2\n"));
+        assertTrue(connect.contains("\nlogin:user\npasscode:pass\n"));
+        assertTrue(connect.contains("\nheart-beat:5000,5000\n"));
+        assertFalse(connect.contains("client-id"));
+        String subscribe = receive();
+        assertTrue(subscribe.contains("\ndestination:/topic/TD_ALL_SIG_AREA\n"));
+        assertTrue(subscribe.contains("\nack:auto\n"));
+
+        send("\n\nMESSAGE\nsubscription:1\nmessage-id:1\ndestination:/topic/TD_ALL_SIG_AREA\n\n" + SF_BODY);
+        byte[] body = SF_BODY.getBytes(StandardCharsets.UTF_8);
+        send("MESSAGE\ncontent-length:" + body.length + "\ndestination:/topic/TD_ALL_SIG_AREA\n\n" + SF_BODY);
+
+        assertEquals("S,1000,0A,FF,CA", client.pollNREvent());
+        assertTrue(client.isMessageReady());
+        assertEquals("C,1002,0193,0195,1K76,CA", client.pollNREvent());
+        assertFalse(client.isMessageReady());
+        assertEquals("S,1000,0A,FF,CA", client.pollNREvent());
+        assertFalse(client.isResumed());
+
+        client.disconnect();
+        assertEquals("DISCONNECT\n\n", receive());
+        assertFalse(client.isAlive());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Durable subscription acknowledges messages once returned")
+    void pollNREvent2() throws IOException {
+        send("CONNECTED\nversion:1.2\n\n");
+        StompNRClient client = new StompNRClient(clientSocket, "user", "pass", "host/topic/TD_ALL_SIG_AREA", Set.of("CA"));
+
+        assertTrue(receive().contains("\nclient-id:user\n"));
+        String subscribe = receive();
+        assertTrue(subscribe.contains("\nack:client-individual\n"));
+        assertTrue(subscribe.contains("\nactivemq.subscriptionName:host/topic/TD_ALL_SIG_AREA\n"));
+        assertTrue(client.isResumed());
+
+        send("MESSAGE\nack:first\\cmessage\nmessage-id:1\n\n" + SF_BODY);
+        send("MESSAGE\nack:second\nmessage-id:2\n\n" + SF_BODY);
+
+        assertEquals("S,1000,0A,FF,CA", client.pollNREvent());
+        assertEquals("C,1002,0193,0195,1K76,CA", client.pollNREvent());
+        assertEquals("S,1000,0A,FF,CA", client.pollNREvent()); // Acknowledges the first message
+
+        assertEquals("ACK\nid:first\\cmessage\n\n", receive());
+        client.disconnect();
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Error frame kills the client")
+    void pollNREvent3() throws IOException {
+        send("CONNECTED\nversion:1.2\n\n");
+        StompNRClient client = new StompNRClient(clientSocket, "user", "pass", null, null);
+
+        send("ERROR\nmessage:Subscription limit\n\n");
+        NRFeedException e = assertThrows(NRFeedException.class, client::pollNREvent);
+        assertTrue(e.displayMessage.contains("Subscription limit"));
+        assertFalse(client.isAlive());
+        assertThrows(NRFeedException.class, client::pollNREvent);
+    }
+
+    @Test
+    @DisplayName("StompNRClient(): Refused connection")
+    void constructor() throws IOException {
+        send("ERROR\nmessage:Bad credentials\n\n");
+
+        NRFeedException e = assertThrows(NRFeedException.class,
+                () -> new StompNRClient(clientSocket, "user", "wrong", null, null));
+        assertTrue(e.displayMessage.contains("Bad credentials"));
+        assertTrue(clientSocket.isClosed());
+    }
+
+    @Test
+    @DisplayName("pollNREvent(): Server closing the connection")
+    void pollNREvent4() throws IOException {
+        send("CONNECTED\nversion:1.2\n\n");
+        StompNRClient client = new StompNRClient(clientSocket, "user", "pass", null, null);
+
+        brokerSocket.close();
+        assertThrows(NRFeedException.class, client::pollNREvent);
+        assertFalse(client.isAlive());
+    }
+}
@@ -0,0 +1,86 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TdMessageParserTest {
+
+    private static List<String> parse(TdMessageParser parser, String body) {
+        byte[] bytes = ("xx" + body).getBytes(StandardCharsets.UTF_8);
+        parser.parse(bytes, 2, bytes.length - 2);
+
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < parser.size(); i++) {
+            messages.add(parser.message(i).toString());
+        }
+        return messages;
+    }
+
+
+    @Test
+    @DisplayName("parse(): Every message of a body")
+    void parse1() {
+        TdMessageParser parser = new TdMessageParser(null);
+        String body = "[{\"CA_MSG\":{\"to\":\"0195\",\"time\":\"1000\",\"area_id\":\"CA\",\"msg_type\":\"CA\",\"from\":\"0193\",\"descr\":\"1K76\"}}," +
+                "{\"CB_MSG\":{\"time\":\"1001\",\"area_id\":\"EA\",\"msg_type\":\"CB\",\"from\":\"0195\",\"descr\":\"1K76\"}}," +
+                "{\"CT_MSG\":{\"time\":\"1002\",\"area_id\":\"CA\",\"msg_type\":\"CT\",\"report_time\":\"1200\"}}," +
+                "{\"SF_MSG\":{\"time\":\"1003\",\"area_id\":\"CA\",\"address\":\"0A\",\"msg_type\":\"SF\",\"data\":\"FF\"}}]";
+
+        assertEquals(List.of("C,1000,0193,0195,1K76,CA", "C,1001,0195,NONE,1K76,EA", "H,1002,CA", "S,1003,0A,FF,CA"),
+                parse(parser, body));
+    }
+
+    @Test
+    @DisplayName("parse(): Refresh split into bytes and bracketed by markers")
+    void parse2() {
+        TdMessageParser parser = new TdMessageParser(Set.of("CA"));
+        String first = "[{\"SG_MSG\":{\"time\":\"1000\",\"area_id\":\"CA\",\"address\":\"00\",\"msg_type\":\"SG\",\"data\":\"01020304\"}}," +
+                "{\"SG_MSG\":{\"time\":\"1000\",\"area_id\":\"EA\",\"address\":\"00\",\"msg_type\":\"SG\",\"data\":\"01020304\"}}]";
+        String last = "[{\"SH_MSG\":{\"time\":\"1001\",\"area_id\":\"CA\",\"address\":\"FE\",\"msg_type\":\"SH\",\"data\":\"0A0B0000\"}}]";
+
+        assertEquals(List.of("R,1000,START,CA", "S,1000,00,01,CA", "S,1000,01,02,CA", "S,1000,02,03,CA", "S,1000,03,04,CA"),
+                parse(parser, first));
+        assertEquals(List.of("S,1001,FE,0A,CA", "S,1001,FF,0B,CA", "R,1001,END,CA"), // Addresses past FF are padding
+                parse(parser, last));
+    }
+
+    @Test
+    @DisplayName("parse(): Malformed bodies")
+    void parse3() {
+        TdMessageParser parser = new TdMessageParser(null);
+
+        assertThrows(NRFeedException.class, () -> parse(parser, "{}"));
+        assertThrows(NRFeedException.class, () -> parse(parser, "[{\"CA_MSG\":"));
+        assertThrows(NRFeedException.class, () -> parse(parser, "[{\"CA_MSG\":{\"time\":\"1\",\"area_id\":\"CA\",\"msg_type\":\"CT\"}},1]"));
+        assertEquals(0, parser.size());
+    }
+
+    @Test
+    @DisplayName("parse(): Malformed messages skipped without losing the rest of the body")
+    void parse4() {
+        TdMessageParser parser = new TdMessageParser(null);
+        String body = "[{\"SF_MSG\":{\"time\":\"1000\",\"area_id\":\"CA\",\"msg_type\":\"SF\",\"address\":\"XY\",\"data\":\"00\"}}," +
+                "{\"CA_MSG\":{\"area_id\":\"CA\",\"msg_type\":\"CA\"}}," +
+                "{\"SF_MSG\":{\"time\":\"1001\",\"area_id\":\"CA\",\"msg_type\":\"SF\",\"address\":\"0A\",\"data\":\"0000\"}}," +
+                "{\"CT_MSG\":{\"time\":\"1002\",\"area_id\":\"CA\",\"msg_type\":\"CT\"}}]";
+
+        assertEquals(List.of("H,1002,CA"), parse(parser, body));
+    }
+
+    @Test
+    @DisplayName("parse(): Messages of areas not asked for skipped before they are validated")
+    void parse5() {
+        TdMessageParser parser = new TdMessageParser(Set.of("CA"));
+        String body = "[{\"XX_MSG\":{\"time\":\"1000\",\"area_id\":\"EA\",\"msg_type\":\"XYZ\",\"descr\":\"TOOLONG\"}}," +
+                "{\"SF_MSG\":{\"time\":\"1001\",\"area_id\":\"CA\",\"address\":\"0A\",\"msg_type\":\"SF\",\"data\":\"FF\"}}]";
+
+        assertEquals(List.of("S,1001,0A,FF,CA"), parse(parser, body));
+    }
+}
@@ -0,0 +1,48 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Time to load the real map by compiling it and from its binary image. Only run with the
+ * {@code benchmark} profile: {@code mvn test -Pbenchmark}
+ */
+class DecodeTableBenchmark {
+    private static final String MAP_PATH = "SignallingEquipmentMap.csv";
+    private static final int LOADS = 2_000;
+
+    @TempDir
+    Path directory;
+
+
+    @Test
+    @DisplayName("Load time: Map compiled vs binary image")
+    void loadTime() throws FileNotFoundException {
+        DecodeTable compiled = DecodeTable.load(MAP_PATH, directory); // Writes the image
+
+        long compileNanos = 0, imageNanos = 0;
+        for (int round = 0; round < 2; round++) { // First round warms up
+            long start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                DecodeTable.load(MAP_PATH);
+            }
+            compileNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                DecodeTable.load(MAP_PATH, directory);
+            }
+            imageNanos = System.nanoTime() - start;
+        }
+
+        System.out.printf("DecodeTable: compiled in %,.1f us, loaded from image in %,.1f us%n",
+                compileNanos / 1e3 / LOADS, imageNanos / 1e3 / LOADS);
+        assertEquals(compiled.equipmentNames.length, DecodeTable.load(MAP_PATH, directory).equipmentNames.length);
+    }
+}
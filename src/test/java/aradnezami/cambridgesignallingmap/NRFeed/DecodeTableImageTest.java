@@ -0,0 +1,124 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecodeTableImageTest {
+    private static final String MAP_PATH = "TestSignallingEquipmentMap.csv";
+    private static final int PAYLOAD_OFFSET = 5 * Integer.BYTES; // After the header
+
+    @TempDir
+    Path directory;
+    private DecodeTable table;
+
+    @BeforeEach
+    void setUp() throws FileNotFoundException {
+        table = DecodeTable.load(MAP_PATH);
+    }
+
+
+    @Test
+    @DisplayName("read(): Image read back as the table it was written from")
+    void read1() throws IOException {
+        Path image = directory.resolve("map.bin");
+        DecodeTableImage.write(table, 1234, image);
+
+        assertTableEquals(table, DecodeTableImage.read(image, 1234));
+    }
+
+    @Test
+    @DisplayName("read(): Image of another map not used")
+    void read2() throws IOException {
+        Path image = directory.resolve("map.bin");
+        DecodeTableImage.write(table, 1234, image);
+
+        assertNull(DecodeTableImage.read(image, 4321));
+        assertNull(DecodeTableImage.read(directory.resolve("missing.bin"), 1234));
+    }
+
+    @Test
+    @DisplayName("read(): Corrupt or truncated image not used")
+    void read3() throws IOException {
+        Path image = directory.resolve("map.bin");
+        DecodeTableImage.write(table, 1234, image);
+        byte[] bytes = Files.readAllBytes(image);
+
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(image, bytes);
+        assertNull(DecodeTableImage.read(image, 1234));
+
+        Files.write(image, Arrays.copyOf(bytes, 10));
+        assertNull(DecodeTableImage.read(image, 1234));
+    }
+
+    @Test
+    @DisplayName("read(): Image with an opcode or back-reference out of range not used, despite its CRC")
+    void read4() throws IOException {
+        Path image = directory.resolve("map.bin");
+        DecodeTableImage.write(table, 1234, image);
+        byte[] bytes = Files.readAllBytes(image);
+
+        byte[] badOpcode = bytes.clone();
+        badOpcode[PAYLOAD_OFFSET] = DecodeTable.OPCODES;
+        Files.write(image, withPayloadCrc(badOpcode));
+        assertNull(DecodeTableImage.read(image, 1234));
+
+        byte[] badBackPosition = bytes.clone();
+        ByteBuffer.wrap(badBackPosition).putInt(PAYLOAD_OFFSET + DecodeTable.POSITIONS, DecodeTable.POSITIONS);
+        Files.write(image, withPayloadCrc(badBackPosition));
+        assertNull(DecodeTableImage.read(image, 1234));
+
+        Files.write(image, withPayloadCrc(bytes.clone()));
+        assertTableEquals(table, DecodeTableImage.read(image, 1234)); // Recomputing the CRC alone is harmless
+    }
+
+    @Test
+    @DisplayName("load(): Image written on first load and used after")
+    void load() throws IOException {
+        DecodeTable compiled = DecodeTable.load(MAP_PATH, directory);
+        Path image = directory.resolve(MAP_PATH + ".bin");
+        assertTrue(Files.isRegularFile(image));
+        assertTableEquals(table, compiled);
+
+        byte[] bytes = Files.readAllBytes(image);
+        DecodeTable loaded = DecodeTable.load(MAP_PATH, directory);
+        assertTableEquals(table, loaded);
+        assertArrayEquals(bytes, Files.readAllBytes(image)); // Not rewritten
+
+        Files.write(image, new byte[] {1, 2, 3});
+        assertTableEquals(table, DecodeTable.load(MAP_PATH, directory)); // Falls back to the map
+        assertArrayEquals(bytes, Files.readAllBytes(image)); // and replaces the image
+    }
+
+
+    /**
+     * Recomputes the CRC of the payload in the header, as a stale or tampered image would have
+     */
+    private static byte[] withPayloadCrc(byte[] image) {
+        ByteBuffer buffer = ByteBuffer.wrap(image);
+        int crc = DecodeTableImage.crc(buffer.slice(PAYLOAD_OFFSET, image.length - PAYLOAD_OFFSET));
+        buffer.putInt(PAYLOAD_OFFSET - Integer.BYTES, crc);
+        return image;
+    }
+
+    private static void assertTableEquals(DecodeTable expected, DecodeTable actual) {
+        assertNotNull(actual);
+        assertArrayEquals(expected.opcodes, actual.opcodes);
+        assertArrayEquals(expected.backPositions, actual.backPositions);
+        assertArrayEquals(expected.equipmentIds, actual.equipmentIds);
+        assertArrayEquals(expected.equipmentNames, actual.equipmentNames);
+        assertArrayEquals(expected.dependentsStart, actual.dependentsStart);
+        assertArrayEquals(expected.dependents, actual.dependents);
+    }
+}
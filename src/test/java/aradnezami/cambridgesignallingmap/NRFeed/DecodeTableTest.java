@@ -0,0 +1,78 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecodeTableTest {
+
+    @Test
+    @DisplayName("load(): Rows compiled to opcodes and back-references")
+    void load() throws FileNotFoundException {
+        DecodeTable table = DecodeTable.load("TestSignallingEquipmentMap.csv");
+
+        assertEquals(DecodeTable.TRACK_CIRCUIT, table.opcodes[0]);
+        assertEquals(DecodeTable.NK_BACKREFERENCED, table.opcodes[5]);
+        assertEquals(6, table.backPositions[5]); // Implicit RK in the next bit
+        assertEquals(8, table.backPositions[7]); // Explicit RK at 1,0
+        assertEquals(DecodeTable.NO_BACKREFERENCE, table.backPositions[0]);
+        assertEquals(DecodeTable.UNMAPPED, table.opcodes[8 * 3]);
+        assertNull(table.positionName(8 * 3));
+    }
+
+    @Test
+    @DisplayName("compile(): Equipment names interned")
+    void compile1() {
+        DecodeTable table = DecodeTable.compile(List.of(
+                "0,5,NK,1043".split(","),
+                "0,6,RK,1043".split(",")
+        ));
+
+        assertEquals(table.equipmentIds[5], table.equipmentIds[6]);
+        assertSame(table.positionName(5), table.positionName(6));
+        assertEquals(Point.TYPE, table.equipmentType(6));
+        assertEquals(1, table.equipmentNames.length);
+    }
+
+    @Test
+    @DisplayName("compile(): Implicit back-reference outside of the byte")
+    void compile2() {
+        DecodeTable table = DecodeTable.compile(List.<String[]>of("0,7,NK,1110".split(",")));
+
+        assertEquals(DecodeTable.CLEAR_BACKREFERENCE, table.backPositions[7]);
+    }
+
+    @Test
+    @DisplayName("compile(): Reverse dependency index excludes mutual back-references")
+    void compile4() {
+        DecodeTable table = DecodeTable.compile(List.of(
+                "0,0,OFFK,Sig,RM,1,0".split(","),
+                "1,0,RM,Route".split(","),
+                "0,7,NK,Point,RK,1,1".split(","),
+                "1,1,RK,Point,NK,0,7".split(",")
+        ));
+
+        assertEquals(1, table.dependentsStart[9] - table.dependentsStart[8]);
+        assertEquals(0, table.dependents[table.dependentsStart[8]]);
+        assertEquals(0, table.dependentsStart[8] - table.dependentsStart[7]); // NK is not a dependent of RK
+        assertEquals(0, table.dependentsStart[10] - table.dependentsStart[9]);
+    }
+
+    @Test
+    @DisplayName("compile(): Invalid rows")
+    void compile3() {
+        assertThrows(IllegalMapFormatException.class,
+                () -> DecodeTable.compile(List.<String[]>of("0,0,XYZ,Invalid".split(","))));
+        assertThrows(IllegalMapFormatException.class,
+                () -> DecodeTable.compile(List.<String[]>of("0,8,T,Invalid".split(","))));
+        assertThrows(IllegalMapFormatException.class,
+                () -> DecodeTable.compile(List.<String[]>of("0,0,NK,Invalid,RK,A,0".split(","))));
+        assertThrows(IllegalMapFormatException.class,
+                () -> DecodeTable.compile(List.<String[]>of("0,0,NK,Invalid,RK".split(","))));
+    }
+}
@@ -0,0 +1,59 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class FeedEventTest {
+    private DecodeTable table;
+
+
+    @BeforeEach
+    void setUp() {
+        table = DecodeTable.compile(List.of(
+                "0,0,T,TC1".split(","),
+                "0,5,NK,1043".split(","),
+                "0,6,RK,1043".split(",")
+        ));
+    }
+
+
+    @Test
+    @DisplayName("toEvent(): Equipment ids and packed codes resolved to names")
+    void toEvent() {
+        int point = table.equipmentIdOf("1043");
+        assertEquals(new Event(5L, Point.TYPE, Point.NORMAL, "1043"),
+                new SClassEvent(5L, Point.TYPE, Point.NORMAL, point).toEvent(table));
+        assertEquals(new Event(6L, "0123", "NONE", "1A23"), new CClassEvent(6L,
+                FeedMessage.packCode("0123"), FeedMessage.packCode("NONE"), FeedMessage.packCode("1A23")).toEvent(table));
+        assertEquals(Event.reset(7L), new ResetEvent(7L).toEvent(table));
+    }
+
+    @Test
+    @DisplayName("of(): Inverse of toEvent()")
+    void of() {
+        List<Event> events = List.of(
+                new Event(-1L, TrackCircuit.TYPE, TrackCircuit.OCCUPIED, "TC1"),
+                new Event(2L, "0123", "0125", "1A23"),
+                Event.reset(3L)
+        );
+        for (Event event : events) {
+            FeedEvent feedEvent = FeedEvent.of(event, table);
+            assertEquals(event.timestamp, feedEvent.timestamp());
+            assertEquals(event, feedEvent.toEvent(table));
+            assertEquals(event.hashCode(), feedEvent.toEvent(table).hashCode());
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> FeedEvent.of(new Event(-1L, TrackCircuit.TYPE, TrackCircuit.OCCUPIED, "TC2"), table));
+    }
+}
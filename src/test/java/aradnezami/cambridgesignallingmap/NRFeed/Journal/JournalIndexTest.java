@@ -0,0 +1,134 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalIndexTest {
+    private static final int SEGMENT_SIZE = 16384;
+    private static final long DURATION_MILLIS = 5 * JournalIndexer.SNAPSHOT_INTERVAL_MILLIS;
+
+    private static DecodeTable table;
+    private static final List<String> messages = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+
+    /**
+     * Messages over several snapshot intervals: signalling of any address, berth steps, messages of another area
+     * and a reset
+     */
+    @BeforeAll
+    static void setUp() throws FileNotFoundException {
+        table = DecodeTable.load("TestSignallingEquipmentMap.csv");
+
+        Random random = new Random(42);
+        for (long timestamp = 0; timestamp < DURATION_MILLIS; timestamp += 50) {
+            int kind = random.nextInt(20);
+            String berth = String.format("%04d", random.nextInt(8));
+            if (kind == 0) {
+                messages.add("C," + timestamp + ",NONE," + berth + ",1K" + random.nextInt(10) + "0");
+            } else if (kind == 1) {
+                messages.add("C," + timestamp + "," + berth + ",NONE,1K00");
+            } else if (kind == 2) {
+                messages.add(String.format("S,%d,%02X,%02X,EA", timestamp, random.nextInt(4), random.nextInt(256)));
+            } else {
+                messages.add(String.format("S,%d,%02X,%02X", timestamp, random.nextInt(4), random.nextInt(256)));
+            }
+            if (timestamp == DURATION_MILLIS / 2) {
+                messages.add("R," + timestamp + ",RESET");
+            }
+        }
+    }
+
+    private void writeJournal() throws IOException {
+        JournalWriter journal = new JournalWriter(directory, SEGMENT_SIZE, messages.size());
+        FeedMessage message = new FeedMessage();
+        for (String msg : messages) {
+            assertTrue(message.parse(msg));
+            assertTrue(journal.append(message));
+        }
+        journal.close();
+    }
+
+    /**
+     * @return The state at the time, found by decoding every message from the start
+     */
+    private static List<Event> expectedStateAt(long timestamp) {
+        SClassDecoder decoder = new SClassDecoder(table);
+        TreeMap<String, String> berths = new TreeMap<>();
+        FeedMessage message = new FeedMessage();
+        for (String msg : messages) {
+            message.parse(msg);
+            if (message.timestamp > timestamp) { break; }
+            if (message.area != FeedMessage.NO_AREA) { continue; }
+
+            if (message.type == FeedMessage.S_CLASS) {
+                decoder.SClassChange(message.timestamp, message.address, message.data);
+            } else if (message.type == FeedMessage.C_CLASS) {
+                berths.remove(FeedMessage.unpackCode(message.fromBerth));
+                if (message.toBerth != FeedMessage.packCode("NONE")) {
+                    berths.put(FeedMessage.unpackCode(message.toBerth), FeedMessage.unpackCode(message.describer));
+                }
+            } else {
+                decoder.reset();
+                berths.clear();
+            }
+        }
+
+        List<Event> events = new ArrayList<>(List.of(decoder.allEvents()));
+        berths.forEach((berth, describer) -> events.add(new Event(-1L, "NONE", berth, describer)));
+        return events;
+    }
+
+
+    @Test
+    @DisplayName("stateAt(): Same state as decoding every message")
+    void stateAt() throws IOException {
+        writeJournal();
+        JournalIndex index = new JournalIndex(directory);
+        assertTrue(index.snapshots() > DURATION_MILLIS / JournalIndexer.SNAPSHOT_INTERVAL_MILLIS);
+        assertEquals(0, index.corruptEntries());
+
+        for (long timestamp : new long[] {0, 1234, 61_000, DURATION_MILLIS / 2, DURATION_MILLIS / 2 + 10, 299_999}) {
+            assertEquals(expectedStateAt(timestamp), List.of(index.stateAt(timestamp, table)), "At " + timestamp);
+        }
+        assertFalse(expectedStateAt(299_999).isEmpty());
+        assertEquals(0, index.stateAt(-1, table).length); // Before the journal
+    }
+
+    @Test
+    @DisplayName("readerAt(): Reading starts shortly before the time")
+    void readerAt() throws IOException {
+        writeJournal();
+        JournalIndex index = new JournalIndex(directory);
+
+        FeedMessage message = new FeedMessage();
+        for (long timestamp : new long[] {0, 45_678, 200_000}) {
+            JournalReader reader = index.readerAt(timestamp);
+            assertTrue(reader.next(message));
+            assertTrue(message.timestamp <= timestamp, "At " + timestamp);
+            assertTrue(message.timestamp >= timestamp - 2 * JournalIndexer.INDEX_INTERVAL_MILLIS, "At " + timestamp);
+        }
+
+        JournalReader reader = index.readerAt(-1); // Before the journal
+        assertTrue(reader.next(message));
+        assertEquals(messages.get(0), message.toString());
+    }
+}
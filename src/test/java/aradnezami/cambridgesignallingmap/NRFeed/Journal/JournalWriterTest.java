@@ -0,0 +1,149 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Journal;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalWriterTest {
+    private static final String[] MESSAGES = {"S,1000,A4,5D", "C,1001,0193,0195,1K76,EA", "R,1002,START", "R,1003,RESET,CA"};
+    private static final int SMALL_SEGMENT = 128; // Holds 2 to 4 records
+
+    @TempDir
+    Path directory;
+
+
+    private static void append(JournalWriter journal, String... messages) {
+        FeedMessage message = new FeedMessage();
+        for (String msg : messages) {
+            assertTrue(message.parse(msg));
+            assertTrue(journal.append(message));
+        }
+    }
+
+    private List<String> readAll(JournalReader reader) throws IOException {
+        List<String> messages = new ArrayList<>();
+        FeedMessage message = new FeedMessage();
+        while (reader.next(message)) {
+            messages.add(message.toString());
+        }
+        return messages;
+    }
+
+
+    @Test
+    @DisplayName("append(): Messages read back in order")
+    void append1() throws IOException {
+        long start = System.currentTimeMillis();
+        JournalWriter journal = new JournalWriter(directory, JournalWriter.DEFAULT_SEGMENT_SIZE, 16);
+        append(journal, MESSAGES);
+        journal.close();
+
+        assertEquals(MESSAGES.length, journal.written());
+        assertEquals(0, journal.drops());
+        assertFalse(journal.append(new FeedMessage())); // Closed
+
+        JournalReader reader = new JournalReader(directory);
+        assertEquals(List.of(MESSAGES), readAll(reader));
+        assertTrue(reader.receivedMillis() >= start);
+        assertEquals(0, reader.corruptRecords());
+    }
+
+    @Test
+    @DisplayName("append(): Segments rotated, and a new writer starts a new segment")
+    void append2() throws IOException {
+        JournalWriter journal = new JournalWriter(directory, SMALL_SEGMENT, 16);
+        append(journal, MESSAGES);
+        append(journal, MESSAGES);
+        journal.close();
+        int segments = JournalReader.segments(directory).size();
+        assertTrue(segments > 1);
+
+        journal = new JournalWriter(directory, SMALL_SEGMENT, 16);
+        append(journal, "S,2000,01,02");
+        journal.close();
+
+        List<Path> allSegments = JournalReader.segments(directory);
+        assertEquals(segments + 1, allSegments.size());
+        assertEquals(JournalReader.segmentName(segments), allSegments.get(segments).getFileName().toString());
+
+        List<String> expected = new ArrayList<>(List.of(MESSAGES));
+        expected.addAll(List.of(MESSAGES));
+        expected.add("S,2000,01,02");
+        assertEquals(expected, readAll(new JournalReader(directory)));
+    }
+
+    @Test
+    @DisplayName("append(): Oldest segments and their indexes deleted past the maximum")
+    void append3() throws IOException {
+        JournalWriter journal = new JournalWriter(directory, SMALL_SEGMENT, 16, 2);
+        append(journal, MESSAGES);
+        append(journal, MESSAGES);
+        append(journal, MESSAGES);
+        journal.close();
+
+        List<Path> segments = JournalReader.segments(directory);
+        assertEquals(2, segments.size());
+        assertTrue(JournalReader.segmentIndex(segments.get(0)) > 0);
+        for (Path segment : segments) {
+            assertTrue(Files.exists(JournalReader.indexOf(segment)));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(4, files.count()); // No index left behind
+        }
+
+        List<String> messages = readAll(new JournalReader(directory));
+        assertEquals(MESSAGES[MESSAGES.length - 1], messages.get(messages.size() - 1));
+
+        assertThrows(IllegalArgumentException.class, () -> new JournalWriter(directory, SMALL_SEGMENT, 16, 0));
+    }
+
+    @Test
+    @DisplayName("close(): Failure to open the next segment thrown")
+    void close() throws IOException {
+        JournalWriter journal = new JournalWriter(directory, SMALL_SEGMENT, 16);
+        Files.createFile(directory.resolve(JournalReader.segmentName(1))); // Collides with the next segment
+        append(journal, MESSAGES);
+        append(journal, MESSAGES);
+
+        assertThrows(FileAlreadyExistsException.class, journal::close);
+        assertInstanceOf(FileAlreadyExistsException.class, journal.failure());
+        assertFalse(journal.append(new FeedMessage()));
+    }
+
+    @Test
+    @DisplayName("next(): Rest of a segment skipped after a corrupt record")
+    void next() throws IOException {
+        JournalWriter journal = new JournalWriter(directory, SMALL_SEGMENT, 16);
+        append(journal, MESSAGES);
+        append(journal, MESSAGES);
+        journal.close();
+
+        Path first = JournalReader.segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            int secondPayload = JournalWriter.SEGMENT_HEADER_LENGTH + JournalWriter.RECORD_HEADER_LENGTH + 11
+                    + JournalWriter.RECORD_HEADER_LENGTH; // The first record is an S frame of 11 bytes
+            channel.write(ByteBuffer.wrap(new byte[] {0x7F}), secondPayload + 5);
+        }
+
+        JournalReader reader = new JournalReader(directory);
+        List<String> messages = readAll(reader);
+        assertEquals(1, reader.corruptRecords());
+        assertEquals(MESSAGES[0], messages.get(0));
+        assertEquals(MESSAGES[3], messages.get(1)); // The first segment held the first 3 messages
+        assertEquals(2 * MESSAGES.length - 2, messages.size());
+    }
+}
@@ -0,0 +1,113 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput of {@link MultiAreaDecoder} over a synthetic feed of every area. Only run with the
+ * {@code benchmark} profile: {@code mvn test -Pbenchmark}
+ */
+class MultiAreaDecoderBenchmark {
+    private static final int AREAS = 64;
+    private static final int MESSAGES = 4_000_000;
+    private static final int ROUNDS = 5;
+
+
+    @Test
+    @DisplayName("Throughput: All areas, single thread vs all cores")
+    void throughput() throws InterruptedException {
+        String[] areaNames = new String[AREAS];
+        for (int i = 0; i < AREAS; i++) {
+            areaNames[i] = "" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+        }
+
+        // Area traffic is skewed like the real feed: a few areas are far busier than the rest
+        Random random = new Random(42);
+        int[] areas = new int[MESSAGES];
+        int[] addresses = new int[MESSAGES];
+        int[] bytes = new int[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            areas[i] = (int) (AREAS * Math.pow(random.nextDouble(), 3));
+            addresses[i] = random.nextInt(200);
+            bytes[i] = random.nextInt(256);
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : (cores == 1) ? new int[] {1} : new int[] {1, cores}) {
+            double best = 0;
+            long events = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                LongAdder eventCount = new LongAdder();
+                try (MultiAreaDecoder decoder = createDecoder(areaNames, threads, eventCount)) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < MESSAGES; i++) {
+                        decoder.SClassChange(areaNames[areas[i]], i, addresses[i], bytes[i]);
+                    }
+                    decoder.awaitIdle();
+                    long elapsed = System.nanoTime() - start;
+
+                    best = Math.max(best, MESSAGES * 1e9 / elapsed);
+                    events = eventCount.sum();
+                }
+            }
+
+            System.out.printf("MultiAreaDecoder: %d areas, %d thread(s): %,.0f messages/s (%,d events per run)%n",
+                    AREAS, threads, best, events);
+            assertTrue(events > 0);
+        }
+    }
+
+
+    private static MultiAreaDecoder createDecoder(String[] areaNames, int threads, LongAdder eventCount) {
+        HashMap<String, SClassDecoder> decoders = new HashMap<>();
+        for (int i = 0; i < areaNames.length; i++) {
+            decoders.put(areaNames[i], new SClassDecoder(DecodeTable.compile(syntheticMap(i))));
+        }
+
+        return new MultiAreaDecoder(decoders, threads,
+                (area, timestamp, type, state, id) -> eventCount.increment());
+    }
+
+    /**
+     * A map of 200 addresses mixing every kind of mapping, including back-references across bytes
+     */
+    private static List<String[]> syntheticMap(int seed) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int address = 0; address < 200; address++) {
+            String prefix = seed + "_" + address + "_";
+            switch ((address + seed) % 4) {
+                case 0 -> {
+                    for (int bit = 0; bit < 8; bit++) {
+                        rows.add(new String[] {"" + address, "" + bit, "T", prefix + bit});
+                    }
+                }
+                case 1 -> {
+                    for (int bit = 0; bit < 8; bit += 2) {
+                        rows.add(new String[] {"" + address, "" + bit, "NK", prefix + bit});
+                        rows.add(new String[] {"" + address, "" + (bit + 1), "RK", prefix + bit});
+                    }
+                }
+                case 2 -> {
+                    for (int bit = 0; bit < 8; bit++) {
+                        rows.add(new String[] {"" + address, "" + bit, "RM", prefix + bit});
+                    }
+                }
+                default -> {
+                    int routeAddress = (address + 199) % 200;
+                    for (int bit = 0; bit < 8; bit++) { // Signals of the routes in another byte
+                        rows.add(new String[] {"" + address, "" + bit, "OFFK", prefix + bit, "RM", "" + routeAddress, "" + bit});
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,127 @@
+package aradnezami.cambridgesignallingmap.NRFeed;
+
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Route;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiAreaDecoderTest {
+    private MultiAreaDecoder decoder;
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+
+    @BeforeEach
+    void setUp() throws FileNotFoundException {
+        decoder = MultiAreaDecoder.load(Map.of(
+                "CA", "TestSignallingEquipmentMap.csv",
+                "EA", "TestSignallingEquipmentMap.csv"
+        ), 2, (area, timestamp, type, state, id) -> events.add(area + "," + timestamp + "," + type + "," + state + "," + id));
+    }
+
+    @AfterEach
+    void tearDown() {
+        decoder.close();
+    }
+
+
+    @Test
+    @DisplayName("SClassChange(): Areas keep separate state")
+    void SClassChange1() throws InterruptedException {
+        assertTrue(decoder.SClassChange("CA", 1L, 0, 0x00));
+        assertTrue(decoder.SClassChange("CA", 2L, 0, 0x01));
+        assertTrue(decoder.SClassChange("EA", 3L, 0, 0x01)); // First update of EA, so every bit is decoded
+        decoder.awaitIdle();
+
+        assertTrue(events.contains("CA,2," + TrackCircuit.TYPE + "," + TrackCircuit.OCCUPIED + ",TrackCircuit"));
+        assertTrue(events.contains("EA,3," + TrackCircuit.TYPE + "," + TrackCircuit.OCCUPIED + ",TrackCircuit"));
+        assertEquals(1, events.stream().filter(event -> event.startsWith("CA,2,")).count());
+    }
+
+    @Test
+    @DisplayName("SClassChange(): Messages of an area are decoded in order")
+    void SClassChange2() throws InterruptedException {
+        decoder.SClassChange("CA", -1L, 1, 0x00);
+        decoder.awaitIdle();
+        events.clear();
+
+        for (int i = 0; i < 1000; i++) {
+            decoder.SClassChange("CA", i, 1, (i % 2 == 0) ? 0x08 : 0x00); // Toggles MainRoute
+            decoder.SClassChange("EA", i, 2, i & 0xFF);
+        }
+        decoder.awaitIdle();
+
+        long previous = -1L;
+        int mainRouteEvents = 0;
+        for (String event : events) {
+            if (!event.startsWith("CA")) { continue; }
+
+            String[] fields = event.split(",");
+            long timestamp = Long.parseLong(fields[1]);
+            assertTrue(timestamp > previous);
+            assertEquals((timestamp % 2 == 0) ? Route.SET : Route.NOTSET, Integer.parseInt(fields[3]));
+            previous = timestamp;
+            mainRouteEvents++;
+        }
+        assertEquals(1000, mainRouteEvents);
+    }
+
+    @Test
+    @DisplayName("Refresh: Refreshes are per area")
+    void refresh() throws InterruptedException {
+        decoder.SClassChange("CA", -1L, 0, 0x00);
+        decoder.SClassChange("EA", -1L, 0, 0x00);
+        decoder.awaitIdle();
+        events.clear();
+
+        decoder.beginRefresh("CA");
+        decoder.SClassChange("CA", 1L, 0, 0x01);
+        decoder.SClassChange("EA", 2L, 0, 0x01);
+        decoder.awaitIdle();
+        assertEquals(List.of("EA,2," + TrackCircuit.TYPE + "," + TrackCircuit.OCCUPIED + ",TrackCircuit"), events);
+
+        decoder.endRefresh("CA", 3L);
+        decoder.awaitIdle();
+        assertEquals(2, events.size());
+        assertEquals("CA,3," + TrackCircuit.TYPE + "," + TrackCircuit.OCCUPIED + ",TrackCircuit", events.get(1));
+    }
+
+    @Test
+    @DisplayName("awaitIdle(): Failure of an area thrown, and the area keeps decoding")
+    void awaitIdle() throws FileNotFoundException, InterruptedException {
+        List<Long> timestamps = Collections.synchronizedList(new ArrayList<>());
+        try (MultiAreaDecoder failing = MultiAreaDecoder.load(Map.of("CA", "TestSignallingEquipmentMap.csv"), 1,
+                (area, timestamp, type, state, id) -> {
+                    if (timestamp == 1L) {throw new IllegalStateException("Sink failed");}
+                    timestamps.add(timestamp);
+                })) {
+            failing.SClassChange("CA", 1L, 0, 0x01);
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                IllegalStateException e = assertThrows(IllegalStateException.class, failing::awaitIdle);
+                assertEquals("Sink failed", e.getMessage());
+            });
+
+            failing.SClassChange("CA", 2L, 0, 0x00);
+            failing.awaitIdle();
+            assertEquals(List.of(2L), timestamps);
+        }
+    }
+
+    @Test
+    @DisplayName("SClassChange(): Unknown areas dropped")
+    void SClassChange3() {
+        assertFalse(decoder.SClassChange("XX", -1L, 0, 0x01));
+        assertEquals(1, decoder.unknownAreaMessages());
+        assertEquals(2, decoder.areas().size());
+    }
+}
@@ -1,32 +1,71 @@
 package aradnezami.cambridgesignallingmap.NRFeed;
 
+import aradnezami.cambridgesignallingmap.Metrics.FeedMetrics;
+import aradnezami.cambridgesignallingmap.Metrics.MetricsRegistry;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Signal;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
 import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import aradnezami.cambridgesignallingmap.NRFeed.Journal.JournalWriter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class NRFeedTest {
     private NRFeed feed;
 
-    @Mock
+    @Mock(answer = Answers.CALLS_REAL_METHODS) // pollNREvent(FeedMessage) parses the stubbed pollNREvent()
     private NRFeedClient client;
     @Mock
     private SClassDecoder decoder;
 
+    private static final DecodeTable TABLE = DecodeTable.compile(List.of(
+            "0,0,T,123".split(","),
+            "0,1,T,456".split(","),
+            "0,2,T,4567".split(","),
+            "0,3,T,1".split(","),
+            "0,4,T,2".split(","),
+            "0,5,T,3".split(",")
+    ));
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(decoder.table()).thenReturn(TABLE);
         feed = new NRFeed(client, decoder);
+        clearInvocations(decoder); // The feed reads the table when created
+    }
+
+    /**
+     * Answers a call to decode by passing the given events to the sink of the call. Their equipment must be
+     * named in {@link #TABLE}
+     */
+    private static Answer<Integer> decodesTo(Event... events) {
+        return invocation -> {
+            SClassEventSink sink = invocation.getArgument(invocation.getArguments().length - 1);
+            for (Event event : events) {
+                //noinspection DataFlowIssue
+                sink.accept(event.timestamp, event.S_Type, event.S_State, TABLE.equipmentIdOf(event.S_Id));
+            }
+            return events.length;
+        };
     }
 
 
@@ -36,14 +75,14 @@ class NRFeedTest {
         Event expected1 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
         Event expected2 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "456");
         when(client.pollNREvent()).thenReturn("s,1,2,3,4,5"); // Value doesn't matter
-        when(decoder.SClassChange(anyLong(), anyInt(), anyInt()))
-                .thenReturn(new Event[]{expected1})
-                .thenReturn(new Event[]{expected2}); // Second value just ensures a value isn't returned again
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any()))
+                .thenAnswer(decodesTo(expected1))
+                .thenAnswer(decodesTo(expected2)); // Second value just ensures a value isn't returned again
 
         assertEquals(expected1, feed.nextEvent());
         assertEquals(expected2, feed.nextEvent());
         verify(client, times(2)).pollNREvent();
-        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt());
+        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt(), any());
     }
 
     @Test
@@ -55,16 +94,16 @@ class NRFeedTest {
         Event expected3 = new Event(-1L, Point.TYPE, Point.REVERSE, "4567");
 
         when(client.pollNREvent()).thenReturn("s,1,2,3,4,5"); // Value doesn't matter
-        when(decoder.SClassChange(anyLong(), anyInt(), anyInt()))
-                .thenReturn(new Event[]{expected1, expected2})
-                .thenReturn(new Event[]{expected3});
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any()))
+                .thenAnswer(decodesTo(expected1, expected2))
+                .thenAnswer(decodesTo(expected3));
 
 
         assertEquals(expected1, feed.nextEvent());
         assertEquals(expected2, feed.nextEvent());
         assertEquals(expected3, feed.nextEvent());
         verify(client, times(2)).pollNREvent();
-        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt());
+        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt(), any());
     }
 
     @Test
@@ -72,13 +111,13 @@ class NRFeedTest {
     void nextEvent3() {
         Event expected = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
         when(client.pollNREvent()).thenReturn("s,1,2,3,4,5"); // Value doesn't matter
-        when(decoder.SClassChange(anyLong(), anyInt(), anyInt()))
-                .thenReturn(new Event[]{}) // No event decoded
-                .thenReturn(new Event[]{expected}); // Second value just ensures a value isn't returned again
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any()))
+                .thenAnswer(decodesTo()) // No event decoded
+                .thenAnswer(decodesTo(expected)); // Second value just ensures a value isn't returned again
 
         assertEquals(expected, feed.nextEvent());
         verify(client, times(2)).pollNREvent();
-        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt());
+        verify(decoder, times(2)).SClassChange(anyLong(), anyInt(), anyInt(), any());
     }
 
     @Test
@@ -99,6 +138,182 @@ class NRFeedTest {
         assertThrows(NRFeedException.class, () -> feed.nextEvent());
     }
 
+    @Test
+    @DisplayName("nextEvent(): Refresh returned as one batch")
+    void nextEvent6() {
+        Event expected1 = new Event(3L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
+        Event expected2 = new Event(3L, Point.TYPE, Point.REVERSE, "4567");
+        when(client.pollNREvent())
+                .thenReturn("R,1,START")
+                .thenReturn("S,2,3,4")
+                .thenReturn("R,3,END");
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any())).thenAnswer(decodesTo());
+        when(decoder.endRefresh(eq(3L), any())).thenAnswer(decodesTo(expected1, expected2));
+
+        assertEquals(expected1, feed.nextEvent());
+        assertTrue(feed.hasBufferedEvents());
+        assertEquals(expected2, feed.nextEvent());
+        assertFalse(feed.hasBufferedEvents());
+
+        verify(client, times(3)).pollNREvent();
+        verify(decoder, times(1)).beginRefresh();
+        verify(decoder, times(1)).SClassChange(eq(2L), eq(3), eq(4), any());
+        verify(decoder, times(1)).endRefresh(eq(3L), any());
+    }
+
+    @Test
+    @DisplayName("nextEvent(): Reset marker forgets S-Class state in order")
+    void nextEvent7() {
+        Event expected = new Event(3L, "0123", "0456", "1K67");
+        when(client.pollNREvent())
+                .thenReturn("R,1,START")
+                .thenReturn("R,2,RESET")
+                .thenReturn("C,3,0123,0456,1K67");
+
+        assertEquals(Event.reset(2L), feed.nextEvent());
+        assertEquals(expected, feed.nextEvent());
+
+        verify(decoder, times(1)).beginRefresh();
+        verify(decoder, times(1)).reset();
+        verify(decoder, never()).endRefresh(anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("nextEvent(): Messages of other areas skipped")
+    void nextEvent8() {
+        Event expected1 = new Event(1L, "0123", "0456", "1K67");
+        Event expected2 = new Event(4L, "0456", "0789", "1K67");
+        when(client.pollNREvent())
+                .thenReturn("C,1,0123,0456,1K67,CA")
+                .thenReturn("S,2,3,4,EA")
+                .thenReturn("C,3,0123,0456,1K67,EA")
+                .thenReturn("C,4,0456,0789,1K67");
+
+        assertEquals(expected1, feed.nextEvent());
+        assertEquals(expected2, feed.nextEvent());
+        verifyNoInteractions(decoder);
+    }
+
+    @Test
+    @DisplayName("nextEvent(): Malformed message")
+    void nextEvent9() {
+        when(client.pollNREvent()).thenReturn("S,1,XYZ,00");
+
+        assertThrows(NRFeedException.class, () -> feed.nextEvent());
+        verifyNoInteractions(decoder);
+    }
+
+    @Test
+    @DisplayName("nextEvent(): Messages of every area journaled")
+    void nextEvent10() {
+        JournalWriter journal = mock(JournalWriter.class);
+        feed = new NRFeed(client, decoder, FeedOptions.NONE.withJournal(journal));
+        clearInvocations(decoder);
+        when(client.pollNREvent())
+                .thenReturn("S,1,03,04,EA")
+                .thenReturn("C,2,0123,0456,1K67");
+
+        assertEquals(new Event(2L, "0123", "0456", "1K67"), feed.nextEvent());
+        verify(journal, times(2)).append(any(FeedMessage.class));
+        verifyNoInteractions(decoder);
+    }
+
+    @Test
+    @DisplayName("drainTo(): Every ready message drained")
+    void drainTo1() {
+        Event expected1 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
+        Event expected2 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "456");
+        Event expected3 = new Event(-1L, Point.TYPE, Point.REVERSE, "4567");
+        when(client.pollNREvent()).thenReturn("S,1,2,3");
+        when(client.isMessageReady()).thenReturn(true, true, false);
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any()))
+                .thenAnswer(decodesTo(expected1, expected2))
+                .thenAnswer(decodesTo()) // A message decoding to nothing doesn't end the drain
+                .thenAnswer(decodesTo(expected3));
+
+        Event[] actual = new Event[10];
+        assertEquals(3, feed.drainTo(actual));
+        assertArrayEquals(new Event[]{expected1, expected2, expected3}, Arrays.copyOf(actual, 3));
+        assertFalse(feed.hasBufferedEvents());
+        verify(client, times(3)).pollNREvent();
+    }
+
+    @Test
+    @DisplayName("drainTo(): Events beyond the maximum kept for the next call")
+    void drainTo2() {
+        Event expected1 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
+        Event expected2 = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "456");
+        when(client.pollNREvent()).thenReturn("S,1,2,3");
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any())).thenAnswer(decodesTo(expected1, expected2));
+
+        ArrayList<Event> actual = new ArrayList<>();
+        assertEquals(1, feed.drainTo(actual, 1));
+        assertTrue(feed.hasBufferedEvents());
+        assertEquals(1, feed.drainTo(actual, 5)); // Client has no message ready
+        assertEquals(List.of(expected1, expected2), actual);
+        verify(client, times(1)).pollNREvent();
+    }
+
+    @Test
+    @DisplayName("drainTo(): Error after events drained thrown by the next call")
+    void drainTo3() {
+        Event expected = new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "123");
+        when(client.pollNREvent())
+                .thenReturn("S,1,2,3")
+                .thenThrow(new NRFeedException("msg", "Display msg"));
+        when(client.isMessageReady()).thenReturn(true);
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any())).thenAnswer(decodesTo(expected));
+
+        Event[] actual = new Event[10];
+        assertEquals(1, feed.drainTo(actual));
+        assertEquals(expected, actual[0]);
+        assertThrows(NRFeedException.class, () -> feed.drainTo(actual));
+    }
+
+    @Test
+    @DisplayName("drainTo(): Messages, events by type and unmapped bits counted in the metrics")
+    void drainTo4() {
+        MetricsRegistry registry = new MetricsRegistry();
+        FeedMetrics metrics = new FeedMetrics(registry);
+        feed = new NRFeed(client, decoder, FeedOptions.NONE.withMetrics(metrics));
+        when(client.pollNREvent())
+                .thenReturn("S,1,2,3")
+                .thenReturn("C,1,0123,0456,1K67");
+        when(client.isMessageReady()).thenReturn(true).thenReturn(false);
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any())).thenAnswer(decodesTo(
+                new Event(-1L, Point.TYPE, Point.NORMAL, "1"),
+                new Event(-1L, TrackCircuit.TYPE, TrackCircuit.OCCUPIED, "2"),
+                new Event(-1L, TrackCircuit.TYPE, TrackCircuit.OCCUPIED, "3")));
+        when(decoder.unmappedChanges()).thenReturn(4L);
+
+        assertEquals(4, feed.drainTo(new Event[10]));
+        assertEquals(1L, registry.values().get("feed_messages_total.S"));
+        assertEquals(1L, registry.values().get("feed_messages_total.C"));
+        assertEquals(1L, registry.values().get("feed_events_total.point"));
+        assertEquals(2L, registry.values().get("feed_events_total.track_circuit"));
+        assertEquals(1L, registry.values().get("feed_events_total.berth"));
+        assertEquals(4L, registry.values().get("feed_unmapped_bits_total"));
+    }
+
+    @Test
+    @DisplayName("drainTo(): Compact events returned with ids and packed codes")
+    void drainTo5() {
+        when(client.pollNREvent())
+                .thenReturn("S,1,2,3")
+                .thenReturn("C,2,0123,0456,1K67")
+                .thenReturn("R,3,RESET");
+        when(client.isMessageReady()).thenReturn(true, true, false);
+        when(decoder.SClassChange(anyLong(), anyInt(), anyInt(), any()))
+                .thenAnswer(decodesTo(new Event(1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "456")));
+
+        FeedEvent[] actual = new FeedEvent[10];
+        assertEquals(3, feed.drainTo(actual));
+        assertArrayEquals(new FeedEvent[]{
+                new SClassEvent(1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, TABLE.equipmentIdOf("456")),
+                new CClassEvent(2L, FeedMessage.packCode("0123"), FeedMessage.packCode("0456"), FeedMessage.packCode("1K67")),
+                new ResetEvent(3L)}, Arrays.copyOf(actual, 3));
+    }
+
 
     @Test
     void disconnect() {
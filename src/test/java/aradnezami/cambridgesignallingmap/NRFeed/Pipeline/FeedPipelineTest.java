@@ -0,0 +1,139 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+import aradnezami.cambridgesignallingmap.Metrics.FeedLatency;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.FeedOptions;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedPipelineTest {
+
+    /**
+     * Returns the given messages, then fails as if the connection was lost
+     */
+    private static class QueuedClient implements NRFeedClient {
+        private final ArrayDeque<String> messages;
+        private volatile boolean isDisconnected = false;
+
+        QueuedClient(List<String> messages) {
+            this.messages = new ArrayDeque<>(messages);
+        }
+
+        @Override
+        public @NotNull String pollNREvent() throws NRFeedException {
+            String message = messages.poll();
+            if (message == null) {
+                throw new NRFeedException("End of messages", "Connection lost");
+            }
+            return message;
+        }
+
+        @Override
+        public void disconnect() {
+            isDisconnected = true;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return !isDisconnected;
+        }
+    }
+
+
+    @Test
+    @DisplayName("takeBatch(): Events published in order, then the failure of the client")
+    void takeBatch1() throws FileNotFoundException, InterruptedException {
+        ArrayList<String> messages = new ArrayList<>();
+        messages.add("S,0,0,00");
+        for (int i = 1; i <= 2000; i++) {
+            messages.add("S," + i + ",0," + ((i % 2 == 0) ? "00" : "01")); // Toggles TrackCircuit
+        }
+        messages.add("C,2001,0001,0002,1A01");
+
+        SClassDecoder decoder = new SClassDecoder("TestSignallingEquipmentMap.csv");
+        FeedPipeline pipeline = new FeedPipeline(new QueuedClient(messages), decoder, 64, OverflowPolicy.BLOCK,
+                FeedOptions.NONE);
+        pipeline.start();
+
+        ArrayList<Event> events = new ArrayList<>();
+        NRFeedException exception = null;
+        while (exception == null) {
+            try {
+                EventBatch batch = pipeline.takeBatch();
+                for (int i = 0; i < batch.size; i++) {
+                    events.add(batch.events[i].toEvent(decoder.table()));
+                }
+                pipeline.releaseBatch(batch);
+            } catch (NRFeedException e) {
+                exception = e;
+            }
+        }
+
+        assertEquals("Connection lost", exception.displayMessage);
+        assertEquals(new Event(2001, "0001", "0002", "1A01"), events.get(events.size() - 1));
+
+        long lastTimestamp = -1;
+        int trackCircuitEvents = 0;
+        for (Event event : events) {
+            assertTrue(event.timestamp >= lastTimestamp);
+            lastTimestamp = event.timestamp;
+            if ("TrackCircuit".equals(event.S_Id) && event.timestamp > 0) { trackCircuitEvents++; }
+        }
+        assertEquals(2000, trackCircuitEvents);
+        assertEquals(0, pipeline.droppedMessages());
+    }
+
+    @Test
+    @DisplayName("takeBatch(): Batches timed from the receipt of their oldest message")
+    void takeBatch2() throws FileNotFoundException, InterruptedException {
+        ArrayList<String> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add("S," + i + ",0," + ((i % 2 == 0) ? "00" : "01"));
+        }
+        FeedLatency latency = new FeedLatency();
+        long startNanos = System.nanoTime();
+        FeedPipeline pipeline = new FeedPipeline(new QueuedClient(messages),
+                new SClassDecoder("TestSignallingEquipmentMap.csv"), 64, OverflowPolicy.BLOCK,
+                FeedOptions.NONE.withLatency(latency));
+        pipeline.start();
+
+        try {
+            while (true) {
+                EventBatch batch = pipeline.takeBatch();
+                assertTrue(batch.receivedNanos - startNanos >= 0);
+                assertTrue(batch.decodedNanos - batch.receivedNanos >= 0);
+                pipeline.releaseBatch(batch);
+            }
+        } catch (NRFeedException e) {
+            assertEquals("Connection lost", e.displayMessage);
+        }
+        assertEquals(100, latency.decode().count());
+    }
+
+    @Test
+    @DisplayName("disconnect(): Client disconnected and stages stopped")
+    void disconnect() throws FileNotFoundException, InterruptedException {
+        QueuedClient client = new QueuedClient(List.of("S,0,0,00"));
+        FeedPipeline pipeline = new FeedPipeline(client, new SClassDecoder("TestSignallingEquipmentMap.csv"),
+                64, OverflowPolicy.BLOCK, FeedOptions.NONE);
+        pipeline.start();
+        pipeline.disconnect();
+
+        assertFalse(client.isAlive());
+        for (int i = 0; i < 100 && pipeline.isAlive(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(pipeline.isAlive());
+    }
+}
@@ -0,0 +1,131 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Pipeline;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SpscRingTest {
+
+    @Test
+    @DisplayName("SpscRing(): Capacity rounded up to a power of 2")
+    void constructor() {
+        assertEquals(8, new SpscRing<Integer>(5, OverflowPolicy.BLOCK).capacity());
+        assertEquals(8, new SpscRing<Integer>(8, OverflowPolicy.BLOCK).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new SpscRing<Integer>(0, OverflowPolicy.BLOCK));
+    }
+
+    @Test
+    @DisplayName("poll(): Elements removed in order")
+    void poll() {
+        SpscRing<Integer> ring = new SpscRing<>(4, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    @DisplayName("put(): DROP_NEWEST drops and counts when full")
+    void put1() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(2, OverflowPolicy.DROP_NEWEST);
+        assertTrue(ring.put(0));
+        assertTrue(ring.put(1));
+        assertFalse(ring.put(2));
+        assertFalse(ring.put(3));
+
+        assertEquals(2, ring.drops());
+        assertEquals(0, ring.poll());
+        assertEquals(1, ring.poll());
+    }
+
+    @Test
+    @DisplayName("put(): BLOCK waits for the consumer")
+    void put2() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(1, OverflowPolicy.BLOCK);
+        ring.put(0);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {}
+            ring.poll();
+        });
+        consumer.start();
+
+        assertTrue(ring.put(1));
+        assertEquals(1, ring.poll());
+        assertEquals(0, ring.drops());
+        consumer.join();
+    }
+
+    @Test
+    @DisplayName("take(): Order kept across threads")
+    void take1() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(64, OverflowPolicy.BLOCK);
+        int count = 1_000_000;
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    ring.put(i);
+                }
+            } catch (InterruptedException ignored) {}
+        });
+        producer.start();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, ring.take());
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    @DisplayName("take(): Null once empty and the producer has finished")
+    void take2() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(4, OverflowPolicy.BLOCK);
+        ring.offer(0);
+
+        assertEquals(0, ring.take(() -> true)); // Remaining elements are still taken
+        assertNull(ring.take(() -> true));
+    }
+
+    @Test
+    @DisplayName("take(): An idle consumer parks instead of busy-waiting, and is woken by offer()")
+    void take3() throws InterruptedException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled());
+
+        SpscRing<Integer> ring = new SpscRing<>(4, OverflowPolicy.BLOCK);
+        AtomicInteger taken = new AtomicInteger(-1);
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(ring.take());
+            } catch (InterruptedException ignored) {}
+        });
+        consumer.start();
+
+        Thread.sleep(200); // Past spinning and yielding
+        long startCpuNanos = threadBean.getThreadCpuTime(consumer.threadId());
+        Thread.sleep(1000);
+        long cpuNanos = threadBean.getThreadCpuTime(consumer.threadId()) - startCpuNanos;
+        ring.offer(7);
+        consumer.join(1000);
+
+        assertEquals(7, taken.get());
+        assertTrue(cpuNanos < 10_000_000L, "Idle consumer used " + cpuNanos / 1_000_000 + "ms of CPU in 1s");
+    }
+}
@@ -1,15 +1,31 @@
 package aradnezami.cambridgesignallingmap.NRFeed;
 
+import aradnezami.cambridgesignallingmap.Metrics.JFR.SClassDecodedEvent;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Route;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.Signal;
 import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import java.io.FileNotFoundException;
-
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 
 class SClassDecoderTest {
@@ -290,6 +306,68 @@ class SClassDecoderTest {
     }
 
 
+    @Test
+    @DisplayName("Change to a back-referenced bit re-decodes its dependents")
+    void Dependents() {
+        sClassDecoder.SClassChange(-1L, 2, toByte("1000 0000"));
+
+        Event[] actual = sClassDecoder.SClassChange(-1L, 2, toByte("1100 0000"));
+        assertArrayEquals(new Event[] {
+                new Event(-1L, Route.MAIN_TYPE, Route.SET, "CompoundSig2"),
+                new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "CompoundSig2")
+        }, actual);
+
+        actual = sClassDecoder.SClassChange(-1L, 2, toByte("0000 0000"));
+        assertArrayEquals(new Event[] {
+                new Event(-1L, Signal.ASPECT_TYPE, Signal.ON, "CompoundSig2"),
+                new Event(-1L, Route.MAIN_TYPE, Route.NOTSET, "CompoundSig2")
+        }, actual); // Both bits changed, but the signal is only decoded once
+    }
+
+    @Test
+    @DisplayName("Back-reference to a byte not yet updated is deferred")
+    void Deferred1() {
+        sClassDecoder = new SClassDecoder(DecodeTable.compile(List.of(
+                "0,0,OFFK,CompoundSig,RM,1,0".split(","),
+                "1,0,RM,MainRoute".split(",")
+        )));
+
+        Event[] actual = sClassDecoder.SClassChange(-1L, 0, toByte("1000 0000"));
+        assertEquals(0, actual.length);
+
+        actual = sClassDecoder.SClassChange(-1L, 1, toByte("1000 0000"));
+        assertArrayEquals(new Event[] {
+                new Event(-1L, Route.MAIN_TYPE, Route.SET, "MainRoute"),
+                new Event(-1L, Signal.ASPECT_TYPE, Signal.MAIN_OFF, "CompoundSig")
+        }, actual);
+
+        actual = sClassDecoder.SClassChange(-1L, 1, toByte("1000 0000"));
+        assertEquals(0, actual.length); // Nothing left pending
+    }
+
+    @Test
+    @DisplayName("Mutual back-references are not emitted twice")
+    void Deferred2() {
+        try {
+            sClassDecoder = new SClassDecoder("TestSignallingEquipmentMap.csv"); // We want an instance with nothing updated
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        sClassDecoder.SClassChange(-1L, 0, toByte("0000 0001"));
+        Event[] actual = sClassDecoder.SClassChange(-1L, 1, toByte("1000 0000"));
+
+        int point2Events = 0;
+        for (Event event : actual) {
+            if ("Point2".equals(event.S_Id)) {
+                assertEquals(new Event(-1L, Point.TYPE, Point.BOTH, "Point2"), event);
+                point2Events++;
+            }
+        }
+        assertEquals(1, point2Events);
+    }
+
+
     @Test
     void allEvents() {
         sClassDecoder.SClassChange(-1L, 0, toByte("1100 0000"));
@@ -301,6 +379,141 @@ class SClassDecoderTest {
         // if the correct number of events is returned
     }
 
+    @Test
+    @DisplayName("Refresh: Only the net change is emitted")
+    void Refresh1() {
+        sClassDecoder.beginRefresh();
+        assertEquals(0, sClassDecoder.SClassChange(10L, 0, toByte("1000 0000")).length);
+        assertEquals(0, sClassDecoder.SClassChange(11L, 0, toByte("0000 0000")).length); // Toggled back
+        assertEquals(0, sClassDecoder.SClassChange(12L, 1, toByte("0001 0000")).length);
+        assertTrue(sClassDecoder.isRefreshing());
+
+        Event[] actual = sClassDecoder.endRefresh(13L);
+        assertArrayEquals(new Event[] {
+                new Event(13L, Route.MAIN_TYPE, Route.SET, "MainRoute")
+        }, actual);
+        assertFalse(sClassDecoder.isRefreshing());
+    }
+
+    @Test
+    @DisplayName("Refresh: Addresses first seen in the refresh emit every mapping once")
+    void Refresh2() {
+        try {
+            sClassDecoder = new SClassDecoder("TestSignallingEquipmentMap.csv"); // We want an instance with nothing updated
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        sClassDecoder.beginRefresh();
+        sClassDecoder.SClassChange(-1L, 0, toByte("1000 0001"));
+        sClassDecoder.SClassChange(-1L, 1, toByte("1000 0000"));
+        sClassDecoder.SClassChange(-1L, 1, toByte("1000 0000"));
+        Event[] actual = sClassDecoder.endRefresh(-1L);
+
+        assertEquals(16, actual.length); // One event per mapping of addresses 0 and 1
+    }
+
+    @Test
+    @DisplayName("Refresh: Ending without a refresh emits nothing")
+    void Refresh3() {
+        assertEquals(0, sClassDecoder.endRefresh(-1L).length);
+        assertEquals(1, sClassDecoder.SClassChange(-1L, 0, toByte("1000 0000")).length);
+    }
+
+    @Test
+    @DisplayName("SClassChange(): Sink receives the same events as the returned array")
+    void SClassChangeSink() {
+        SClassDecoder arrayDecoder;
+        try {
+            arrayDecoder = new SClassDecoder("TestSignallingEquipmentMap.csv");
+            sClassDecoder = new SClassDecoder("TestSignallingEquipmentMap.csv");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            int address = i % 3;
+            int data = (i * 37) & 0xFF;
+
+            ArrayList<Event> sinkEvents = new ArrayList<>();
+            int count = sClassDecoder.SClassChange(i, address, data, (timestamp, type, state, equipment) ->
+                    sinkEvents.add(new SClassEvent(timestamp, type, state, equipment).toEvent(sClassDecoder.table())));
+            Event[] expected = arrayDecoder.SClassChange(i, address, data);
+
+            assertEquals(expected.length, count);
+            assertArrayEquals(expected, sinkEvents.toArray(new Event[]{}));
+        }
+    }
+
+    @Test
+    @DisplayName("SClassChange(): Sink decoding allocates nothing per message")
+    void SClassChangeAllocation() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        final int messages = 1_000_000;
+        CountingSink sink = new CountingSink();
+        decodeMessages(sink, messages); // Warm up
+
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        decodeMessages(sink, messages);
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(sink.count > 0);
+        assertEquals(0, allocated, "Allocated " + allocated + " bytes over " + messages + " messages");
+    }
+
+    @Test
+    @DisplayName("SClassChange(): Records each change as a JFR event while recording")
+    void SClassChangeRecorded() throws IOException {
+        Path file = Files.createTempFile("SClassDecoderTest", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(SClassDecodedEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            sClassDecoder.SClassChange(-1L, 0, toByte("1100 0000"), new CountingSink());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals(0, events.get(0).getInt("address"));
+            assertEquals(toByte("1100 0000"), events.get(0).getInt("data"));
+            assertEquals(2, events.get(0).getInt("changedBits"));
+            assertTrue(events.get(0).getInt("eventsEmitted") > 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("restore(): Restores the state of a snapshot into another instance")
+    void restore() throws FileNotFoundException {
+        sClassDecoder.SClassChange(-1L, 0, toByte("1010 0000"));
+        int[] bytes = new int[DecodeTable.ADDRESSES];
+        boolean[] updated = new boolean[DecodeTable.ADDRESSES];
+        sClassDecoder.snapshot(bytes, updated);
+
+        SClassDecoder restored = new SClassDecoder("TestSignallingEquipmentMap.csv");
+        restored.restore(bytes, updated);
+        assertArrayEquals(sClassDecoder.allEvents(), restored.allEvents());
+        assertEquals(0, restored.SClassChange(-1L, 0, toByte("1010 0000")).length); // Nothing changed
+    }
+
+    private void decodeMessages(SClassEventSink sink, int messages) {
+        for (int i = 0; i < messages; i++) {
+            sClassDecoder.SClassChange(i, i % 3, (i * 37) & 0xFF, sink);
+        }
+    }
+
+    private static class CountingSink implements SClassEventSink {
+        long count;
+
+        @Override
+        public void accept(long timestamp, int type, int state, int equipment) {
+            count++;
+        }
+    }
+
     /**
      * Byte in binary format in a string (eg: 1000 1000). Spaces allowed. <b>First bit is LSB and last is MSB</b>
      */
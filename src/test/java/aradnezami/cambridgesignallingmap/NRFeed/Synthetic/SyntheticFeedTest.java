@@ -0,0 +1,134 @@
+package aradnezami.cambridgesignallingmap.NRFeed.Synthetic;
+
+import aradnezami.cambridgesignallingmap.NRFeed.Client.BinaryFrameCodec;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.DataServerNRClient;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.FeedMessage;
+import aradnezami.cambridgesignallingmap.NRFeed.Client.NRFeedException;
+import aradnezami.cambridgesignallingmap.NRFeed.DecodeTable;
+import aradnezami.cambridgesignallingmap.NRFeed.Event;
+import aradnezami.cambridgesignallingmap.NRFeed.SClassDecoder;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.Point;
+import aradnezami.cambridgesignallingmap.UI.DiagramElements.TrackCircuit;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticFeedTest {
+    private static final int TRAINS = 10;
+    private static final long SEED = 42;
+
+    private static DecodeTable table;
+    private static SyntheticLayout layout;
+
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        table = DecodeTable.load("SignallingEquipmentMap.csv");
+        layout = SyntheticLayout.load("diagram.json", table);
+    }
+
+
+    @Test
+    @DisplayName("next(): Starts with a refresh, then trains occupy track circuits, swing points and step berths")
+    void next() {
+        SyntheticFeed feed = new SyntheticFeed(layout, TRAINS, SEED);
+        FeedMessage message = new FeedMessage();
+        feed.next(message, 1234L);
+        assertEquals("R,1234,START", message.toString());
+        for (int address = 0; address < DecodeTable.ADDRESSES; address++) {
+            feed.next(message, 1234L);
+            assertEquals(address, message.address);
+        }
+        feed.next(message, 1234L);
+        assertEquals("R,1234,END", message.toString());
+
+        SClassDecoder decoder = new SClassDecoder(table);
+        Set<String> occupied = new HashSet<>();
+        Set<Integer> pointStates = new HashSet<>();
+        int berthSteps = 0;
+        for (int i = 0; i < 20000; i++) {
+            feed.next(message, i);
+            if (message.type == FeedMessage.C_CLASS) {
+                if (message.fromBerth != FeedMessage.packCode("NONE") && message.toBerth != FeedMessage.packCode("NONE")) {
+                    berthSteps++;
+                }
+                continue;
+            }
+
+            assertEquals(FeedMessage.S_CLASS, message.type);
+            for (Event event : decoder.SClassChange(i, message.address, message.data)) {
+                if (event.S_Type == TrackCircuit.TYPE && event.S_State == TrackCircuit.OCCUPIED) {
+                    occupied.add(event.S_Id);
+                } else if (event.S_Type == Point.TYPE) {
+                    pointStates.add(event.S_State);
+                }
+            }
+        }
+
+        assertEquals(20000 + DecodeTable.ADDRESSES + 2, feed.generated());
+        assertTrue(occupied.size() > 20, "Track circuits occupied: " + occupied.size());
+        assertTrue(pointStates.containsAll(Set.of(Point.NORMAL, Point.REVERSE, Point.NEITHER)), "Point states: " + pointStates);
+        assertTrue(berthSteps > 100, "Berth steps: " + berthSteps);
+    }
+
+    @Test
+    @DisplayName("next(): The same seed generates the same messages")
+    void next2() {
+        SyntheticFeed feed1 = new SyntheticFeed(layout, TRAINS, SEED);
+        SyntheticFeed feed2 = new SyntheticFeed(layout, TRAINS, SEED);
+        FeedMessage message1 = new FeedMessage();
+        FeedMessage message2 = new FeedMessage();
+        for (int i = 0; i < 5000; i++) {
+            feed1.next(message1, i);
+            feed2.next(message2, i);
+            assertEquals(message1.toString(), message2.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("SyntheticNRClient: Messages are returned at the rate")
+    void client() throws NRFeedException {
+        SyntheticNRClient client = new SyntheticNRClient(new SyntheticFeed(layout, TRAINS, SEED), 2000);
+        FeedMessage message = new FeedMessage();
+        long start = System.nanoTime();
+        for (int i = 0; i < 201; i++) {
+            client.pollNREvent(message);
+        }
+        assertTrue(System.nanoTime() - start >= 95_000_000L); // 200 intervals of 0.5ms
+
+        client.disconnect();
+        assertFalse(client.isAlive());
+        assertThrows(NRFeedException.class, () -> client.pollNREvent(message));
+    }
+
+    @Test
+    @DisplayName("SyntheticDataServer: Clients of every protocol receive the messages of the feed")
+    void dataServer() throws IOException {
+        try (SyntheticDataServer server = new SyntheticDataServer(0, layout, TRAINS, SyntheticNRClient.UNLIMITED, SEED)) {
+            int[] connectionTypes = {
+                    BinaryFrameCodec.TEXT_CONNECTION,
+                    BinaryFrameCodec.BINARY_CONNECTION | BinaryFrameCodec.DEFLATE
+            };
+            for (int i = 0; i < connectionTypes.length; i++) {
+                DataServerNRClient client = new DataServerNRClient(
+                        DataServerNRClient.getSocket("localhost", server.port()), connectionTypes[i]);
+                SyntheticFeed expected = new SyntheticFeed(layout, TRAINS, SEED + i); // Each client has the next seed
+
+                FeedMessage expectedMessage = new FeedMessage();
+                FeedMessage message = new FeedMessage();
+                for (int j = 0; j < 5000; j++) {
+                    client.pollNREvent(message);
+                    expected.next(expectedMessage, message.timestamp);
+                    assertEquals(expectedMessage.toString(), message.toString());
+                }
+                client.disconnect();
+            }
+        }
+    }
+}